@@ -0,0 +1,43 @@
+/*
+ * Benchmarks.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks
+ *
+ *   Entry point of benchmarks.jar. Takes the usual JMH command line and
+ *   always adds the GC profiler, so every result comes with its allocation
+ *   rate (gc.alloc.rate.norm is bytes per operation).
+ *
+ *      java -jar benchmarks/target/benchmarks.jar [regexp] [jmh options]
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * CodecBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.InvalidEventException;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrEventCodec;
+import com.bechter.wxrd.client.WxrReport;
+import com.bechter.wxrd.client.WxrReportParser;
+
+/**
+ * CodecBenchmark
+ *
+ *   WxrEventCodec against Java serialization for the sample Tornado
+ *   Warning: encoding and decoding a WxrReport into a reused buffer,
+ *   decoding to a new WxrEvent, and writing and reading the WxrEvent with
+ *   ObjectOutputStream and ObjectInputStream. WxrEventCodecTest checks
+ *   that the codec round trips.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private final ByteBuffer buffer = ByteBuffer.allocate(WxrEventCodec.MAX_SIZE);
+    private final WxrReport report = new WxrReport();
+    private final WxrReport decoded = new WxrReport();
+    private WxrEvent event;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] sample = Samples.LINE.getBytes(StandardCharsets.US_ASCII);
+        new WxrReportParser().parse(sample, 0, sample.length, report);
+        event = new WxrEvent();
+        event.parse(report);
+        serialized = serialize(event);
+    }
+
+    private static byte[] serialize(WxrEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(event);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int codecEncode() {
+        buffer.clear();
+        WxrEventCodec.encode(report, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public WxrReport codecDecode() throws InvalidEventException {
+        buffer.clear();
+        WxrEventCodec.encode(report, buffer);
+        buffer.flip();
+        WxrEventCodec.decode(buffer, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public WxrEvent codecDecodeEvent() throws InvalidEventException {
+        buffer.clear();
+        WxrEventCodec.encode(report, buffer);
+        buffer.flip();
+        return WxrEventCodec.decode(buffer);
+    }
+
+    @Benchmark
+    public byte[] serializationWrite() throws IOException {
+        return serialize(event);
+    }
+
+    @Benchmark
+    public Object serializationRead() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * EqualsBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.DuplicateFilter;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+import com.bechter.wxrd.client.WxrReportParser;
+
+/**
+ * EqualsBenchmark
+ *
+ *   WxrEvent.equals() and hashCode() for a repeat of the same header and
+ *   for a different one, and the DuplicateFilter lookup that replaced
+ *   comparing events in the receive path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EqualsBenchmark {
+    private WxrEvent event;
+    private WxrEvent repeat;
+    private WxrEvent other;
+    private WxrReport report;
+    private DuplicateFilter filter;
+
+    @Setup
+    public void setup() throws Exception {
+        event = new WxrEvent();
+        event.parse(Samples.LINE);
+        repeat = new WxrEvent();
+        repeat.parse("WXR TOR 039103-039153 20061130T145712+0600");
+        other = new WxrEvent();
+        other.parse("WXR SVR 039103-039153 20061130T145709+0600");
+        report = new WxrReport();
+        byte[] bytes = Samples.LINE.getBytes(StandardCharsets.US_ASCII);
+        new WxrReportParser().parse(bytes, 0, bytes.length, report);
+        filter = new DuplicateFilter();
+        filter.isDuplicate(report);
+    }
+
+    @Benchmark
+    public boolean equalsRepeat() {
+        return event.equals(repeat);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return event.equals(other);
+    }
+
+    @Benchmark
+    public int hash() {
+        return event.hashCode();
+    }
+
+    @Benchmark
+    public boolean duplicateFilter() {
+        return filter.isDuplicate(report);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * GeoBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.geo.CountyBoundaries;
+import com.bechter.wxrd.client.geo.CountyLocator;
+
+/**
+ * GeoBenchmark
+ *
+ *   Point to county lookups over 3000 synthetic counties tiling the lower
+ *   48, each a ring of 200 vertices, for a million random subscriber
+ *   points: a polygon search through the R-tree, and the same points
+ *   answered from a warm CountyLocator cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+public class GeoBenchmark {
+    static final int ROWS = 50;
+    static final int COLUMNS = 60;
+    /** vertices along each side of a county */
+    static final int SIDE = 50;
+    static final double SOUTH = 25.0;
+    static final double NORTH = 49.0;
+    static final double WEST = -125.0;
+    static final double EAST = -67.0;
+    private static final int POINTS = 1000000;
+
+    private CountyBoundaries boundaries;
+    private CountyLocator locator;
+    private long[] points;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        boundaries = CountyBoundaries.read(new StringReader(boundaries()));
+        locator = new CountyLocator(boundaries);
+        Random random = new Random(1);
+        points = new long[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            points[i] = CountyBoundaries.packPoint((int)((SOUTH + random.nextDouble() * (NORTH - SOUTH)) * 1e6),
+                    (int)((WEST + random.nextDouble() * (EAST - WEST)) * 1e6));
+            locator.resolve(points[i]);
+        }
+    }
+
+    /**
+     * @return a boundary file of ROWS by COLUMNS rectangular counties
+     */
+    static String boundaries() {
+        StringBuilder sb = new StringBuilder();
+        double height = (NORTH - SOUTH) / ROWS;
+        double width = (EAST - WEST) / COLUMNS;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLUMNS; c++) {
+                double south = SOUTH + r * height;
+                double west = WEST + c * width;
+                sb.append(String.format("0%02d%03d", r + 1, c * 2 + 1));
+                for (int i = 0; i < SIDE; i++)
+                    vertex(sb, south, west + width * i / SIDE);
+                for (int i = 0; i < SIDE; i++)
+                    vertex(sb, south + height * i / SIDE, west + width);
+                for (int i = 0; i < SIDE; i++)
+                    vertex(sb, south + height, west + width - width * i / SIDE);
+                for (int i = 0; i < SIDE; i++)
+                    vertex(sb, south + height - height * i / SIDE, west);
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void vertex(StringBuilder sb, double latitude, double longitude) {
+        sb.append(' ').append(String.format("%.6f,%.6f", latitude, longitude));
+    }
+
+    private long point() {
+        long point = points[next];
+        next = next + 1 == POINTS ? 0 : next + 1;
+        return point;
+    }
+
+    @Benchmark
+    public int locate() {
+        long point = point();
+        return boundaries.locate(CountyBoundaries.latitude(point), CountyBoundaries.longitude(point));
+    }
+
+    @Benchmark
+    public int resolveCached() {
+        return locator.resolve(point());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * HistoryBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.history.AlertHistory;
+import com.bechter.wxrd.client.history.MonthlyCounts;
+
+/**
+ * HistoryBenchmark
+ *
+ *   Queries over an AlertHistory of a million events spread over five
+ *   years, each for one to six random counties with a weighted event
+ *   code, against a scan of the same events as a List<WxrEvent>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class HistoryBenchmark {
+    private static final int EVENTS = 1000000;
+    private static final long START = 1577836800000L;
+    private static final long SPAN = 5L * 365 * 24 * 3600 * 1000;
+    private static final String[] CODES = { "SVR", "SVR", "SVR", "SPS", "SPS", "FFW", "SVA", "TOR", "TOA", "RWT" };
+    private static final String COUNTY = "039153";
+
+    private List<WxrEvent> events;
+    private AlertHistory history;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> counties = Samples.counties(3000);
+        Random random = new Random(1);
+        events = new ArrayList<WxrEvent>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            WxrEvent event = new WxrEvent();
+            event.setOrigin("WXR");
+            event.setEventType(CODES[random.nextInt(CODES.length)]);
+            List<String> locations = new ArrayList<String>();
+            int count = 1 + random.nextInt(6);
+            for (int j = 0; j < count; j++)
+                locations.add(counties.get(random.nextInt(counties.size())));
+            if (random.nextInt(100) == 0)
+                locations.add(COUNTY);
+            event.setLocations(locations);
+            long issued = START + (long)(random.nextDouble() * SPAN);
+            event.setEventTime(new Date(issued));
+            event.setExpiresTime(new Date(issued + 3600000L));
+            events.add(event);
+        }
+        history = AlertHistory.build(events);
+    }
+
+    @Benchmark
+    public int[] countyByCode() {
+        return history.select(39153, "TOR", START, START + SPAN);
+    }
+
+    @Benchmark
+    public int scanCountyByCode() {
+        int n = 0;
+        for (WxrEvent event : events)
+            if ("TOR".equals(event.getEventType()) && event.getLocations().contains(COUNTY)
+                    && event.getEventTime().getTime() >= START && event.getEventTime().getTime() <= START + SPAN)
+                n++;
+        return n;
+    }
+
+    @Benchmark
+    public int[] codeInYear() {
+        return history.select(-1, "TOR", START, START + SPAN / 5);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MonthlyCounts countByMonth() {
+        return history.countByMonth(null, START, START + SPAN);
+    }
+}
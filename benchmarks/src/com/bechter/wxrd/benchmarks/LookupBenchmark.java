@@ -0,0 +1,114 @@
+/*
+ * LookupBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.CountyTable;
+import com.bechter.wxrd.client.EventCode;
+import com.bechter.wxrd.client.WxrReport;
+
+/**
+ * LookupBenchmark
+ *
+ *   The event code catalog and the county table, against the
+ *   HashMap<String, String> built from counties.properties that both
+ *   replaced. Codes cycle through a small set so the branch predictor
+ *   does not learn a single key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private static final String[] EVENT_CODES = { "TOR", "SVR", "RWT", "FFW", "XYZ", "WSW", "EAN", "SPS" };
+    private static final String[] COUNTIES = { "039103", "039153", "006037", "048201", "017031", "036061", "012086", "053033" };
+
+    private final int[] packedCodes = new int[EVENT_CODES.length];
+    private final int[] countyCodes = new int[COUNTIES.length];
+    private final Map<String, String> countyMap = new HashMap<String, String>();
+    private final StringBuilder sb = new StringBuilder();
+    private CountyTable table;
+    private int i = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        for (int j = 0; j < EVENT_CODES.length; j++)
+            packedCodes[j] = WxrReport.packCode(EVENT_CODES[j]);
+        for (int j = 0; j < COUNTIES.length; j++)
+            countyCodes[j] = CountyTable.parseCode(COUNTIES[j]);
+        table = CountyTable.getDefault();
+        Properties properties = new Properties();
+        InputStream is = LookupBenchmark.class.getClassLoader().getResourceAsStream("counties.properties");
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        for (String key : properties.stringPropertyNames())
+            countyMap.put(key, properties.getProperty(key));
+    }
+
+    private int next() {
+        i = i + 1 & 7;
+        return i;
+    }
+
+    @Benchmark
+    public EventCode eventCodeString() {
+        return EventCode.lookup(EVENT_CODES[next()]);
+    }
+
+    @Benchmark
+    public EventCode eventCodePacked() {
+        return EventCode.lookup(packedCodes[next()]);
+    }
+
+    @Benchmark
+    public String countyName() {
+        return table.getName(countyCodes[next()]);
+    }
+
+    @Benchmark
+    public int countyAppend() {
+        sb.setLength(0);
+        table.appendName(sb, countyCodes[next()]);
+        return sb.length();
+    }
+
+    @Benchmark
+    public String countyHashMap() {
+        return countyMap.get(COUNTIES[next()]);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MessageBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.InvalidEventException;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+import com.bechter.wxrd.client.render.MessageRenderer;
+import com.bechter.wxrd.client.render.RenderedMessage;
+
+/**
+ * MessageBenchmark
+ *
+ *   Building and writing the message for one chunk: rendering the text
+ *   and encoding a new MimeMessage each time, as sendEmail() used to,
+ *   against a message sharing the bytes of a RenderedMessage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private static final OutputStream NULL = new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private Session session;
+    private Address[] recipients;
+    private WxrEvent event;
+    private RenderedMessage rendered;
+
+    @Setup
+    public void setup() throws Exception {
+        session = Session.getInstance(new Properties());
+        recipients = new Address[50];
+        for (int i = 0; i < recipients.length; i++)
+            recipients[i] = new InternetAddress("user" + i + "@localhost");
+        event = new WxrEvent();
+        event.parse(Samples.line(8));
+        rendered = new MessageRenderer("wxrd@localhost", "wxrd@localhost").render(event, DeliveryChannel.EMAIL);
+    }
+
+    @Benchmark
+    public MimeMessage rebuild() throws MessagingException, IOException, InvalidEventException {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setFrom(new InternetAddress("wxrd@localhost"));
+        msg.setRecipient(Message.RecipientType.TO, new InternetAddress("wxrd@localhost"));
+        msg.setSubject(event.getEventTypeDescription());
+        msg.setRecipients(Message.RecipientType.BCC, recipients);
+        msg.setText(event.toString());
+        msg.addHeader("X-Priority", "1");
+        msg.addHeader("Priority", "urgent");
+        msg.saveChanges();
+        msg.writeTo(NULL);
+        return msg;
+    }
+
+    @Benchmark
+    public MimeMessage shared() throws MessagingException, IOException {
+        MimeMessage msg = rendered.createMessage(session, recipients);
+        msg.saveChanges();
+        msg.writeTo(NULL);
+        return msg;
+    }
+}
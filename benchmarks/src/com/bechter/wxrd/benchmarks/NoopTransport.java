@@ -0,0 +1,52 @@
+/*
+ * NoopTransport.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+/**
+ * NoopTransport
+ *
+ *   In-process javax.mail Transport that accepts every message and sends
+ *   nothing, so benchmarks measure the client and not an SMTP server.
+ *   Registered in META-INF/javamail.providers and selected with the session
+ *   property mail.smtp.class.
+ */
+public class NoopTransport extends Transport {
+
+    public NoopTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    public static String className() {
+        return NoopTransport.class.getName();
+    }
+
+    protected boolean protocolConnect(String host, int port, String user, String password) {
+        return true;
+    }
+
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        // writing the content is part of a real send, so do the encoding
+        message.saveChanges();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * ParseBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.InvalidEventException;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+import com.bechter.wxrd.client.WxrReportParser;
+
+/**
+ * ParseBenchmark
+ *
+ *   WxrEvent.parse(String) against the allocation free WxrReportParser,
+ *   and building a WxrEvent from a parsed report
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({ "1", "8", "31" })
+    int counties;
+
+    private String line;
+    private byte[] bytes;
+    private final WxrReportParser parser = new WxrReportParser();
+    private final WxrReport report = new WxrReport();
+
+    @Setup
+    public void setup() throws Exception {
+        line = Samples.line(counties);
+        bytes = line.getBytes(StandardCharsets.US_ASCII);
+        parser.parse(bytes, 0, bytes.length, report);
+    }
+
+    @Benchmark
+    public WxrEvent parseString() throws InvalidEventException {
+        WxrEvent event = new WxrEvent();
+        event.parse(line);
+        return event;
+    }
+
+    @Benchmark
+    public boolean parseBytes() {
+        return parser.parse(bytes, 0, bytes.length, report);
+    }
+
+    @Benchmark
+    public boolean parseChars() {
+        return parser.parse(line, report);
+    }
+
+    @Benchmark
+    public WxrEvent eventFromReport() throws InvalidEventException {
+        WxrEvent event = new WxrEvent();
+        event.parse(report);
+        return event;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * RingBufferBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.pipeline.BusySpinWaitStrategy;
+import com.bechter.wxrd.client.pipeline.EventHandler;
+import com.bechter.wxrd.client.pipeline.ParkingWaitStrategy;
+import com.bechter.wxrd.client.pipeline.RingBuffer;
+import com.bechter.wxrd.client.pipeline.SlotFactory;
+import com.bechter.wxrd.client.pipeline.StageProcessor;
+import com.bechter.wxrd.client.pipeline.WaitStrategy;
+import com.bechter.wxrd.client.pipeline.YieldingWaitStrategy;
+
+/**
+ * RingBufferBenchmark
+ *
+ *   One producer handing BATCH values to one or two consumers that each see
+ *   every value, as the WxrMultiplexer hands lines to its journal and notify
+ *   stages. "queue" is the baseline: a LinkedBlockingQueue per consumer.
+ *   Each invocation waits until every consumer has taken the whole batch.
+ *   Spinning consumers need a core each to be worth it; with fewer cores
+ *   than threads they compete with the producer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+    private static final int BATCH = 10000;
+
+    @Param({"park", "yield", "spin", "queue"})
+    public String strategy;
+
+    @Param({"1", "2"})
+    public int consumers;
+
+    private RingBuffer<Slot> ring;
+    private List<StageProcessor<Slot>> stages;
+    private List<BlockingQueue<Long>> queues;
+    private List<QueueConsumer> queueConsumers;
+    private List<Thread> queueThreads;
+    private long produced;
+
+    static final class Slot {
+        long value;
+    }
+
+    /**
+     * remembers the last value seen; the sequence already tells how far it got
+     */
+    static final class SlotConsumer implements EventHandler<Slot> {
+        long last;
+
+        public void onEvent(Slot slot, long sequence, boolean endOfBatch) {
+            last = slot.value;
+        }
+    }
+
+    static final class QueueConsumer implements Runnable {
+        final BlockingQueue<Long> queue;
+        volatile long taken = -1L;
+
+        QueueConsumer(BlockingQueue<Long> queue) {
+            this.queue = queue;
+        }
+
+        public void run() {
+            try {
+                while (true)
+                    taken = queue.take().longValue();
+            } catch (InterruptedException e) {
+                // torn down
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        produced = -1L;
+        if ("queue".equals(strategy)) {
+            queues = new ArrayList<BlockingQueue<Long>>();
+            queueConsumers = new ArrayList<QueueConsumer>();
+            queueThreads = new ArrayList<Thread>();
+            for (int i = 0; i < consumers; i++) {
+                BlockingQueue<Long> queue = new LinkedBlockingQueue<Long>(1024);
+                QueueConsumer consumer = new QueueConsumer(queue);
+                Thread thread = new Thread(consumer, "queue-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                queues.add(queue);
+                queueConsumers.add(consumer);
+                queueThreads.add(thread);
+            }
+            return;
+        }
+        ring = new RingBuffer<Slot>(new SlotFactory<Slot>() {
+            public Slot newSlot() {
+                return new Slot();
+            }
+        }, 1024, waitStrategy(strategy));
+        stages = new ArrayList<StageProcessor<Slot>>();
+        for (int i = 0; i < consumers; i++) {
+            StageProcessor<Slot> stage = new StageProcessor<Slot>("ring-" + i, ring, ring.newBarrier(), new SlotConsumer());
+            ring.addGatingSequences(stage.getSequence());
+            stages.add(stage);
+            stage.newThread().start();
+        }
+    }
+
+    private static WaitStrategy waitStrategy(String name) {
+        if ("spin".equals(name))
+            return new BusySpinWaitStrategy();
+        if ("yield".equals(name))
+            return new YieldingWaitStrategy();
+        return new ParkingWaitStrategy();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (stages != null)
+            for (StageProcessor<Slot> stage : stages)
+                stage.halt();
+        if (queueThreads != null)
+            for (Thread thread : queueThreads)
+                thread.interrupt();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long handOff() throws InterruptedException {
+        if (queues != null)
+            return handOffQueue();
+        long sequence = -1L;
+        for (int i = 0; i < BATCH; i++) {
+            sequence = ring.next();
+            ring.get(sequence).value = sequence;
+            ring.publish(sequence);
+        }
+        for (StageProcessor<Slot> stage : stages)
+            while (stage.getSequence().get() < sequence)
+                Thread.yield();
+        return sequence;
+    }
+
+    private long handOffQueue() throws InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            Long value = Long.valueOf(++produced);
+            for (BlockingQueue<Long> queue : queues)
+                queue.put(value);
+        }
+        for (QueueConsumer consumer : queueConsumers)
+            while (consumer.taken < produced)
+                Thread.yield();
+        return produced;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Samples.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Samples
+ *
+ *   report lines shared by the benchmarks
+ */
+final class Samples {
+    static final String LINE = "WXR TOR 039103-039153 20061130T145709+0600";
+
+    private Samples() {
+    }
+
+    /**
+     * @return the first count county codes of counties.properties, in order
+     */
+    static List<String> counties(int count) throws IOException {
+        Properties properties = new Properties();
+        InputStream is = Samples.class.getClassLoader().getResourceAsStream("counties.properties");
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        List<String> codes = new ArrayList<String>(properties.stringPropertyNames());
+        Collections.sort(codes);
+        return codes.subList(0, count);
+    }
+
+    /**
+     * @return a Tornado Warning line for the first count counties
+     */
+    static String line(int count) throws IOException {
+        StringBuilder sb = new StringBuilder("WXR TOR ");
+        List<String> codes = counties(count);
+        for (int i = 0; i < codes.size(); i++) {
+            if (i > 0)
+                sb.append('-');
+            sb.append(codes.get(i));
+        }
+        return sb.append(" 20061130T145709+0600").toString();
+    }
+}
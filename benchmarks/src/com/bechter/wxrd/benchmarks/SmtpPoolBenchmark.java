@@ -0,0 +1,117 @@
+/*
+ * SmtpPoolBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.client.mail.SmtpTransportPool;
+
+/**
+ * SmtpPoolBenchmark
+ *
+ *   Sends through SmtpTransportPool against Transport.send(), which opens,
+ *   greets and closes a new connection every time, both talking SMTP to an
+ *   SmtpStandIn over loopback TCP from four threads. Reported as messages
+ *   per second (Throughput) and as a latency distribution per send
+ *   (SampleTime, which gives p99).
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SmtpPoolBenchmark {
+    private SmtpStandIn server;
+    private SmtpTransportPool pool;
+    private MimeMessage message;
+
+    @Setup
+    public void setup() throws IOException, MessagingException {
+        server = new SmtpStandIn();
+        Properties props = new Properties();
+        props.setProperty("mail.host", "127.0.0.1");
+        props.setProperty("mail.smtp.port", Integer.toString(server.getPort()));
+        pool = new SmtpTransportPool(props, 4);
+        message = message(pool.getSession());
+        message.saveChanges();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    private static MimeMessage message(Session session) throws MessagingException {
+        MimeMessage msg = new MimeMessage(session);
+        msg.setFrom(new InternetAddress("wxrd@localhost"));
+        msg.setRecipient(Message.RecipientType.TO, new InternetAddress("someone@localhost"));
+        msg.setSubject("Tornado Warning");
+        msg.setText("The National Weather Service has issued a Tornado Warning.");
+        return msg;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void pooledRate() throws MessagingException {
+        pool.send(message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void transportSendRate() throws MessagingException {
+        Transport.send(message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void pooledLatency() throws MessagingException {
+        pool.send(message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void transportSendLatency() throws MessagingException {
+        Transport.send(message);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * SmtpStandIn.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SmtpStandIn
+ *
+ *   Minimal SMTP server on a loopback socket, one thread per connection,
+ *   that accepts every message and keeps nothing. Benchmarks use it so a
+ *   send pays for a real TCP connection and SMTP dialogue without a mail
+ *   server. Recipients whose address starts with "reject" are refused
+ *   with a 550, to exercise partial failures, and a sender starting with
+ *   "shutdown" gets a 421 and the connection is closed, as a server going
+ *   down answers.
+ */
+public class SmtpStandIn implements Runnable {
+    private final ServerSocket server;
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+
+    /**
+     * listens on an ephemeral loopback port and starts accepting
+     */
+    public SmtpStandIn() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this, "smtp-stand-in");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the port to give mail.smtp.port
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return connections accepted so far
+     */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return messages accepted so far
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public void run() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                connections.incrementAndGet();
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "smtp-stand-in-" + connections.get());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            reply(out, "220 localhost ESMTP stand-in");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+                if ("QUIT".equals(command)) {
+                    reply(out, "221 bye");
+                    break;
+                } else if ("DATA".equals(command)) {
+                    reply(out, "354 go ahead");
+                    while ((line = in.readLine()) != null && !".".equals(line))
+                        ;
+                    messages.incrementAndGet();
+                    reply(out, "250 accepted");
+                } else if ("MAIL".equals(command) && line.toLowerCase().contains("<shutdown")) {
+                    reply(out, "421 shutting down");
+                    break;
+                } else if ("RCPT".equals(command) && line.toLowerCase().contains("<reject")) {
+                    reply(out, "550 no such user");
+                } else if ("EHLO".equals(command) || "HELO".equals(command) || "MAIL".equals(command)
+                        || "RCPT".equals(command) || "RSET".equals(command) || "NOOP".equals(command)) {
+                    reply(out, "250 ok");
+                } else {
+                    reply(out, "502 not implemented");
+                }
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private static void reply(OutputStream out, String text) throws IOException {
+        out.write((text + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    /**
+     * stops accepting connections
+     */
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * EmailEventBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bechter.wxrd.benchmarks.NoopTransport;
+
+/**
+ * EmailEventBenchmark
+ *
+ *   WxrClient.emailEvent(), routing, rendering and building the SMS and
+ *   email messages for a Tornado Warning, sent through NoopTransport. In
+ *   the client's package because emailEvent() is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailEventBenchmark {
+    @Param({ "1", "100" })
+    int recipients;
+
+    private WxrClient client;
+    /** more events than MessageRenderer caches, so each call renders */
+    private final WxrEvent[] events = new WxrEvent[64];
+    private int next = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        client = WxrClient.getInstance();
+        List<String> email = new ArrayList<String>();
+        List<String> sms = new ArrayList<String>();
+        for (int i = 0; i < recipients; i++) {
+            email.add("user" + i + "@localhost");
+            sms.add("555000" + i + "@sms.localhost");
+        }
+        client.setEmailRecipients(email);
+        client.setSmsRecipients(sms);
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.class", NoopTransport.className());
+        client.setMailProperties(props);
+        client.loadSubscriptions();
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new WxrEvent();
+            events[i].parse("WXR TOR 039103-039153 20061130T145709+0600");
+        }
+    }
+
+    @Benchmark
+    public void emailEvent() {
+        client.emailEvent(events[next]);
+        next = (next + 1) % events.length;
+    }
+}
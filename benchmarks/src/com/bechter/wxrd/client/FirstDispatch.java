@@ -0,0 +1,82 @@
+/*
+ * FirstDispatch.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.bechter.wxrd.benchmarks.NoopTransport;
+
+/**
+ * FirstDispatch
+ *
+ *   Time to first dispatch in a cold JVM: starts a client routing to
+ *   100 SMS and 100 email recipients over NoopTransport, then times
+ *   decoding, routing, rendering and sending the first Tornado Warning and
+ *   a second one. Not a JMH benchmark, since the point is the first call;
+ *   run it in a fresh JVM each time, with or without --warmup and a
+ *   class-data archive:
+ *
+ *      java -cp benchmarks/target/benchmarks.jar com.bechter.wxrd.client.FirstDispatch [--warmup]
+ */
+public class FirstDispatch {
+    private static final String LINE = "WXR TOR 039103-039153 20261017T235435+0100";
+
+    public static void main(String[] args) throws Exception {
+        long main = ManagementFactory.getRuntimeMXBean().getUptime();
+        long start = System.nanoTime();
+        WxrClient client = WxrClient.getInstance();
+        List<String> email = new ArrayList<String>();
+        List<String> sms = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            email.add("user" + i + "@localhost");
+            sms.add("555000" + i + "@sms.localhost");
+        }
+        client.setEmailRecipients(email);
+        client.setSmsRecipients(sms);
+        Properties props = new Properties();
+        props.setProperty("mail.smtp.class", NoopTransport.className());
+        client.setMailProperties(props);
+        if (!client.loadSubscriptions())
+            return;
+        if (args.length > 0 && "--warmup".equals(args[0]) && !client.warmup())
+            return;
+        long ready = System.nanoTime();
+        long first = dispatch(client);
+        long second = dispatch(client);
+        System.out.println("main " + main + "ms, ready " + (ready - start) / 1000000L + "ms, first dispatch "
+                + first / 1000L + "us, second " + second / 1000L + "us");
+        System.exit(0);
+    }
+
+    /**
+     * @return nanoseconds to decode, route, render and send one line
+     */
+    private static long dispatch(WxrClient client) throws InvalidEventException {
+        long start = System.nanoTime();
+        byte[] line = LINE.getBytes(StandardCharsets.US_ASCII);
+        WxrReport report = new WxrReport();
+        new WxrReportParser().parse(line, 0, line.length, report);
+        WxrEvent event = new WxrEvent();
+        event.parse(report);
+        client.emailEvent(event);
+        return System.nanoTime() - start;
+    }
+}
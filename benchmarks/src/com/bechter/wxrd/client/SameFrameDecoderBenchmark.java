@@ -0,0 +1,94 @@
+/*
+ * SameFrameDecoderBenchmark.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SameFrameDecoderBenchmark
+ *
+ *   One SAME message as raw frames through SameFrameDecoder, with each
+ *   frame polled twice as the radio repeats it. The frames alone allocate
+ *   nothing; what is left is the WxrEvent handed to the listener.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SameFrameDecoderBenchmark {
+    @Param({ "1", "8", "31" })
+    int counties;
+
+    private byte[] frames;
+    private SameFrameDecoder decoder;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        int count = 3 + counties + 1;
+        frames = new byte[count * 2 * SameFrameDecoder.FRAME_SIZE];
+        int n = 0;
+        n = frame(n, 0x04, 'W', 'X', 'R');
+        n = frame(n, 0x05, 'T', 'O', 'R');
+        for (int i = 0; i < counties; i++)
+            n = frame(n, 0x10 + i, 0x03, 0x91, i % 10 << 4 | i % 7);
+        n = frame(n, 0x07, 0x01, 0x30, 0x00);
+        frame(n, 0x0a, 0x00, 0x00, 0x00);
+        frames[n * 2 * SameFrameDecoder.FRAME_SIZE + 2] = 0x04;
+        frames[(n * 2 + 1) * SameFrameDecoder.FRAME_SIZE + 2] = 0x04;
+        decoder = new SameFrameDecoder(new WxrEventListener() {
+            public void eventReceived(WxrEvent event) {
+                blackhole.consume(event);
+            }
+        });
+    }
+
+    private int frame(int n, int type, int b3, int b4, int b5) {
+        for (int copy = 0; copy < 2; copy++) {
+            int off = (n * 2 + copy) * SameFrameDecoder.FRAME_SIZE;
+            frames[off] = (byte)0xab;
+            frames[off + 1] = (byte)type;
+            frames[off + 3] = (byte)b3;
+            frames[off + 4] = (byte)b4;
+            frames[off + 5] = (byte)b5;
+            frames[off + 7] = 0x6a;
+        }
+        return n + 1;
+    }
+
+    @Benchmark
+    public long decode() {
+        long now = 1164916629000L;
+        for (int off = 0; off < frames.length; off += SameFrameDecoder.FRAME_SIZE)
+            decoder.decode(frames, off, now);
+        return decoder.getMessageCount();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * CountyTable.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Properties;
+
+/**
+ * CountyTable
+ *
+ *   Read-only map from PSSCCC location code to county name. It replaces the
+ *   HashMap that WxrEvent used to build from counties.properties, which held
+ *   several thousand boxed entries with String keys.
+ *
+ *   The codes are kept sorted in an int[], and the names are packed end to
+ *   end into one String with an int[] of offsets. An open addressing int
+ *   hash (linear probing, at most half full) maps a code to its position,
+ *   so the table is a handful of arrays however many counties it holds and
+ *   a lookup is usually a single probe. Names are appended straight from the
+ *   packed String into the caller's StringBuilder, so rendering a
+ *   description allocates nothing beyond the builder.
+ *
+ *   A table is immutable once built and safe to share between threads.
+ */
+public final class CountyTable {
+    private static volatile CountyTable defaultTable = null;
+
+    private final int[] codes;
+    private final int[] offsets;
+    private final String names;
+    private final int[] slots;
+    private final int mask;
+
+    private CountyTable(int[] codes, int[] offsets, String names) {
+        this.codes = codes;
+        this.offsets = offsets;
+        this.names = names;
+        int capacity = Integer.highestOneBit(Math.max(codes.length, 1) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        // slots hold index + 1 so that zero marks an empty slot
+        for (int i = 0; i < codes.length; i++) {
+            int slot = hash(codes[i]) & mask;
+            while (slots[slot] != 0)
+                slot = slot + 1 & mask;
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(int code) {
+        int h = code * 0x9e3779b9;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * @return the position of the code in codes, -1 if absent
+     */
+    private int indexOf(int code) {
+        int slot = hash(code) & mask;
+        int i;
+        while ((i = slots[slot]) != 0) {
+            if (codes[i - 1] == code)
+                return i - 1;
+            slot = slot + 1 & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the table built from counties.properties on the class path,
+     *     loaded once on first use
+     * @throws InvalidEventException if counties.properties cannot be read
+     */
+    public static CountyTable getDefault() throws InvalidEventException {
+        CountyTable table = defaultTable;
+        if (table == null) {
+            synchronized (CountyTable.class) {
+                table = defaultTable;
+                if (table == null) {
+                    InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("counties.properties");
+                    if (is == null)
+                        throw new InvalidEventException("counties.properties not found", null);
+                    try {
+                        defaultTable = table = load(is);
+                    } catch (IOException e) {
+                        throw new InvalidEventException("Failed to load counties.properties", e);
+                    } finally {
+                        try {
+                            is.close();
+                        } catch (IOException e) {
+                            // nothing more to read
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * replaces the table getDefault() returns, for descriptions built from
+     * then on
+     *
+     * @param table the new table, null to go back to counties.properties
+     *     on the class path
+     */
+    public static void setDefault(CountyTable table) {
+        defaultTable = table;
+    }
+
+    /**
+     * builds a table from a properties stream of PSSCCC = name entries
+     *
+     * @param is the properties stream
+     * @return the table
+     * @throws IOException if the stream cannot be read
+     */
+    public static CountyTable load(InputStream is) throws IOException {
+        Properties properties = new Properties();
+        properties.load(is);
+        return build(properties);
+    }
+
+    /**
+     * builds a table from PSSCCC = name entries; keys that are not six
+     * digit codes are ignored
+     *
+     * @param properties the entries
+     * @return the table
+     */
+    public static CountyTable build(Properties properties) {
+        long[] entries = new long[properties.size()];
+        String[] values = new String[properties.size()];
+        int n = 0;
+        for (Enumeration<?> keys = properties.keys(); keys.hasMoreElements();) {
+            String key = (String)keys.nextElement();
+            int code = parseCode(key);
+            if (code < 0)
+                continue;
+            // sort on the code and carry the entry number in the low bits
+            values[n] = properties.getProperty(key);
+            entries[n] = (long)code << 32 | n;
+            n++;
+        }
+        Arrays.sort(entries, 0, n);
+        int[] codes = new int[n];
+        int[] offsets = new int[n + 1];
+        int length = 0;
+        for (int i = 0; i < n; i++)
+            length += values[(int)entries[i]].length();
+        StringBuilder names = new StringBuilder(length);
+        for (int i = 0; i < n; i++) {
+            codes[i] = (int)(entries[i] >>> 32);
+            offsets[i] = names.length();
+            names.append(values[(int)entries[i]]);
+        }
+        offsets[n] = names.length();
+        return new CountyTable(codes, offsets, names.toString());
+    }
+
+    /**
+     * @param location six digit PSSCCC code
+     * @return the code as an int, -1 if it is not six digits
+     */
+    public static int parseCode(CharSequence location) {
+        if (location == null || location.length() != 6)
+            return -1;
+        int code = 0;
+        for (int i = 0; i < 6; i++) {
+            char c = location.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+
+    /**
+     * @return number of counties in the table
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * @param code a PSSCCC code
+     * @return true if the table has a name for the code
+     */
+    public boolean contains(int code) {
+        return indexOf(code) >= 0;
+    }
+
+    /**
+     * @param code a PSSCCC code
+     * @return the county name, null if the code is not in the table
+     */
+    public String getName(int code) {
+        int i = indexOf(code);
+        return i < 0 ? null : names.substring(offsets[i], offsets[i + 1]);
+    }
+
+    /**
+     * appends the county name for a code
+     *
+     * @param sb buffer to append to
+     * @param code a PSSCCC code
+     * @return false, and nothing appended, if the code is not in the table
+     */
+    public boolean appendName(StringBuilder sb, int code) {
+        int i = indexOf(code);
+        if (i < 0)
+            return false;
+        sb.append(names, offsets[i], offsets[i + 1]);
+        return true;
+    }
+
+    /**
+     * appends "A, B and C Counties" for a list of codes; codes not in the
+     * table are shown as "(PSSCCC)"
+     *
+     * @param sb buffer to append to
+     * @param locations the PSSCCC codes
+     * @param count number of codes to use from locations
+     */
+    public void appendDescription(StringBuilder sb, int[] locations, int count) {
+        for (int i = 0; i < count; i++) {
+            if (!appendName(sb, locations[i])) {
+                sb.append('(');
+                WxrReport.appendLocation(sb, locations[i]);
+                sb.append(')');
+            }
+            appendSeparator(sb, i, count);
+        }
+        appendSuffix(sb, count);
+    }
+
+    /**
+     * appends the description of the locations in a decoded report
+     *
+     * @param sb buffer to append to
+     * @param report a valid report
+     */
+    public void appendDescription(StringBuilder sb, WxrReport report) {
+        int count = report.getLocationCount();
+        for (int i = 0; i < count; i++) {
+            int location = report.getLocation(i);
+            if (!appendName(sb, location)) {
+                sb.append('(');
+                WxrReport.appendLocation(sb, location);
+                sb.append(')');
+            }
+            appendSeparator(sb, i, count);
+        }
+        appendSuffix(sb, count);
+    }
+
+    /**
+     * appends what follows name i of count in a description: ", ", " and " or nothing
+     */
+    static void appendSeparator(StringBuilder sb, int i, int count) {
+        if (i < count - 2)
+            sb.append(", ");
+        else if (i < count - 1)
+            sb.append(" and ");
+    }
+
+    /**
+     * appends " County" or " Counties"
+     */
+    static void appendSuffix(StringBuilder sb, int count) {
+        sb.append(count == 1 ? " County" : " Counties");
+    }
+}
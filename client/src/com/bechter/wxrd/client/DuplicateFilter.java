@@ -0,0 +1,133 @@
+/*
+ * DuplicateFilter.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * DuplicateFilter
+ *
+ *   Drops repeated copies of a SAME header. Headers are broadcast three
+ *   times, and neighbouring transmitters repeat them, so without this each
+ *   copy would trigger a full round of email and SMS.
+ *
+ *   Each alert is stored under an EventKey whose time bucket is the issue
+ *   time divided by the tolerance (45 seconds, the same tolerance as
+ *   WxrEvent.equals()). A lookup probes the event's own bucket and both
+ *   neighbours. A hit counts as a duplicate only if the stored issue time is
+ *   within the tolerance, so the result is the same as comparing against
+ *   every recent event, at the cost of three hash lookups.
+ *
+ *   Keys are evicted in arrival order once their bucket is more than two
+ *   buckets older than the newest one seen, and the index never holds more
+ *   than maxEntries keys, so memory stays bounded under any event rate. The
+ *   lookup probe is reused, so checking an event only allocates when the
+ *   event is new.
+ *
+ *   Instances are not thread safe; the multiplexer calls it from its
+ *   receiving thread.
+ */
+public class DuplicateFilter {
+    public static final long DEFAULT_TOLERANCE = 45000L;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long tolerance;
+    private final int maxEntries;
+    private final HashMap<EventKey, EventKey> index;
+    private final ArrayDeque<EventKey> arrivals;
+    private final EventKey probe = new EventKey(WxrReport.MAX_LOCATIONS);
+    private final WxrReport scratch = new WxrReport();
+    private long newestBucket = Long.MIN_VALUE;
+
+    public DuplicateFilter() {
+        this(DEFAULT_TOLERANCE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param tolerance events issued less than this many milliseconds apart are the same event
+     * @param maxEntries maximum number of events remembered
+     */
+    public DuplicateFilter(long tolerance, int maxEntries) {
+        if (tolerance < 1 || maxEntries < 1)
+            throw new IllegalArgumentException("tolerance and maxEntries must be positive");
+        this.tolerance = tolerance;
+        this.maxEntries = maxEntries;
+        this.index = new HashMap<EventKey, EventKey>(maxEntries * 4 / 3 + 1);
+        this.arrivals = new ArrayDeque<EventKey>(maxEntries);
+    }
+
+    /**
+     * checks a decoded report and remembers it if it is new
+     *
+     * @param report a valid report
+     * @return true if the same event was seen within the tolerance
+     */
+    public boolean isDuplicate(WxrReport report) {
+        long time = report.getEventTime();
+        long bucket = Math.floorDiv(time, tolerance);
+        probe.set(report, bucket);
+        for (long b = bucket - 1; b <= bucket + 1; b++) {
+            probe.setBucket(b);
+            EventKey seen = index.get(probe);
+            if (seen != null && Math.abs(seen.getEventTime() - time) < tolerance)
+                return true;
+        }
+        probe.setBucket(bucket);
+        EventKey key = probe.copy();
+        // a key this replaces stays in arrivals until it ages out, see evict()
+        index.put(key, key);
+        arrivals.addLast(key);
+        if (bucket > newestBucket)
+            newestBucket = bucket;
+        evict();
+        return false;
+    }
+
+    /**
+     * checks an event and remembers it if it is new
+     *
+     * @param event a parsed event
+     * @return true if the same event was seen within the tolerance
+     */
+    public boolean isDuplicate(WxrEvent event) {
+        scratch.reset();
+        scratch.setOrigin(WxrReport.packCode(event.getOrigin()));
+        scratch.setEventCode(WxrReport.packCode(event.getEventType()));
+        for (String location : event.getLocations())
+            scratch.addLocation(Integer.parseInt(location));
+        scratch.setEventTime(event.getEventTime().getTime());
+        return isDuplicate(scratch);
+    }
+
+    /**
+     * @return number of events currently remembered
+     */
+    public int size() {
+        return index.size();
+    }
+
+    private void evict() {
+        EventKey oldest;
+        while ((oldest = arrivals.peekFirst()) != null
+                && (arrivals.size() > maxEntries || oldest.getBucket() < newestBucket - 2)) {
+            arrivals.removeFirst();
+            if (index.get(oldest) == oldest)
+                index.remove(oldest);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * EventCode.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+/**
+ * EventCode
+ *
+ *   Catalog of the SAME event codes. Each code carries its description, the
+ *   Severity it is dispatched with and its EventCategory. The catalog is
+ *   compiled into the client, so the first alert after startup does not
+ *   wait on loading a properties file, and routing and prioritization can
+ *   use the metadata without parsing any text.
+ *
+ *   lookup() maps a code packed by WxrReport.packCode() through a switch
+ *   on int constants, which is allocation free. A code that is not in the
+ *   catalog maps to UNKNOWN rather than failing, so new codes introduced by
+ *   the NWS are still delivered, at STATEMENT priority.
+ */
+public enum EventCode {
+    // weather
+    BZW("Blizzard Warning", Severity.WARNING, EventCategory.WARNING),
+    CFA("Coastal Flood Watch", Severity.WATCH, EventCategory.WATCH),
+    DSW("Dust Storm Warning", Severity.WARNING, EventCategory.WARNING),
+    FFA("Flash Flood Watch", Severity.WATCH, EventCategory.WATCH),
+    FFW("Flash Flood Warning", Severity.WARNING, EventCategory.WARNING),
+    FFS("Flash Flood Statement", Severity.STATEMENT, EventCategory.STATEMENT),
+    FLA("Flood Watch", Severity.WATCH, EventCategory.WATCH),
+    FLW("Flood Warning", Severity.WARNING, EventCategory.WARNING),
+    FLS("Flood Statement", Severity.STATEMENT, EventCategory.STATEMENT),
+    HWA("High Wind Watch", Severity.WATCH, EventCategory.WATCH),
+    HWW("High Wind Warning", Severity.WARNING, EventCategory.WARNING),
+    HUA("Hurricane Watch", Severity.WATCH, EventCategory.WATCH),
+    HUW("Hurricane Warning", Severity.WARNING, EventCategory.WARNING),
+    HLS("Hurricane Statement", Severity.STATEMENT, EventCategory.STATEMENT),
+    SVA("Severe Thunderstorm Watch", Severity.WATCH, EventCategory.WATCH),
+    SVR("Severe Thunderstorm Warning", Severity.WARNING, EventCategory.WARNING),
+    SVS("Severe Weather Statement", Severity.STATEMENT, EventCategory.STATEMENT),
+    SMW("Special Marine Warning", Severity.WARNING, EventCategory.WARNING),
+    SPS("Special Weather Statement", Severity.STATEMENT, EventCategory.STATEMENT),
+    TOA("Tornado Watch", Severity.WATCH, EventCategory.WATCH),
+    TOR("Tornado Warning", Severity.WARNING, EventCategory.WARNING),
+    TRA("Tropical Storm Watch", Severity.WATCH, EventCategory.WATCH),
+    TRW("Tropical Storm Warning", Severity.WARNING, EventCategory.WARNING),
+    TSA("Tsunami Watch", Severity.WATCH, EventCategory.WATCH),
+    TSW("Tsunami Warning", Severity.WARNING, EventCategory.WARNING),
+    WSA("Winter Storm Watch", Severity.WATCH, EventCategory.WATCH),
+    WSW("Winter Storm Warning", Severity.WARNING, EventCategory.WARNING),
+
+    // national
+    EAN("Emergency Action Notification", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    EAT("Emergency Action Termination", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    NIC("National Information Center", Severity.STATEMENT, EventCategory.ADMINISTRATIVE),
+
+    // civil and non-weather
+    AVA("Avalanche Watch", Severity.WATCH, EventCategory.WATCH),
+    AVW("Avalanche Warning", Severity.WARNING, EventCategory.WARNING),
+    CAE("Child Abduction Emergency", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    CDW("Civil Danger Warning", Severity.WARNING, EventCategory.WARNING),
+    CEM("Civil Emergency Message", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    EQW("Earthquake Warning", Severity.WARNING, EventCategory.WARNING),
+    EVI("Evacuation Immediate", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    FRW("Fire Warning", Severity.WARNING, EventCategory.WARNING),
+    HMW("Hazardous Materials Warning", Severity.WARNING, EventCategory.WARNING),
+    LEW("Law Enforcement Warning", Severity.WARNING, EventCategory.WARNING),
+    LAE("Local Area Emergency", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    TOE("911 Telephone Outage Emergency", Severity.EMERGENCY, EventCategory.EMERGENCY),
+    NUW("Nuclear Power Plant Warning", Severity.WARNING, EventCategory.WARNING),
+    RHW("Radiological Hazard Warning", Severity.WARNING, EventCategory.WARNING),
+    SPW("Shelter in Place Warning", Severity.WARNING, EventCategory.WARNING),
+    VOW("Volcano Warning", Severity.WARNING, EventCategory.WARNING),
+
+    // administrative and test
+    ADR("Administrative Message", Severity.STATEMENT, EventCategory.ADMINISTRATIVE),
+    NPT("National Periodic Test", Severity.TEST, EventCategory.TEST),
+    NMN("Network Message Notification", Severity.STATEMENT, EventCategory.ADMINISTRATIVE),
+    DMO("Practice/Demo Warning", Severity.TEST, EventCategory.TEST),
+    RMT("Required Monthly Test", Severity.TEST, EventCategory.TEST),
+    RWT("Required Weekly Test", Severity.TEST, EventCategory.TEST),
+
+    /** any code not in the catalog */
+    UNKNOWN("Unknown Event", Severity.STATEMENT, EventCategory.STATEMENT);
+
+    private final String description;
+    private final Severity severity;
+    private final EventCategory category;
+
+    private EventCode(String description, Severity severity, EventCategory category) {
+        this.description = description;
+        this.severity = severity;
+        this.category = category;
+    }
+
+    /**
+     * @return text description of the code, "Unknown Event" for UNKNOWN
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return the priority class events with this code are dispatched with
+     */
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    /**
+     * @return the kind of message the code is
+     */
+    public EventCategory getCategory() {
+        return category;
+    }
+
+    /**
+     * @return the code packed by WxrReport.packCode(), 0 for UNKNOWN
+     */
+    public int getPackedCode() {
+        return this == UNKNOWN ? 0 : WxrReport.packCode(name());
+    }
+
+    /**
+     * @param code a three letter code packed by WxrReport.packCode()
+     * @return the catalog entry, UNKNOWN if the code is not in the catalog
+     */
+    public static EventCode lookup(int code) {
+        switch (code) {
+        case 'B' << 16 | 'Z' << 8 | 'W':
+            return BZW;
+        case 'C' << 16 | 'F' << 8 | 'A':
+            return CFA;
+        case 'D' << 16 | 'S' << 8 | 'W':
+            return DSW;
+        case 'F' << 16 | 'F' << 8 | 'A':
+            return FFA;
+        case 'F' << 16 | 'F' << 8 | 'W':
+            return FFW;
+        case 'F' << 16 | 'F' << 8 | 'S':
+            return FFS;
+        case 'F' << 16 | 'L' << 8 | 'A':
+            return FLA;
+        case 'F' << 16 | 'L' << 8 | 'W':
+            return FLW;
+        case 'F' << 16 | 'L' << 8 | 'S':
+            return FLS;
+        case 'H' << 16 | 'W' << 8 | 'A':
+            return HWA;
+        case 'H' << 16 | 'W' << 8 | 'W':
+            return HWW;
+        case 'H' << 16 | 'U' << 8 | 'A':
+            return HUA;
+        case 'H' << 16 | 'U' << 8 | 'W':
+            return HUW;
+        case 'H' << 16 | 'L' << 8 | 'S':
+            return HLS;
+        case 'S' << 16 | 'V' << 8 | 'A':
+            return SVA;
+        case 'S' << 16 | 'V' << 8 | 'R':
+            return SVR;
+        case 'S' << 16 | 'V' << 8 | 'S':
+            return SVS;
+        case 'S' << 16 | 'M' << 8 | 'W':
+            return SMW;
+        case 'S' << 16 | 'P' << 8 | 'S':
+            return SPS;
+        case 'T' << 16 | 'O' << 8 | 'A':
+            return TOA;
+        case 'T' << 16 | 'O' << 8 | 'R':
+            return TOR;
+        case 'T' << 16 | 'R' << 8 | 'A':
+            return TRA;
+        case 'T' << 16 | 'R' << 8 | 'W':
+            return TRW;
+        case 'T' << 16 | 'S' << 8 | 'A':
+            return TSA;
+        case 'T' << 16 | 'S' << 8 | 'W':
+            return TSW;
+        case 'W' << 16 | 'S' << 8 | 'A':
+            return WSA;
+        case 'W' << 16 | 'S' << 8 | 'W':
+            return WSW;
+        case 'E' << 16 | 'A' << 8 | 'N':
+            return EAN;
+        case 'E' << 16 | 'A' << 8 | 'T':
+            return EAT;
+        case 'N' << 16 | 'I' << 8 | 'C':
+            return NIC;
+        case 'A' << 16 | 'V' << 8 | 'A':
+            return AVA;
+        case 'A' << 16 | 'V' << 8 | 'W':
+            return AVW;
+        case 'C' << 16 | 'A' << 8 | 'E':
+            return CAE;
+        case 'C' << 16 | 'D' << 8 | 'W':
+            return CDW;
+        case 'C' << 16 | 'E' << 8 | 'M':
+            return CEM;
+        case 'E' << 16 | 'Q' << 8 | 'W':
+            return EQW;
+        case 'E' << 16 | 'V' << 8 | 'I':
+            return EVI;
+        case 'F' << 16 | 'R' << 8 | 'W':
+            return FRW;
+        case 'H' << 16 | 'M' << 8 | 'W':
+            return HMW;
+        case 'L' << 16 | 'E' << 8 | 'W':
+            return LEW;
+        case 'L' << 16 | 'A' << 8 | 'E':
+            return LAE;
+        case 'T' << 16 | 'O' << 8 | 'E':
+            return TOE;
+        case 'N' << 16 | 'U' << 8 | 'W':
+            return NUW;
+        case 'R' << 16 | 'H' << 8 | 'W':
+            return RHW;
+        case 'S' << 16 | 'P' << 8 | 'W':
+            return SPW;
+        case 'V' << 16 | 'O' << 8 | 'W':
+            return VOW;
+        case 'A' << 16 | 'D' << 8 | 'R':
+            return ADR;
+        case 'N' << 16 | 'P' << 8 | 'T':
+            return NPT;
+        case 'N' << 16 | 'M' << 8 | 'N':
+            return NMN;
+        case 'D' << 16 | 'M' << 8 | 'O':
+            return DMO;
+        case 'R' << 16 | 'M' << 8 | 'T':
+            return RMT;
+        case 'R' << 16 | 'W' << 8 | 'T':
+            return RWT;
+        default:
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param code a three letter event code such as "TOR"
+     * @return the catalog entry, UNKNOWN if the code is null or not in the catalog
+     */
+    public static EventCode lookup(String code) {
+        if (code == null || code.length() != 3)
+            return UNKNOWN;
+        return lookup(WxrReport.packCode(code));
+    }
+}
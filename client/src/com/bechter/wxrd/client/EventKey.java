@@ -0,0 +1,124 @@
+/*
+ * EventKey.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.util.Arrays;
+
+/**
+ * EventKey
+ *
+ *   Canonical, hashable identity of an alert: origin, event code, the set
+ *   of location codes in ascending order, and the time bucket of the issue
+ *   time. Two copies of the same SAME header, whether from the triple
+ *   transmission or from a neighbouring transmitter, produce equal keys
+ *   regardless of the order the locations were sent in.
+ *
+ *   The hash is computed once when the key is filled in. A key is mutable
+ *   only so that DuplicateFilter can reuse one as a lookup probe; keys stored
+ *   in a map are never changed.
+ */
+public final class EventKey {
+    private int origin;
+    private int eventCode;
+    private int[] locations;
+    private int locationCount;
+    private long bucket;
+    private long eventTime;
+    private int hash;
+
+    EventKey(int capacity) {
+        locations = new int[capacity];
+    }
+
+    /**
+     * fills the key from a decoded report
+     */
+    void set(WxrReport report, long bucket) {
+        origin = report.getOrigin();
+        eventCode = report.getEventCode();
+        locationCount = report.getLocationCount();
+        for (int i = 0; i < locationCount; i++)
+            locations[i] = report.getLocation(i);
+        Arrays.sort(locations, 0, locationCount);
+        eventTime = report.getEventTime();
+        setBucket(bucket);
+    }
+
+    void setBucket(long bucket) {
+        this.bucket = bucket;
+        int h = origin * 31 + eventCode;
+        for (int i = 0; i < locationCount; i++)
+            h = h * 31 + locations[i];
+        hash = h * 31 + (int)(bucket ^ bucket >>> 32);
+    }
+
+    /**
+     * @return an exactly sized copy, safe to store in a map
+     */
+    EventKey copy() {
+        EventKey key = new EventKey(locationCount);
+        key.origin = origin;
+        key.eventCode = eventCode;
+        System.arraycopy(locations, 0, key.locations, 0, locationCount);
+        key.locationCount = locationCount;
+        key.eventTime = eventTime;
+        key.bucket = bucket;
+        key.hash = hash;
+        return key;
+    }
+
+    long getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return issue time of the event the key was made from
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    public int hashCode() {
+        return hash;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof EventKey))
+            return false;
+        EventKey other = (EventKey)o;
+        if (hash != other.hash || bucket != other.bucket || origin != other.origin
+                || eventCode != other.eventCode || locationCount != other.locationCount)
+            return false;
+        for (int i = 0; i < locationCount; i++)
+            if (locations[i] != other.locations[i])
+                return false;
+        return true;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(WxrReport.codeToString(origin)).append(' ').append(WxrReport.codeToString(eventCode)).append(' ');
+        for (int i = 0; i < locationCount; i++) {
+            if (i > 0)
+                sb.append('-');
+            WxrReport.appendLocation(sb, locations[i]);
+        }
+        return sb.append(" @").append(bucket).toString();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * HexFrameReader.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * HexFrameReader
+ *
+ *   Reads 8 byte frames from a text capture, one frame per line as eight
+ *   hex bytes separated by spaces. Whatever follows the eighth byte is
+ *   ignored, as are lines that do not start with eight hex bytes:
+ *
+ *      ab 04 00 57 58 52 00 6a "...WXR.j"
+ *
+ *   A line may start with @millis, the time the frame was received, which
+ *   lets a replay time out messages the way the radio did:
+ *
+ *      @1164916629000 ab 04 00 57 58 52 00 6a
+ *
+ *   The debug output of wxrd -d can be read as it is. It prints the reply
+ *   to every one of the CMD_COUNT commands polled, but only the reply to
+ *   the command that heard the message start goes into the message; wxrd
+ *   prints new_message or save_message just after that reply (and then
+ *   prints the frame again if it was kept). Once either line has been seen
+ *   the capture is taken to be -d output, and only frames directly followed
+ *   by one of them are returned, so the decoder sees the frames wxrd
+ *   decoded and nothing in between.
+ *
+ *   Not thread safe.
+ */
+public class HexFrameReader {
+    private static final String NEW_MESSAGE = "new_message";
+    private static final String SAVE_MESSAGE = "save_message";
+
+    private final BufferedReader in;
+    private final byte[] held = new byte[SameFrameDecoder.FRAME_SIZE];
+    private boolean holding = false;
+    private long heldTime = -1L;
+    private long heldLine = 0L;
+    private boolean debugCapture = false;
+    private long parsedTime = -1L;
+    private long time = -1L;
+    private long lineNumber = 0L;
+    private long lines = 0L;
+
+    /**
+     * @param in the capture
+     */
+    public HexFrameReader(Reader in) {
+        this.in = in instanceof BufferedReader ? (BufferedReader)in : new BufferedReader(in);
+    }
+
+    /**
+     * reads the next frame. Each frame is held until the line after it has
+     * been read, to see whether wxrd -d marked it as part of a message.
+     *
+     * @param frame filled with the 8 bytes
+     * @return false at the end of the capture
+     */
+    public boolean next(byte[] frame) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines++;
+            String trimmed = line.trim();
+            if (NEW_MESSAGE.equals(trimmed) || SAVE_MESSAGE.equals(trimmed)) {
+                debugCapture = true;
+                if (release(frame))
+                    return true;
+                continue;
+            }
+            boolean released = !debugCapture && release(frame);
+            holding = false;
+            if (parse(line, held)) {
+                holding = true;
+                heldTime = parsedTime;
+                heldLine = lines;
+            }
+            if (released)
+                return true;
+        }
+        return !debugCapture && release(frame);
+    }
+
+    /**
+     * hands out the held frame, if there is one
+     */
+    private boolean release(byte[] frame) {
+        if (!holding)
+            return false;
+        holding = false;
+        System.arraycopy(held, 0, frame, 0, held.length);
+        time = heldTime;
+        lineNumber = heldLine;
+        return true;
+    }
+
+    /**
+     * @return true once the capture has been recognised as wxrd -d output
+     */
+    public boolean isDebugCapture() {
+        return debugCapture;
+    }
+
+    /**
+     * @return the @millis of the last frame, -1 if it had none
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the line number of the last frame
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    private boolean parse(String line, byte[] frame) {
+        int i = skipSpaces(line, 0);
+        long stamp = -1L;
+        if (i < line.length() && line.charAt(i) == '@') {
+            int start = ++i;
+            while (i < line.length() && Character.isDigit(line.charAt(i)))
+                i++;
+            if (i == start)
+                return false;
+            stamp = Long.parseLong(line.substring(start, i));
+        }
+        for (int n = 0; n < SameFrameDecoder.FRAME_SIZE; n++) {
+            i = skipSpaces(line, i);
+            if (i + 2 > line.length())
+                return false;
+            int high = Character.digit(line.charAt(i), 16);
+            int low = Character.digit(line.charAt(i + 1), 16);
+            if (high < 0 || low < 0)
+                return false;
+            if (i + 2 < line.length() && line.charAt(i + 2) != ' ' && line.charAt(i + 2) != '\t')
+                return false;
+            frame[n] = (byte)(high << 4 | low);
+            i += 2;
+        }
+        parsedTime = stamp;
+        return true;
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t'))
+            i++;
+        return i;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * ReceivedLine.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+/**
+ * ReceivedLine
+ *
+ *   A slot of the WxrMultiplexer's ring: one report line as read from a
+ *   wxrd server, and what the decode stage made of it. Every field is
+ *   reused; the receiving thread fills in the line, the decode stage the
+ *   report, status and event, and the later stages only read them.
+ */
+final class ReceivedLine {
+    static final int STATUS_NEW = 0;
+    static final int STATUS_INVALID = 1;
+    static final int STATUS_DUPLICATE = 2;
+    static final int STATUS_EVENT = 3;
+
+    final byte[] data;
+    int length;
+    String source;
+    long receivedAt;
+    long readNanos;
+    final WxrReport report = new WxrReport();
+    int status;
+    WxrEvent event;
+
+    ReceivedLine(int capacity) {
+        data = new byte[capacity];
+    }
+}
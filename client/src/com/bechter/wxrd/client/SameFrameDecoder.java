@@ -0,0 +1,365 @@
+/*
+ * SameFrameDecoder.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import org.apache.log4j.Logger;
+
+/**
+ * SameFrameDecoder
+ *
+ *   The SAME decoding of wxrd.c in Java: takes the radio's raw 8 byte USB
+ *   frames, from a capture file, a pipe or a socket, and emits a WxrEvent
+ *   for each complete message, without printing and re-parsing a report
+ *   line.
+ *
+ *   It runs the same state machine as wxrd's main loop:
+ *
+ *      WAIT      a frame whose bytes 3-5 are WXR, EAS, CIV or PEP starts a
+ *                message (is_start) and stamps its time of receipt
+ *      STARTED   frames are kept unless identical to the one before
+ *                (save_message), up to MAX_FRAMES; an end of message frame
+ *                (is_complete) or MESSAGE_TIMEOUT seconds without one
+ *                completes the message
+ *      COMPLETE  the message is decoded (parse_message) and the decoder
+ *                goes back to WAIT
+ *
+ *   Frames are decoded as they are kept, by the type in byte 1: 4 is the
+ *   origin and 5 the event code (ASCII in bytes 3-5), 16 to 127 a location
+ *   (PSSCCC as BCD in bytes 3-5) and 7 the purge time (hours and minutes as
+ *   BCD in bytes 3 and 4, +0020 if none is heard). Locations go straight
+ *   into a reused WxrReport as ints, so nothing is allocated until a
+ *   complete, valid message becomes a WxrEvent. A message that does not
+ *   decode is logged and counted; the error offset of its report is the
+ *   index of the frame at fault.
+ *
+ *   Not thread safe; feed each decoder from one thread.
+ */
+public class SameFrameDecoder {
+    public static final int FRAME_SIZE = 8;
+    /** frames kept for one message, as MAX_RAW in wxrd.h */
+    public static final int MAX_FRAMES = 100;
+    /** seconds a message may take to complete, as in wxrd.h */
+    public static final int MESSAGE_TIMEOUT = 30;
+    public static final int MESSAGE_WAIT = 0;
+    public static final int MESSAGE_STARTED = 1;
+    public static final int MESSAGE_COMPLETE = 2;
+
+    private static final int TYPE_ORIGIN = 4;
+    private static final int TYPE_EVENT = 5;
+    private static final int TYPE_PURGE = 7;
+    private static final int TYPE_LOCATION_MIN = 16;
+    private static final int TYPE_LOCATION_MAX = 127;
+    /** what parse_message() prints when no duration frame was heard, 0x0020 */
+    private static final int DEFAULT_PURGE_MINUTES = 20;
+    private static final DateTimeFormatter LINE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final int[] START_CODES = {
+        WxrReport.packCode("WXR"), WxrReport.packCode("EAS"), WxrReport.packCode("CIV"), WxrReport.packCode("PEP")
+    };
+
+    private final Logger logger = Logger.getLogger(SameFrameDecoder.class);
+    private final WxrEventListener listener;
+    private final WxrReport report = new WxrReport();
+    private final byte[] last = new byte[FRAME_SIZE];
+    private final byte[] frame = new byte[FRAME_SIZE];
+    private String source = "wxrd";
+    private int state = MESSAGE_WAIT;
+    private int frames = 0;
+    private long startTime = 0L;
+    private int startCode = 0;
+    private int purgeMinutes = DEFAULT_PURGE_MINUTES;
+    private long messages = 0L;
+    private long invalid = 0L;
+
+    /**
+     * @param listener receives each decoded event
+     */
+    public SameFrameDecoder(WxrEventListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param source the name events are tagged with, "wxrd" by default
+     */
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * feeds one frame
+     *
+     * @param buf holds the frame
+     * @param off offset of its first byte
+     * @param now time of receipt in milliseconds since the epoch
+     */
+    public void decode(byte[] buf, int off, long now) {
+        if (state == MESSAGE_WAIT) {
+            int code = code(buf, off);
+            for (int i = 0; i < START_CODES.length; i++) {
+                if (code == START_CODES[i]) {
+                    start(buf, off, now, code);
+                    break;
+                }
+            }
+            return;
+        }
+        // STARTED, a frame identical to the last one is the radio repeating itself
+        if (frames < MAX_FRAMES && !same(buf, off)) {
+            System.arraycopy(buf, off, last, 0, FRAME_SIZE);
+            keep(buf, off);
+        }
+        if (isComplete(buf, off) || timedOut(now))
+            complete();
+    }
+
+    /**
+     * completes a started message that has timed out; call it when no
+     * frame has arrived for a while, as wxrd's loop checks every poll
+     *
+     * @param now the current time in milliseconds since the epoch
+     */
+    public void tick(long now) {
+        if (state == MESSAGE_STARTED && timedOut(now))
+            complete();
+    }
+
+    /**
+     * completes a started message now, e.g. at the end of a capture
+     */
+    public void flush() {
+        if (state == MESSAGE_STARTED)
+            complete();
+    }
+
+    /**
+     * @return MESSAGE_WAIT or MESSAGE_STARTED
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * @return number of messages completed
+     */
+    public long getMessageCount() {
+        return messages;
+    }
+
+    /**
+     * @return number of completed messages that did not decode
+     */
+    public long getInvalidCount() {
+        return invalid;
+    }
+
+    /**
+     * reads binary frames until the end of the stream
+     *
+     * @param in 8 byte frames back to back
+     */
+    public void decode(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        while (true) {
+            try {
+                din.readFully(frame);
+            } catch (EOFException e) {
+                break;
+            }
+            decode(frame, 0, System.currentTimeMillis());
+        }
+        flush();
+    }
+
+    /**
+     * reads a hex capture until its end, see HexFrameReader
+     */
+    public void decode(HexFrameReader in) throws IOException {
+        while (in.next(frame))
+            decode(frame, 0, in.getTime() >= 0 ? in.getTime() : System.currentTimeMillis());
+        flush();
+    }
+
+    private void start(byte[] buf, int off, long now, int code) {
+        state = MESSAGE_STARTED;
+        // wxrd stamps the message with time(), whole seconds
+        startTime = now - Math.floorMod(now, 1000L);
+        startCode = code;
+        purgeMinutes = DEFAULT_PURGE_MINUTES;
+        frames = 0;
+        report.reset();
+        System.arraycopy(buf, off, last, 0, FRAME_SIZE);
+        keep(buf, off);
+    }
+
+    /**
+     * decodes a kept frame into the report; the first error sticks
+     */
+    private void keep(byte[] buf, int off) {
+        int index = frames++;
+        int type = buf[off + 1] & 0xff;
+        if (type == TYPE_ORIGIN) {
+            report.setOrigin(code(buf, off));
+        } else if (type == TYPE_EVENT) {
+            report.setEventCode(code(buf, off));
+        } else if (type >= TYPE_LOCATION_MIN && type <= TYPE_LOCATION_MAX) {
+            int a = bcd(buf[off + 3]);
+            int b = bcd(buf[off + 4]);
+            int c = bcd(buf[off + 5]);
+            if (a < 0 || b < 0 || c < 0)
+                fail(WxrReport.ERROR_LOCATION, index);
+            else if (!report.addLocation(a * 10000 + b * 100 + c))
+                fail(WxrReport.ERROR_TOO_MANY_LOCATIONS, index);
+        } else if (type == TYPE_PURGE) {
+            int hours = bcd(buf[off + 3]);
+            int minutes = bcd(buf[off + 4]);
+            if (hours < 0 || minutes < 0)
+                fail(WxrReport.ERROR_PURGE, index);
+            else
+                purgeMinutes = hours * 60 + minutes;
+        }
+    }
+
+    private void fail(int error, int index) {
+        if (report.isValid())
+            report.fail(error, index);
+    }
+
+    private void complete() {
+        state = MESSAGE_WAIT;
+        messages++;
+        if (report.getOrigin() == 0)
+            report.setOrigin(startCode);
+        if (report.isValid()) {
+            if (!isCode(report.getOrigin()))
+                report.fail(WxrReport.ERROR_ORIGIN, 0);
+            else if (!isCode(report.getEventCode()))
+                report.fail(WxrReport.ERROR_EVENT, frames);
+            else if (report.getLocationCount() == 0)
+                report.fail(WxrReport.ERROR_LOCATION, frames);
+        }
+        report.setEventTime(startTime);
+        report.setPurgeMinutes(purgeMinutes);
+        if (!report.isValid()) {
+            invalid++;
+            logger.error("Invalid message from " + source + " in " + frames + " frames: "
+                    + report.getErrorDescription() + " at frame " + report.getErrorOffset());
+            return;
+        }
+        WxrEvent event = new WxrEvent();
+        try {
+            event.parse(report);
+        } catch (InvalidEventException e) {
+            logger.error(e);
+            return;
+        }
+        event.setSource(source);
+        try {
+            listener.eventReceived(event);
+        } catch (RuntimeException e) {
+            logger.error("Listener failed for event from " + source, e);
+        }
+    }
+
+    private boolean same(byte[] buf, int off) {
+        for (int i = 0; i < FRAME_SIZE; i++)
+            if (buf[off + i] != last[i])
+                return false;
+        return true;
+    }
+
+    private boolean timedOut(long now) {
+        // difftime() > MESSAGE_TIMEOUT on whole seconds
+        return now / 1000L - startTime / 1000L > MESSAGE_TIMEOUT;
+    }
+
+    /**
+     * @return true for an end of message frame, ab 0a 04 or ab 84 00
+     */
+    private static boolean isComplete(byte[] buf, int off) {
+        int b0 = buf[off] & 0xff;
+        int b1 = buf[off + 1] & 0xff;
+        int b2 = buf[off + 2] & 0xff;
+        return b0 == 0xab && (b1 == 0x0a && b2 == 0x04 || b1 == 0x84 && b2 == 0x00);
+    }
+
+    /**
+     * @return bytes 3-5 packed as by WxrReport.packCode()
+     */
+    private static int code(byte[] buf, int off) {
+        return (buf[off + 3] & 0xff) << 16 | (buf[off + 4] & 0xff) << 8 | buf[off + 5] & 0xff;
+    }
+
+    private static boolean isCode(int code) {
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int c = code >> shift & 0xff;
+            if (c < 'A' || c > 'Z')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of a two digit BCD byte, -1 if a nibble is not a digit
+     */
+    private static int bcd(byte b) {
+        int high = (b & 0xf0) >> 4;
+        int low = b & 0x0f;
+        return high > 9 || low > 9 ? -1 : high * 10 + low;
+    }
+
+    /**
+     * @return the event in parse_message() format
+     */
+    static String toLine(WxrEvent event) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(event.getOrigin()).append(' ').append(event.getEventType()).append(' ');
+        for (int i = 0; i < event.getLocations().size(); i++) {
+            if (i > 0)
+                sb.append('-');
+            sb.append(event.getLocations().get(i));
+        }
+        sb.append(' ').append(LINE_TIME.format(event.getEventTime().toInstant().atZone(ZoneId.systemDefault())));
+        long minutes = (event.getExpiresTime().getTime() - event.getEventTime().getTime()) / 60000L;
+        sb.append('+').append(minutes / 600).append(minutes / 60 % 10).append(minutes % 60 / 10).append(minutes % 10);
+        return sb.toString();
+    }
+
+    /**
+     * main()
+     *   - decodes a hex capture, e.g. the output of wxrd -d, from standard
+     *     input and prints each event as wxrd would report it
+     *
+     * @param args none
+     */
+    public static void main(String[] args) throws IOException {
+        SameFrameDecoder decoder = new SameFrameDecoder(new WxrEventListener() {
+            public void eventReceived(WxrEvent event) {
+                System.out.println(toLine(event));
+            }
+        });
+        decoder.decode(new HexFrameReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)));
+        System.err.println(decoder.getMessageCount() + " message(s), " + decoder.getInvalidCount() + " invalid");
+    }
+}
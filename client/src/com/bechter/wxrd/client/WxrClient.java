@@ -20,12 +20,26 @@
  *   command line options:
  *   -h | --help     : print this message
  *   -t | --host     : hostname of host running wxrd (default is localhost
+ *                     or a comma-separated list of host[:port] to follow several wxrd servers
  *   -p | --port     : port on host running wxrd to connect to (default is 9317
  *   -e | --email    : email address (or comma-separated list of addresses) to email
  *   -s | --sms      : sms email gateway address (or comma-separated list of addresses) to sms
+ *   -i | --subscriptions : file of subscribers with the locations and event codes each one wants
+ *   -o | --config   : properties file of recipients, relays and lookup tables (see ConfigLoader);
+ *                     it and the files it names are reloaded without a restart when they change
  *   -m | --mailhost : SMTP email host to use to send email
+ *                     or a comma-separated list of host[:port] relays to spread recipients over
  *   -u | --mailuser : SMTP username used to send email
+ *   -c | --mailconnections : maximum open connections to each SMTP mail host (default is 4)
+ *   -k | --chunksize : maximum recipients in one message (default is 50)
+ *   -r | --relayrate : messages per second allowed on each SMTP mail host (default is no limit)
+ *   -w | --smswindow : seconds to hold non-warning events for an sms recipient and send them as one (default is 5, 0 for none)
  *   -f | --from     : email address to appear in the "from" of the email/sms
+ *   -j | --journal  : directory to keep a journal of every line and event received in
+ *   -x | --metrics  : port to serve metrics on at /metrics (default is none; always exported over JMX)
+ *   -W | --warmup   : load and check every table and run synthetic alerts through to a null
+ *                     transport before connecting, so the first real alert is not slowed down
+ *   --warmup-only   : warm up as -W and exit, to train a class-data archive (see README)
  *   
  *   See: http://projects.bechter.com/wxrd/
  *   
@@ -34,53 +48,98 @@
  *     activation.jar : http://www.oracle.com/technetwork/java/javase/index-jsp-136939.html
  *     javamail.jar : http://www.oracle.com/technetwork/java/javamail/index-138643.html
  *     
- *   requires Java 1.5 or higher
+ *   requires Java 17 or higher
  */
 package com.bechter.wxrd.client;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
 import javax.mail.Address;
-import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Transport;
-import javax.mail.Message.RecipientType;
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
+import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 
 import org.apache.log4j.Logger;
 
+import com.bechter.wxrd.client.active.ActiveAlert;
+import com.bechter.wxrd.client.active.ActiveAlerts;
+import com.bechter.wxrd.client.active.ExpiryListener;
+import com.bechter.wxrd.client.config.ClientConfig;
+import com.bechter.wxrd.client.config.ConfigListener;
+import com.bechter.wxrd.client.config.ConfigLoader;
+import com.bechter.wxrd.client.config.ConfigWatcher;
+import com.bechter.wxrd.client.dispatch.CoalescingSender;
+import com.bechter.wxrd.client.dispatch.CoalescingWindow;
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+import com.bechter.wxrd.client.dispatch.DispatchHandler;
+import com.bechter.wxrd.client.dispatch.EventDispatcher;
+import com.bechter.wxrd.client.journal.Journal;
+import com.bechter.wxrd.client.mail.FanoutSender;
+import com.bechter.wxrd.client.mail.MailRelay;
+import com.bechter.wxrd.client.mail.MessageFactory;
+import com.bechter.wxrd.client.mail.NullTransport;
+import com.bechter.wxrd.client.mail.SmtpTransportPool;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+import com.bechter.wxrd.client.metrics.MetricsServer;
+import com.bechter.wxrd.client.render.MessageRenderer;
+import com.bechter.wxrd.client.render.RenderedMessage;
+import com.bechter.wxrd.client.routing.SubscriptionIndex;
+
 /**
  *  WxrClient
  *
  */
-public class WxrClient {
+public class WxrClient implements WxrEventListener, DispatchHandler, CoalescingSender {
     private final Logger logger = Logger.getLogger(WxrClient.class);
     private int port = 9317;
     private String host = "localhost";
     private List<String> emailRecipients = null;
     private List<String> smsRecipients = null;
+    private List<InetSocketAddress> endpoints = null;
     private static WxrClient instance = null;
-    private Socket socket = null;
-    private static final DateFormat df = new SimpleDateFormat("HH:mm dd/MM/yyyy");
+    private EventDispatcher dispatcher = null;
+    private CoalescingWindow smsWindow = null;
+    private long smsWindowMillis = CoalescingWindow.DEFAULT_WINDOW;
+    private final ActiveAlerts activeAlerts = new ActiveAlerts();
+    private volatile FanoutSender fanout = null;
+    private MessageRenderer renderer = null;
+    private String subscriptionFile = null;
+    private String journalDirectory = null;
+    private int metricsPort = 0;
+    private ConfigWatcher config = null;
+    private String configFile = null;
+    private int mailConnections = SmtpTransportPool.DEFAULT_MAX_CONNECTIONS;
+    private int chunkSize = FanoutSender.DEFAULT_CHUNK_SIZE;
+    private double relayRate = 0;
     private String mailHost = null;
+    private Properties mailProperties = null;
     private String mailUser = null;
     private String mailTo = "wxrd@localhost";
     private String mailFrom = "wxrd@localhost";
     private boolean test = false;
-    private static final int READ_SOCKET_TIMEOUT = 30000;
+    private boolean warmup = false;
+    private boolean warmupOnly = false;
+    /** synthetic alerts run through the client by warmup() */
+    private static final int WARMUP_ALERTS = 2000;
+    /** of which every WARMUP_SEND_EVERY is also sent */
+    private static final int WARMUP_SEND_EVERY = 50;
+    private static final String[] WARMUP_CODES = { "TOR", "SVR", "FFW", "SVA", "TOA", "SPS", "RWT" };
+    private static final DateTimeFormatter WARMUP_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final String[] WARMUP_LOCATIONS = { "039153", "039103-039153", "139035-039093-039055", "048201" };
+    /** time a replaced fan-out is kept open for sends already under way */
+    private static final long RETIRE_GRACE = 30000L;
 
  
     /**
@@ -94,69 +153,316 @@ public class WxrClient {
     /**
      * run()
      * 
-     *   called to begin listening to wxrd 
+     *   called to begin listening to wxrd; follows every configured
+     *   endpoint from the calling thread until the multiplexer is stopped
      *   
      */
     public void run() {
         if (logger.isDebugEnabled())
             logger.debug("run called");
-        BufferedReader is = null;
-        try {
-            socket = new Socket(getHost(), getPort());
-            socket.setSoTimeout(READ_SOCKET_TIMEOUT);
-            if (logger.isDebugEnabled())
-                logger.debug("socket created");
-            is = new BufferedReader(new InputStreamReader(socket
-                    .getInputStream()));
-
-            String responseLine;
-            if (logger.isDebugEnabled()) {
-                // read the first two non-alert lines that come from connecting to the server
-                logger.debug(is.readLine());
-                logger.debug(is.readLine());
+        if (!loadSubscriptions())
+            return;
+        if (isWarmup() && !warmup())
+            return;
+        if (isWarmupOnly()) {
+            getFanout().close();
+            return;
+        }
+        Journal journal = null;
+        if (getJournalDirectory() != null) {
+            try {
+                journal = new Journal(new File(getJournalDirectory()));
+            } catch (IOException e) {
+                logger.error("Failed to open journal in " + getJournalDirectory() + ": " + e.getMessage());
+                return;
             }
-            // blocking read waits for data from the server
-            while ((responseLine = is.readLine()) != null) {
-                if (logger.isDebugEnabled())
-                    logger.debug(responseLine);
-                if (WXR_PING.equals(responseLine)) {
-                     continue;
-                }
-                try {
-                    // parse the data from the server
-                    WxrEvent event = new WxrEvent();
-                    event.parse(responseLine);
-                    // send email
-                    emailEvent(event);
-                    if (logger.isDebugEnabled())
-                        logger.debug(event);
-                } catch (InvalidEventException e) {
-                    logger.error("Invalid event for '" + responseLine  + "'", e);
-                }
+        }
+        MetricsRegistry.getDefault().registerMBeans(ManagementFactory.getPlatformMBeanServer());
+        MetricsServer metricsServer = null;
+        if (getMetricsPort() > 0) {
+            try {
+                metricsServer = new MetricsServer(MetricsRegistry.getDefault(), getMetricsPort());
+                metricsServer.start();
+            } catch (IOException e) {
+                logger.error("Failed to serve metrics on port " + getMetricsPort() + ": " + e.getMessage());
+                metricsServer = null;
+            }
+        }
+        activeAlerts.addExpiryListener(new ExpiryListener() {
+            public void alertExpired(ActiveAlert alert) {
+                logger.info("Expired: " + alert);
+            }
+        });
+        config.addConfigListener(new ConfigListener() {
+            public void configChanged(ClientConfig previous, ClientConfig current) {
+                WxrClient.this.configChanged(previous, current);
             }
-        } catch (UnknownHostException e) {
-            logger.error(e);
-        } catch (SocketException se) {
-            logger.debug(se);
+        });
+        try {
+            config.start();
         } catch (IOException e) {
-            logger.error(e);
+            logger.warn("Configuration will not be reloaded, cannot watch its files: " + e.getMessage());
         }
+        activeAlerts.start();
+        smsWindow = new CoalescingWindow(getSmsWindow(), this);
+        smsWindow.start();
+        dispatcher = new EventDispatcher(this);
+        dispatcher.start();
         try {
-            if (logger.isDebugEnabled())
-                logger.debug("closing input stream");
-            if (is != null)
-                is.close();
-        } catch (Exception e) {
-            logger.warn(e);
+            WxrMultiplexer multiplexer = new WxrMultiplexer(getEndpoints(), this);
+            multiplexer.setJournal(journal);
+            multiplexer.run();
+        } finally {
+            activeAlerts.stop();
+            dispatcher.stop();
+            smsWindow.stop();
+            config.stop();
+            getFanout().close();
+            if (journal != null)
+                journal.close();
+            if (metricsServer != null)
+                metricsServer.stop();
+        }
+    }
+
+    /**
+     * eventReceived()
+     *   called by the multiplexer for every distinct event; records it as
+     *   active and hands it to the dispatcher so the read loop never waits
+     *   on SMTP
+     *
+     * @param event the parsed event
+     */
+    public void eventReceived(WxrEvent event) {
+        if (logger.isDebugEnabled())
+            logger.debug(event.getSource() + ": " + event);
+        activeAlerts.add(event);
+        dispatcher.dispatch(event);
+    }
+
+    /**
+     * dispatch()
+     *   called on a dispatcher worker to deliver an event on one channel
+     *
+     * @param event the parsed event
+     * @param channel SMS or EMAIL
+     */
+    public void dispatch(WxrEvent event, DeliveryChannel channel) {
+        List<String> recipients = config.get().getSubscriptions().resolve(event, channel);
+        if (logger.isDebugEnabled())
+            logger.debug(channel + " " + event.getEventType() + " routed to " + recipients.size() + " recipient(s)");
+        if (channel == DeliveryChannel.SMS && smsWindow != null)
+            smsWindow.offer(event, recipients);
+        else
+            sendEmail(event, recipients, channel);
+    }
+
+    /**
+     * sendCoalesced()
+     *   called by the sms window with the events held for a group of
+     *   recipients; a single event is sent as it would have been without
+     *   the window, several are merged into one segment
+     *
+     * @param events the events, most urgent first
+     * @param recipients the sms addresses to send to
+     */
+    public void sendCoalesced(List<WxrEvent> events, List<String> recipients) {
+        if (events.size() == 1) {
+            sendEmail(events.get(0), recipients, DeliveryChannel.SMS);
+            return;
         }
         try {
-            if (logger.isDebugEnabled())
-                logger.debug("closing socket");
-            if (socket != null)
-                socket.close();
-        } catch (Exception e) {
-            logger.warn(e);
+            send(getRenderer().renderDigest(events, DeliveryChannel.SMS, MessageRenderer.SMS_SEGMENT), recipients);
+        } catch (MessagingException e) {
+            logger.error("Failed to render " + events.size() + " coalesced sms events", e);
+        }
+    }
+
+    /**
+     * loadSubscriptions()
+     *   loads the first configuration: the routing index over the
+     *   subscription file, if one was given, plus the --email and --sms
+     *   recipients, who get every event, the relays and any county table,
+     *   overlaid with the --config file
+     *
+     * @return false if a source could not be read
+     */
+    boolean loadSubscriptions() {
+        ConfigLoader loader = new ConfigLoader(getBaseConfig(),
+                getConfigFile() == null ? null : new File(getConfigFile()));
+        ClientConfig initial;
+        try {
+            initial = loader.load();
+        } catch (IOException e) {
+            logger.error("Failed to load configuration: " + e.getMessage());
+            return false;
+        }
+        config = new ConfigWatcher(loader, initial);
+        if (initial.getCounties() != null)
+            CountyTable.setDefault(initial.getCounties());
+        logger.info("Routing to " + initial.getSubscriptions().size() + " subscription(s)");
+        return true;
+    }
+
+    /**
+     * getBaseConfig()
+     *   the command line settings, in ConfigLoader's keys
+     */
+    private Properties getBaseConfig() {
+        Properties base = new Properties();
+        if (getMailProperties() != null)
+            base.putAll(getMailProperties());
+        base.setProperty(ConfigLoader.EMAIL, join(getEmailRecipients()));
+        base.setProperty(ConfigLoader.SMS, join(getSmsRecipients()));
+        if (getSubscriptionFile() != null)
+            base.setProperty(ConfigLoader.SUBSCRIPTIONS, getSubscriptionFile());
+        if (getMailHost() != null)
+            base.setProperty(ConfigLoader.MAIL_HOST, getMailHost());
+        if (getMailUser() != null)
+            base.setProperty(ConfigLoader.MAIL_USER, getMailUser());
+        base.setProperty(ConfigLoader.MAIL_CONNECTIONS, String.valueOf(getMailConnections()));
+        base.setProperty(ConfigLoader.CHUNK_SIZE, String.valueOf(getChunkSize()));
+        base.setProperty(ConfigLoader.RELAY_RATE, String.valueOf(getRelayRate()));
+        return base;
+    }
+
+    private static String join(List<String> addresses) {
+        StringBuilder sb = new StringBuilder();
+        for (String address : addresses) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(address);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * configChanged()
+     *   called on the watcher thread once a new configuration is in use;
+     *   publishes its county table and, if the relays changed, replaces
+     *   the fan-out, retiring the old one once sends on it have finished
+     */
+    private void configChanged(ClientConfig previous, ClientConfig current) {
+        if (current.getCounties() != previous.getCounties())
+            CountyTable.setDefault(current.getCounties());
+        if (!current.hasSameRelays(previous)) {
+            FanoutSender old;
+            synchronized (this) {
+                old = fanout;
+                fanout = null;
+            }
+            if (old != null) {
+                logger.info("Relays changed, switching to " + current.getMailHosts());
+                old.retire(RETIRE_GRACE);
+            }
+        }
+    }
+
+    /**
+     * warmup()
+     *   loads and checks the county table and the event code catalog,
+     *   creates the mail sessions, and runs synthetic alerts through
+     *   decoding, routing, rendering and sending on a NullTransport, so the
+     *   first real alert does not pay for loading tables and classes or
+     *   wait for the JIT
+     *
+     * @return false if a table is missing, empty or inconsistent
+     */
+    boolean warmup() {
+        long start = System.nanoTime();
+        CountyTable counties;
+        try {
+            counties = CountyTable.getDefault();
+        } catch (InvalidEventException e) {
+            logger.error("Failed to load the county table: " + e.getMessage());
+            return false;
+        }
+        if (counties.size() == 0) {
+            logger.error("The county table is empty");
+            return false;
+        }
+        for (EventCode code : EventCode.values()) {
+            if (code != EventCode.UNKNOWN
+                    && (EventCode.lookup(code.name()) != code || EventCode.lookup(code.getPackedCode()) != code)) {
+                logger.error("Event code " + code + " does not look itself up");
+                return false;
+            }
+        }
+        for (MailRelay relay : getFanout().getRelays()) {
+            try {
+                relay.getPool().getSession().getTransport();
+            } catch (MessagingException e) {
+                logger.error("No mail transport for relay " + relay + ": " + e.getMessage());
+                return false;
+            }
         }
+        long tables = System.nanoTime();
+
+        Properties props = new Properties();
+        props.setProperty("mail.from", getMailFrom());
+        props.setProperty("mail.transport.protocol", NullTransport.PROTOCOL);
+        // a registry of its own, so the warmup sends are not exported as a relay
+        MailRelay relay = new MailRelay("warmup", props, 1, 0, new MetricsRegistry());
+        relay.getPool().getSession().addProvider(NullTransport.PROVIDER);
+        List<MailRelay> relays = new ArrayList<MailRelay>();
+        relays.add(relay);
+        FanoutSender sender = new FanoutSender(relays, config.get().getChunkSize(), 1);
+        List<String> recipients = new ArrayList<String>();
+        recipients.add("warmup@localhost");
+        recipients.add("5550000000@warmup.localhost");
+        SubscriptionIndex subscriptions = config.get().getSubscriptions();
+        DuplicateFilter duplicates = new DuplicateFilter();
+        WxrReportParser parser = new WxrReportParser();
+        WxrReport report = new WxrReport();
+        List<WxrEvent> digest = new ArrayList<WxrEvent>();
+        long issued = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < WARMUP_ALERTS; i++) {
+                String time = ZonedDateTime.ofInstant(Instant.ofEpochMilli(issued + i * 60000L), ZoneId.systemDefault())
+                        .format(WARMUP_TIME);
+                byte[] line = ("WXR " + WARMUP_CODES[i % WARMUP_CODES.length] + " "
+                        + WARMUP_LOCATIONS[i % WARMUP_LOCATIONS.length] + " " + time + "+0100")
+                        .getBytes(StandardCharsets.US_ASCII);
+                if (!parser.parse(line, 0, line.length, report) || duplicates.isDuplicate(report))
+                    continue;
+                WxrEvent event = new WxrEvent();
+                event.parse(report);
+                event.setSource("warmup");
+                for (DeliveryChannel channel : DeliveryChannel.values()) {
+                    subscriptions.resolve(event, channel);
+                    final RenderedMessage rendered = getRenderer().render(event, channel);
+                    if (i % WARMUP_SEND_EVERY == 0)
+                        sendWarmup(sender, rendered, recipients);
+                }
+                digest.add(event);
+                if (i % WARMUP_SEND_EVERY == 0) {
+                    sendWarmup(sender, getRenderer().renderDigest(digest, DeliveryChannel.SMS, MessageRenderer.SMS_SEGMENT),
+                            recipients);
+                    digest.clear();
+                }
+            }
+        } catch (InvalidEventException e) {
+            logger.error("Warmup failed", e);
+            return false;
+        } catch (MessagingException e) {
+            logger.error("Warmup failed", e);
+            return false;
+        } finally {
+            sender.close();
+        }
+        long done = System.nanoTime();
+        logger.info("Warmed up in " + (done - start) / 1000000L + "ms: " + counties.size() + " counties and "
+                + (EventCode.values().length - 1) + " event codes checked in " + (tables - start) / 1000000L + "ms, "
+                + WARMUP_ALERTS + " synthetic alerts in " + (done - tables) / 1000000L + "ms");
+        return true;
+    }
+
+    private static void sendWarmup(FanoutSender sender, final RenderedMessage rendered, List<String> recipients) {
+        sender.send(new MessageFactory() {
+            public MimeMessage create(Session session, Address[] addresses) throws MessagingException {
+                return rendered.createMessage(session, addresses);
+            }
+        }, recipients);
     }
 
     /**
@@ -173,6 +479,8 @@ public class WxrClient {
             logger.debug("WXRD v0.2 - (C) 2006, bechter.com");
             logger.debug("  All rights reserved.");
         }
+        if (!loadSubscriptions())
+            return;
         // simulated wxrd response line is a Required Weekly Test for 2 Ohio counties
         responseLine = "WXR RWT 039103-039153 20061130T145709+0600";
         if (logger.isDebugEnabled())
@@ -206,9 +514,9 @@ public class WxrClient {
      *   
      * @param event a parsed event for which to send email 
      */
-    private void emailEvent(WxrEvent event) {
-        sendEmail(event, getSmsRecipients(), false);
-        sendEmail(event, getEmailRecipients(), true);
+    void emailEvent(WxrEvent event) {
+        dispatch(event, DeliveryChannel.SMS);
+        dispatch(event, DeliveryChannel.EMAIL);
     }
     
     /**
@@ -217,61 +525,88 @@ public class WxrClient {
      *   
      * @param event - the parsed wxrd event
      * @param emailRecipients - a List of email addresses to send the message to
-     * @param fullText - boolean, if true send full text, if false send abbreviated messare (for SMS)
+     * @param channel - the channel whose templates render the message, full text for EMAIL, abbreviated for SMS
      */
-    private void sendEmail(WxrEvent event, List<String> emailRecipients, boolean fullText) {
+    private void sendEmail(WxrEvent event, List<String> emailRecipients, DeliveryChannel channel) {
         if (logger.isDebugEnabled())
             logger.debug("emailEvent called");
         if (emailRecipients != null && emailRecipients.size() > 0) {
+            RenderedMessage rendered;
             try {
-                Address[] recipients = new Address[emailRecipients.size()];
-                for (int i = 0; i < emailRecipients.size(); i++) {
-                    recipients[i] = new InternetAddress(emailRecipients.get(i));
-                }
+                rendered = getRenderer().render(event, channel);
+            } catch (MessagingException e) {
+                logger.error("Failed to render " + channel + " message for " + event.getEventType(), e);
+                return;
+            }
+            send(rendered, emailRecipients);
+        }
+    }
+
+    /**
+     * send()
+     *   hands a rendered message to the fan-out for every recipient
+     */
+    private void send(final RenderedMessage rendered, List<String> recipients) {
+        getFanout().send(new MessageFactory() {
+            public MimeMessage create(Session session, Address[] addresses) throws MessagingException {
+                return rendered.createMessage(session, addresses);
+            }
+        }, recipients);
+    }
+
+    /**
+     * getRenderer()
+     *   - gets the renderer that builds each channel's message once per
+     *     event, creating it on first use
+     *
+     * @return the message renderer
+     */
+    private synchronized MessageRenderer getRenderer() {
+        if (renderer == null)
+            renderer = new MessageRenderer(getMailFrom(), getMailTo());
+        return renderer;
+    }
+    
+    /**
+     * getFanout()
+     *   - gets the sender that spreads recipients over the mail relays of
+     *     the current configuration, creating it on first use and after the
+     *     relays change; shared by every dispatch worker
+     *
+     * @return the fan-out sender
+     */
+    private FanoutSender getFanout() {
+        FanoutSender f = fanout;
+        if (f != null)
+            return f;
+        synchronized (this) {
+            if (fanout == null) {
+                ClientConfig c = config.get();
                 Properties props = new Properties();
-                try {
-                    props.setProperty("mail.subject", event.getEventTypeDescription());
-                } catch (InvalidEventException e) {
-                    logger.error(e);
-                    props.setProperty("mail.subject", "unknown event (" + event.getEventType() + ") ");
-                }
                 props.setProperty("mail.from", getMailFrom());
-                props.setProperty("mail.to", getMailTo());
                 props.setProperty("mail.debug", "false");
-                props.setProperty("mail.host", getMailHost());
-                props.setProperty("mail.user", getMailUser());
-                javax.mail.Session emailSession = javax.mail.Session.getInstance(props);
-                MimeMessage msg = new MimeMessage(emailSession);
-                msg.setFrom(new InternetAddress(props.getProperty("mail.from")));
-                msg.setRecipient(Message.RecipientType.TO, new InternetAddress(
-                        props.getProperty("mail.to")));
-                msg.setSubject(props.getProperty("mail.subject"));
-                msg.setRecipients(RecipientType.BCC, recipients);
-                if (fullText)
-                    msg.setText(event.toString());
-                else {
-                    String eventText = null;
-                    try {
-                        eventText = event.getEventTypeDescription(); 
-                    } catch (InvalidEventException iee) {
-                        // if the event description lookup fails just send the code
-                        eventText = event.getEventType();
-                    }
-                    msg.setText(eventText + " until " + df.format(event.getExpiresTime()));
-                }
-		// mark the message "Urgent" 
-		msg.addHeader("X-Priority", "1");
-		msg.addHeader("Priority", "urgent");
-                Transport.send(msg);
-            } catch (AddressException e) {
-                logger.error(e);
-            } catch (MessagingException e) {
-                logger.error(e);
+                if (c.getMailUser() != null)
+                    props.setProperty("mail.user", c.getMailUser());
+                props.putAll(c.getMailProperties());
+                List<MailRelay> relays = new ArrayList<MailRelay>();
+                for (String host : c.getMailHosts())
+                    relays.add(new MailRelay(host, props, c.getMailConnections(), c.getRelayRate()));
+                fanout = new FanoutSender(relays, c.getChunkSize(), relays.size() * c.getMailConnections());
             }
-
+            return fanout;
         }
     }
-    
+
+    /**
+     * getActiveAlerts()
+     *   - gets the registry of alerts currently in force
+     *
+     * @return the active alerts
+     */
+    public ActiveAlerts getActiveAlerts() {
+        return activeAlerts;
+    }
+
     /**
      * getHost()
      *   - get the configured wxrd host
@@ -312,6 +647,39 @@ public class WxrClient {
         this.port = port;
     }
 
+    /**
+     * getEndpoints()
+     *   - get the wxrd servers to follow; unless set explicitly these come
+     *     from the host parameter, a comma-separated list of host[:port]
+     *     where a host without a port uses the configured port
+     *
+     * @return Returns the endpoints.
+     */
+    public List<InetSocketAddress> getEndpoints() {
+        if (endpoints == null) {
+            List<String> hosts = new ArrayList<String>();
+            parseAddresses(hosts, getHost());
+            endpoints = new ArrayList<InetSocketAddress>();
+            for (String host : hosts) {
+                int colon = host.lastIndexOf(':');
+                if (colon < 0)
+                    endpoints.add(InetSocketAddress.createUnresolved(host, getPort()));
+                else
+                    endpoints.add(InetSocketAddress.createUnresolved(host.substring(0, colon),
+                            Integer.parseInt(host.substring(colon + 1))));
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * @param endpoints
+     *            The endpoints to set.
+     */
+    public void setEndpoints(List<InetSocketAddress> endpoints) {
+        this.endpoints = endpoints;
+    }
+
     /**
      * @return Returns the emailRecipients.
      */
@@ -361,6 +729,24 @@ public class WxrClient {
         return mailHost;
     }
 
+    /**
+     * setMailProperties()
+     *   - sets extra javax.mail session properties, e.g. for TLS, applied
+     *     on top of the ones built from the command line
+     *
+     * @param mailProperties
+     */
+    public void setMailProperties(Properties mailProperties) {
+        this.mailProperties = mailProperties;
+    }
+
+    /**
+     * @return the extra javax.mail session properties
+     */
+    public Properties getMailProperties() {
+        return mailProperties;
+    }
+
     /**
      * setMailUser()
      *   - sets the user login for the SMTP mail host
@@ -396,6 +782,143 @@ public class WxrClient {
         return mailTo;
     }
 
+    /**
+     * sets the maximum number of open connections to each SMTP mail host
+     *
+     * @param mailConnections
+     */
+    public void setMailConnections(int mailConnections) {
+        this.mailConnections = mailConnections;
+    }
+
+    /**
+     * @return the maximum number of open connections to each SMTP mail host
+     */
+    public int getMailConnections() {
+        return mailConnections;
+    }
+
+    /**
+     * sets the maximum number of recipients in one message
+     *
+     * @param chunkSize
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the maximum number of recipients in one message
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * sets the messages per second allowed on each mail relay, 0 for no limit
+     *
+     * @param relayRate
+     */
+    public void setRelayRate(double relayRate) {
+        this.relayRate = relayRate;
+    }
+
+    /**
+     * @return the messages per second allowed on each mail relay
+     */
+    public double getRelayRate() {
+        return relayRate;
+    }
+
+    /**
+     * sets how long events below WARNING are held for an sms recipient so
+     * that several can be sent as one message, 0 to send each at once
+     *
+     * @param smsWindowMillis
+     */
+    public void setSmsWindow(long smsWindowMillis) {
+        this.smsWindowMillis = smsWindowMillis;
+    }
+
+    /**
+     * @return milliseconds events below WARNING are held for an sms recipient
+     */
+    public long getSmsWindow() {
+        return smsWindowMillis;
+    }
+
+    /**
+     * sets the properties file of recipients, relays and lookup tables that
+     * is watched and reloaded
+     *
+     * @param configFile
+     */
+    public void setConfigFile(String configFile) {
+        this.configFile = configFile;
+    }
+
+    /**
+     * @return the watched configuration file, null for none
+     */
+    public String getConfigFile() {
+        return configFile;
+    }
+
+    /**
+     * @return the configuration in use, null until it has been loaded
+     */
+    public ClientConfig getConfig() {
+        return config == null ? null : config.get();
+    }
+
+    /**
+     * sets the file of per-subscriber locations and event codes
+     *
+     * @param subscriptionFile
+     */
+    public void setSubscriptionFile(String subscriptionFile) {
+        this.subscriptionFile = subscriptionFile;
+    }
+
+    /**
+     * @return the file of per-subscriber locations and event codes
+     */
+    public String getSubscriptionFile() {
+        return subscriptionFile;
+    }
+
+    /**
+     * sets the directory the journal of received lines and events is kept in
+     *
+     * @param journalDirectory
+     */
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * @return the directory the journal is kept in, null for no journal
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * sets the port metrics are served on over HTTP, 0 for none
+     *
+     * @param metricsPort
+     */
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * @return the port metrics are served on, 0 for none
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
     /**
      *   sets the email address that sent mail will be from
      *   
@@ -413,6 +936,42 @@ public class WxrClient {
         return mailFrom;
     }
     
+    /**
+     * sets whether tables are checked and the alert path exercised before
+     * connecting
+     *
+     * @param warmup
+     */
+    public void setWarmup(boolean warmup) {
+        this.warmup = warmup;
+    }
+
+    /**
+     * @return true if the client warms up before connecting
+     */
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    /**
+     * sets whether the client exits once it has warmed up, for training a
+     * class-data archive
+     *
+     * @param warmupOnly
+     */
+    public void setWarmupOnly(boolean warmupOnly) {
+        this.warmupOnly = warmupOnly;
+        if (warmupOnly)
+            this.warmup = true;
+    }
+
+    /**
+     * @return true if the client exits once it has warmed up
+     */
+    public boolean isWarmupOnly() {
+        return warmupOnly;
+    }
+
     /**
      * sets the test (simulation) mode
      * 
@@ -442,12 +1001,27 @@ public class WxrClient {
         System.err.println("usage:");
         System.err.println("    -h | --help     : print this message");
         System.err.println("    -t | --host     : hostname of host running wxrd (default is localhost)");
+        System.err.println("                      or a comma-separated list of host[:port] to follow several wxrd servers");
         System.err.println("    -p | --port     : port on host running wxrd to connect to (default is 9317)");
         System.err.println("    -e | --email    : email address (or comma-separated list of addresses) to email");
         System.err.println("    -s | --sms      : sms email gateway address (or comma-separated list of addresses) to sms");
+        System.err.println("    -i | --subscriptions : file of subscribers with the locations and event codes each one wants");
+        System.err.println("    -o | --config   : properties file of recipients, relays and lookup tables;");
+        System.err.println("                      it and the files it names are reloaded without a restart when they change");
         System.err.println("    -m | --mailhost : SMTP email host to use to send email");
+        System.err.println("                      or a comma-separated list of host[:port] relays to spread recipients over");
         System.err.println("    -u | --mailuser : SMTP username used to send email");
+        System.err.println("    -c | --mailconnections : maximum open connections to each SMTP mail host (default is 4)");
+        System.err.println("    -k | --chunksize : maximum recipients in one message (default is 50)");
+        System.err.println("    -r | --relayrate : messages per second allowed on each SMTP mail host (default is no limit)");
+        System.err.println("    -w | --smswindow : seconds to hold non-warning events for an sms recipient and send them as one");
+        System.err.println("                      (default is 5, 0 for none)");
         System.err.println("    -f | --from     : email address to appear in the \"from\" of the email/sms");
+        System.err.println("    -j | --journal  : directory to keep a journal of every line and event received in");
+        System.err.println("    -x | --metrics  : port to serve metrics on at /metrics (default is none; always exported over JMX)");
+        System.err.println("    -W | --warmup   : load and check every table and run synthetic alerts through to a null");
+        System.err.println("                      transport before connecting, so the first real alert is not slowed down");
+        System.err.println("    --warmup-only   : warm up as -W and exit, to train a class-data archive");
     }
 
     /**
@@ -483,17 +1057,37 @@ public class WxrClient {
                     parseAddresses(getEmailRecipients(), args[++i]);
                 else if ("-s".equals(arg) || "--sms".equals(arg))
                     parseAddresses(getSmsRecipients(), args[++i]);
+                else if ("-i".equals(arg) || "--subscriptions".equals(arg))
+                    setSubscriptionFile(args[++i]);
+                else if ("-o".equals(arg) || "--config".equals(arg))
+                    setConfigFile(args[++i]);
                 else if ("-m".equals(arg) || "--mailhost".equals(arg))
                     setMailHost(args[++i]);
                 else if ("-u".equals(arg) || "--mailuser".equals(arg))
                     setMailUser(args[++i]);
+                else if ("-c".equals(arg) || "--mailconnections".equals(arg))
+                    setMailConnections(Integer.parseInt(args[++i]));
+                else if ("-k".equals(arg) || "--chunksize".equals(arg))
+                    setChunkSize(Integer.parseInt(args[++i]));
+                else if ("-r".equals(arg) || "--relayrate".equals(arg))
+                    setRelayRate(Double.parseDouble(args[++i]));
+                else if ("-w".equals(arg) || "--smswindow".equals(arg))
+                    setSmsWindow((long)(Double.parseDouble(args[++i]) * 1000L));
                 else if ("-f".equals(arg) || "--mailfrom".equals(arg))
                     setMailFrom(args[++i]);
+                else if ("-j".equals(arg) || "--journal".equals(arg))
+                    setJournalDirectory(args[++i]);
+                else if ("-x".equals(arg) || "--metrics".equals(arg))
+                    setMetricsPort(Integer.parseInt(args[++i]));
                 else if ("-h".equals(arg) || "--help".equals(arg)) {
                     usage();
                     System.exit(1);
                 } else if ("-T".equals(arg) || "--test".equals(arg))
                     setTest(true);
+                else if ("-W".equals(arg) || "--warmup".equals(arg))
+                    setWarmup(true);
+                else if ("--warmup-only".equals(arg))
+                    setWarmupOnly(true);
                 else
                     throw new Exception("Invalid argument " + arg);
                 i++;
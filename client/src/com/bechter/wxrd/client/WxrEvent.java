@@ -8,30 +8,38 @@
  */
 package com.bechter.wxrd.client;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Properties;
 import java.util.StringTokenizer;
 
 /**
  * @author joe
  *
+ *   Thread safety: all static state is immutable once published. The date
+ *   formatters are java.time formatters, event codes come from the compiled
+ *   EventCode catalog and the county table is an immutable CountyTable
+ *   published through a volatile field, loaded once or swapped whole when
+ *   the configuration is reloaded.
+ *   parse(), toString(), getLocationDescription() and isActive() may therefore
+ *   be called from any number of threads without locking, on separate
+ *   instances, or on a shared instance once it has been parsed and safely
+ *   published (no setter called afterwards).
+ *
+ *   Serializable is kept for existing callers; WxrEventCodec is the compact
+ *   binary form, far smaller and faster, and it reads nothing but
+ *   plain fields, so it is the one to use for anything stored or sent.
  */
 public class WxrEvent implements Serializable {
     private static final long serialVersionUID = 1L;
-    private static Map<String, String> codeMap = null;
-    private static Map<String, String> counties = null;
-    private static final SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
-    private static final SimpleDateFormat tsdf = new SimpleDateFormat("HH:mm MMM dd yyyy");
+    private static final DateTimeFormatter df = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final DateTimeFormatter tsdf = DateTimeFormatter.ofPattern("HH:mm MMM dd yyyy");
 
     private List<String> locations = null;
     private String origin = null;
@@ -66,61 +74,53 @@ public class WxrEvent implements Serializable {
             }
             String time = st.nextToken();
             int plus = time.indexOf("+");
-                setEventTime(df.parse(time.substring(0, plus)));
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(getEventTime());
-            cal.add(Calendar.HOUR, Integer.parseInt(time.substring(plus + 1, plus + 3)));
-            cal.add(Calendar.MINUTE, Integer.parseInt(time.substring(plus + 3, plus + 5)));
-            setExpiresTime(cal.getTime());
+            Instant issued = LocalDateTime.parse(time.substring(0, plus), df)
+                    .atZone(ZoneId.systemDefault()).toInstant();
+            Duration purge = Duration.ofHours(Integer.parseInt(time.substring(plus + 1, plus + 3)))
+                    .plusMinutes(Integer.parseInt(time.substring(plus + 3, plus + 5)));
+            setEventTime(Date.from(issued));
+            setExpiresTime(Date.from(issued.plus(purge)));
         } catch (Exception e) {
             throw new InvalidEventException("Failed to parse raw message '" + message + "'", e);
         }
     }
 
     /**
-     * Transforms an event code to its text description
-     * 
-     * @return
-     * @throws InvalidEventException 
+     * populates the event from a line already decoded by a WxrReportParser
+     *
+     * @param report a successfully parsed report
+     * @throws InvalidEventException if the report holds a parse error
      */
-    public String getEventTypeDescription() throws InvalidEventException {
-        String description = getCodeMap().get(getEventType());
-        return description == null ? "Unknown Event" : description;
+    public void parse(WxrReport report) throws InvalidEventException {
+        if (!report.isValid())
+            throw new InvalidEventException("Invalid report: " + report.getErrorDescription()
+                    + " at offset " + report.getErrorOffset(), null);
+        setSource("wxrd");
+        setOrigin(report.getOriginString());
+        setEventType(report.getEventCodeString());
+        List<String> locations = new ArrayList<String>(report.getLocationCount());
+        for (int i = 0; i < report.getLocationCount(); i++)
+            locations.add(WxrReport.locationToString(report.getLocation(i)));
+        setLocations(locations);
+        setEventTime(new Date(report.getEventTime()));
+        setExpiresTime(new Date(report.getExpiresTime()));
     }
 
     /**
+     * Transforms an event code to its text description
      * 
-     * @return map of event codes and text descriptions
+     * @return
      * @throws InvalidEventException 
      */
-    private Map<String, String> getCodeMap() throws InvalidEventException {
-        if (codeMap == null)
-            codeMap = populateCodeMap();
-        return codeMap;
+    public String getEventTypeDescription() throws InvalidEventException {
+        return getEventCode().getDescription();
     }
-    
+
     /**
-     * Populates the map of event codes and text transalations
-     * 
-     * @return 
-     * @throws InvalidEventException 
+     * @return the catalog entry for the event type, UNKNOWN if it is not a known code
      */
-    private Map<String, String> populateCodeMap() throws InvalidEventException {
-        Map<String, String> map = new HashMap<String, String>();
-        Properties properties = new Properties();
-        InputStream is;
-        is = Thread.currentThread().getContextClassLoader().getResourceAsStream("alerts.properties");
-        try {
-            properties.load(is);
-            Enumeration keys = properties.keys();
-            while (keys.hasMoreElements()) {
-                String key = (String)keys.nextElement();
-                map.put(key, properties.getProperty(key));
-            }
-        } catch (IOException e) {
-            throw new InvalidEventException("Failed to load alerts.properties", e);
-        }
-        return map;
+    public EventCode getEventCode() {
+        return EventCode.lookup(getEventType());
     }
     
     /**
@@ -129,59 +129,18 @@ public class WxrEvent implements Serializable {
      * @throws InvalidEventException 
      */
     public String getLocationDescription() throws InvalidEventException {
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
+        CountyTable counties = CountyTable.getDefault();
         List<String> locations = getLocations();
         for (int i = 0; i < locations.size(); i++) {
-            String county = getCounties().get(locations.get(i));
-            if (county == null)
-                county = "(" + locations.get(i) + ")";
-            sb.append(county);
-            if (i < locations.size() - 2)
-                sb.append(", ");
-            else if (i < locations.size() - 1 && locations.size() > 1)
-                sb.append(" and ");
+            if (!counties.appendName(sb, CountyTable.parseCode(locations.get(i))))
+                sb.append('(').append(locations.get(i)).append(')');
+            CountyTable.appendSeparator(sb, i, locations.size());
         }
-        if (locations.size() == 1)
-            sb.append(" County");
-        else
-            sb.append(" Counties");
+        CountyTable.appendSuffix(sb, locations.size());
         return sb.toString();
     }
     
-    /**
-     * 
-     * @return map of FIPS codes and county names for Ohio
-     * @throws InvalidEventException 
-     */
-    private Map<String, String> getCounties() throws InvalidEventException {
-        if (counties == null)
-            counties = populateCounties();
-        return counties;
-    }
-    
-    /**
-     * 
-     * @return populated map of FIPS codes and county names
-     * @throws InvalidEventException 
-     */
-    private Map<String, String> populateCounties() throws InvalidEventException {
-        Map<String, String> map = new HashMap<String, String>();
-        Properties properties = new Properties();
-        InputStream is;
-        is = Thread.currentThread().getContextClassLoader().getResourceAsStream("counties.properties");
-        try {
-            properties.load(is);
-            Enumeration keys = properties.keys();
-            while (keys.hasMoreElements()) {
-                String key = (String)keys.nextElement();
-                map.put(key, properties.getProperty(key));
-            }
-        } catch (IOException e) {
-            throw new InvalidEventException("Failed to load counties.properties", e);
-        }
-        return map;
-    }
-    
     /**
      * 
      * @return
@@ -202,12 +161,13 @@ public class WxrEvent implements Serializable {
     }
     
     /**
-     * 
+     * checks the purge time on every call; ActiveAlerts tracks the alerts
+     * in force without polling
+     *
      * @return
      */
     public boolean isActive() {
-        Date now = new Date();
-        return now.compareTo(getExpiresTime()) <= 0;
+        return System.currentTimeMillis() <= getExpiresTime().getTime();
     }
 
     /**
@@ -307,7 +267,7 @@ public class WxrEvent implements Serializable {
             sb.append(getLocationDescription());
             if (getExpiresTime() != null) {
                 sb.append(" until ");
-                sb.append(tsdf.format(getExpiresTime()));
+                sb.append(tsdf.format(getExpiresTime().toInstant().atZone(ZoneId.systemDefault())));
             }
             sb.append(".");
             return sb.toString();
@@ -316,6 +276,16 @@ public class WxrEvent implements Serializable {
         }
     }
     
+    /**
+     * the issue time is left out of the hash because equals() allows a
+     * tolerance on it
+     */
+    public int hashCode() {
+        int h = getEventType() == null ? 0 : getEventType().hashCode();
+        h = h * 31 + (getOrigin() == null ? 0 : getOrigin().hashCode());
+        return h * 31 + (getLocations() == null ? 0 : getLocations().hashCode());
+    }
+
     /**
      * 
      */
@@ -0,0 +1,220 @@
+/*
+ * WxrEventCodec.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * WxrEventCodec
+ *
+ *   Compact, versioned binary form of an event, in place of Java
+ *   serialization. An encoded event is
+ *
+ *      byte version
+ *      byte origin       1 WXR, 2 EAS, 3 CIV, 4 PEP, 0 other: varint packed code follows
+ *      varint event      catalog index + 1, 0 not in the catalog: varint packed code follows
+ *      varint issued     seconds since the epoch
+ *      varint purge      minutes from issue to expiry
+ *      byte count        number of locations
+ *      varint locations  zigzag difference of each PSSCCC code from the one before
+ *
+ *   Varints are seven bits to a byte, low bits first, so a typical event
+ *   takes 15 to 20 bytes. Neighbouring counties have nearby codes, which
+ *   makes most location differences one byte. Times are kept to the second
+ *   and the purge interval to the minute, as SAME gives them. The source
+ *   server is not part of the encoding; it belongs to whatever carries the
+ *   bytes.
+ *
+ *   The event index is the position in the EventCode catalog, so new codes
+ *   must be added after the last known one (just before UNKNOWN), or
+ *   VERSION raised.
+ *
+ *   encode() and decode() for WxrReport read and write the caller's buffer
+ *   and report and allocate nothing, except for the exception on bad input.
+ *   Encoding that does not fit throws BufferOverflowException; MAX_SIZE
+ *   bytes always fit.
+ */
+public final class WxrEventCodec {
+    public static final byte VERSION = 1;
+    /** the largest encoded event */
+    public static final int MAX_SIZE = 1 + 1 + 5 + 5 + 5 + 10 + 5 + 1 + WxrReport.MAX_LOCATIONS * 5;
+
+    private static final int[] ORIGINS = {
+        WxrReport.packCode("WXR"), WxrReport.packCode("EAS"), WxrReport.packCode("CIV"), WxrReport.packCode("PEP")
+    };
+    private static final EventCode[] CATALOG = EventCode.values();
+
+    private WxrEventCodec() {
+    }
+
+    /**
+     * @param report a valid report
+     * @param buffer written from its position, which is left after the event
+     */
+    public static void encode(WxrReport report, ByteBuffer buffer) {
+        buffer.put(VERSION);
+        putOrigin(buffer, report.getOrigin());
+        putEventCode(buffer, report.getEventCode());
+        putVarint(buffer, Math.floorDiv(report.getEventTime(), 1000L));
+        putVarint(buffer, report.getPurgeMinutes());
+        int count = report.getLocationCount();
+        buffer.put((byte)count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int location = report.getLocation(i);
+            putVarint(buffer, zigzag(location - previous));
+            previous = location;
+        }
+    }
+
+    /**
+     * @param event a parsed event, with at most WxrReport.MAX_LOCATIONS six digit locations
+     * @param buffer written from its position, which is left after the event
+     * @throws IllegalArgumentException if the event has a location that is not six digits
+     */
+    public static void encode(WxrEvent event, ByteBuffer buffer) {
+        List<String> locations = event.getLocations();
+        int count = locations.size();
+        if (count > WxrReport.MAX_LOCATIONS)
+            throw new IllegalArgumentException("more than " + WxrReport.MAX_LOCATIONS + " locations");
+        long issued = event.getEventTime().getTime();
+        buffer.put(VERSION);
+        putOrigin(buffer, WxrReport.packCode(event.getOrigin()));
+        putEventCode(buffer, WxrReport.packCode(event.getEventType()));
+        putVarint(buffer, Math.floorDiv(issued, 1000L));
+        putVarint(buffer, (int)((event.getExpiresTime().getTime() - issued) / 60000L));
+        buffer.put((byte)count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int location = CountyTable.parseCode(locations.get(i));
+            if (location < 0)
+                throw new IllegalArgumentException("invalid location " + locations.get(i));
+            putVarint(buffer, zigzag(location - previous));
+            previous = location;
+        }
+    }
+
+    /**
+     * @param buffer read from its position, which is left after the event
+     * @param report filled with the event
+     * @throws InvalidEventException if the bytes are not an event of a known version
+     */
+    public static void decode(ByteBuffer buffer, WxrReport report) throws InvalidEventException {
+        report.reset();
+        try {
+            byte version = buffer.get();
+            if (version != VERSION)
+                throw new InvalidEventException("Unknown event encoding version " + version, null);
+            int origin = buffer.get() & 0xff;
+            if (origin == 0)
+                report.setOrigin((int)getVarint(buffer));
+            else if (origin <= ORIGINS.length)
+                report.setOrigin(ORIGINS[origin - 1]);
+            else
+                throw new InvalidEventException("Invalid origin " + origin, null);
+            int index = (int)getVarint(buffer);
+            if (index == 0)
+                report.setEventCode((int)getVarint(buffer));
+            else if (index < CATALOG.length)
+                report.setEventCode(CATALOG[index - 1].getPackedCode());
+            else
+                throw new InvalidEventException("Invalid event index " + index, null);
+            report.setEventTime(getVarint(buffer) * 1000L);
+            report.setPurgeMinutes((int)getVarint(buffer));
+            int count = buffer.get() & 0xff;
+            if (count > WxrReport.MAX_LOCATIONS)
+                throw new InvalidEventException("Too many locations: " + count, null);
+            int location = 0;
+            for (int i = 0; i < count; i++) {
+                location += unzigzag((int)getVarint(buffer));
+                report.addLocation(location);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new InvalidEventException("Truncated event", e);
+        }
+    }
+
+    /**
+     * @param buffer read from its position, which is left after the event
+     * @return a new event, with source "wxrd"
+     * @throws InvalidEventException if the bytes are not an event of a known version
+     */
+    public static WxrEvent decode(ByteBuffer buffer) throws InvalidEventException {
+        WxrReport report = new WxrReport();
+        decode(buffer, report);
+        WxrEvent event = new WxrEvent();
+        event.parse(report);
+        return event;
+    }
+
+    private static void putOrigin(ByteBuffer buffer, int origin) {
+        for (int i = 0; i < ORIGINS.length; i++) {
+            if (ORIGINS[i] == origin) {
+                buffer.put((byte)(i + 1));
+                return;
+            }
+        }
+        buffer.put((byte)0);
+        putVarint(buffer, origin);
+    }
+
+    private static void putEventCode(ByteBuffer buffer, int code) {
+        EventCode entry = EventCode.lookup(code);
+        if (entry == EventCode.UNKNOWN) {
+            buffer.put((byte)0);
+            putVarint(buffer, code);
+        } else
+            putVarint(buffer, entry.ordinal() + 1);
+    }
+
+    private static int zigzag(int n) {
+        return n << 1 ^ n >> 31;
+    }
+
+    private static int unzigzag(int n) {
+        return n >>> 1 ^ -(n & 1);
+    }
+
+    /**
+     * writes an unsigned varint; ints are widened without sign extension,
+     * so a negative int takes five bytes
+     */
+    private static void putVarint(ByteBuffer buffer, int n) {
+        putVarint(buffer, n & 0xffffffffL);
+    }
+
+    private static void putVarint(ByteBuffer buffer, long n) {
+        while ((n & ~0x7fL) != 0) {
+            buffer.put((byte)(n & 0x7f | 0x80));
+            n >>>= 7;
+        }
+        buffer.put((byte)n);
+    }
+
+    private static long getVarint(ByteBuffer buffer) throws InvalidEventException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            n |= (long)(b & 0x7f) << shift;
+            if (b >= 0)
+                return n;
+        }
+        throw new InvalidEventException("Malformed varint", null);
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * WxrMultiplexer.java
+ *
+ *   Follows any number of wxrd servers from a single thread.
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.journal.Journal;
+import com.bechter.wxrd.client.metrics.Counter;
+import com.bechter.wxrd.client.metrics.Gauge;
+import com.bechter.wxrd.client.metrics.Histogram;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+import com.bechter.wxrd.client.pipeline.EventHandler;
+import com.bechter.wxrd.client.pipeline.ParkingWaitStrategy;
+import com.bechter.wxrd.client.pipeline.RingBuffer;
+import com.bechter.wxrd.client.pipeline.SlotFactory;
+import com.bechter.wxrd.client.pipeline.StageProcessor;
+import com.bechter.wxrd.client.pipeline.WaitStrategy;
+
+/**
+ * WxrMultiplexer
+ *
+ *   Holds a non-blocking connection to every configured wxrd endpoint and
+ *   services all of them from one selector thread. Each connection frames
+ *   its own input into lines and skips the two line banner and the "*"
+ *   keepalive pings.
+ *
+ *   Report lines are copied into the slots of a RingBuffer and processed by
+ *   stages, each on its own thread:
+ *
+ *      wxrd-decode    decodes the line with a WxrReportParser and passes it
+ *                     through a DuplicateFilter, so when several radios hear
+ *                     the same alert, or a radio hears the repeated header
+ *                     bursts, only the first arrival becomes an event
+ *      wxrd-journal   if a Journal is set, records every line as received
+ *                     and every event, after wxrd-decode
+ *      wxrd-notify    passes each event, tagged with the endpoint it came
+ *                     from, to the listener, after wxrd-decode
+ *
+ *   The journal and notify stages each go through every slot on their own,
+ *   so a slow disk does not delay notification. The receiving thread will
+ *   not overwrite a slot either has not finished with: if the ring fills,
+ *   it stops reading until they catch up, and TCP holds the servers back.
+ *   Nothing is dropped. How the stages wait is set with setWaitStrategy().
+ *
+ *   Lines, parse failures, duplicates, the time from reading a line to a
+ *   parsed event, the gaps between each server's keepalives, the slots in
+ *   use and the times the ring was full are recorded in the default
+ *   MetricsRegistry.
+ *
+ *   A connection that fails, closes, or stays silent (or unconnected) for
+ *   longer than READ_TIMEOUT (wxrd pings every 10 seconds) is closed and
+ *   retried with an exponential back off.
+ */
+public class WxrMultiplexer implements Runnable {
+    public static final String WXR_PING = "*";
+    private static final int BANNER_LINES = 2;
+    private static final int MAX_LINE = 1024;
+    private static final long READ_TIMEOUT = 30000L;
+    private static final long SELECT_TIMEOUT = 1000L;
+    private static final long MIN_RECONNECT_DELAY = 1000L;
+    private static final long MAX_RECONNECT_DELAY = 60000L;
+    public static final int DEFAULT_RING_SIZE = 256;
+    /** how long stop() lets the stages finish the lines already read */
+    private static final long DRAIN_TIMEOUT = 5000L;
+
+    private final Logger logger = Logger.getLogger(WxrMultiplexer.class);
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final WxrEventListener listener;
+    private Selector selector = null;
+    private volatile Journal journal = null;
+    private WaitStrategy waitStrategy = new ParkingWaitStrategy();
+    private int ringSize = DEFAULT_RING_SIZE;
+    private RingBuffer<ReceivedLine> ring = null;
+    private final Counter linesReceived;
+    private final Counter invalidLines;
+    private final Counter duplicateEvents;
+    private final Counter ringStalls;
+    private final Histogram parseTime;
+    private volatile boolean running = false;
+
+    /**
+     * state for one wxrd endpoint
+     */
+    private static class Connection {
+        final String host;
+        final int port;
+        final String name;
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE);
+        final Histogram keepaliveGap;
+        SocketChannel channel = null;
+        SelectionKey key = null;
+        int lines = 0;
+        boolean discarding = false;
+        long lastRead = 0L;
+        long readNanos = 0L;
+        long lastPing = 0L;
+        long reconnectAt = 0L;
+        long reconnectDelay = MIN_RECONNECT_DELAY;
+
+        Connection(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.name = host + ":" + port;
+            this.keepaliveGap = MetricsRegistry.getDefault().histogram("wxrd_keepalive_gap_millis", "endpoint", name,
+                    "time between keepalive pings from a wxrd server");
+        }
+    }
+
+    /**
+     * @param endpoints the wxrd servers to follow
+     * @param listener receives each distinct event
+     */
+    public WxrMultiplexer(List<InetSocketAddress> endpoints, WxrEventListener listener) {
+        for (InetSocketAddress endpoint : endpoints)
+            connections.add(new Connection(endpoint.getHostString(), endpoint.getPort()));
+        this.listener = listener;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        linesReceived = metrics.counter("wxrd_lines_total", "report lines received");
+        invalidLines = metrics.counter("wxrd_invalid_lines_total", "report lines that failed to parse");
+        duplicateEvents = metrics.counter("wxrd_duplicates_total", "reports dropped as duplicates");
+        parseTime = metrics.histogram("wxrd_parse_micros", "time from reading a line to a parsed event");
+        ringStalls = metrics.counter("wxrd_ring_stalls_total", "times the receiving thread waited for a full ring");
+    }
+
+    /**
+     * @param journal records the lines and events received, null for none;
+     *        set before run()
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @param waitStrategy how the stages wait for lines, parking by default;
+     *        set before run()
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * @param ringSize lines in flight between the receiving thread and the
+     *        slowest stage, a power of two; set before run()
+     */
+    public void setRingSize(int ringSize) {
+        this.ringSize = ringSize;
+    }
+
+    /**
+     * services the connections until stop() is called
+     */
+    public void run() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            logger.error("Failed to open selector", e);
+            return;
+        }
+        List<StageProcessor<ReceivedLine>> stages = startStages();
+        running = true;
+        while (running) {
+            long now = System.currentTimeMillis();
+            for (Connection c : connections) {
+                if (c.channel == null) {
+                    if (now >= c.reconnectAt)
+                        connect(c, now);
+                } else if (now - c.lastRead > READ_TIMEOUT) {
+                    logger.warn("No data from " + c.name + " for " + (now - c.lastRead) + "ms, reconnecting");
+                    close(c, now);
+                }
+            }
+            try {
+                selector.select(SELECT_TIMEOUT);
+            } catch (IOException e) {
+                logger.error("select failed", e);
+                break;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection c = (Connection)key.attachment();
+                try {
+                    if (key.isConnectable())
+                        finishConnect(c);
+                    else if (key.isReadable())
+                        read(c);
+                } catch (IOException e) {
+                    logger.warn("Connection to " + c.name + " failed: " + e);
+                    close(c, System.currentTimeMillis());
+                }
+            }
+        }
+        for (Connection c : connections)
+            if (c.channel != null)
+                close(c, 0L);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        stopStages(stages);
+    }
+
+    /**
+     * builds the ring and starts a thread for each stage
+     *
+     * @return the stages, the last ones (which gate the ring) first
+     */
+    private List<StageProcessor<ReceivedLine>> startStages() {
+        final RingBuffer<ReceivedLine> ring = new RingBuffer<ReceivedLine>(new SlotFactory<ReceivedLine>() {
+            public ReceivedLine newSlot() {
+                return new ReceivedLine(MAX_LINE);
+            }
+        }, ringSize, waitStrategy);
+        List<StageProcessor<ReceivedLine>> stages = new ArrayList<StageProcessor<ReceivedLine>>();
+        StageProcessor<ReceivedLine> decode = new StageProcessor<ReceivedLine>("wxrd-decode", ring,
+                ring.newBarrier(), new DecodeStage());
+        StageProcessor<ReceivedLine> notify = new StageProcessor<ReceivedLine>("wxrd-notify", ring,
+                ring.newBarrier(decode.getSequence()), new NotifyStage());
+        stages.add(notify);
+        Journal journal = this.journal;
+        if (journal != null)
+            stages.add(new StageProcessor<ReceivedLine>("wxrd-journal", ring,
+                    ring.newBarrier(decode.getSequence()), new JournalStage(journal)));
+        for (StageProcessor<ReceivedLine> stage : stages)
+            ring.addGatingSequences(stage.getSequence());
+        stages.add(decode);
+        for (StageProcessor<ReceivedLine> stage : stages)
+            stage.newThread().start();
+        final List<StageProcessor<ReceivedLine>> gating = new ArrayList<StageProcessor<ReceivedLine>>(stages.subList(0, stages.size() - 1));
+        MetricsRegistry.getDefault().gauge("wxrd_ring_backlog", "lines read but not yet through every stage", new Gauge() {
+            public long getValue() {
+                long slowest = ring.getCursor();
+                for (StageProcessor<ReceivedLine> stage : gating)
+                    slowest = Math.min(slowest, stage.getSequence().get());
+                return ring.getCursor() - slowest;
+            }
+        });
+        this.ring = ring;
+        return stages;
+    }
+
+    /**
+     * lets the stages finish the lines already read, then stops them
+     */
+    private void stopStages(List<StageProcessor<ReceivedLine>> stages) {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        long cursor = ring.getCursor();
+        for (StageProcessor<ReceivedLine> stage : stages) {
+            while (stage.getSequence().get() < cursor && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (stage.getSequence().get() < cursor)
+                logger.warn("Stage " + stage.getName() + " stopped with " + (cursor - stage.getSequence().get()) + " line(s) unprocessed");
+            stage.halt();
+        }
+    }
+
+    /**
+     * asks the receiving thread to close its connections and return
+     */
+    public void stop() {
+        running = false;
+        Selector s = selector;
+        if (s != null)
+            s.wakeup();
+    }
+
+    private void connect(Connection c, long now) {
+        if (logger.isDebugEnabled())
+            logger.debug("connecting to " + c.name);
+        c.lastRead = now;
+        try {
+            c.channel = SocketChannel.open();
+            c.channel.configureBlocking(false);
+            // resolve on every attempt so a daemon that moves is picked up
+            if (c.channel.connect(new InetSocketAddress(c.host, c.port))) {
+                c.key = c.channel.register(selector, SelectionKey.OP_READ, c);
+                connected(c);
+            } else {
+                c.key = c.channel.register(selector, SelectionKey.OP_CONNECT, c);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to connect to " + c.name + ": " + e);
+            close(c, now);
+        } catch (UnresolvedAddressException e) {
+            logger.warn("Failed to connect to " + c.name + ": unknown host");
+            close(c, now);
+        }
+    }
+
+    private void finishConnect(Connection c) throws IOException {
+        if (c.channel.finishConnect()) {
+            c.key.interestOps(SelectionKey.OP_READ);
+            connected(c);
+        }
+    }
+
+    private void connected(Connection c) {
+        logger.info("Connected to wxrd at " + c.name);
+        c.buffer.clear();
+        c.lines = 0;
+        c.discarding = false;
+        c.lastRead = System.currentTimeMillis();
+        c.lastPing = 0L;
+        c.reconnectDelay = MIN_RECONNECT_DELAY;
+    }
+
+    private void close(Connection c, long now) {
+        if (c.key != null)
+            c.key.cancel();
+        try {
+            if (c.channel != null)
+                c.channel.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        c.key = null;
+        c.channel = null;
+        c.reconnectAt = now + c.reconnectDelay;
+        c.reconnectDelay = Math.min(c.reconnectDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    /**
+     * reads what is available and hands each complete line to line()
+     */
+    private void read(Connection c) throws IOException {
+        ByteBuffer buffer = c.buffer;
+        int n = c.channel.read(buffer);
+        if (n < 0) {
+            logger.warn("wxrd at " + c.name + " closed the connection");
+            close(c, System.currentTimeMillis());
+            return;
+        }
+        c.lastRead = System.currentTimeMillis();
+        c.readNanos = System.nanoTime();
+        buffer.flip();
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                line(c, start, i);
+                start = i + 1;
+            }
+        }
+        buffer.position(start);
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            // no line is this long, drop it up to the next newline
+            logger.error("Line from " + c.name + " exceeds " + MAX_LINE + " bytes, discarding");
+            buffer.clear();
+            c.discarding = true;
+        }
+    }
+
+    private void line(Connection c, int start, int end) {
+        if (c.discarding) {
+            c.discarding = false;
+            return;
+        }
+        byte[] data = c.buffer.array();
+        int len = end - start;
+        if (len > 0 && data[start + len - 1] == '\r')
+            len--;
+        if (c.lines < BANNER_LINES) {
+            c.lines++;
+            if (logger.isDebugEnabled())
+                logger.debug(c.name + ": " + new String(data, start, len, StandardCharsets.US_ASCII));
+            return;
+        }
+        if (len == 0)
+            return;
+        if (len == 1 && data[start] == WXR_PING.charAt(0)) {
+            if (c.lastPing != 0L)
+                c.keepaliveGap.record(c.lastRead - c.lastPing);
+            c.lastPing = c.lastRead;
+            return;
+        }
+        linesReceived.increment();
+        long stalls = ring.getStallCount();
+        long sequence = ring.next();
+        if (ring.getStallCount() != stalls)
+            ringStalls.increment();
+        ReceivedLine slot = ring.get(sequence);
+        System.arraycopy(data, start, slot.data, 0, len);
+        slot.length = len;
+        slot.source = c.name;
+        slot.receivedAt = c.lastRead;
+        slot.readNanos = c.readNanos;
+        slot.status = ReceivedLine.STATUS_NEW;
+        slot.event = null;
+        ring.publish(sequence);
+    }
+
+    /**
+     * parses each line and drops duplicates; the parser and filter are only
+     * used from this stage's thread
+     */
+    private class DecodeStage implements EventHandler<ReceivedLine> {
+        private final WxrReportParser parser = new WxrReportParser();
+        private final DuplicateFilter duplicates = new DuplicateFilter();
+
+        public void onEvent(ReceivedLine slot, long sequence, boolean endOfBatch) {
+            WxrReport report = slot.report;
+            if (!parser.parse(slot.data, 0, slot.length, report)) {
+                slot.status = ReceivedLine.STATUS_INVALID;
+                invalidLines.increment();
+                logger.error("Invalid event from " + slot.source + " for '"
+                        + new String(slot.data, 0, slot.length, StandardCharsets.US_ASCII) + "': "
+                        + report.getErrorDescription() + " at offset " + report.getErrorOffset());
+                return;
+            }
+            if (duplicates.isDuplicate(report)) {
+                slot.status = ReceivedLine.STATUS_DUPLICATE;
+                duplicateEvents.increment();
+                if (logger.isDebugEnabled())
+                    logger.debug("Duplicate event from " + slot.source + " dropped");
+                return;
+            }
+            WxrEvent event = new WxrEvent();
+            try {
+                event.parse(report);
+            } catch (InvalidEventException e) {
+                slot.status = ReceivedLine.STATUS_INVALID;
+                logger.error(e);
+                return;
+            }
+            event.setSource(slot.source);
+            slot.event = event;
+            slot.status = ReceivedLine.STATUS_EVENT;
+            parseTime.record((System.nanoTime() - slot.readNanos) / 1000L);
+        }
+    }
+
+    /**
+     * records every line as received and every event
+     */
+    private class JournalStage implements EventHandler<ReceivedLine> {
+        private final Journal journal;
+
+        JournalStage(Journal journal) {
+            this.journal = journal;
+        }
+
+        public void onEvent(ReceivedLine slot, long sequence, boolean endOfBatch) {
+            try {
+                journal.appendLine(slot.receivedAt, slot.source, slot.data, 0, slot.length);
+                if (slot.status == ReceivedLine.STATUS_EVENT)
+                    journal.appendReport(slot.receivedAt, slot.source, slot.report);
+            } catch (IOException e) {
+                logger.error("Failed to journal line from " + slot.source + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * hands each event to the listener
+     */
+    private class NotifyStage implements EventHandler<ReceivedLine> {
+
+        public void onEvent(ReceivedLine slot, long sequence, boolean endOfBatch) {
+            if (slot.status != ReceivedLine.STATUS_EVENT)
+                return;
+            try {
+                listener.eventReceived(slot.event);
+            } catch (RuntimeException e) {
+                logger.error("Listener failed for event from " + slot.source, e);
+            }
+        }
+    }
+}
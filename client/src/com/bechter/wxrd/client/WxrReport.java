@@ -0,0 +1,244 @@
+/*
+ * WxrReport.java
+ *
+ *   Reusable, mutable holder for one decoded wxrd report line.
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+/**
+ * WxrReport
+ *
+ *   Result object filled in by {@link WxrReportParser}. A single instance is
+ *   meant to be reused for every line read from a stream, so all fields are
+ *   primitives: the three letter origin and event codes are packed into an int
+ *   (one ASCII character per byte) and the PSSCCC location codes are kept as
+ *   ints in a fixed array. Strings are only built when a caller asks for them,
+ *   typically once an event has survived filtering and is about to be dispatched.
+ *
+ *   Instances are not thread safe.
+ */
+public class WxrReport {
+    /** SAME allows at most 31 location codes in a single header */
+    public static final int MAX_LOCATIONS = 31;
+
+    public static final int OK = 0;
+    public static final int ERROR_EMPTY = 1;
+    public static final int ERROR_ORIGIN = 2;
+    public static final int ERROR_EVENT = 3;
+    public static final int ERROR_LOCATION = 4;
+    public static final int ERROR_TOO_MANY_LOCATIONS = 5;
+    public static final int ERROR_TIME = 6;
+    public static final int ERROR_PURGE = 7;
+    public static final int ERROR_TRAILING = 8;
+
+    private static final String[] ERROR_TEXT = {
+        "ok",
+        "empty line",
+        "invalid origin code",
+        "invalid event code",
+        "invalid location code",
+        "too many location codes",
+        "invalid issue time",
+        "invalid purge time",
+        "unexpected trailing characters"
+    };
+
+    private int origin;
+    private int eventCode;
+    private final int[] locations = new int[MAX_LOCATIONS];
+    private int locationCount;
+    private long eventTime;
+    private int purgeMinutes;
+    private int error;
+    private int errorOffset;
+
+    /**
+     * clears all fields so the instance can be filled again
+     */
+    public void reset() {
+        origin = 0;
+        eventCode = 0;
+        locationCount = 0;
+        eventTime = 0L;
+        purgeMinutes = 0;
+        error = OK;
+        errorOffset = -1;
+    }
+
+    /**
+     * @return true if the last parse succeeded
+     */
+    public boolean isValid() {
+        return error == OK;
+    }
+
+    /**
+     * @return one of the ERROR_ constants, OK if the last parse succeeded
+     */
+    public int getError() {
+        return error;
+    }
+
+    /**
+     * @return offset of the offending character within the parsed line, -1 if none
+     */
+    public int getErrorOffset() {
+        return errorOffset;
+    }
+
+    /**
+     * @return a short text for the current error code
+     */
+    public String getErrorDescription() {
+        return ERROR_TEXT[error];
+    }
+
+    void fail(int error, int offset) {
+        this.error = error;
+        this.errorOffset = offset;
+    }
+
+    /**
+     * @return the origin code packed one ASCII character per byte, e.g. 'W' 'X' 'R'
+     */
+    public int getOrigin() {
+        return origin;
+    }
+
+    void setOrigin(int origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * @return the event code packed one ASCII character per byte, e.g. 'R' 'W' 'T'
+     */
+    public int getEventCode() {
+        return eventCode;
+    }
+
+    void setEventCode(int eventCode) {
+        this.eventCode = eventCode;
+    }
+
+    /**
+     * @return number of location codes in the report
+     */
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    /**
+     * @param index 0 based index, less than getLocationCount()
+     * @return the PSSCCC location code as an int, e.g. 39153 for "039153"
+     */
+    public int getLocation(int index) {
+        if (index < 0 || index >= locationCount)
+            throw new IndexOutOfBoundsException("location " + index + " of " + locationCount);
+        return locations[index];
+    }
+
+    boolean addLocation(int location) {
+        if (locationCount == MAX_LOCATIONS)
+            return false;
+        locations[locationCount++] = location;
+        return true;
+    }
+
+    /**
+     * @return the issue time in milliseconds since the epoch
+     */
+    public long getEventTime() {
+        return eventTime;
+    }
+
+    void setEventTime(long eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    /**
+     * @return the +HHMM purge interval in minutes
+     */
+    public int getPurgeMinutes() {
+        return purgeMinutes;
+    }
+
+    void setPurgeMinutes(int purgeMinutes) {
+        this.purgeMinutes = purgeMinutes;
+    }
+
+    /**
+     * @return the time the event expires in milliseconds since the epoch
+     */
+    public long getExpiresTime() {
+        return eventTime + purgeMinutes * 60000L;
+    }
+
+    /**
+     * @return the origin code as a String
+     */
+    public String getOriginString() {
+        return codeToString(origin);
+    }
+
+    /**
+     * @return the event code as a String
+     */
+    public String getEventCodeString() {
+        return codeToString(eventCode);
+    }
+
+    /**
+     * packs a three letter code into an int, one ASCII character per byte
+     *
+     * @param code a three character code such as "RWT"
+     * @return the packed code
+     */
+    public static int packCode(CharSequence code) {
+        if (code == null || code.length() != 3)
+            throw new IllegalArgumentException("code must be three characters: " + code);
+        return (code.charAt(0) & 0xff) << 16 | (code.charAt(1) & 0xff) << 8 | code.charAt(2) & 0xff;
+    }
+
+    /**
+     * @param code a code packed by packCode()
+     * @return the three character String form of the code
+     */
+    public static String codeToString(int code) {
+        char[] c = { (char)(code >> 16 & 0xff), (char)(code >> 8 & 0xff), (char)(code & 0xff) };
+        return new String(c);
+    }
+
+    /**
+     * appends a location code in its zero padded six digit form
+     *
+     * @param sb buffer to append to
+     * @param location a PSSCCC location code
+     */
+    public static void appendLocation(StringBuilder sb, int location) {
+        for (int div = 100000; div > 0; div /= 10)
+            sb.append((char)('0' + location / div % 10));
+    }
+
+    /**
+     * @param location a PSSCCC location code
+     * @return the zero padded six digit form of the location code
+     */
+    public static String locationToString(int location) {
+        StringBuilder sb = new StringBuilder(6);
+        appendLocation(sb, location);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * WxrReportParser.java
+ *
+ *   Allocation free parser for the report lines written by wxrd.
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+
+/**
+ * WxrReportParser
+ *
+ *   Decodes a line in the format produced by parse_message() in wxrd.c
+ *
+ *      WXR RWT 039103-039153 20061130T145709+0600
+ *
+ *   directly from a byte[] slice, a ByteBuffer or a CharSequence into a
+ *   reusable {@link WxrReport}. No intermediate Strings, Dates or Calendars are
+ *   created; errors are reported through the report's error code instead of
+ *   an exception so a bad line in a capture file costs nothing extra.
+ *
+ *   The issue time is written by wxrd in the daemon's local time, so the
+ *   parser is given the time zone to interpret it in (the JVM default unless
+ *   told otherwise). The purge time is added as elapsed time, the same as
+ *   Calendar.add() did in WxrEvent.parse().
+ *
+ *   A parser keeps a reference to the input while parsing, so an instance
+ *   must not be shared between threads. Create one per stream.
+ */
+public class WxrReportParser {
+    private static final int SOURCE_BYTES = 0;
+    private static final int SOURCE_BUFFER = 1;
+    private static final int SOURCE_CHARS = 2;
+
+    private final TimeZone timeZone;
+
+    private int sourceType;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private CharSequence chars;
+    private int base;
+
+    /**
+     * creates a parser that reads issue times in the default time zone
+     */
+    public WxrReportParser() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * @param timeZone the time zone of the wxrd host
+     */
+    public WxrReportParser(TimeZone timeZone) {
+        // TimeZone is mutable, keep a private copy
+        this.timeZone = (TimeZone)timeZone.clone();
+    }
+
+    /**
+     * parses len bytes of ASCII text starting at off
+     *
+     * @param line buffer holding the line
+     * @param off offset of the first character
+     * @param len number of bytes, a trailing CR/LF is allowed
+     * @param report filled in with the result
+     * @return true if the line was a valid report
+     */
+    public boolean parse(byte[] line, int off, int len, WxrReport report) {
+        sourceType = SOURCE_BYTES;
+        bytes = line;
+        base = off;
+        try {
+            return parse(len, report);
+        } finally {
+            bytes = null;
+        }
+    }
+
+    /**
+     * parses the bytes between the buffer's position and limit;
+     * the position of the buffer is not changed
+     *
+     * @param line buffer holding the line
+     * @param report filled in with the result
+     * @return true if the line was a valid report
+     */
+    public boolean parse(ByteBuffer line, WxrReport report) {
+        sourceType = SOURCE_BUFFER;
+        buffer = line;
+        base = line.position();
+        try {
+            return parse(line.remaining(), report);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * @param line the report text
+     * @param report filled in with the result
+     * @return true if the line was a valid report
+     */
+    public boolean parse(CharSequence line, WxrReport report) {
+        sourceType = SOURCE_CHARS;
+        chars = line;
+        base = 0;
+        try {
+            return parse(line.length(), report);
+        } finally {
+            chars = null;
+        }
+    }
+
+    private int charAt(int i) {
+        switch (sourceType) {
+        case SOURCE_BYTES:
+            return bytes[base + i] & 0xff;
+        case SOURCE_BUFFER:
+            return buffer.get(base + i) & 0xff;
+        default:
+            return chars.charAt(i);
+        }
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isCodeChar(int c) {
+        return c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    private int skipSpace(int i, int len) {
+        while (i < len && isSpace(charAt(i)))
+            i++;
+        return i;
+    }
+
+    /**
+     * reads n decimal digits starting at i
+     *
+     * @return the value, or -1 if a character is not a digit
+     */
+    private int digits(int i, int n, int len) {
+        if (i + n > len)
+            return -1;
+        int value = 0;
+        for (int j = i; j < i + n; j++) {
+            int c = charAt(j);
+            if (!isDigit(c))
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * reads a three character code followed by white space
+     *
+     * @return the packed code, or -1 if invalid
+     */
+    private int code(int i, int len) {
+        if (i + 3 >= len)
+            return -1;
+        int code = 0;
+        for (int j = i; j < i + 3; j++) {
+            int c = charAt(j);
+            if (!isCodeChar(c))
+                return -1;
+            code = code << 8 | c;
+        }
+        return isSpace(charAt(i + 3)) ? code : -1;
+    }
+
+    private boolean parse(int len, WxrReport report) {
+        report.reset();
+        int i = skipSpace(0, len);
+        if (i == len) {
+            report.fail(WxrReport.ERROR_EMPTY, 0);
+            return false;
+        }
+
+        int origin = code(i, len);
+        if (origin < 0) {
+            report.fail(WxrReport.ERROR_ORIGIN, i);
+            return false;
+        }
+        report.setOrigin(origin);
+        i = skipSpace(i + 3, len);
+
+        int event = code(i, len);
+        if (event < 0) {
+            report.fail(WxrReport.ERROR_EVENT, i);
+            return false;
+        }
+        report.setEventCode(event);
+        i = skipSpace(i + 3, len);
+
+        // PSSCCC[-PSSCCC]...
+        while (true) {
+            int location = digits(i, 6, len);
+            if (location < 0) {
+                report.fail(WxrReport.ERROR_LOCATION, i);
+                return false;
+            }
+            if (!report.addLocation(location)) {
+                report.fail(WxrReport.ERROR_TOO_MANY_LOCATIONS, i);
+                return false;
+            }
+            i += 6;
+            if (i < len && charAt(i) == '-')
+                i++;
+            else
+                break;
+        }
+        if (i == len || !isSpace(charAt(i))) {
+            report.fail(WxrReport.ERROR_LOCATION, i);
+            return false;
+        }
+        i = skipSpace(i, len);
+
+        // yyyyMMdd'T'HHmmss
+        int start = i;
+        int year = digits(i, 4, len);
+        int month = digits(i + 4, 2, len);
+        int day = digits(i + 6, 2, len);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || i + 8 >= len || charAt(i + 8) != 'T') {
+            report.fail(WxrReport.ERROR_TIME, start);
+            return false;
+        }
+        int hour = digits(i + 9, 2, len);
+        int minute = digits(i + 11, 2, len);
+        int second = digits(i + 13, 2, len);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            report.fail(WxrReport.ERROR_TIME, start);
+            return false;
+        }
+        i += 15;
+        report.setEventTime(toEpochMillis(year, month, day, hour, minute, second));
+
+        // +HHMM
+        int purgeHours = i < len && charAt(i) == '+' ? digits(i + 1, 2, len) : -1;
+        int purgeMinutes = purgeHours < 0 ? -1 : digits(i + 3, 2, len);
+        if (purgeMinutes < 0) {
+            report.fail(WxrReport.ERROR_PURGE, i);
+            return false;
+        }
+        report.setPurgeMinutes(purgeHours * 60 + purgeMinutes);
+        i = skipSpace(i + 5, len);
+
+        if (i != len) {
+            report.fail(WxrReport.ERROR_TRAILING, i);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+        case 2:
+            return isLeapYear(year) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * days since 1970-01-01 for a proleptic Gregorian date
+     */
+    private static long epochDay(int year, int month, int day) {
+        // shift the year to start in March so the leap day is the last day
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    /**
+     * converts local wall clock fields to milliseconds since the epoch
+     */
+    private long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        long local = ((epochDay(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+        // the offset depends on the instant, so look it up twice to settle on the right side of a transition
+        int offset = timeZone.getOffset(local - timeZone.getRawOffset());
+        return local - timeZone.getOffset(local - offset);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * ActiveAlert.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.active;
+
+import com.bechter.wxrd.client.WxrEvent;
+
+/**
+ * ActiveAlert
+ *
+ *   an event held by ActiveAlerts until its purge time, with the county
+ *   codes (SSCCC) it is filed under
+ */
+public final class ActiveAlert {
+    private final WxrEvent event;
+    private final long expiresTime;
+    final int[] counties;
+    TimerWheel.Timer<ActiveAlert> timer;
+
+    ActiveAlert(WxrEvent event, int[] counties) {
+        this.event = event;
+        this.expiresTime = event.getExpiresTime().getTime();
+        this.counties = counties;
+    }
+
+    /**
+     * @return the event
+     */
+    public WxrEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the purge time, in milliseconds since the epoch
+     */
+    public long getExpiresTime() {
+        return expiresTime;
+    }
+
+    /**
+     * @return true if the alert is still in force at time now
+     */
+    public boolean isActive(long now) {
+        return now < expiresTime;
+    }
+
+    public String toString() {
+        return event.toString();
+    }
+}
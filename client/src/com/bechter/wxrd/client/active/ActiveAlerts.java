@@ -0,0 +1,258 @@
+/*
+ * ActiveAlerts.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.active;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.WxrEvent;
+
+/**
+ * ActiveAlerts
+ *
+ *   Registry of the alerts currently in force, filed by county. Each
+ *   location of an event (PSSCCC) is filed under its county code SSCCC; the
+ *   part-of-county digit is dropped, so an alert for part of a county is
+ *   active for the county. SS000 (a whole state) and 000000 (everywhere) are
+ *   filed under 0 and SS000 and found by every county they cover, so
+ *   getActive() is three table lookups whatever the number of alerts.
+ *
+ *   Expiry is driven by a TimerWheel with a one second tick on a daemon
+ *   thread, so each alert is touched once at its purge time and nothing scans
+ *   the registry. Expired alerts are removed and then passed to the
+ *   ExpiryListeners outside the lock. Between ticks getActive() filters on
+ *   the purge time, so an alert is never reported after it has expired.
+ *
+ *   Instances are thread safe.
+ */
+public class ActiveAlerts {
+    public static final long TICK_MILLIS = 1000L;
+
+    private final Logger logger = Logger.getLogger(ActiveAlerts.class);
+    private final Map<Integer, List<ActiveAlert>> byCounty = new HashMap<Integer, List<ActiveAlert>>();
+    private final TimerWheel<ActiveAlert> wheel;
+    private final List<ExpiryListener> listeners = new ArrayList<ExpiryListener>();
+    private final List<ActiveAlert> expired = new ArrayList<ActiveAlert>();
+    private Thread ticker = null;
+    private volatile boolean running = false;
+
+    public ActiveAlerts() {
+        wheel = new TimerWheel<ActiveAlert>(TICK_MILLIS, System.currentTimeMillis());
+    }
+
+    /**
+     * @param listener told about each alert as it expires
+     */
+    public synchronized void addExpiryListener(ExpiryListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * starts the expiry thread
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        ticker = new Thread(new Runnable() {
+            public void run() {
+                while (running) {
+                    try {
+                        Thread.sleep(TICK_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    expire(System.currentTimeMillis());
+                }
+            }
+        }, "wxrd-expiry");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * stops the expiry thread; alerts still held stay in the registry
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = ticker;
+            ticker = null;
+        }
+        if (t != null)
+            t.interrupt();
+    }
+
+    /**
+     * adds an event that is still in force
+     *
+     * @param event a parsed event
+     * @return the registered alert, null if the event has already expired
+     */
+    public ActiveAlert add(WxrEvent event) {
+        if (event.getExpiresTime() == null || event.getLocations() == null)
+            return null;
+        ActiveAlert alert = new ActiveAlert(event, counties(event.getLocations()));
+        if (!alert.isActive(System.currentTimeMillis()))
+            return null;
+        synchronized (this) {
+            for (int county : alert.counties) {
+                Integer key = Integer.valueOf(county);
+                List<ActiveAlert> list = byCounty.get(key);
+                if (list == null)
+                    byCounty.put(key, list = new ArrayList<ActiveAlert>(2));
+                list.add(alert);
+            }
+            alert.timer = wheel.schedule(alert.getExpiresTime(), alert);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Active until " + alert.getExpiresTime() + ": " + event);
+        return alert;
+    }
+
+    /**
+     * removes an alert before its purge time, without telling the listeners
+     *
+     * @return false if it had already expired or been removed
+     */
+    public synchronized boolean remove(ActiveAlert alert) {
+        if (alert.timer == null || !wheel.cancel(alert.timer))
+            return false;
+        unfile(alert);
+        return true;
+    }
+
+    /**
+     * @param county a county code SSCCC, e.g. 39103
+     * @return the alerts in force for the county, including those for its
+     *         whole state or everywhere, oldest first
+     */
+    public List<ActiveAlert> getActive(int county) {
+        long now = System.currentTimeMillis();
+        List<ActiveAlert> result = new ArrayList<ActiveAlert>();
+        synchronized (this) {
+            collect(result, county, now);
+            if (county % 1000 != 0)
+                collect(result, county / 1000 * 1000, now);
+            if (county != 0)
+                collect(result, 0, now);
+        }
+        return result.isEmpty() ? Collections.<ActiveAlert>emptyList() : result;
+    }
+
+    /**
+     * @return number of alerts held
+     */
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    private void collect(List<ActiveAlert> result, int county, long now) {
+        List<ActiveAlert> list = byCounty.get(Integer.valueOf(county));
+        if (list == null)
+            return;
+        for (int i = 0; i < list.size(); i++) {
+            ActiveAlert alert = list.get(i);
+            // an alert listed under several codes of one query is reported once
+            if (alert.isActive(now) && (result.isEmpty() || !contains(result, alert)))
+                result.add(alert);
+        }
+    }
+
+    private static boolean contains(List<ActiveAlert> list, ActiveAlert alert) {
+        for (int i = 0; i < list.size(); i++)
+            if (list.get(i) == alert)
+                return true;
+        return false;
+    }
+
+    /**
+     * evicts the alerts whose purge time has passed and tells the listeners
+     *
+     * @param now the current time
+     */
+    void expire(long now) {
+        ActiveAlert[] done;
+        ExpiryListener[] targets;
+        synchronized (this) {
+            wheel.advance(now, expired);
+            if (expired.isEmpty())
+                return;
+            for (ActiveAlert alert : expired)
+                unfile(alert);
+            done = expired.toArray(new ActiveAlert[expired.size()]);
+            expired.clear();
+            targets = listeners.toArray(new ExpiryListener[listeners.size()]);
+        }
+        for (ActiveAlert alert : done) {
+            for (ExpiryListener listener : targets) {
+                try {
+                    listener.alertExpired(alert);
+                } catch (RuntimeException e) {
+                    logger.error("Expiry listener failed", e);
+                }
+            }
+        }
+    }
+
+    private void unfile(ActiveAlert alert) {
+        for (int county : alert.counties) {
+            Integer key = Integer.valueOf(county);
+            List<ActiveAlert> list = byCounty.get(key);
+            if (list == null)
+                continue;
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i) == alert) {
+                    list.remove(i);
+                    break;
+                }
+            }
+            if (list.isEmpty())
+                byCounty.remove(key);
+        }
+    }
+
+    /**
+     * @return the distinct county codes of a list of PSSCCC locations
+     */
+    private static int[] counties(List<String> locations) {
+        int[] counties = new int[locations.size()];
+        int n = 0;
+        for (String location : locations) {
+            int county;
+            try {
+                county = Integer.parseInt(location) % 100000;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            boolean seen = false;
+            for (int i = 0; i < n && !seen; i++)
+                seen = counties[i] == county;
+            if (!seen)
+                counties[n++] = county;
+        }
+        int[] result = new int[n];
+        System.arraycopy(counties, 0, result, 0, n);
+        return result;
+    }
+}
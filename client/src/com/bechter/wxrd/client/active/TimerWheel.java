@@ -0,0 +1,184 @@
+/*
+ * TimerWheel.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.active;
+
+import java.util.List;
+
+/**
+ * TimerWheel
+ *
+ *   Hierarchical timing wheel. Four levels of 64 slots cover 64, 64^2, 64^3
+ *   and 64^4 ticks; a timer goes into the coarsest level it needs and is
+ *   moved down a level each time the level below wraps around, so it is
+ *   touched at most four times between schedule() and expiry however many
+ *   timers are pending. Timers further out than the top level are parked in
+ *   it and re-filed when it comes round.
+ *
+ *   Slots are intrusive doubly linked lists, so schedule() and cancel() are
+ *   constant time and advance() costs one step per elapsed tick plus the
+ *   timers it moves or expires. There is no scan of pending timers.
+ *
+ *   Not thread safe, the owner locks around it.
+ */
+public class TimerWheel<T> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long tickMillis;
+    private final Timer<T>[] slots;
+    private long tick;
+    private int size = 0;
+
+    /**
+     * a scheduled item, also the list node for its slot
+     */
+    public static final class Timer<T> {
+        private final T item;
+        private long deadline;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        Timer(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return the scheduled item
+         */
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return true until the timer expires or is cancelled
+         */
+        public boolean isPending() {
+            return prev != null;
+        }
+    }
+
+    /**
+     * @param tickMillis resolution of the wheel
+     * @param now the current time in milliseconds
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public TimerWheel(long tickMillis, long now) {
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("tickMillis must be positive");
+        this.tickMillis = tickMillis;
+        this.tick = now / tickMillis;
+        slots = new Timer[LEVELS * SLOTS];
+        for (int i = 0; i < slots.length; i++) {
+            Timer<T> head = new Timer<T>(null, 0L);
+            head.prev = head;
+            head.next = head;
+            slots[i] = head;
+        }
+    }
+
+    /**
+     * @param deadline when the item expires, in milliseconds; a time
+     *            already passed expires on the next tick
+     * @param item the item to hand back on expiry
+     * @return the timer, for cancel()
+     */
+    public Timer<T> schedule(long deadline, T item) {
+        // round up so an item never expires before its deadline
+        Timer<T> timer = new Timer<T>(item, (deadline + tickMillis - 1) / tickMillis);
+        file(timer, tick + 1);
+        size++;
+        return timer;
+    }
+
+    /**
+     * @return false if the timer had already expired or been cancelled
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (!timer.isPending())
+            return false;
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /**
+     * @return number of pending timers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * moves the wheel up to now, adding the items of the timers that expire
+     * to expired in deadline order
+     */
+    public void advance(long now, List<T> expired) {
+        long target = now / tickMillis;
+        while (tick < target) {
+            tick++;
+            // refill the lower levels from the level above each time one wraps
+            for (int level = 1; level < LEVELS && (tick & (1L << BITS * level) - 1) == 0; level++)
+                cascade(level);
+            Timer<T> head = slots[(int)(tick & MASK)];
+            while (head.next != head) {
+                Timer<T> timer = head.next;
+                unlink(timer);
+                size--;
+                expired.add(timer.item);
+            }
+        }
+    }
+
+    private void cascade(int level) {
+        Timer<T> head = slots[level * SLOTS + (int)(tick >>> BITS * level & MASK)];
+        while (head.next != head) {
+            Timer<T> timer = head.next;
+            unlink(timer);
+            // cascading runs before this tick's slot expires, so a deadline of now still makes it
+            file(timer, tick);
+        }
+    }
+
+    /**
+     * puts a timer in the slot for its deadline, at the lowest level whose
+     * span covers it, or for earliest if the deadline is before that
+     */
+    private void file(Timer<T> timer, long earliest) {
+        long deadline = Math.max(timer.deadline, earliest);
+        long delta = deadline - tick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << BITS * (level + 1))
+            level++;
+        if (delta >= 1L << BITS * LEVELS)
+            deadline = tick + (1L << BITS * LEVELS) - 1;
+        Timer<T> head = slots[level * SLOTS + (int)(deadline >>> BITS * level & MASK)];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static <T> void unlink(Timer<T> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
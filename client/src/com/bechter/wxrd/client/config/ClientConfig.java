@@ -0,0 +1,172 @@
+/*
+ * ClientConfig.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.config;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import com.bechter.wxrd.client.CountyTable;
+import com.bechter.wxrd.client.routing.SubscriptionIndex;
+
+/**
+ * ClientConfig
+ *
+ *   One snapshot of everything WxrClient can reload without a restart: the
+ *   recipients and the index routing events to them, the SMTP relays and
+ *   their limits, and the county table. Built by a ConfigLoader and never
+ *   changed afterwards, so it can be read from any thread without locking;
+ *   a change is a new snapshot.
+ */
+public final class ClientConfig {
+    private final long version;
+    private final List<String> emailRecipients;
+    private final List<String> smsRecipients;
+    private final SubscriptionIndex subscriptions;
+    private final CountyTable counties;
+    private final List<String> mailHosts;
+    private final String mailUser;
+    private final int mailConnections;
+    private final int chunkSize;
+    private final double relayRate;
+    private final Properties mailProperties;
+    private final List<File> sources;
+
+    ClientConfig(long version, List<String> emailRecipients, List<String> smsRecipients,
+            SubscriptionIndex subscriptions, CountyTable counties, List<String> mailHosts, String mailUser,
+            int mailConnections, int chunkSize, double relayRate, Properties mailProperties, List<File> sources) {
+        this.version = version;
+        this.emailRecipients = Collections.unmodifiableList(emailRecipients);
+        this.smsRecipients = Collections.unmodifiableList(smsRecipients);
+        this.subscriptions = subscriptions;
+        this.counties = counties;
+        this.mailHosts = Collections.unmodifiableList(mailHosts);
+        this.mailUser = mailUser;
+        this.mailConnections = mailConnections;
+        this.chunkSize = chunkSize;
+        this.relayRate = relayRate;
+        this.mailProperties = mailProperties;
+        this.sources = Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * @return the number of this snapshot, counting from 1 for the first load
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return addresses that get the full text of every event
+     */
+    public List<String> getEmailRecipients() {
+        return emailRecipients;
+    }
+
+    /**
+     * @return addresses that get the sms text of every event
+     */
+    public List<String> getSmsRecipients() {
+        return smsRecipients;
+    }
+
+    /**
+     * @return the routing index over the subscription file and the
+     *         recipients of every event
+     */
+    public SubscriptionIndex getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * @return the county table read from the configured file, null to use
+     *         the one on the class path
+     */
+    public CountyTable getCounties() {
+        return counties;
+    }
+
+    /**
+     * @return host[:port] of each SMTP relay
+     */
+    public List<String> getMailHosts() {
+        return mailHosts;
+    }
+
+    /**
+     * @return the SMTP user name, null for none
+     */
+    public String getMailUser() {
+        return mailUser;
+    }
+
+    /**
+     * @return maximum open connections to each relay
+     */
+    public int getMailConnections() {
+        return mailConnections;
+    }
+
+    /**
+     * @return maximum recipients in one message
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return messages per second allowed on each relay, 0 for no limit
+     */
+    public double getRelayRate() {
+        return relayRate;
+    }
+
+    /**
+     * @return a copy of the mail.* session properties
+     */
+    public Properties getMailProperties() {
+        Properties copy = new Properties();
+        copy.putAll(mailProperties);
+        return copy;
+    }
+
+    /**
+     * @return the files this snapshot was read from
+     */
+    public List<File> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return true if other would send mail through the same relays in the
+     *         same way, so the relay connections can be kept
+     */
+    public boolean hasSameRelays(ClientConfig other) {
+        return mailHosts.equals(other.mailHosts)
+                && (mailUser == null ? other.mailUser == null : mailUser.equals(other.mailUser))
+                && mailConnections == other.mailConnections
+                && chunkSize == other.chunkSize
+                && relayRate == other.relayRate
+                && mailProperties.equals(other.mailProperties);
+    }
+
+    public String toString() {
+        return "configuration " + version + ": " + subscriptions.size() + " subscription(s), "
+                + mailHosts.size() + " relay(s)";
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * ConfigListener.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.config;
+
+/**
+ * ConfigListener
+ *
+ *   told when a ConfigWatcher has swapped in a new configuration
+ */
+public interface ConfigListener {
+
+    /**
+     * called on the watcher's thread after the swap; readers may already be
+     * using the new configuration
+     *
+     * @param previous the configuration replaced
+     * @param current the configuration now in use
+     */
+    void configChanged(ClientConfig previous, ClientConfig current);
+}
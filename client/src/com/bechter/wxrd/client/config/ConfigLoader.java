@@ -0,0 +1,234 @@
+/*
+ * ConfigLoader.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bechter.wxrd.client.CountyTable;
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+import com.bechter.wxrd.client.geo.CountyBoundaries;
+import com.bechter.wxrd.client.geo.CountyLocator;
+import com.bechter.wxrd.client.mail.FanoutSender;
+import com.bechter.wxrd.client.mail.SmtpTransportPool;
+import com.bechter.wxrd.client.routing.Subscription;
+import com.bechter.wxrd.client.routing.SubscriptionIndex;
+
+/**
+ * ConfigLoader
+ *
+ *   Builds ClientConfig snapshots from a set of base settings (those given
+ *   on the command line) overlaid with an optional properties file:
+ *
+ *      email = a@example.com,b@example.com
+ *      sms = 5551234567@vtext.com
+ *      subscriptions = /etc/wxrd/subscriptions
+ *      counties = /etc/wxrd/counties.properties
+ *      boundaries = /etc/wxrd/county-boundaries.txt
+ *      mailhost = relay1:587,relay2
+ *      mailuser = wxrd
+ *      mailconnections = 4
+ *      chunksize = 50
+ *      relayrate = 10
+ *      mail.smtp.starttls.enable = true
+ *
+ *   Keys starting with "mail." are passed to the mail session. The
+ *   subscription and county files named are read as part of the load.
+ *   Every load reads every file again, so a snapshot never mixes old and
+ *   new contents of one source. The exception is the boundary file, which
+ *   subscriptions given as points are resolved against: it is large and
+ *   rarely changes, so it is read again only when its size or modification
+ *   time changes, and its CountyLocator, with the points already resolved,
+ *   is kept from one load to the next. It may be gzipped. Without one,
+ *   points are resolved against the boundaries bundled in the jar, if any
+ *   (see CountyLocator.getDefault()).
+ */
+public class ConfigLoader {
+    public static final String EMAIL = "email";
+    public static final String SMS = "sms";
+    public static final String SUBSCRIPTIONS = "subscriptions";
+    public static final String COUNTIES = "counties";
+    public static final String BOUNDARIES = "boundaries";
+    public static final String MAIL_HOST = "mailhost";
+    public static final String MAIL_USER = "mailuser";
+    public static final String MAIL_CONNECTIONS = "mailconnections";
+    public static final String CHUNK_SIZE = "chunksize";
+    public static final String RELAY_RATE = "relayrate";
+
+    private final Properties base;
+    private final File configFile;
+    private final AtomicLong versions = new AtomicLong();
+    private File boundaryFile;
+    private long boundaryModified;
+    private long boundaryLength;
+    private CountyLocator locator;
+
+    /**
+     * @param base settings used where the file does not set them
+     * @param configFile the properties file, null for none
+     */
+    public ConfigLoader(Properties base, File configFile) {
+        this.base = new Properties();
+        this.base.putAll(base);
+        this.configFile = configFile;
+    }
+
+    /**
+     * reads every source and builds a snapshot
+     *
+     * @return the new snapshot
+     * @throws IOException if a source cannot be read or holds a bad value
+     */
+    public synchronized ClientConfig load() throws IOException {
+        Properties settings = new Properties();
+        settings.putAll(base);
+        List<File> sources = new ArrayList<File>();
+        if (configFile != null) {
+            sources.add(configFile);
+            Reader reader = new InputStreamReader(new FileInputStream(configFile), StandardCharsets.UTF_8);
+            try {
+                settings.load(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        List<String> email = addresses(settings.getProperty(EMAIL));
+        List<String> sms = addresses(settings.getProperty(SMS));
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        for (String address : sms)
+            subscriptions.add(new Subscription(address, DeliveryChannel.SMS, address, null, null));
+        for (String address : email)
+            subscriptions.add(new Subscription(address, DeliveryChannel.EMAIL, address, null, null));
+        CountyLocator locator = null;
+        String boundaries = settings.getProperty(BOUNDARIES);
+        if (boundaries != null) {
+            File file = new File(boundaries);
+            sources.add(file);
+            locator = locator(file);
+        }
+        String subscriptionFile = settings.getProperty(SUBSCRIPTIONS);
+        if (subscriptionFile != null) {
+            File file = new File(subscriptionFile);
+            sources.add(file);
+            Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+            try {
+                subscriptions.addAll(SubscriptionIndex.read(reader, locator));
+            } catch (IOException e) {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            } finally {
+                reader.close();
+            }
+        }
+        CountyTable counties = null;
+        String countyFile = settings.getProperty(COUNTIES);
+        if (countyFile != null) {
+            File file = new File(countyFile);
+            sources.add(file);
+            InputStream is = new FileInputStream(file);
+            try {
+                counties = CountyTable.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        List<String> hosts = addresses(settings.getProperty(MAIL_HOST));
+        if (hosts.isEmpty())
+            hosts.add("localhost");
+        Properties mail = new Properties();
+        for (Enumeration<?> keys = settings.propertyNames(); keys.hasMoreElements();) {
+            String key = (String)keys.nextElement();
+            if (key.startsWith("mail."))
+                mail.setProperty(key, settings.getProperty(key));
+        }
+        return new ClientConfig(versions.incrementAndGet(), email, sms, new SubscriptionIndex(subscriptions), counties,
+                hosts, settings.getProperty(MAIL_USER),
+                positive(settings, MAIL_CONNECTIONS, SmtpTransportPool.DEFAULT_MAX_CONNECTIONS),
+                positive(settings, CHUNK_SIZE, FanoutSender.DEFAULT_CHUNK_SIZE),
+                rate(settings), mail, sources);
+    }
+
+    /**
+     * @return the locator for the boundary file, read again only if the file has changed
+     */
+    private CountyLocator locator(File file) throws IOException {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (locator == null || !file.equals(boundaryFile) || modified != boundaryModified || length != boundaryLength) {
+            InputStream is = new FileInputStream(file);
+            try {
+                locator = new CountyLocator(CountyBoundaries.load(is));
+            } catch (IOException e) {
+                throw new IOException(file + ": " + e.getMessage(), e);
+            } finally {
+                is.close();
+            }
+            boundaryFile = file;
+            boundaryModified = modified;
+            boundaryLength = length;
+        }
+        return locator;
+    }
+
+    private static List<String> addresses(String value) {
+        List<String> addresses = new ArrayList<String>();
+        if (value != null) {
+            StringTokenizer st = new StringTokenizer(value, ",; ");
+            while (st.hasMoreTokens())
+                addresses.add(st.nextToken());
+        }
+        return addresses;
+    }
+
+    private static int positive(Properties settings, String key, int defaultValue) throws IOException {
+        String value = settings.getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n > 0)
+                return n;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException(key + " must be a positive number, not '" + value + "'");
+    }
+
+    private static double rate(Properties settings) throws IOException {
+        String value = settings.getProperty(RELAY_RATE);
+        if (value == null)
+            return 0;
+        try {
+            double rate = Double.parseDouble(value.trim());
+            if (rate >= 0)
+                return rate;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException(RELAY_RATE + " must be a number of messages per second, not '" + value + "'");
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * ConfigWatcher.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.metrics.Counter;
+import com.bechter.wxrd.client.metrics.Gauge;
+import com.bechter.wxrd.client.metrics.Histogram;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+
+/**
+ * ConfigWatcher
+ *
+ *   Holds the ClientConfig in use and replaces it when its sources change.
+ *   A thread watches the directories of the files the current snapshot was
+ *   read from; when one of the files changes, and then nothing changes for
+ *   QUIET milliseconds (so an editor has finished writing), it loads a new
+ *   snapshot and swaps it in with one set() of an AtomicReference.
+ *
+ *   get() is a single volatile read, so the dispatch path takes no lock and
+ *   sees either the whole old configuration or the whole new one. Loading
+ *   happens on the watcher's thread while get() keeps returning the old
+ *   snapshot. A load that fails is logged and the old snapshot kept.
+ *
+ *   Reloads, failures, load time and the version in use are recorded in
+ *   the default MetricsRegistry.
+ */
+public class ConfigWatcher implements Runnable {
+    public static final long QUIET = 500L;
+
+    private final Logger logger = Logger.getLogger(ConfigWatcher.class);
+    private final ConfigLoader loader;
+    private final AtomicReference<ClientConfig> current;
+    private final List<ConfigListener> listeners = new CopyOnWriteArrayList<ConfigListener>();
+    /** file names watched in each directory */
+    private final Map<Path, Set<Path>> watched = new HashMap<Path, Set<Path>>();
+    private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+    private final Counter reloads;
+    private final Counter failures;
+    private final Histogram loadTime;
+    private WatchService watchService = null;
+    private Thread thread = null;
+
+    /**
+     * @param loader builds each new snapshot
+     * @param initial the snapshot to start with
+     */
+    public ConfigWatcher(ConfigLoader loader, ClientConfig initial) {
+        this.loader = loader;
+        this.current = new AtomicReference<ClientConfig>(initial);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        reloads = metrics.counter("config_reloads_total", "configurations swapped in after a change");
+        failures = metrics.counter("config_reload_failures_total", "reloads abandoned because a source was bad");
+        loadTime = metrics.histogram("config_load_millis", "time to read and index a configuration");
+        metrics.gauge("config_version", "version of the configuration in use", new Gauge() {
+            public long getValue() {
+                return current.get().getVersion();
+            }
+        });
+    }
+
+    /**
+     * @return the configuration in use
+     */
+    public ClientConfig get() {
+        return current.get();
+    }
+
+    public void addConfigListener(ConfigListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * starts watching the sources of the current configuration
+     *
+     * @throws IOException if the file system cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null)
+            return;
+        watchService = FileSystems.getDefault().newWatchService();
+        watch(current.get());
+        thread = new Thread(this, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stops watching
+     */
+    public void stop() {
+        Thread t;
+        WatchService ws;
+        synchronized (this) {
+            t = thread;
+            ws = watchService;
+            thread = null;
+            watchService = null;
+        }
+        if (t == null)
+            return;
+        try {
+            ws.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        WatchService ws;
+        synchronized (this) {
+            ws = watchService;
+        }
+        try {
+            while (true) {
+                if (!relevant(ws.take()))
+                    continue;
+                WatchKey key;
+                while ((key = ws.poll(QUIET, TimeUnit.MILLISECONDS)) != null)
+                    relevant(key);
+                reload();
+            }
+        } catch (InterruptedException e) {
+            // stopping
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * loads a new snapshot now and swaps it in
+     *
+     * @return false if a source could not be read and the old snapshot is kept
+     */
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        ClientConfig next;
+        try {
+            next = loader.load();
+        } catch (IOException e) {
+            return failed(e);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        ClientConfig previous = current.getAndSet(next);
+        long millis = (System.nanoTime() - start) / 1000000L;
+        loadTime.record(millis);
+        reloads.increment();
+        logger.info("Loaded " + next + " in " + millis + "ms");
+        if (watchService != null) {
+            try {
+                watch(next);
+            } catch (IOException e) {
+                logger.warn("Failed to watch the sources of " + next + ": " + e.getMessage());
+            }
+        }
+        for (ConfigListener listener : listeners) {
+            try {
+                listener.configChanged(previous, next);
+            } catch (RuntimeException e) {
+                logger.error("Configuration listener failed", e);
+            }
+        }
+        return true;
+    }
+
+    private boolean failed(Exception e) {
+        failures.increment();
+        logger.error("Failed to reload configuration, keeping version " + current.get().getVersion() + ": " + e.getMessage());
+        return false;
+    }
+
+    /**
+     * watches the directory of each source of config, and no others
+     */
+    private synchronized void watch(ClientConfig config) throws IOException {
+        watched.clear();
+        for (File file : config.getSources()) {
+            Path path = file.getAbsoluteFile().toPath();
+            Path dir = path.getParent();
+            Set<Path> names = watched.get(dir);
+            if (names == null)
+                watched.put(dir, names = new HashSet<Path>());
+            names.add(path.getFileName());
+            if (!keys.containsKey(dir))
+                keys.put(dir, dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+        }
+        for (Iterator<Map.Entry<Path, WatchKey>> i = keys.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<Path, WatchKey> entry = i.next();
+            if (!watched.containsKey(entry.getKey())) {
+                entry.getValue().cancel();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the key's events touch a source; resets the key
+     */
+    private synchronized boolean relevant(WatchKey key) {
+        boolean relevant = false;
+        Set<Path> names = watched.get((Path)key.watchable());
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                relevant = true;
+            else if (names != null && names.contains((Path)event.context()))
+                relevant = true;
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * CoalescingSender.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.dispatch;
+
+import java.util.List;
+
+import com.bechter.wxrd.client.WxrEvent;
+
+/**
+ * CoalescingSender
+ *
+ *   sends what a CoalescingWindow held for a group of recipients
+ */
+public interface CoalescingSender {
+
+    /**
+     * called at once for an urgent event, otherwise on the window's thread
+     * when the window of the recipients closes
+     *
+     * @param events the events held for every one of the recipients, most
+     *        urgent first, as one message
+     * @param recipients the addresses to send to
+     */
+    void sendCoalesced(List<WxrEvent> events, List<String> recipients);
+}
@@ -0,0 +1,302 @@
+/*
+ * CoalescingWindow.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.Severity;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.metrics.Counter;
+import com.bechter.wxrd.client.metrics.Gauge;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+
+/**
+ * CoalescingWindow
+ *
+ *   Holds events for each recipient for a short window, so that a subscriber
+ *   caught by several alerts at once (overlapping watches for neighbouring
+ *   counties on an outbreak day) gets one message instead of one each.
+ *
+ *   A recipient's window opens with the first event held for them and
+ *   closes a fixed time later; it does not slide, so nothing waits longer
+ *   than the window. Recipients whose windows close together and who hold
+ *   the same events are sent one message between them, so the fan-out
+ *   still puts many recipients in each message.
+ *
+ *   Warnings and emergencies are never held: they go to the sender at once,
+ *   on the calling thread, as they did before there was a window.
+ *
+ *   Events held, messages saved and recipients waiting are recorded in the
+ *   default MetricsRegistry. Thread safe.
+ */
+public class CoalescingWindow implements Runnable {
+    public static final long DEFAULT_WINDOW = 5000L;
+    /** recipients due within this of the first are sent in the same pass */
+    private static final long SLACK = 250L;
+
+    private final Logger logger = Logger.getLogger(CoalescingWindow.class);
+    private final long window;
+    private final CoalescingSender sender;
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Counter bypassed;
+    private final Counter held;
+    private final Counter saved;
+    private volatile boolean running = false;
+    private Thread flusher = null;
+
+    /**
+     * an event held for one or more recipients; equal only to itself, so
+     * lists of them compare by identity
+     */
+    private static final class Held implements Comparable<Held> {
+        final WxrEvent event;
+        final Severity severity;
+        final long sequence;
+
+        Held(WxrEvent event, Severity severity, long sequence) {
+            this.event = event;
+            this.severity = severity;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Held other) {
+            int c = severity.compareTo(other.severity);
+            if (c != 0)
+                return c;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * the open window of one recipient
+     */
+    private static final class Pending {
+        final long deadline;
+        final List<Held> events = new ArrayList<Held>(2);
+
+        Pending(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param window milliseconds to hold events below WARNING, 0 to hold none
+     * @param sender sends the coalesced messages
+     */
+    public CoalescingWindow(long window, CoalescingSender sender) {
+        if (window < 0)
+            throw new IllegalArgumentException("window must not be negative");
+        this.window = window;
+        this.sender = sender;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        bypassed = metrics.counter("coalesce_bypassed_total", "events sent at once because of their severity");
+        held = metrics.counter("coalesce_held_total", "events held for a recipient's window");
+        saved = metrics.counter("coalesce_saved_total", "per recipient messages saved by merging events");
+        metrics.gauge("coalesce_pending_recipients", "recipients with an open window", new Gauge() {
+            public long getValue() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * starts the thread that closes the windows
+     */
+    public synchronized void start() {
+        if (flusher != null)
+            return;
+        running = true;
+        flusher = new Thread(this, "coalesce");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * stops the window thread and sends everything still held
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = flusher;
+            flusher = null;
+        }
+        running = false;
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Map<List<Held>, List<String>> rest;
+        lock.lock();
+        try {
+            rest = removeDue(Long.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+        send(rest);
+    }
+
+    /**
+     * holds an event for each recipient, or sends it at once if it is a
+     * WARNING or more urgent
+     *
+     * @param event a parsed event
+     * @param recipients the addresses the event is routed to
+     */
+    public void offer(WxrEvent event, List<String> recipients) {
+        if (recipients.isEmpty())
+            return;
+        Severity severity = Severity.of(event);
+        if (window == 0 || severity.compareTo(Severity.WARNING) <= 0) {
+            bypassed.increment();
+            sender.sendCoalesced(Collections.singletonList(event), recipients);
+            return;
+        }
+        Held h = new Held(event, severity, sequence.incrementAndGet());
+        lock.lock();
+        try {
+            boolean wasEmpty = pending.isEmpty();
+            long deadline = System.currentTimeMillis() + window;
+            for (String recipient : recipients) {
+                Pending p = pending.get(recipient);
+                if (p == null) {
+                    p = new Pending(deadline);
+                    pending.put(recipient, p);
+                }
+                p.events.add(h);
+            }
+            if (wasEmpty)
+                changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        held.increment();
+    }
+
+    /**
+     * @return number of recipients with an open window
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void run() {
+        while (running) {
+            Map<List<Held>, List<String>> due;
+            try {
+                due = takeDue();
+            } catch (InterruptedException e) {
+                break;
+            }
+            send(due);
+        }
+    }
+
+    /**
+     * waits for the oldest window to close
+     *
+     * @return the recipients due, grouped by the events held for them;
+     *         empty when stopping
+     */
+    private Map<List<Held>, List<String>> takeDue() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running) {
+                if (pending.isEmpty()) {
+                    changed.await();
+                    continue;
+                }
+                // windows are all the same length, so the first one opened closes first
+                long now = System.currentTimeMillis();
+                long wait = pending.values().iterator().next().deadline - now;
+                if (wait <= 0)
+                    return removeDue(now + SLACK);
+                changed.await(wait, TimeUnit.MILLISECONDS);
+            }
+            return Collections.emptyMap();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * removes the windows closing by until; called holding the lock
+     */
+    private Map<List<Held>, List<String>> removeDue(long until) {
+        Map<List<Held>, List<String>> groups = new LinkedHashMap<List<Held>, List<String>>();
+        for (Iterator<Map.Entry<String, Pending>> i = pending.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, Pending> entry = i.next();
+            Pending p = entry.getValue();
+            if (p.deadline > until)
+                break;
+            i.remove();
+            Collections.sort(p.events);
+            List<String> group = groups.get(p.events);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(p.events, group);
+            }
+            group.add(entry.getKey());
+        }
+        return groups;
+    }
+
+    private void send(Map<List<Held>, List<String>> groups) {
+        for (Map.Entry<List<Held>, List<String>> group : groups.entrySet()) {
+            List<Held> events = group.getKey();
+            List<String> recipients = group.getValue();
+            List<WxrEvent> merged = new ArrayList<WxrEvent>(events.size());
+            for (Held h : events)
+                merged.add(h.event);
+            saved.add((long)(events.size() - 1) * recipients.size());
+            if (logger.isDebugEnabled())
+                logger.debug("Sending " + events.size() + " event(s) to " + recipients.size() + " recipient(s)");
+            try {
+                sender.sendCoalesced(merged, recipients);
+            } catch (RuntimeException e) {
+                logger.error("Failed to send " + events.size() + " coalesced event(s)", e);
+            }
+        }
+    }
+}
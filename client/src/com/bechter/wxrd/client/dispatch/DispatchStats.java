@@ -0,0 +1,88 @@
+/*
+ * DispatchStats.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.dispatch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.bechter.wxrd.client.Severity;
+
+/**
+ * DispatchStats
+ *
+ *   time-to-dispatch per priority class: the time from an event being
+ *   queued to its delivery on a channel having completed. Counters are
+ *   lock free so workers on every channel can record concurrently.
+ */
+public class DispatchStats {
+    private static final int CLASSES = Severity.values().length;
+    private final AtomicLongArray count = new AtomicLongArray(CLASSES);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(CLASSES);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(CLASSES);
+    private final AtomicLongArray dropped = new AtomicLongArray(CLASSES);
+
+    void record(Severity severity, long nanos) {
+        int i = severity.ordinal();
+        count.incrementAndGet(i);
+        totalNanos.addAndGet(i, nanos);
+        long max;
+        while (nanos > (max = maxNanos.get(i)) && !maxNanos.compareAndSet(i, max, nanos))
+            ;
+    }
+
+    void dropped(Severity severity) {
+        dropped.incrementAndGet(severity.ordinal());
+    }
+
+    /**
+     * @return number of deliveries completed for the class
+     */
+    public long getCount(Severity severity) {
+        return count.get(severity.ordinal());
+    }
+
+    /**
+     * @return mean time-to-dispatch in milliseconds, 0 if nothing was dispatched
+     */
+    public double getMeanMillis(Severity severity) {
+        long n = getCount(severity);
+        return n == 0 ? 0.0 : totalNanos.get(severity.ordinal()) / (n * 1e6);
+    }
+
+    /**
+     * @return longest time-to-dispatch in milliseconds
+     */
+    public double getMaxMillis(Severity severity) {
+        return maxNanos.get(severity.ordinal()) / 1e6;
+    }
+
+    /**
+     * @return number of deliveries dropped because a queue was full
+     */
+    public long getDropped(Severity severity) {
+        return dropped.get(severity.ordinal());
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("time-to-dispatch");
+        for (Severity severity : Severity.values()) {
+            sb.append(' ').append(severity).append("[n=").append(getCount(severity));
+            sb.append(String.format(" mean=%.1fms max=%.1fms", getMeanMillis(severity), getMaxMillis(severity)));
+            sb.append(" dropped=").append(getDropped(severity)).append(']');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * DispatchThreads.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.dispatch;
+
+import java.lang.reflect.Method;
+
+/**
+ * DispatchThreads
+ *
+ *   creates the worker threads for the dispatch stage. Workers spend nearly
+ *   all their time blocked on SMTP round trips, so they are virtual threads
+ *   when the runtime has them (Java 21 and later); on older runtimes they
+ *   fall back to daemon platform threads. The builder is looked up
+ *   reflectively so the client still builds and runs on earlier Java versions.
+ */
+final class DispatchThreads {
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private DispatchThreads() {
+    }
+
+    /**
+     * @return true if workers run on virtual threads
+     */
+    static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param name thread name
+     * @param task the worker loop
+     * @return an unstarted thread running task
+     */
+    static Thread newThread(String name, Runnable task) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread)UNSTARTED.invoke(builder, task);
+            } catch (Exception e) {
+                // fall through to a platform thread
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * EventDispatcher.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.dispatch;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.Severity;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.metrics.Counter;
+import com.bechter.wxrd.client.metrics.Gauge;
+import com.bechter.wxrd.client.metrics.Histogram;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+
+/**
+ * EventDispatcher
+ *
+ *   Dispatch stage between the receiving thread and notification. dispatch()
+ *   never blocks: it queues one job per DeliveryChannel and returns, so the
+ *   wxrd connections keep being read while mail is being sent.
+ *
+ *   Each channel is a bulkhead with its own bounded queue and its own worker
+ *   threads, so a slow mail host on the email path cannot hold up SMS. The
+ *   queues are ordered by Severity and then by arrival, so a Tornado Warning
+ *   is sent ahead of a Required Weekly Test that is still waiting. When a
+ *   queue is full the least urgent job, which may be the new one, is
+ *   dropped and logged.
+ *
+ *   Queue depth, the wait from parse to a worker taking the event, the time
+ *   to deliver it and the lag from the SAME issue time to delivery are
+ *   recorded per channel in the default MetricsRegistry.
+ */
+public class EventDispatcher {
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_WORKERS = 2;
+
+    private final Logger logger = Logger.getLogger(EventDispatcher.class);
+    private final DispatchHandler handler;
+    private final DispatchStats stats = new DispatchStats();
+    private final Bulkhead[] bulkheads;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean running = false;
+
+    /**
+     * a queued delivery of one event on one channel
+     */
+    private static class Job implements Comparable<Job> {
+        final WxrEvent event;
+        final Severity severity;
+        final long sequence;
+        final long queued;
+
+        Job(WxrEvent event, Severity severity, long sequence, long queued) {
+            this.event = event;
+            this.severity = severity;
+            this.sequence = sequence;
+            this.queued = queued;
+        }
+
+        public int compareTo(Job other) {
+            int c = severity.compareTo(other.severity);
+            if (c != 0)
+                return c;
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    /**
+     * queue and workers for one channel
+     */
+    private class Bulkhead implements Runnable {
+        final DeliveryChannel channel;
+        final int capacity;
+        final PriorityQueue<Job> queue;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        final Thread[] workers;
+        final Histogram waitTime;
+        final Histogram sendTime;
+        final Histogram lag;
+        final Counter drops;
+
+        Bulkhead(DeliveryChannel channel, int capacity, int workers) {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.queue = new PriorityQueue<Job>(capacity);
+            this.workers = new Thread[workers];
+            String name = channel.name().toLowerCase();
+            for (int i = 0; i < workers; i++)
+                this.workers[i] = DispatchThreads.newThread("dispatch-" + name + "-" + i, this);
+            MetricsRegistry metrics = MetricsRegistry.getDefault();
+            waitTime = metrics.histogram("dispatch_wait_micros", "channel", name,
+                    "time from parse to a worker taking the event");
+            sendTime = metrics.histogram("dispatch_send_micros", "channel", name,
+                    "time to deliver an event on the channel");
+            lag = metrics.histogram("notify_lag_millis", "channel", name,
+                    "time from the SAME issue time to handing the notification off");
+            drops = metrics.counter("dispatch_dropped_total", "channel", name,
+                    "events dropped because the queue was full");
+            metrics.gauge("dispatch_queue_depth", "channel", name, "events waiting for a worker", new Gauge() {
+                public long getValue() {
+                    return size();
+                }
+            });
+        }
+
+        void offer(Job job) {
+            Job dropped = null;
+            lock.lock();
+            try {
+                if (queue.size() >= capacity) {
+                    Job worst = job;
+                    for (Iterator<Job> i = queue.iterator(); i.hasNext();) {
+                        Job queued = i.next();
+                        if (queued.compareTo(worst) > 0)
+                            worst = queued;
+                    }
+                    dropped = worst;
+                    if (worst != job)
+                        queue.remove(worst);
+                }
+                if (dropped != job) {
+                    queue.add(job);
+                    notEmpty.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (dropped != null) {
+                stats.dropped(dropped.severity);
+                drops.increment();
+                logger.error(channel + " dispatch queue full, dropped " + dropped.severity + " "
+                        + dropped.event.getEventType() + " from " + dropped.event.getSource());
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Job take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (queue.isEmpty())
+                    notEmpty.await();
+                return queue.poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void run() {
+            while (running) {
+                Job job;
+                try {
+                    job = take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long started = System.nanoTime();
+                waitTime.record((started - job.queued) / 1000L);
+                try {
+                    handler.dispatch(job.event, channel);
+                } catch (RuntimeException e) {
+                    logger.error(channel + " dispatch failed for " + job.event.getEventType(), e);
+                }
+                long done = System.nanoTime();
+                sendTime.record((done - started) / 1000L);
+                if (job.event.getEventTime() != null)
+                    lag.record(System.currentTimeMillis() - job.event.getEventTime().getTime());
+                stats.record(job.severity, done - job.queued);
+                if (logger.isDebugEnabled())
+                    logger.debug(stats);
+            }
+        }
+    }
+
+    /**
+     * @param handler delivers events
+     */
+    public EventDispatcher(DispatchHandler handler) {
+        this(handler, DEFAULT_CAPACITY, DEFAULT_WORKERS);
+    }
+
+    /**
+     * @param handler delivers events
+     * @param capacity maximum number of jobs waiting on each channel
+     * @param workers number of worker threads for each channel
+     */
+    public EventDispatcher(DispatchHandler handler, int capacity, int workers) {
+        if (capacity < 1 || workers < 1)
+            throw new IllegalArgumentException("capacity and workers must be positive");
+        this.handler = handler;
+        DeliveryChannel[] channels = DeliveryChannel.values();
+        bulkheads = new Bulkhead[channels.length];
+        for (int i = 0; i < channels.length; i++)
+            bulkheads[i] = new Bulkhead(channels[i], capacity, workers);
+    }
+
+    /**
+     * starts the worker threads
+     */
+    public void start() {
+        running = true;
+        for (Bulkhead bulkhead : bulkheads)
+            for (Thread worker : bulkhead.workers)
+                worker.start();
+        logger.info("Dispatcher started with " + bulkheads[0].workers.length + " "
+                + (DispatchThreads.isVirtual() ? "virtual" : "platform") + " worker(s) per channel");
+    }
+
+    /**
+     * stops the workers; jobs still queued are discarded
+     */
+    public void stop() {
+        running = false;
+        for (Bulkhead bulkhead : bulkheads)
+            for (Thread worker : bulkhead.workers)
+                worker.interrupt();
+        logger.info(stats);
+    }
+
+    /**
+     * queues the event for delivery on every channel without blocking
+     *
+     * @param event a parsed event
+     */
+    public void dispatch(WxrEvent event) {
+        Severity severity = Severity.of(event);
+        long seq = sequence.incrementAndGet();
+        long now = System.nanoTime();
+        for (Bulkhead bulkhead : bulkheads)
+            bulkhead.offer(new Job(event, severity, seq, now));
+    }
+
+    /**
+     * @return number of jobs waiting on the channel
+     */
+    public int getQueueDepth(DeliveryChannel channel) {
+        return bulkheads[channel.ordinal()].size();
+    }
+
+    /**
+     * @return time-to-dispatch statistics per priority class
+     */
+    public DispatchStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * BoundaryConverter.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.geo;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * BoundaryConverter
+ *
+ *   Writes a CountyBoundaries file from a Census cartographic boundary
+ *   shapefile, cb_<year>_us_county_<scale>.shp with its .dbf beside it,
+ *   or the .zip holding both as published at
+ *   https://www.census.gov/geographies/mapping-files.html, given as a file
+ *   or a URL.
+ *   Each polygon ring of each county becomes one line; the closing point,
+ *   which repeats the first, is dropped.
+ *
+ *   Rings are simplified by Douglas-Peucker to within a tolerance in
+ *   degrees (longitude scaled by the cosine of the latitude), which with the
+ *   default of 0.0005, about 50 meters, brings the 1:500,000 file down to a
+ *   few hundred thousand points. A ring that would simplify to fewer than
+ *   three points is kept whole. Coordinates are written to five decimals.
+ *
+ *   The county of each shape is read from the STATEFP and COUNTYFP fields
+ *   of the .dbf, or GEOID if those are missing. Output ending in .gz is
+ *   gzipped; CountyBoundaries.load() reads either.
+ *
+ *   command line options:
+ *   -h | --help      : print this message
+ *   -t | --tolerance : simplification tolerance in degrees, 0 for none (default is 0.0005)
+ *   -o | --output    : file to write (default is standard output)
+ */
+public class BoundaryConverter {
+    public static final double DEFAULT_TOLERANCE = 0.0005;
+    private static final int FILE_CODE = 9994;
+    private static final int HEADER_LENGTH = 100;
+    private static final int NULL_SHAPE = 0;
+    private static final int POLYGON = 5;
+    private static final int POLYGON_Z = 15;
+    private static final int POLYGON_M = 25;
+    private static final double SCALE = 100000.0;
+
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int counties;
+    private int rings;
+    private long pointsRead;
+    private long pointsWritten;
+
+    /**
+     * @param tolerance most distance in degrees a dropped point may lie from the simplified ring, 0 for none
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * converts one shapefile. The .dbf must have the same name.
+     *
+     * @param shapefile the .shp file
+     * @param out where the boundary lines are written
+     * @throws IOException if either file cannot be read or is not as expected
+     */
+    public void convert(File shapefile, Writer out) throws IOException {
+        String name = shapefile.getPath();
+        int dot = name.lastIndexOf('.');
+        String base = dot > name.lastIndexOf(File.separatorChar) ? name.substring(0, dot) : name;
+        File dbf = new File(base + ".dbf");
+        if (!dbf.exists())
+            dbf = new File(base + ".DBF");
+        convert(name, Files.readAllBytes(shapefile.toPath()), readCodes(dbf.getPath(), Files.readAllBytes(dbf.toPath())), out);
+    }
+
+    /**
+     * converts the shapefile in a zip archive, as the Census publishes them
+     *
+     * @param name the archive, for messages
+     * @param is the archive, holding one .shp and its .dbf
+     * @param out where the boundary lines are written
+     * @throws IOException if the archive cannot be read or is not as expected
+     */
+    public void convertZip(String name, InputStream is, Writer out) throws IOException {
+        byte[] shp = null;
+        byte[] dbf = null;
+        ZipInputStream zip = new ZipInputStream(is);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String entryName = entry.getName().toLowerCase();
+            if (entryName.endsWith(".shp"))
+                shp = readAll(zip);
+            else if (entryName.endsWith(".dbf"))
+                dbf = readAll(zip);
+        }
+        if (shp == null || dbf == null)
+            throw new IOException(name + ": no .shp and .dbf in the archive");
+        convert(name, shp, readCodes(name, dbf), out);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        byte[] buffer = new byte[65536];
+        int n;
+        while ((n = is.read(buffer)) > 0)
+            bytes.write(buffer, 0, n);
+        return bytes.toByteArray();
+    }
+
+    private void convert(String shapefile, byte[] bytes, String[] codes, Writer out) throws IOException {
+        ByteBuffer shp = ByteBuffer.wrap(bytes);
+        if (shp.limit() < HEADER_LENGTH || shp.getInt(0) != FILE_CODE)
+            throw new IOException(shapefile + ": not a shapefile");
+        StringBuilder line = new StringBuilder(4096);
+        int position = HEADER_LENGTH;
+        while (position + 8 <= shp.limit()) {
+            shp.order(ByteOrder.BIG_ENDIAN);
+            int record = shp.getInt(position);
+            int length = shp.getInt(position + 4) * 2;
+            int start = position + 8;
+            position = start + length;
+            if (position > shp.limit())
+                throw new IOException(shapefile + ": record " + record + " is truncated");
+            shp.order(ByteOrder.LITTLE_ENDIAN);
+            int type = shp.getInt(start);
+            if (type == NULL_SHAPE)
+                continue;
+            if (type != POLYGON && type != POLYGON_Z && type != POLYGON_M)
+                throw new IOException(shapefile + ": record " + record + " is shape type " + type + ", not a polygon");
+            if (record < 1 || record > codes.length)
+                throw new IOException(shapefile + ": record " + record + " has no .dbf record");
+            String code = codes[record - 1];
+            if (code == null)
+                continue;
+            int parts = shp.getInt(start + 36);
+            int points = shp.getInt(start + 40);
+            int xy = start + 44 + parts * 4;
+            if (xy + points * 16 > position)
+                throw new IOException(shapefile + ": record " + record + " is malformed");
+            boolean written = false;
+            for (int p = 0; p < parts; p++) {
+                int first = shp.getInt(start + 44 + p * 4);
+                int last = p + 1 < parts ? shp.getInt(start + 48 + p * 4) : points;
+                if (first < 0 || last > points || first >= last)
+                    throw new IOException(shapefile + ": record " + record + " has a bad part");
+                double[] lons = new double[last - first];
+                double[] lats = new double[last - first];
+                for (int i = 0; i < lons.length; i++) {
+                    lons[i] = shp.getDouble(xy + (first + i) * 16);
+                    lats[i] = shp.getDouble(xy + (first + i) * 16 + 8);
+                }
+                pointsRead += lons.length;
+                line.setLength(0);
+                line.append(code);
+                if (ring(line, lats, lons)) {
+                    line.append('\n');
+                    out.append(line);
+                    rings++;
+                    written = true;
+                }
+            }
+            if (written)
+                counties++;
+        }
+        out.flush();
+    }
+
+    /**
+     * appends one ring, simplified, without its closing point and without
+     * points that repeat the one before once rounded
+     *
+     * @return false if fewer than three distinct points are left
+     */
+    private boolean ring(StringBuilder line, double[] lats, double[] lons) {
+        int n = lats.length;
+        if (n > 1 && lats[0] == lats[n - 1] && lons[0] == lons[n - 1])
+            n--;
+        boolean[] keep = simplify(lats, lons, n);
+        int length = line.length();
+        if (append(line, lats, lons, n, keep) >= 3)
+            return true;
+        line.setLength(length);
+        return keep != null && append(line, lats, lons, n, null) >= 3;
+    }
+
+    private int append(StringBuilder line, double[] lats, double[] lons, int n, boolean[] keep) {
+        long firstLat = 0, firstLon = 0, lastLat = 0, lastLon = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep != null && !keep[i])
+                continue;
+            long lat = Math.round(lats[i] * SCALE);
+            long lon = Math.round(lons[i] * SCALE);
+            if (count > 0 && lat == lastLat && lon == lastLon)
+                continue;
+            if (count == 0) {
+                firstLat = lat;
+                firstLon = lon;
+            } else if (i == n - 1 && lat == firstLat && lon == firstLon)
+                continue;
+            line.append(' ');
+            appendDegrees(line, lat);
+            line.append(',');
+            appendDegrees(line, lon);
+            lastLat = lat;
+            lastLon = lon;
+            count++;
+        }
+        pointsWritten += count;
+        return count;
+    }
+
+    private static void appendDegrees(StringBuilder line, long value) {
+        if (value < 0) {
+            line.append('-');
+            value = -value;
+        }
+        line.append(value / 100000).append('.');
+        String fraction = Long.toString(value % 100000 + 100000);
+        line.append(fraction, 1, 6);
+    }
+
+    /**
+     * Douglas-Peucker over the first n points of an open ring, iterative so
+     * long coastlines do not run out of stack
+     *
+     * @return the points to keep, null to keep them all
+     */
+    private boolean[] simplify(double[] lats, double[] lons, int n) {
+        if (tolerance <= 0 || n < 4)
+            return null;
+        double scale = Math.cos(Math.toRadians(lats[0]));
+        double limit = tolerance * tolerance;
+        boolean[] keep = new boolean[n + 1];
+        keep[0] = true;
+        keep[n] = true;
+        int[] stack = new int[n * 2 + 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double ax = lons[first] * scale, ay = lats[first];
+            double bx = lons[last % n] * scale, by = lats[last % n];
+            double dx = bx - ax, dy = by - ay;
+            double squared = dx * dx + dy * dy;
+            double worst = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double px = lons[i] * scale - ax, py = lats[i] - ay;
+                double d;
+                if (squared == 0)
+                    d = px * px + py * py;
+                else {
+                    double t = Math.max(0, Math.min(1, (px * dx + py * dy) / squared));
+                    double ex = px - t * dx, ey = py - t * dy;
+                    d = ex * ex + ey * ey;
+                }
+                if (d > worst) {
+                    worst = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && worst > limit) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * @return PSSCCC code of each .dbf record, null for deleted ones
+     */
+    static String[] readCodes(String file, byte[] bytes) throws IOException {
+        ByteBuffer dbf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (dbf.limit() < 32)
+            throw new IOException(file + ": not a .dbf file");
+        int records = dbf.getInt(4);
+        int headerLength = dbf.getShort(8) & 0xffff;
+        int recordLength = dbf.getShort(10) & 0xffff;
+        int state = -1, stateLength = 0, county = -1, countyLength = 0, geoid = -1, geoidLength = 0;
+        int offset = 1;
+        for (int f = 32; f + 32 <= headerLength && dbf.get(f) != 0x0d; f += 32) {
+            int end = 0;
+            while (end < 11 && dbf.get(f + end) != 0)
+                end++;
+            String name = new String(dbf.array(), f, end, StandardCharsets.US_ASCII);
+            int length = dbf.get(f + 16) & 0xff;
+            if ("STATEFP".equalsIgnoreCase(name)) {
+                state = offset;
+                stateLength = length;
+            } else if ("COUNTYFP".equalsIgnoreCase(name)) {
+                county = offset;
+                countyLength = length;
+            } else if ("GEOID".equalsIgnoreCase(name)) {
+                geoid = offset;
+                geoidLength = length;
+            }
+            offset += length;
+        }
+        if ((state < 0 || county < 0) && geoid < 0)
+            throw new IOException(file + ": no STATEFP and COUNTYFP or GEOID field");
+        if (headerLength + (long)records * recordLength > dbf.limit())
+            throw new IOException(file + ": truncated");
+        String[] codes = new String[records];
+        for (int r = 0; r < records; r++) {
+            int at = headerLength + r * recordLength;
+            if (dbf.get(at) == '*')
+                continue;
+            String code;
+            if (state >= 0 && county >= 0)
+                code = field(dbf, at + state, stateLength) + field(dbf, at + county, countyLength);
+            else
+                code = field(dbf, at + geoid, geoidLength);
+            if (code.length() != 5)
+                throw new IOException(file + ": record " + (r + 1) + " has county " + code);
+            codes[r] = "0" + code;
+        }
+        return codes;
+    }
+
+    private static String field(ByteBuffer dbf, int offset, int length) {
+        return new String(dbf.array(), offset, length, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * @return counties written so far
+     */
+    public int getCountyCount() {
+        return counties;
+    }
+
+    /**
+     * @return rings written so far
+     */
+    public int getRingCount() {
+        return rings;
+    }
+
+    /**
+     * @return points read from the shapefile so far
+     */
+    public long getPointsRead() {
+        return pointsRead;
+    }
+
+    /**
+     * @return points written so far
+     */
+    public long getPointsWritten() {
+        return pointsWritten;
+    }
+
+    private static void usage() {
+        System.err.println("BoundaryConverter - write a county boundary file from a Census cb_*_us_county_* shapefile.");
+        System.err.println("usage: BoundaryConverter [options] cb_2023_us_county_500k.shp|.zip|URL of the .zip");
+        System.err.println("    -h | --help      : print this message");
+        System.err.println("    -t | --tolerance : simplification tolerance in degrees, 0 for none (default is 0.0005)");
+        System.err.println("    -o | --output    : file to write, gzipped if it ends in .gz (default is standard output)");
+    }
+
+    public static void main(String[] args) {
+        BoundaryConverter converter = new BoundaryConverter();
+        String output = null;
+        String source = null;
+        int i = 0;
+        try {
+            while (i < args.length) {
+                String arg = args[i];
+                if ("-t".equals(arg) || "--tolerance".equals(arg))
+                    converter.setTolerance(Double.parseDouble(args[++i]));
+                else if ("-o".equals(arg) || "--output".equals(arg))
+                    output = args[++i];
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    usage();
+                    System.exit(1);
+                } else if (arg.startsWith("-") || source != null)
+                    throw new Exception("Invalid argument " + arg);
+                else
+                    source = arg;
+                i++;
+            }
+            if (source == null)
+                throw new Exception("No shapefile given");
+        } catch (Exception e) {
+            System.err.println(e.toString());
+            usage();
+            System.exit(2);
+        }
+        try {
+            OutputStream os = output == null ? System.out : new FileOutputStream(output);
+            if (output != null && output.endsWith(".gz"))
+                os = new GZIPOutputStream(os, 65536);
+            Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 65536);
+            try {
+                if (source.toLowerCase().endsWith(".zip")) {
+                    InputStream is = source.contains("://") ? new URL(source).openStream() : new FileInputStream(source);
+                    try {
+                        converter.convertZip(source, is, out);
+                    } finally {
+                        is.close();
+                    }
+                } else
+                    converter.convert(new File(source), out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println(e.toString());
+            System.exit(3);
+        }
+        System.err.println(converter.getCountyCount() + " counties, " + converter.getRingCount() + " rings, "
+                + converter.getPointsWritten() + " of " + converter.getPointsRead() + " points kept");
+    }
+}
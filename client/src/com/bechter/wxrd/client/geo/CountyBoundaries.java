@@ -0,0 +1,392 @@
+/*
+ * CountyBoundaries.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.geo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.zip.GZIPInputStream;
+
+import com.bechter.wxrd.client.CountyTable;
+
+/**
+ * CountyBoundaries
+ *
+ *   County polygons with a packed R-tree over their bounding boxes, for
+ *   finding the county a point lies in. Read from a text file with one
+ *   polygon ring per line, a PSSCCC code followed by latitude,longitude
+ *   pairs in decimal degrees:
+ *
+ *      039153 41.2770,-81.6868 41.2770,-81.3919 41.0274,-81.3919 41.0274,-81.6868
+ *
+ *   A county may have several rings (islands, holes). A point is inside a
+ *   county when it crosses an odd number of the county's ring edges, so
+ *   holes need no marking. BoundaryConverter writes such a file from the
+ *   Census cartographic boundary shapefiles (cb_*_us_county_*). The file
+ *   may be gzipped. mvn package -Pboundaries bundles one as RESOURCE, which
+ *   is used when no boundary file is configured (see
+ *   CountyLocator.getDefault()).
+ *
+ *   Vertices are kept as microdegrees in two int arrays, indexed by ring
+ *   and county offsets. The R-tree is built once by sort-tile-recursive
+ *   packing, NODE_SIZE boxes to a node, and stored level by level in one
+ *   int array, so it holds no objects per node. A lookup descends only
+ *   into boxes that hold the point and runs the polygon test for the few
+ *   counties whose boxes do.
+ *
+ *   Counties are expected not to overlap; if they do, the first one found
+ *   is returned. Instances are immutable and safe to share between threads.
+ */
+public final class CountyBoundaries {
+    public static final int NODE_SIZE = 16;
+    /** class path name of the bundled boundary file, if there is one */
+    public static final String RESOURCE = "/county-boundaries.txt.gz";
+    /** returned by parsePoint() for a malformed point; never a valid packed point */
+    public static final long NO_POINT = Long.MIN_VALUE;
+    private static final double MICRO = 1000000.0;
+
+    /** PSSCCC code by county, in packed order */
+    private final int[] codes;
+    /** rings of county i are ringStart[i] to ringStart[i + 1] */
+    private final int[] ringStart;
+    /** vertices of ring r are vertexStart[r] to vertexStart[r + 1] */
+    private final int[] vertexStart;
+    private final int[] lats;
+    private final int[] lons;
+    /** minLat, minLon, maxLat, maxLon of every node, level 0 (the counties) first */
+    private final int[] boxes;
+    /** first node of each level, plus one past the last */
+    private final int[] levelStart;
+
+    private CountyBoundaries(int[] codes, int[] ringStart, int[] vertexStart, int[] lats, int[] lons) {
+        this.codes = codes;
+        this.ringStart = ringStart;
+        this.vertexStart = vertexStart;
+        this.lats = lats;
+        this.lons = lons;
+        int n = codes.length;
+        List<Integer> levels = new ArrayList<Integer>();
+        levels.add(0);
+        int total = n;
+        for (int size = n; size > 1; size = (size + NODE_SIZE - 1) / NODE_SIZE) {
+            levels.add(total);
+            total += (size + NODE_SIZE - 1) / NODE_SIZE;
+        }
+        levels.add(total);
+        levelStart = new int[levels.size()];
+        for (int i = 0; i < levelStart.length; i++)
+            levelStart[i] = levels.get(i);
+        boxes = new int[total * 4];
+        for (int i = 0; i < n; i++) {
+            int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+            int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+            for (int v = vertexStart[ringStart[i]]; v < vertexStart[ringStart[i + 1]]; v++) {
+                minLat = Math.min(minLat, lats[v]);
+                maxLat = Math.max(maxLat, lats[v]);
+                minLon = Math.min(minLon, lons[v]);
+                maxLon = Math.max(maxLon, lons[v]);
+            }
+            setBox(i, minLat, minLon, maxLat, maxLon);
+        }
+        for (int level = 1; level < levelStart.length - 1; level++) {
+            int children = levelStart[level - 1];
+            int childEnd = levelStart[level];
+            for (int node = levelStart[level]; node < levelStart[level + 1]; node++) {
+                int first = children + (node - levelStart[level]) * NODE_SIZE;
+                int last = Math.min(first + NODE_SIZE, childEnd);
+                int minLat = Integer.MAX_VALUE, minLon = Integer.MAX_VALUE;
+                int maxLat = Integer.MIN_VALUE, maxLon = Integer.MIN_VALUE;
+                for (int c = first; c < last; c++) {
+                    minLat = Math.min(minLat, boxes[c * 4]);
+                    minLon = Math.min(minLon, boxes[c * 4 + 1]);
+                    maxLat = Math.max(maxLat, boxes[c * 4 + 2]);
+                    maxLon = Math.max(maxLon, boxes[c * 4 + 3]);
+                }
+                setBox(node, minLat, minLon, maxLat, maxLon);
+            }
+        }
+    }
+
+    private void setBox(int node, int minLat, int minLon, int maxLat, int maxLon) {
+        boxes[node * 4] = minLat;
+        boxes[node * 4 + 1] = minLon;
+        boxes[node * 4 + 2] = maxLat;
+        boxes[node * 4 + 3] = maxLon;
+    }
+
+    /**
+     * @param is a boundary file, UTF-8, gzipped or not
+     * @return the boundaries read
+     * @throws IOException if a line is malformed or cannot be read
+     */
+    public static CountyBoundaries load(InputStream is) throws IOException {
+        is = new BufferedInputStream(is, 65536);
+        is.mark(2);
+        int magic = is.read() | is.read() << 8;
+        is.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC)
+            is = new GZIPInputStream(is, 65536);
+        return read(new InputStreamReader(is, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the boundaries bundled as RESOURCE, null if there are none
+     * @throws IOException if the resource is malformed or cannot be read
+     */
+    public static CountyBoundaries loadBundled() throws IOException {
+        InputStream is = CountyBoundaries.class.getResourceAsStream(RESOURCE);
+        if (is == null)
+            return null;
+        try {
+            return load(is);
+        } catch (IOException e) {
+            throw new IOException(RESOURCE + ": " + e.getMessage(), e);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * reads one ring per line as described above. Blank lines and lines
+     * starting with # are ignored.
+     *
+     * @param reader a boundary file
+     * @return the boundaries read
+     * @throws IOException if a line is malformed or cannot be read
+     */
+    public static CountyBoundaries read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        Map<Integer, List<int[]>> rings = new LinkedHashMap<Integer, List<int[]>>();
+        int vertices = 0;
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+            StringTokenizer st = new StringTokenizer(line);
+            String token = st.nextToken();
+            int code = CountyTable.parseCode(token);
+            if (code < 0)
+                throw new IOException("line " + number + ": invalid location " + token);
+            int count = st.countTokens();
+            if (count < 3)
+                throw new IOException("line " + number + ": a ring needs at least three points");
+            int[] ring = new int[count * 2];
+            for (int i = 0; i < count; i++) {
+                token = st.nextToken();
+                long point = parsePoint(token);
+                if (point == NO_POINT)
+                    throw new IOException("line " + number + ": invalid point " + token);
+                ring[i * 2] = latitude(point);
+                ring[i * 2 + 1] = longitude(point);
+            }
+            List<int[]> list = rings.get(code);
+            if (list == null)
+                rings.put(code, list = new ArrayList<int[]>());
+            list.add(ring);
+            vertices += count;
+        }
+        return build(rings, vertices);
+    }
+
+    /**
+     * packs the rings in sort-tile-recursive order: counties sorted by the
+     * longitude of their centres into vertical slices, and each slice by
+     * latitude, so each run of NODE_SIZE counties is a compact tile
+     */
+    private static CountyBoundaries build(Map<Integer, List<int[]>> rings, int vertices) {
+        int n = rings.size();
+        final int[] keys = new int[n];
+        final long[] centres = new long[n];
+        final List<List<int[]>> values = new ArrayList<List<int[]>>(n);
+        int k = 0;
+        for (Map.Entry<Integer, List<int[]>> entry : rings.entrySet()) {
+            keys[k] = entry.getKey();
+            long minLat = Long.MAX_VALUE, minLon = Long.MAX_VALUE, maxLat = Long.MIN_VALUE, maxLon = Long.MIN_VALUE;
+            for (int[] ring : entry.getValue()) {
+                for (int i = 0; i < ring.length; i += 2) {
+                    minLat = Math.min(minLat, ring[i]);
+                    maxLat = Math.max(maxLat, ring[i]);
+                    minLon = Math.min(minLon, ring[i + 1]);
+                    maxLon = Math.max(maxLon, ring[i + 1]);
+                }
+            }
+            centres[k] = packPoint((int)((minLat + maxLat) / 2), (int)((minLon + maxLon) / 2));
+            values.add(entry.getValue());
+            k++;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(longitude(centres[a]), longitude(centres[b]));
+            }
+        });
+        int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int slice = (int)Math.ceil(Math.sqrt(leaves)) * NODE_SIZE;
+        for (int from = 0; from < n; from += slice) {
+            Arrays.sort(order, from, Math.min(from + slice, n), new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Integer.compare(latitude(centres[a]), latitude(centres[b]));
+                }
+            });
+        }
+
+        int ringCount = 0;
+        for (List<int[]> list : values)
+            ringCount += list.size();
+        int[] codes = new int[n];
+        int[] ringStart = new int[n + 1];
+        int[] vertexStart = new int[ringCount + 1];
+        int[] lats = new int[vertices];
+        int[] lons = new int[vertices];
+        int r = 0;
+        int v = 0;
+        for (int i = 0; i < n; i++) {
+            codes[i] = keys[order[i]];
+            ringStart[i] = r;
+            for (int[] ring : values.get(order[i])) {
+                vertexStart[r++] = v;
+                for (int j = 0; j < ring.length; j += 2) {
+                    lats[v] = ring[j];
+                    lons[v++] = ring[j + 1];
+                }
+            }
+        }
+        ringStart[n] = r;
+        vertexStart[r] = v;
+        return new CountyBoundaries(codes, ringStart, vertexStart, lats, lons);
+    }
+
+    /**
+     * @param latitude microdegrees north
+     * @param longitude microdegrees east
+     * @return PSSCCC code of the county holding the point, -1 if none does
+     */
+    public int locate(int latitude, int longitude) {
+        if (codes.length == 0)
+            return -1;
+        return search(levelStart.length - 2, levelStart[levelStart.length - 2], latitude, longitude);
+    }
+
+    private int search(int level, int node, int latitude, int longitude) {
+        int b = node * 4;
+        if (latitude < boxes[b] || longitude < boxes[b + 1] || latitude > boxes[b + 2] || longitude > boxes[b + 3])
+            return -1;
+        if (level == 0)
+            return contains(node, latitude, longitude) ? codes[node] : -1;
+        int first = levelStart[level - 1] + (node - levelStart[level]) * NODE_SIZE;
+        int last = Math.min(first + NODE_SIZE, levelStart[level]);
+        for (int child = first; child < last; child++) {
+            int code = search(level - 1, child, latitude, longitude);
+            if (code >= 0)
+                return code;
+        }
+        return -1;
+    }
+
+    /**
+     * even-odd crossing test over every ring of a county
+     */
+    private boolean contains(int county, int latitude, int longitude) {
+        boolean inside = false;
+        for (int r = ringStart[county]; r < ringStart[county + 1]; r++) {
+            int start = vertexStart[r];
+            int end = vertexStart[r + 1];
+            for (int i = start, j = end - 1; i < end; j = i++) {
+                if (lats[i] > latitude != lats[j] > latitude
+                        && longitude < (double)(lons[j] - lons[i]) * (latitude - lats[i]) / (lats[j] - lats[i]) + lons[i])
+                    inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return number of counties
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * @return total number of vertices over every ring
+     */
+    public int getVertexCount() {
+        return lats.length;
+    }
+
+    /**
+     * @param latitude microdegrees north, -90000000 to 90000000
+     * @param longitude microdegrees east, -180000000 to 180000000
+     * @return both packed in one long, for use as a map key
+     */
+    public static long packPoint(int latitude, int longitude) {
+        return (long)latitude << 32 | longitude & 0xffffffffL;
+    }
+
+    /**
+     * @param point a point packed by packPoint()
+     * @return its latitude in microdegrees
+     */
+    public static int latitude(long point) {
+        return (int)(point >> 32);
+    }
+
+    /**
+     * @param point a point packed by packPoint()
+     * @return its longitude in microdegrees
+     */
+    public static int longitude(long point) {
+        return (int)point;
+    }
+
+    /**
+     * @param point latitude,longitude in decimal degrees, or latitude/longitude
+     * @return the point packed by packPoint(), NO_POINT if it is malformed or out of range
+     */
+    public static long parsePoint(String point) {
+        int comma = point.indexOf(',');
+        if (comma < 0)
+            comma = point.indexOf('/');
+        if (comma < 0)
+            return NO_POINT;
+        try {
+            double latitude = Double.parseDouble(point.substring(0, comma));
+            double longitude = Double.parseDouble(point.substring(comma + 1));
+            if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180))
+                return NO_POINT;
+            return packPoint((int)Math.round(latitude * MICRO), (int)Math.round(longitude * MICRO));
+        } catch (NumberFormatException e) {
+            return NO_POINT;
+        }
+    }
+}
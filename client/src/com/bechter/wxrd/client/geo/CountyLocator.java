@@ -0,0 +1,154 @@
+/*
+ * CountyLocator.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.geo;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CountyLocator
+ *
+ *   Resolves subscriber points to county codes through CountyBoundaries and
+ *   remembers every answer. Subscriptions are resolved when they are
+ *   loaded, so at alert time a point subscriber is found through the
+ *   county postings of the SubscriptionIndex like any other, one lookup
+ *   per location code and no polygon tests. The cache lets a reload of a
+ *   million subscribers skip the polygon tests for every point it has
+ *   seen before.
+ *
+ *   The cache is an open addressing map from packed point to code, a long[]
+ *   of keys and an int[] of values kept at most half full. It is never
+ *   trimmed; it holds at most one entry per distinct point loaded, about
+ *   24 bytes each. A locator is tied to one set of boundaries, so a new
+ *   boundary file means a new locator and an empty cache.
+ *
+ *   getDefault() gives a locator over the bundled boundaries, for when
+ *   none are configured. It is shared, so resolve() is synchronized; the
+ *   lock is uncontended in the usual case of one thread loading
+ *   configuration.
+ */
+public class CountyLocator {
+    private static final long EMPTY = CountyBoundaries.NO_POINT;
+
+    private static CountyLocator defaultLocator;
+    private static boolean defaultLoaded;
+
+    private final CountyBoundaries boundaries;
+    private long[] keys = new long[1024];
+    private int[] values = new int[1024];
+    private int size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param boundaries the county polygons to resolve against
+     */
+    public CountyLocator(CountyBoundaries boundaries) {
+        this.boundaries = boundaries;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * loads the bundled boundaries on first use
+     *
+     * @return a locator over CountyBoundaries.RESOURCE, null if none is bundled
+     * @throws IOException if the bundled boundaries cannot be read
+     */
+    public static synchronized CountyLocator getDefault() throws IOException {
+        if (!defaultLoaded) {
+            CountyBoundaries boundaries = CountyBoundaries.loadBundled();
+            if (boundaries != null)
+                defaultLocator = new CountyLocator(boundaries);
+            defaultLoaded = true;
+        }
+        return defaultLocator;
+    }
+
+    /**
+     * @return the county polygons resolved against
+     */
+    public CountyBoundaries getBoundaries() {
+        return boundaries;
+    }
+
+    /**
+     * @param point a point packed by CountyBoundaries.packPoint()
+     * @return PSSCCC code of the county holding the point, -1 if none does
+     */
+    public synchronized int resolve(long point) {
+        int mask = keys.length - 1;
+        int slot = hash(point) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == point) {
+                hits++;
+                return values[slot];
+            }
+            slot = slot + 1 & mask;
+        }
+        misses++;
+        int code = boundaries.locate(CountyBoundaries.latitude(point), CountyBoundaries.longitude(point));
+        keys[slot] = point;
+        values[slot] = code;
+        if (++size * 2 > keys.length)
+            grow();
+        return code;
+    }
+
+    private static int hash(long point) {
+        long h = point * 0x9e3779b97f4a7c15L;
+        return (int)(h ^ h >>> 32);
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY)
+                slot = slot + 1 & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @return number of distinct points cached
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups that needed a polygon search
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
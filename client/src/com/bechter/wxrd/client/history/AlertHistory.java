@@ -0,0 +1,491 @@
+/*
+ * AlertHistory.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.history;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.bechter.wxrd.client.CountyTable;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+import com.bechter.wxrd.client.journal.Journal;
+import com.bechter.wxrd.client.journal.JournalRecord;
+import com.bechter.wxrd.client.journal.JournalVisitor;
+
+/**
+ * AlertHistory
+ *
+ *   Past alerts held in columns, one row per event, rows in order of issue
+ *   time:
+ *
+ *      issued, expires   epoch seconds
+ *      codes, origins    ids into small dictionaries of the strings
+ *      locations         every row's PSSCCC codes, one array with the start
+ *                        of each row's run in locationOffsets (CSR)
+ *
+ *   Every county (SSCCC, subdivisions folded in) has a posting list of the
+ *   rows touching it, ascending, so also in time order. A query for one
+ *   county binary searches its list for the time range and reads only
+ *   those rows. Queries over all counties binary search the issued column
+ *   for the time range and scan the rows in it in parallel chunks on the
+ *   common ForkJoinPool.
+ *
+ *   An alert for a whole state (SS000) is posted under SS000 and is
+ *   returned, and counted by countByMonth(), for every county of the state.
+ *
+ *   Times are given in milliseconds, like WxrEvent's, and kept to the
+ *   second. A history is immutable once built and safe to share.
+ */
+public final class AlertHistory {
+    /** fewest rows worth handing to another thread */
+    private static final int MIN_CHUNK = 16384;
+
+    private final int rows;
+    private final long[] issued;
+    private final long[] expires;
+    private final short[] codes;
+    private final String[] codeNames;
+    private final Map<String, Integer> codeIds;
+    private final short[] origins;
+    private final String[] originNames;
+    private final int[] locationOffsets;
+    private final int[] locations;
+    /** SSCCC of each county, ascending; a county's id is its index */
+    private final int[] counties;
+    /** ids of the distinct counties of each row, CSR like locations */
+    private final int[] countyOffsets;
+    private final int[] countyIds;
+    /** rows touching each county, ascending */
+    private final int[][] postings;
+
+    /**
+     * a piece of work over a range of rows
+     */
+    private interface RangeTask<T> {
+        T run(int from, int to);
+    }
+
+    /**
+     * @param events parsed events, in any order
+     * @return a history of the events
+     */
+    public static AlertHistory build(Collection<WxrEvent> events) {
+        WxrEvent[] sorted = events.toArray(new WxrEvent[events.size()]);
+        Arrays.sort(sorted, new Comparator<WxrEvent>() {
+            public int compare(WxrEvent a, WxrEvent b) {
+                return a.getEventTime().compareTo(b.getEventTime());
+            }
+        });
+        return new AlertHistory(sorted);
+    }
+
+    /**
+     * @param journal a journal
+     * @param from earliest receive time, in milliseconds since the epoch
+     * @param to latest receive time
+     * @return a history of the events recorded in the journal between from and to
+     * @throws IOException if the journal cannot be read
+     */
+    public static AlertHistory load(Journal journal, long from, long to) throws IOException {
+        final List<WxrEvent> events = new ArrayList<WxrEvent>();
+        journal.replay(from, to, new JournalVisitor() {
+            public boolean visit(JournalRecord record) {
+                if (record.getType() == JournalRecord.EVENT)
+                    events.add(record.getEvent());
+                return true;
+            }
+        });
+        return build(events);
+    }
+
+    private AlertHistory(WxrEvent[] events) {
+        rows = events.length;
+        issued = new long[rows];
+        expires = new long[rows];
+        codes = new short[rows];
+        origins = new short[rows];
+        locationOffsets = new int[rows + 1];
+        codeIds = new HashMap<String, Integer>();
+        Map<String, Integer> originIds = new HashMap<String, Integer>();
+        int total = 0;
+        for (WxrEvent event : events)
+            total += event.getLocations() == null ? 0 : event.getLocations().size();
+        int[] locations = new int[total];
+        TreeSet<Integer> keys = new TreeSet<Integer>();
+        int n = 0;
+        for (int row = 0; row < rows; row++) {
+            WxrEvent event = events[row];
+            issued[row] = event.getEventTime().getTime() / 1000L;
+            expires[row] = event.getExpiresTime() == null ? issued[row] : event.getExpiresTime().getTime() / 1000L;
+            codes[row] = id(codeIds, event.getEventType());
+            origins[row] = id(originIds, event.getOrigin());
+            locationOffsets[row] = n;
+            if (event.getLocations() != null) {
+                for (String location : event.getLocations()) {
+                    int code = CountyTable.parseCode(location);
+                    if (code < 0)
+                        continue;
+                    locations[n++] = code;
+                    keys.add(code % 100000);
+                }
+            }
+        }
+        locationOffsets[rows] = n;
+        this.locations = Arrays.copyOf(locations, n);
+        codeNames = names(codeIds);
+        originNames = names(originIds);
+
+        counties = new int[keys.size()];
+        int k = 0;
+        for (Integer key : keys)
+            counties[k++] = key;
+        countyOffsets = new int[rows + 1];
+        int[] ids = new int[n];
+        int[] postingSizes = new int[counties.length];
+        int m = 0;
+        for (int row = 0; row < rows; row++) {
+            countyOffsets[row] = m;
+            for (int i = locationOffsets[row]; i < locationOffsets[row + 1]; i++) {
+                int id = Arrays.binarySearch(counties, this.locations[i] % 100000);
+                boolean seen = false;
+                for (int j = countyOffsets[row]; j < m && !seen; j++)
+                    seen = ids[j] == id;
+                if (!seen) {
+                    ids[m++] = id;
+                    postingSizes[id]++;
+                }
+            }
+        }
+        countyOffsets[rows] = m;
+        countyIds = Arrays.copyOf(ids, m);
+        postings = new int[counties.length][];
+        for (int id = 0; id < counties.length; id++)
+            postings[id] = new int[postingSizes[id]];
+        int[] filled = new int[counties.length];
+        for (int row = 0; row < rows; row++)
+            for (int i = countyOffsets[row]; i < countyOffsets[row + 1]; i++)
+                postings[countyIds[i]][filled[countyIds[i]]++] = row;
+    }
+
+    private static short id(Map<String, Integer> dictionary, String value) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            if (dictionary.size() > Short.MAX_VALUE)
+                throw new IllegalArgumentException("too many distinct values");
+            id = dictionary.size();
+            dictionary.put(value, id);
+        }
+        return id.shortValue();
+    }
+
+    private static String[] names(Map<String, Integer> dictionary) {
+        String[] names = new String[dictionary.size()];
+        for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+            names[entry.getValue()] = entry.getKey();
+        return names;
+    }
+
+    /**
+     * @return number of events
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return issue time of a row, in milliseconds since the epoch
+     */
+    public long getIssued(int row) {
+        return issued[row] * 1000L;
+    }
+
+    /**
+     * @return purge time of a row, in milliseconds since the epoch
+     */
+    public long getExpires(int row) {
+        return expires[row] * 1000L;
+    }
+
+    /**
+     * @return event code of a row
+     */
+    public String getEventCode(int row) {
+        return codeNames[codes[row]];
+    }
+
+    /**
+     * @return originator code of a row
+     */
+    public String getOrigin(int row) {
+        return originNames[origins[row]];
+    }
+
+    /**
+     * @return PSSCCC codes of a row
+     */
+    public int[] getLocations(int row) {
+        return Arrays.copyOfRange(locations, locationOffsets[row], locationOffsets[row + 1]);
+    }
+
+    /**
+     * @return a row as an event, without its source
+     */
+    public WxrEvent getEvent(int row) {
+        WxrEvent event = new WxrEvent();
+        event.setOrigin(getOrigin(row));
+        event.setEventType(getEventCode(row));
+        List<String> list = new ArrayList<String>(locationOffsets[row + 1] - locationOffsets[row]);
+        for (int i = locationOffsets[row]; i < locationOffsets[row + 1]; i++)
+            list.add(WxrReport.locationToString(locations[i]));
+        event.setLocations(list);
+        event.setEventTime(new Date(getIssued(row)));
+        event.setExpiresTime(new Date(getExpires(row)));
+        return event;
+    }
+
+    /**
+     * finds the alerts issued in a time range
+     *
+     * @param county SSCCC or PSSCCC (subdivision ignored) of the county the
+     *        alerts must touch, -1 for any
+     * @param eventCode the event code the alerts must have, null for any
+     * @param from earliest issue time, in milliseconds since the epoch
+     * @param to latest issue time
+     * @return the matching rows, in order of issue time
+     */
+    public int[] select(int county, String eventCode, long from, long to) {
+        final int code;
+        if (eventCode == null) {
+            code = -1;
+        } else {
+            Integer id = codeIds.get(eventCode);
+            if (id == null)
+                return new int[0];
+            code = id;
+        }
+        final int lo = lowerBound(Math.floorDiv(from, 1000L));
+        final int hi = lowerBound(Math.floorDiv(to, 1000L) + 1);
+        if (county >= 0)
+            return selectCounty(county % 100000, code, lo, hi);
+        List<int[]> parts = parallel(lo, hi, new RangeTask<int[]>() {
+            public int[] run(int from, int to) {
+                int[] found = new int[Math.min(to - from, 64)];
+                int n = 0;
+                for (int row = from; row < to; row++) {
+                    if (code >= 0 && codes[row] != code)
+                        continue;
+                    if (n == found.length)
+                        found = Arrays.copyOf(found, n * 2);
+                    found[n++] = row;
+                }
+                return Arrays.copyOf(found, n);
+            }
+        });
+        int total = 0;
+        for (int[] part : parts)
+            total += part.length;
+        int[] result = new int[total];
+        int n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, result, n, part.length);
+            n += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * merges the postings of a county and of its state
+     */
+    private int[] selectCounty(int county, int code, int lo, int hi) {
+        int[] a = posting(county);
+        int[] b = county % 1000 == 0 ? null : posting(county / 1000 * 1000);
+        int i = a == null ? 0 : lowerBound(a, lo);
+        int j = b == null ? 0 : lowerBound(b, lo);
+        int[] found = new int[16];
+        int n = 0;
+        while (true) {
+            int ra = a != null && i < a.length && a[i] < hi ? a[i] : Integer.MAX_VALUE;
+            int rb = b != null && j < b.length && b[j] < hi ? b[j] : Integer.MAX_VALUE;
+            int row = Math.min(ra, rb);
+            if (row == Integer.MAX_VALUE)
+                break;
+            if (ra == row)
+                i++;
+            if (rb == row)
+                j++;
+            if (code >= 0 && codes[row] != code)
+                continue;
+            if (n == found.length)
+                found = Arrays.copyOf(found, n * 2);
+            found[n++] = row;
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * counts the alerts touching each county in each calendar month, in the
+     * local time zone. Like select(), a county's count includes the alerts
+     * for its whole state, and an alert naming both counts once.
+     *
+     * @param eventCode the event code to count, null for all
+     * @param from earliest issue time, in milliseconds since the epoch
+     * @param to latest issue time
+     * @return the counts for every month from the one holding from to the
+     *         one holding to
+     */
+    public MonthlyCounts countByMonth(String eventCode, long from, long to) {
+        if (to < from)
+            throw new IllegalArgumentException("to is before from");
+        ZoneId zone = ZoneId.systemDefault();
+        YearMonth first = YearMonth.from(Instant.ofEpochMilli(from).atZone(zone));
+        YearMonth last = YearMonth.from(Instant.ofEpochMilli(to).atZone(zone));
+        final int months = (int)first.until(last, ChronoUnit.MONTHS) + 1;
+        final long[] starts = new long[months + 1];
+        for (int m = 0; m <= months; m++)
+            starts[m] = first.plusMonths(m).atDay(1).atStartOfDay(zone).toEpochSecond();
+        final int code;
+        if (eventCode == null) {
+            code = -1;
+        } else {
+            Integer id = codeIds.get(eventCode);
+            if (id == null)
+                return new MonthlyCounts(first, months, counties, new int[counties.length * months]);
+            code = id;
+        }
+        int lo = lowerBound(Math.floorDiv(from, 1000L));
+        int hi = lowerBound(Math.floorDiv(to, 1000L) + 1);
+        List<int[]> parts = parallel(lo, hi, new RangeTask<int[]>() {
+            public int[] run(int from, int to) {
+                int[] counts = new int[counties.length * months];
+                int m = 0;
+                for (int row = from; row < to; row++) {
+                    // rows are in time order, so the month only moves forward
+                    while (issued[row] >= starts[m + 1])
+                        m++;
+                    if (code >= 0 && codes[row] != code)
+                        continue;
+                    int start = countyOffsets[row];
+                    int end = countyOffsets[row + 1];
+                    for (int i = start; i < end; i++) {
+                        // a county whose state the row also names is counted through SS000
+                        if (counties[countyIds[i]] % 1000 != 0 && namesState(start, end, counties[countyIds[i]] / 1000))
+                            continue;
+                        counts[countyIds[i] * months + m]++;
+                    }
+                }
+                return counts;
+            }
+        });
+        int[] counts = parts.get(0);
+        for (int p = 1; p < parts.size(); p++) {
+            int[] part = parts.get(p);
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += part[i];
+        }
+        return new MonthlyCounts(first, months, counties, counts);
+    }
+
+    /**
+     * @return true if the row's counties between start and end include the whole of state ss
+     */
+    private boolean namesState(int start, int end, int ss) {
+        for (int i = start; i < end; i++)
+            if (counties[countyIds[i]] == ss * 1000)
+                return true;
+        return false;
+    }
+
+    private int[] posting(int county) {
+        int id = Arrays.binarySearch(counties, county);
+        return id < 0 ? null : postings[id];
+    }
+
+    /**
+     * @return the first row issued at or after second
+     */
+    private int lowerBound(long second) {
+        int lo = 0;
+        int hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (issued[mid] < second)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the first entry of rows at or after row
+     */
+    private static int lowerBound(int[] rows, int row) {
+        int i = Arrays.binarySearch(rows, row);
+        return i < 0 ? -i - 1 : i;
+    }
+
+    /**
+     * runs task over the rows from lo to hi, split into chunks on the common
+     * pool when there are enough of them
+     *
+     * @return the result of each chunk, in row order; at least one
+     */
+    private static <T> List<T> parallel(int lo, int hi, final RangeTask<T> task) {
+        int chunks = Math.min(ForkJoinPool.getCommonPoolParallelism(), (hi - lo) / MIN_CHUNK);
+        List<T> results = new ArrayList<T>(Math.max(chunks, 1));
+        if (chunks <= 1) {
+            results.add(task.run(lo, hi));
+            return results;
+        }
+        List<Callable<T>> calls = new ArrayList<Callable<T>>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int from = lo + (int)((long)(hi - lo) * c / chunks);
+            final int to = lo + (int)((long)(hi - lo) * (c + 1) / chunks);
+            calls.add(new Callable<T>() {
+                public T call() {
+                    return task.run(from, to);
+                }
+            });
+        }
+        try {
+            for (Future<T> future : ForkJoinPool.commonPool().invokeAll(calls))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while querying history", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("history query failed", e.getCause());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * MonthlyCounts.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.history;
+
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/**
+ * MonthlyCounts
+ *
+ *   Alert counts per county per month, from AlertHistory.countByMonth().
+ *   Counties are SSCCC ints. An alert for a whole state is stored once,
+ *   under SS000, and added in when a county of the state is asked for, so
+ *   the counts agree with AlertHistory.select(). Immutable.
+ */
+public final class MonthlyCounts {
+    private final YearMonth first;
+    private final int months;
+    /** SSCCC of each county, ascending */
+    private final int[] counties;
+    /** counts[county * months + month] */
+    private final int[] counts;
+
+    MonthlyCounts(YearMonth first, int months, int[] counties, int[] counts) {
+        this.first = first;
+        this.months = months;
+        this.counties = counties;
+        this.counts = counts;
+    }
+
+    /**
+     * @return the first month counted
+     */
+    public YearMonth getFirstMonth() {
+        return first;
+    }
+
+    /**
+     * @return number of months counted
+     */
+    public int getMonthCount() {
+        return months;
+    }
+
+    /**
+     * @param county SSCCC, or PSSCCC with the subdivision ignored
+     * @param month a month
+     * @return alerts touching the county that were issued in the month
+     */
+    public int getCount(int county, YearMonth month) {
+        long m = first.until(month, ChronoUnit.MONTHS);
+        if (m < 0 || m >= months)
+            return 0;
+        int ssccc = county % 100000;
+        int count = own(ssccc, (int)m);
+        if (ssccc % 1000 != 0)
+            count += own(ssccc / 1000 * 1000, (int)m);
+        return count;
+    }
+
+    /**
+     * @return alerts naming the SSCCC code itself in month m
+     */
+    private int own(int county, int m) {
+        int c = Arrays.binarySearch(counties, county);
+        return c < 0 ? 0 : counts[c * months + m];
+    }
+
+    /**
+     * @param county SSCCC, or PSSCCC with the subdivision ignored
+     * @return alerts touching the county over every month counted
+     */
+    public int getTotal(int county) {
+        int total = 0;
+        for (int m = 0; m < months; m++)
+            total += getCount(county, first.plusMonths(m));
+        return total;
+    }
+
+    /**
+     * @return the counties, and SS000 states, named by at least one alert,
+     *         ascending; a county reached only by alerts for its whole
+     *         state is not listed
+     */
+    public int[] getCounties() {
+        int[] result = new int[counties.length];
+        int n = 0;
+        for (int c = 0; c < counties.length; c++)
+            for (int m = 0; m < months; m++)
+                if (counts[c * months + m] != 0) {
+                    result[n++] = counties[c];
+                    break;
+                }
+        return Arrays.copyOf(result, n);
+    }
+}
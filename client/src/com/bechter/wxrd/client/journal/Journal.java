@@ -0,0 +1,317 @@
+/*
+ * Journal.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+
+/**
+ * Journal
+ *
+ *   Append-only record of every line received from wxrd and every event
+ *   passed on for dispatch, kept in a directory of memory mapped segments.
+ *   A segment is closed and a new one started when the next record does not
+ *   fit or the segment is older than the rollover period, so a day (by
+ *   default) of alerts is one file that can be archived or deleted on its
+ *   own.
+ *
+ *   Appends copy the record into the mapped segment and return; nothing is
+ *   written to disk on the calling thread. A background thread calls force()
+ *   on the segment every flush interval if anything was appended, so at most
+ *   one interval of records is lost if the machine (not just the JVM) goes
+ *   down.
+ *
+ *   When a journal is opened the newest segment is checked record by record
+ *   against the crcs and anything after the last good record, the torn tail
+ *   of an interrupted write, is discarded. Each segment keeps a sparse time
+ *   index (see Segment), so replay() reads only the segments and the part of
+ *   a segment covering the requested range.
+ *
+ *   Record times are the wall clock when the line was received, and records
+ *   are read back in the order they were written.
+ *
+ *   Instances are thread safe.
+ */
+public class Journal {
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_MILLIS = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+    private final Logger logger = Logger.getLogger(Journal.class);
+    private final File directory;
+    private final int segmentBytes;
+    private final long segmentMillis;
+    private final long flushInterval;
+    private final ConcurrentLinkedQueue<Segment> retired = new ConcurrentLinkedQueue<Segment>();
+    private final Thread flusher;
+    private volatile Segment segment = null;
+    private volatile boolean dirty = false;
+    private volatile boolean closed = false;
+
+    /**
+     * opens a journal with the default segment size, rollover and flush interval
+     *
+     * @param directory where the segments are kept, created if needed
+     * @throws IOException if the newest segment cannot be opened
+     */
+    public Journal(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_MILLIS, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param directory where the segments are kept, created if needed
+     * @param segmentBytes size of a new segment
+     * @param segmentMillis age at which a segment is closed
+     * @param flushInterval milliseconds between writes to disk
+     * @throws IOException if the newest segment cannot be opened
+     */
+    public Journal(File directory, int segmentBytes, long segmentMillis, long flushInterval) throws IOException {
+        if (segmentBytes < Segment.INDEX_INTERVAL)
+            throw new IllegalArgumentException("segmentBytes must be at least " + Segment.INDEX_INTERVAL);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create journal directory " + directory);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+        this.flushInterval = flushInterval;
+        List<Segment> segments = segments();
+        if (!segments.isEmpty()) {
+            Segment last = segments.get(segments.size() - 1);
+            int torn = last.openForWrite(segmentBytes);
+            if (torn > 0)
+                logger.warn("Discarded " + torn + " bytes of torn tail from " + last.dataFile);
+            segment = last;
+            logger.info("Journal " + directory + " resumes " + last.dataFile.getName()
+                    + " at " + last.getPosition());
+        }
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "wxrd-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * @return the segments on disk, oldest first
+     */
+    private List<Segment> segments() {
+        List<Segment> segments = new ArrayList<Segment>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Segment s = Segment.fromFile(file);
+                if (s != null)
+                    segments.add(s);
+            }
+        }
+        Collections.sort(segments, new Comparator<Segment>() {
+            public int compare(Segment a, Segment b) {
+                return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * returns a segment with room for size bytes, rolling over if needed
+     */
+    private Segment reserve(long time, int size) throws IOException {
+        if (closed)
+            throw new IOException("Journal is closed");
+        if (size > segmentBytes)
+            throw new IOException("Record of " + size + " bytes exceeds the segment size");
+        Segment s = segment;
+        if (s != null && s.remaining() >= size && time - s.startTime < segmentMillis)
+            return s;
+        long sequence = 0;
+        if (s != null) {
+            // the flush thread writes it out and lets it go
+            retired.add(s);
+            sequence = s.sequence + 1;
+        }
+        Segment next = new Segment(directory, sequence, time);
+        next.openForWrite(segmentBytes);
+        if (logger.isDebugEnabled())
+            logger.debug("Journal rolled over to " + next.dataFile.getName());
+        segment = next;
+        return next;
+    }
+
+    /**
+     * records a line as it was received
+     *
+     * @param time when the line was received
+     * @param source the server it came from
+     * @param line buffer holding the line
+     * @param off offset of the first byte
+     * @param len length of the line
+     */
+    public synchronized void appendLine(long time, String source, byte[] line, int off, int len) throws IOException {
+        Segment s = reserve(time, JournalRecord.size(source, len));
+        ByteBuffer buffer = s.begin();
+        JournalRecord.putBody(buffer, JournalRecord.LINE, time, source);
+        buffer.put(line, off, len);
+        s.commit(time);
+        dirty = true;
+    }
+
+    /**
+     * records an event as decoded by a WxrReportParser
+     *
+     * @param time when the line was received
+     * @param source the server it came from
+     * @param report a valid report
+     */
+    public synchronized void appendReport(long time, String source, WxrReport report) throws IOException {
+        int count = report.getLocationCount();
+        Segment s = reserve(time, JournalRecord.size(source, JournalRecord.eventPayload(count)));
+        ByteBuffer buffer = s.begin();
+        JournalRecord.putBody(buffer, JournalRecord.EVENT, time, source);
+        buffer.putInt(report.getOrigin());
+        buffer.putInt(report.getEventCode());
+        buffer.put((byte)count);
+        for (int i = 0; i < count; i++)
+            buffer.putInt(report.getLocation(i));
+        buffer.putLong(report.getEventTime());
+        buffer.putInt(report.getPurgeMinutes());
+        s.commit(time);
+        dirty = true;
+    }
+
+    /**
+     * records a parsed event
+     *
+     * @param time when the event was received
+     * @param event the event
+     */
+    public void appendEvent(long time, WxrEvent event) throws IOException {
+        List<String> list = event.getLocations();
+        int count = Math.min(list.size(), WxrReport.MAX_LOCATIONS);
+        int[] locations = new int[count];
+        for (int i = 0; i < count; i++)
+            locations[i] = Integer.parseInt(list.get(i));
+        long eventTime = event.getEventTime().getTime();
+        int purge = (int)((event.getExpiresTime().getTime() - eventTime) / 60000L);
+        String source = event.getSource() == null ? "" : event.getSource();
+        synchronized (this) {
+            Segment s = reserve(time, JournalRecord.size(source, JournalRecord.eventPayload(count)));
+            ByteBuffer buffer = s.begin();
+            JournalRecord.putBody(buffer, JournalRecord.EVENT, time, source);
+            JournalRecord.putEvent(buffer, WxrReport.packCode(event.getOrigin()),
+                    WxrReport.packCode(event.getEventType()), locations, count, eventTime, purge);
+            s.commit(time);
+            dirty = true;
+        }
+    }
+
+    /**
+     * reads back the records received between from and to, inclusive
+     *
+     * @param from earliest receive time, in milliseconds since the epoch
+     * @param to latest receive time
+     * @param visitor receives each record
+     * @throws IOException if a segment cannot be read
+     */
+    public void replay(long from, long to, JournalVisitor visitor) throws IOException {
+        List<Segment> segments = segments();
+        Segment active;
+        int limit;
+        int entries;
+        synchronized (this) {
+            active = segment;
+            limit = active == null ? 0 : active.getPosition();
+            entries = active == null ? 0 : active.getIndexCount();
+        }
+        JournalRecord record = new JournalRecord();
+        for (int i = 0; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            // a segment ends where the next one starts
+            if (s.startTime > to || i + 1 < segments.size() && segments.get(i + 1).startTime < from)
+                continue;
+            if (active != null && s.sequence == active.sequence)
+                s = active;
+            if (!s.read(from, to, visitor, record, limit, entries))
+                return;
+        }
+    }
+
+    /**
+     * writes everything appended so far to disk, on the calling thread
+     */
+    public void flush() {
+        Segment s;
+        while ((s = retired.poll()) != null) {
+            s.force();
+            s.release();
+        }
+        if (dirty) {
+            dirty = false;
+            s = segment;
+            if (s != null)
+                s.force();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(flushInterval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Journal flush failed", e);
+            }
+        }
+    }
+
+    /**
+     * stops the flush thread and writes what is left to disk
+     */
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join(flushInterval + 1000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            dirty = true;
+            flush();
+            Segment s = segment;
+            if (s != null)
+                s.release();
+            segment = null;
+        }
+    }
+}
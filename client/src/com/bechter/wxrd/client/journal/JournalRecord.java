@@ -0,0 +1,189 @@
+/*
+ * JournalRecord.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+
+/**
+ * JournalRecord
+ *
+ *   One entry of a Journal: either a LINE, the raw text received from a wxrd
+ *   server, or an EVENT, a parsed report that was passed on for dispatch.
+ *   Both carry the time the line was received and the server it came from.
+ *
+ *   On disk a record is
+ *
+ *      int length, int crc32, long time, byte type, byte source length,
+ *      source, payload
+ *
+ *   where length counts the bytes after the crc and the crc covers the same
+ *   bytes. A LINE payload is the line itself. An EVENT payload is the packed
+ *   origin and event code, a location count and the locations, the issue
+ *   time in milliseconds and the purge time in minutes.
+ */
+public class JournalRecord {
+    public static final byte LINE = 1;
+    public static final byte EVENT = 2;
+
+    static final int HEADER = 8;
+    static final int FIXED = 8 + 1 + 1;
+    static final int MAX_SOURCE = 255;
+
+    private byte type;
+    private long time;
+    private String source;
+    private byte[] line = new byte[0];
+    private int lineLength;
+    private int origin;
+    private int eventCode;
+    private final int[] locations = new int[WxrReport.MAX_LOCATIONS];
+    private int locationCount;
+    private long eventTime;
+    private int purgeMinutes;
+
+    /**
+     * @return LINE or EVENT
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return when the line was received, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the server the line came from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the raw line of a LINE record, null for an EVENT
+     */
+    public String getLine() {
+        return type == LINE ? new String(line, 0, lineLength, StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * @return the event of an EVENT record, null for a LINE
+     */
+    public WxrEvent getEvent() {
+        if (type != EVENT)
+            return null;
+        WxrEvent event = new WxrEvent();
+        event.setSource(source);
+        event.setOrigin(WxrReport.codeToString(origin));
+        event.setEventType(WxrReport.codeToString(eventCode));
+        List<String> list = new ArrayList<String>(locationCount);
+        for (int i = 0; i < locationCount; i++)
+            list.add(WxrReport.locationToString(locations[i]));
+        event.setLocations(list);
+        event.setEventTime(new Date(eventTime));
+        event.setExpiresTime(new Date(eventTime + purgeMinutes * 60000L));
+        return event;
+    }
+
+    /**
+     * @return bytes needed for a record with the given source and payload size
+     */
+    static int size(String source, int payload) {
+        return HEADER + FIXED + Math.min(source.length(), MAX_SOURCE) + payload;
+    }
+
+    /**
+     * @return size of an EVENT payload with count locations
+     */
+    static int eventPayload(int count) {
+        return 4 + 4 + 1 + count * 4 + 8 + 4;
+    }
+
+    /**
+     * writes the part of a record after the crc
+     */
+    static void putBody(ByteBuffer buffer, byte type, long time, String source) {
+        int n = Math.min(source.length(), MAX_SOURCE);
+        buffer.putLong(time);
+        buffer.put(type);
+        buffer.put((byte)n);
+        for (int i = 0; i < n; i++)
+            buffer.put((byte)source.charAt(i));
+    }
+
+    static void putEvent(ByteBuffer buffer, int origin, int eventCode, int[] locations, int count,
+            long eventTime, int purgeMinutes) {
+        buffer.putInt(origin);
+        buffer.putInt(eventCode);
+        buffer.put((byte)count);
+        for (int i = 0; i < count; i++)
+            buffer.putInt(locations[i]);
+        buffer.putLong(eventTime);
+        buffer.putInt(purgeMinutes);
+    }
+
+    /**
+     * fills the record from a body of length bytes at the buffer's position,
+     * which is left after the body
+     *
+     * @return false if the body is not a well formed record
+     */
+    boolean read(ByteBuffer buffer, int length) {
+        int end = buffer.position() + length;
+        if (length < FIXED)
+            return false;
+        time = buffer.getLong();
+        type = buffer.get();
+        int n = buffer.get() & 0xff;
+        if (buffer.position() + n > end)
+            return false;
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++)
+            sb.append((char)(buffer.get() & 0xff));
+        source = sb.toString();
+        if (type == LINE) {
+            lineLength = end - buffer.position();
+            if (line.length < lineLength)
+                line = new byte[lineLength];
+            buffer.get(line, 0, lineLength);
+        } else if (type == EVENT) {
+            if (end - buffer.position() < eventPayload(0))
+                return false;
+            origin = buffer.getInt();
+            eventCode = buffer.getInt();
+            locationCount = buffer.get() & 0xff;
+            if (locationCount > locations.length || end - buffer.position() != eventPayload(locationCount) - 9)
+                return false;
+            for (int i = 0; i < locationCount; i++)
+                locations[i] = buffer.getInt();
+            eventTime = buffer.getLong();
+            purgeMinutes = buffer.getInt();
+        } else
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Segment.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Segment
+ *
+ *   One data file of a Journal and its sparse time index. The data file is
+ *   mapped at its full size when it is created, so it reads as zeros after
+ *   the last record and a zero length marks the end.
+ *
+ *   The index file holds an entry (long time, int position + 1) for the
+ *   first record and then for the first record after every INDEX_INTERVAL
+ *   bytes, so a reader finds the place to start a time range with a binary
+ *   search and at most INDEX_INTERVAL bytes of scanning. Index times are
+ *   kept non-decreasing even if the wall clock steps back.
+ *
+ *   Not thread safe, Journal locks around the writer. Readers and the flush
+ *   thread take the segment's own lock only to copy or drop the mappings.
+ */
+class Segment {
+    static final String DATA_SUFFIX = ".wxj";
+    static final String INDEX_SUFFIX = ".wxi";
+    static final int INDEX_INTERVAL = 4096;
+    static final int INDEX_ENTRY = 12;
+
+    final long sequence;
+    final long startTime;
+    final File dataFile;
+    final File indexFile;
+    private MappedByteBuffer data = null;
+    private MappedByteBuffer index = null;
+    private int position = 0;
+    private int indexCount = 0;
+    private int lastIndexed = -INDEX_INTERVAL;
+    private long lastIndexTime = Long.MIN_VALUE;
+
+    Segment(File directory, long sequence, long startTime) {
+        this.sequence = sequence;
+        this.startTime = startTime;
+        String name = String.format("%010d-%d", sequence, startTime);
+        this.dataFile = new File(directory, name + DATA_SUFFIX);
+        this.indexFile = new File(directory, name + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return the segment a data file belongs to, null if the name is not one of ours
+     */
+    static Segment fromFile(File file) {
+        String name = file.getName();
+        if (!name.endsWith(DATA_SUFFIX))
+            return null;
+        int dash = name.indexOf('-');
+        try {
+            return new Segment(file.getParentFile(), Long.parseLong(name.substring(0, dash)),
+                    Long.parseLong(name.substring(dash + 1, name.length() - DATA_SUFFIX.length())));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            if (size < 0)
+                size = raf.length();
+            // the mapping stays valid after the channel is closed
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * maps the segment for appending, creating the files at capacity bytes
+     * if they do not exist; an existing segment keeps its size and is
+     * recovered, truncating a torn tail
+     *
+     * @return the number of bytes of torn tail that were discarded
+     */
+    int openForWrite(int capacity) throws IOException {
+        if (dataFile.exists())
+            capacity = (int)Math.min(dataFile.length(), Integer.MAX_VALUE);
+        data = map(dataFile, FileChannel.MapMode.READ_WRITE, capacity);
+        index = map(indexFile, FileChannel.MapMode.READ_WRITE, (capacity / INDEX_INTERVAL + 2) * (long)INDEX_ENTRY);
+        return recover();
+    }
+
+    /**
+     * finds the end of the valid records, zeros anything after it and
+     * rebuilds the index from the records
+     */
+    private int recover() {
+        ByteBuffer buffer = data.duplicate();
+        JournalRecord record = new JournalRecord();
+        int pos = 0;
+        position = 0;
+        indexCount = 0;
+        lastIndexed = -INDEX_INTERVAL;
+        lastIndexTime = Long.MIN_VALUE;
+        while (true) {
+            int length = check(buffer, pos, buffer.capacity());
+            if (length <= 0)
+                break;
+            buffer.position(pos + JournalRecord.HEADER);
+            if (!record.read(buffer, length))
+                break;
+            indexed(pos, record.getTime());
+            pos += JournalRecord.HEADER + length;
+        }
+        position = pos;
+        int torn = 0;
+        for (int i = pos; i < data.capacity(); i++) {
+            if (data.get(i) != 0) {
+                data.put(i, (byte)0);
+                torn = i - pos + 1;
+            }
+        }
+        for (int i = indexCount * INDEX_ENTRY; i < index.capacity(); i++)
+            index.put(i, (byte)0);
+        return torn;
+    }
+
+    /**
+     * checks the record at pos
+     *
+     * @return the length of its body, 0 at the end, -1 if it is torn
+     */
+    private int check(ByteBuffer buffer, int pos, int limit) {
+        if (pos + JournalRecord.HEADER > limit)
+            return 0;
+        int length = buffer.getInt(pos);
+        if (length == 0)
+            return 0;
+        if (length < 0 || length > limit - pos - JournalRecord.HEADER)
+            return -1;
+        ByteBuffer body = buffer.duplicate();
+        body.limit(pos + JournalRecord.HEADER + length).position(pos + JournalRecord.HEADER);
+        // a crc of its own: readers check records while the writer commits them
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int)crc.getValue() == buffer.getInt(pos + 4) ? length : -1;
+    }
+
+    private void indexed(int pos, long time) {
+        if (pos - lastIndexed < INDEX_INTERVAL)
+            return;
+        lastIndexTime = Math.max(lastIndexTime, time);
+        int at = indexCount * INDEX_ENTRY;
+        if (at + INDEX_ENTRY > index.capacity())
+            return;
+        index.putLong(at, lastIndexTime);
+        index.putInt(at + 8, pos + 1);
+        indexCount++;
+        lastIndexed = pos;
+    }
+
+    /**
+     * @return bytes left for records
+     */
+    int remaining() {
+        return data.capacity() - position;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * returns the mapped buffer positioned at the start of the next body;
+     * the caller checks remaining(), writes the body and calls commit()
+     */
+    ByteBuffer begin() {
+        data.position(position + JournalRecord.HEADER);
+        return data;
+    }
+
+    /**
+     * writes the length and crc of the record started by begin()
+     */
+    void commit(long time) {
+        int length = data.position() - position - JournalRecord.HEADER;
+        ByteBuffer body = data.duplicate();
+        body.limit(data.position()).position(position + JournalRecord.HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        data.putInt(position + 4, (int)crc.getValue());
+        // the length goes in last, a reader stops at a zero length
+        data.putInt(position, length);
+        indexed(position, time);
+        position += JournalRecord.HEADER + length;
+    }
+
+    /**
+     * writes the mapped pages to disk
+     */
+    void force() {
+        MappedByteBuffer data;
+        MappedByteBuffer index;
+        synchronized (this) {
+            data = this.data;
+            index = this.index;
+        }
+        if (data != null) {
+            data.force();
+            index.force();
+        }
+    }
+
+    /**
+     * reads the records between from and to, inclusive, starting from the
+     * index entry before from
+     *
+     * @param limit written length of a segment being appended to, read
+     *            under the journal's lock; ignored for a closed segment
+     * @param entries index entries of a segment being appended to, likewise
+     * @return false if the visitor asked to stop
+     */
+    boolean read(long from, long to, JournalVisitor visitor, JournalRecord record, int limit, int entries)
+            throws IOException {
+        ByteBuffer buffer = null;
+        ByteBuffer idx = null;
+        // the flush thread may release the mappings at any time
+        synchronized (this) {
+            if (data != null) {
+                buffer = data.duplicate();
+                idx = index.duplicate();
+            }
+        }
+        if (buffer == null) {
+            if (!dataFile.exists())
+                return true;
+            buffer = map(dataFile, FileChannel.MapMode.READ_ONLY, -1);
+            limit = buffer.capacity();
+            idx = indexFile.exists() ? map(indexFile, FileChannel.MapMode.READ_ONLY, -1) : null;
+            entries = idx == null ? 0 : idx.capacity() / INDEX_ENTRY;
+            while (entries > 0 && idx.getInt((entries - 1) * INDEX_ENTRY + 8) == 0)
+                entries--;
+        }
+        int pos = start(idx, entries, from);
+        while (true) {
+            int length = check(buffer, pos, limit);
+            if (length <= 0)
+                return true;
+            buffer.position(pos + JournalRecord.HEADER);
+            if (!record.read(buffer, length))
+                return true;
+            pos += JournalRecord.HEADER + length;
+            if (record.getTime() > to)
+                return false;
+            if (record.getTime() >= from && !visitor.visit(record))
+                return false;
+        }
+    }
+
+    /**
+     * @return the position of the last indexed record at or before from
+     */
+    private static int start(ByteBuffer idx, int entries, long from) {
+        int low = 0;
+        int high = entries - 1;
+        int pos = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (idx.getLong(mid * INDEX_ENTRY) <= from) {
+                pos = idx.getInt(mid * INDEX_ENTRY + 8) - 1;
+                low = mid + 1;
+            } else
+                high = mid - 1;
+        }
+        return pos;
+    }
+
+    /**
+     * drops the mappings, which are unmapped when they are collected;
+     * force() first to keep what was appended
+     */
+    synchronized void release() {
+        data = null;
+        index = null;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * FanoutSender.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.log4j.Logger;
+
+/**
+ * FanoutSender
+ *
+ *   Splits a recipient list into chunks of at most chunkSize BCC recipients
+ *   and sends the chunks in parallel across every configured relay. Chunks
+ *   are spread round robin over the relays. Each relay has its own token
+ *   bucket, so a relay is never driven past its rate. A chunk that fails on
+ *   one relay is sent again on the next, until every relay has been tried.
+ *   When a relay refuses some recipients (SendFailedException), those are
+ *   logged and dropped, and only the valid recipients it did not send to
+ *   are sent again, so nobody gets the message twice and one bad address
+ *   does not hold back the rest of its chunk.
+ *
+ *   send() returns when the last chunk is done, and logs how long that took.
+ *   That is the time until the last recipient has been handed the message.
+ *
+ *   Instances are thread safe.
+ */
+public class FanoutSender {
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    private final Logger logger = Logger.getLogger(FanoutSender.class);
+    private final List<MailRelay> relays;
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param relays the relays to spread chunks over, at least one
+     * @param chunkSize maximum recipients per message
+     * @param parallelism maximum chunks in flight at once
+     */
+    public FanoutSender(List<MailRelay> relays, int chunkSize, int parallelism) {
+        if (relays.isEmpty())
+            throw new IllegalArgumentException("at least one relay is required");
+        if (chunkSize < 1 || parallelism < 1)
+            throw new IllegalArgumentException("chunkSize and parallelism must be positive");
+        this.relays = new ArrayList<MailRelay>(relays);
+        this.chunkSize = chunkSize;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fanout-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the relays chunks are sent over
+     */
+    public List<MailRelay> getRelays() {
+        return relays;
+    }
+
+    /**
+     * sends a message to every recipient and waits for the last chunk
+     *
+     * @param factory builds the message for each chunk
+     * @param recipients the addresses to send to
+     * @return the number of recipients that could not be sent to on any relay
+     */
+    public int send(final MessageFactory factory, List<String> recipients) {
+        long start = System.nanoTime();
+        List<Address[]> chunks = new ArrayList<Address[]>();
+        int invalid = 0;
+        List<Address> chunk = new ArrayList<Address>(chunkSize);
+        for (String recipient : recipients) {
+            try {
+                chunk.add(new InternetAddress(recipient));
+            } catch (AddressException e) {
+                logger.error("Invalid recipient " + recipient + ": " + e.getMessage());
+                invalid++;
+            }
+            if (chunk.size() == chunkSize) {
+                chunks.add(chunk.toArray(new Address[chunk.size()]));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            chunks.add(chunk.toArray(new Address[chunk.size()]));
+
+        final CountDownLatch done = new CountDownLatch(chunks.size());
+        final AtomicInteger failed = new AtomicInteger(invalid);
+        for (final Address[] addresses : chunks) {
+            final int first = Math.abs(next.getAndIncrement() % relays.size());
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        failed.addAndGet(sendChunk(factory, addresses, first));
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted waiting for fan-out to finish");
+        }
+        if (logger.isInfoEnabled())
+            logger.info("Sent to " + (recipients.size() - failed.get()) + " of " + recipients.size()
+                    + " recipients in " + chunks.size() + " chunk(s), last recipient after "
+                    + (System.nanoTime() - start) / 1000000L + "ms");
+        return failed.get();
+    }
+
+    /**
+     * sends one chunk, trying each relay in turn starting at first
+     *
+     * @return the number of recipients that could not be sent to
+     */
+    private int sendChunk(MessageFactory factory, Address[] addresses, int first) {
+        int refused = 0;
+        int attempt = 0;
+        while (attempt < relays.size()) {
+            MailRelay relay = relays.get((first + attempt) % relays.size());
+            try {
+                relay.getBucket().acquire();
+                MimeMessage message = factory.create(relay.getPool().getSession(), addresses);
+                long start = System.nanoTime();
+                relay.getPool().send(message);
+                relay.getSendTime().record((System.nanoTime() - start) / 1000L);
+                if (logger.isDebugEnabled())
+                    logger.debug("sent chunk of " + addresses.length + " via " + relay);
+                return refused;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return refused + addresses.length;
+            } catch (SendFailedException e) {
+                relay.getFailures().increment();
+                Address[] invalid = e.getInvalidAddresses();
+                Address[] unsent = e.getValidUnsentAddresses();
+                Address[] sent = e.getValidSentAddresses();
+                if (invalid != null && invalid.length > 0) {
+                    refused += invalid.length;
+                    logger.warn("Relay " + relay + " refused " + Arrays.toString(invalid));
+                }
+                if (unsent == null || unsent.length == 0) {
+                    if (sent != null && sent.length > 0 || invalid != null && invalid.length > 0)
+                        return refused;
+                    logger.warn("Chunk of " + addresses.length + " failed on relay " + relay + ": " + e);
+                    attempt++;
+                } else {
+                    // with the refused addresses gone the same relay may take the rest
+                    if (invalid == null || invalid.length == 0 || unsent.length >= addresses.length) {
+                        logger.warn("Relay " + relay + " did not send to " + unsent.length + " of "
+                                + addresses.length + ": " + e);
+                        attempt++;
+                    }
+                    addresses = unsent;
+                }
+            } catch (MessagingException e) {
+                relay.getFailures().increment();
+                logger.warn("Chunk of " + addresses.length + " failed on relay " + relay + ": " + e);
+                attempt++;
+            }
+        }
+        logger.error("Chunk of " + addresses.length + " recipients failed on every relay");
+        return refused + addresses.length;
+    }
+
+    /**
+     * closes the sender in the background once it has been out of use for
+     * grace milliseconds and the chunks it was given have been sent; for
+     * replacing a sender that other threads may still be calling
+     *
+     * @param grace time for callers that have already looked the sender up
+     *        to start their sends
+     */
+    public void retire(final long grace) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(grace);
+                    executor.shutdown();
+                    while (!executor.awaitTermination(grace, TimeUnit.MILLISECONDS))
+                        logger.info("Waiting for a retired fan-out to finish sending");
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                }
+                for (MailRelay relay : relays)
+                    relay.getPool().close();
+            }
+        }, "fanout-retire");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stops the sending threads and closes the relay connections
+     */
+    public void close() {
+        executor.shutdownNow();
+        for (MailRelay relay : relays)
+            relay.getPool().close();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * MailRelay.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import java.util.Properties;
+
+import com.bechter.wxrd.client.metrics.Counter;
+import com.bechter.wxrd.client.metrics.Histogram;
+import com.bechter.wxrd.client.metrics.MetricsRegistry;
+
+/**
+ * MailRelay
+ *
+ *   one SMTP relay used by the FanoutSender: its connection pool, the
+ *   token bucket that keeps sends under the provider's throttle and its
+ *   send time and failure metrics
+ */
+public class MailRelay {
+    private final String name;
+    private final SmtpTransportPool pool;
+    private final TokenBucket bucket;
+    private final Histogram sendTime;
+    private final Counter failures;
+
+    /**
+     * @param spec host or host:port of the relay
+     * @param properties session properties shared by all relays
+     * @param maxConnections maximum open connections to this relay
+     * @param rate messages per second allowed on this relay, zero for no limit
+     */
+    public MailRelay(String spec, Properties properties, int maxConnections, double rate) {
+        this(spec, properties, maxConnections, rate, MetricsRegistry.getDefault());
+    }
+
+    /**
+     * @param spec host or host:port of the relay
+     * @param properties session properties shared by all relays
+     * @param maxConnections maximum open connections to this relay
+     * @param rate messages per second allowed on this relay, zero for no limit
+     * @param metrics where the relay's send time and failures are registered
+     */
+    public MailRelay(String spec, Properties properties, int maxConnections, double rate, MetricsRegistry metrics) {
+        Properties props = new Properties();
+        props.putAll(properties);
+        int colon = spec.lastIndexOf(':');
+        if (colon < 0) {
+            props.setProperty("mail.host", spec);
+        } else {
+            props.setProperty("mail.host", spec.substring(0, colon));
+            props.setProperty("mail.smtp.port", spec.substring(colon + 1));
+        }
+        this.name = spec;
+        this.pool = new SmtpTransportPool(props, maxConnections);
+        this.bucket = new TokenBucket(rate, Math.max(1.0, rate));
+        this.sendTime = metrics.histogram("smtp_send_micros", "relay", spec, "time to send one message on a relay");
+        this.failures = metrics.counter("smtp_failures_total", "relay", spec, "messages a relay failed to send");
+    }
+
+    /**
+     * @return host[:port] of the relay
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return connection pool for the relay
+     */
+    public SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return rate limiter for the relay
+     */
+    public TokenBucket getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return time to send each message, in microseconds
+     */
+    public Histogram getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return messages that failed on this relay
+     */
+    public Counter getFailures() {
+        return failures;
+    }
+
+    public String toString() {
+        return name;
+    }
+}
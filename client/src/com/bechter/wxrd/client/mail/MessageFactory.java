@@ -0,0 +1,39 @@
+/*
+ * MessageFactory.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * MessageFactory
+ *
+ *   builds the message for one chunk of recipients; called once per
+ *   chunk and relay attempt, possibly from several threads at once
+ */
+public interface MessageFactory {
+
+    /**
+     * @param session the session of the relay the message will be sent on
+     * @param recipients the BCC recipients of this chunk
+     * @return a message ready to send
+     * @throws MessagingException if the message cannot be built
+     */
+    MimeMessage create(Session session, Address[] recipients) throws MessagingException;
+}
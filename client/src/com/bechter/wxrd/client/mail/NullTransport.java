@@ -0,0 +1,57 @@
+/*
+ * NullTransport.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+/**
+ * NullTransport
+ *
+ *   Transport that encodes every message as a real send would and then
+ *   discards it. Used to warm up the sending path without mailing anyone:
+ *   add PROVIDER to a session and set mail.transport.protocol to PROTOCOL.
+ */
+public class NullTransport extends Transport {
+    public static final String PROTOCOL = "wxrd-null";
+    public static final Provider PROVIDER = new Provider(Provider.Type.TRANSPORT, PROTOCOL,
+            NullTransport.class.getName(), "bechter.com", null);
+
+    public NullTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    protected boolean protocolConnect(String host, int port, String user, String password) {
+        return true;
+    }
+
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        try {
+            message.writeTo(OutputStream.nullOutputStream());
+        } catch (IOException e) {
+            throw new MessagingException("Failed to encode message", e);
+        }
+    }
+}
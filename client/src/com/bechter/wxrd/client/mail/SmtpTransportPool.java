@@ -0,0 +1,243 @@
+/*
+ * SmtpTransportPool.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.log4j.Logger;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * SmtpTransportPool
+ *
+ *   Keeps connected SMTP transports open between messages instead of paying
+ *   for a TCP and SMTP handshake on every send the way Transport.send() does.
+ *   One Session is built when the pool is created and shared by every
+ *   message.
+ *
+ *   At most maxConnections transports are in use at once; callers beyond
+ *   that wait for one to be returned. A transport that has been idle for
+ *   more than VALIDATE_AFTER is checked with isConnected() (an SMTP NOOP)
+ *   before it is reused, and one idle for more than MAX_IDLE is closed
+ *   rather than risk a server side timeout. If a reused connection turns out
+ *   to be dead (an I/O error, or isConnected() fails after the error), it is
+ *   dropped and the message is retried once on a fresh one, so a dead
+ *   connection is replaced without the caller noticing. A server that
+ *   rejects the message or its recipients (SendFailedException) is reported
+ *   as is, without a retry, and the connection is kept, unless the reply
+ *   was a 421: the server is closing the connection, so it is treated as
+ *   dead.
+ *
+ *   Instances are thread safe.
+ */
+public class SmtpTransportPool {
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final long VALIDATE_AFTER = 2000L;
+    private static final long MAX_IDLE = 60000L;
+    /** SMTP reply of a server that is closing the connection */
+    private static final int SERVICE_CLOSING = 421;
+
+    private final Logger logger = Logger.getLogger(SmtpTransportPool.class);
+    private final Session session;
+    private final String protocol;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Pooled> idle = new LinkedBlockingDeque<Pooled>();
+    private volatile boolean closed = false;
+
+    /**
+     * a connected transport and when it was last returned to the pool
+     */
+    private static class Pooled {
+        final Transport transport;
+        long lastUsed;
+
+        Pooled(Transport transport) {
+            this.transport = transport;
+        }
+    }
+
+    /**
+     * @param properties javax.mail session properties, mail.host at least
+     * @param maxConnections maximum number of open connections
+     */
+    public SmtpTransportPool(Properties properties, int maxConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("maxConnections must be positive");
+        this.session = Session.getInstance(properties);
+        this.protocol = properties.getProperty("mail.transport.protocol", "smtp");
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * @return the session to build messages with
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * sends a message to all of its recipients over a pooled connection
+     *
+     * @param message the message to send
+     * @throws MessagingException if the message could not be sent on a fresh connection
+     */
+    public void send(MimeMessage message) throws MessagingException {
+        message.saveChanges();
+        Address[] recipients = message.getAllRecipients();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted waiting for an SMTP connection");
+        }
+        try {
+            Pooled pooled = borrow();
+            boolean reused = pooled != null;
+            if (pooled == null)
+                pooled = open();
+            try {
+                pooled.transport.sendMessage(message, recipients);
+            } catch (MessagingException e) {
+                if (!broken(pooled, e)) {
+                    release(pooled);
+                    throw e;
+                }
+                discard(pooled);
+                if (!reused)
+                    throw e;
+                logger.warn("Reused SMTP connection failed, retrying on a new one: " + e);
+                pooled = open();
+                try {
+                    pooled.transport.sendMessage(message, recipients);
+                } catch (MessagingException retry) {
+                    if (broken(pooled, retry))
+                        discard(pooled);
+                    else
+                        release(pooled);
+                    throw retry;
+                }
+            }
+            release(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return true if a send failed because the connection is gone, false if
+     *         the server refused the message and the connection is still good
+     */
+    private static boolean broken(Pooled pooled, MessagingException e) {
+        if (e instanceof SendFailedException)
+            return closing(e);
+        if (e.getNextException() instanceof IOException || e.getCause() instanceof IOException)
+            return true;
+        return !pooled.transport.isConnected();
+    }
+
+    /**
+     * @return true if the server answered 421, closing the connection, to
+     *         any command of the send
+     */
+    private static boolean closing(MessagingException e) {
+        Exception x = e;
+        while (x != null) {
+            if (x instanceof SMTPSendFailedException && ((SMTPSendFailedException)x).getReturnCode() == SERVICE_CLOSING)
+                return true;
+            if (x instanceof SMTPAddressFailedException && ((SMTPAddressFailedException)x).getReturnCode() == SERVICE_CLOSING)
+                return true;
+            x = x instanceof MessagingException ? ((MessagingException)x).getNextException() : null;
+        }
+        return false;
+    }
+
+    /**
+     * @return an idle transport that is still usable, or null if there is none
+     */
+    private Pooled borrow() {
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            long idleFor = System.currentTimeMillis() - pooled.lastUsed;
+            if (idleFor > MAX_IDLE) {
+                discard(pooled);
+            } else if (idleFor > VALIDATE_AFTER && !pooled.transport.isConnected()) {
+                if (logger.isDebugEnabled())
+                    logger.debug("dropping stale SMTP connection");
+                discard(pooled);
+            } else {
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    private Pooled open() throws MessagingException {
+        if (logger.isDebugEnabled())
+            logger.debug("opening SMTP connection");
+        Transport transport = session.getTransport(protocol);
+        transport.connect();
+        return new Pooled(transport);
+    }
+
+    private void release(Pooled pooled) {
+        if (closed) {
+            discard(pooled);
+            return;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        // most recently used first, so idle ones age out
+        idle.offerFirst(pooled);
+    }
+
+    private void discard(Pooled pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            if (logger.isDebugEnabled())
+                logger.debug("error closing SMTP connection", e);
+        }
+    }
+
+    /**
+     * @return number of connections open and waiting to be reused
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * closes every idle connection; connections in use are closed when returned
+     */
+    public void close() {
+        closed = true;
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null)
+            discard(pooled);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * TokenBucket.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TokenBucket
+ *
+ *   Rate limiter that allows bursts of up to capacity and refills at rate
+ *   tokens per second. acquire() reserves a token under a short lock and
+ *   then parks outside of it, so waiting callers do not hold each other up.
+ *   A rate of zero or less disables limiting.
+ */
+public class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long refilled;
+
+    /**
+     * @param rate tokens added per second
+     * @param capacity largest burst allowed
+     */
+    public TokenBucket(double rate, double capacity) {
+        this.rate = rate;
+        this.capacity = Math.max(1.0, capacity);
+        this.tokens = this.capacity;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * @return tokens added per second, zero or less if unlimited
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * takes a token, waiting for one to be added if the bucket is empty
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        while (wait > 0) {
+            long deadline = System.nanoTime() + wait;
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                refund();
+                throw new InterruptedException();
+            }
+            wait = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * takes a token only if one is available now
+     *
+     * @return true if a token was taken
+     */
+    public synchronized boolean tryAcquire() {
+        if (rate <= 0)
+            return true;
+        refill(System.nanoTime());
+        if (tokens < 1.0)
+            return false;
+        tokens -= 1.0;
+        return true;
+    }
+
+    /**
+     * takes a token, possibly going into debt
+     *
+     * @return nanoseconds until the token is really available
+     */
+    private synchronized long reserve() {
+        if (rate <= 0)
+            return 0L;
+        refill(System.nanoTime());
+        tokens -= 1.0;
+        return tokens >= 0 ? 0L : (long)(-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * gives back a token reserved by a caller that stopped waiting for it
+     */
+    private synchronized void refund() {
+        refill(System.nanoTime());
+        tokens = Math.min(capacity, tokens + 1.0);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilled = now;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Counter.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter
+ *
+ *   monotonically increasing count, striped with a LongAdder so threads
+ *   counting at once do not contend
+ */
+public class Counter extends Metric implements CounterMBean {
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String label, String labelValue, String help) {
+        super(name, label, labelValue, help);
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    String getType() {
+        return "counter";
+    }
+
+    void writeSamples(Appendable out) throws IOException {
+        writeName(out, null, null, null);
+        out.append(Long.toString(getCount())).append('\n');
+    }
+
+    Class<?> getMBeanInterface() {
+        return CounterMBean.class;
+    }
+}
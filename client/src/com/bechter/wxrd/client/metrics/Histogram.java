@@ -0,0 +1,170 @@
+/*
+ * Histogram.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram
+ *
+ *   Log-linear histogram of non-negative values. Values below 32 have a
+ *   bucket each; above that every power of two is split into 32 buckets, so
+ *   a reported percentile is within about 3% of the true value from one up
+ *   to 2^47 (four years in microseconds). Larger values land in the last
+ *   bucket; the maximum is kept exactly.
+ *
+ *   record() finds the bucket with a leading zero count and updates atomic
+ *   counters, so it takes no lock and allocates nothing. Percentiles are
+ *   computed when they are read, from a pass over the 1408 buckets.
+ */
+public class Histogram extends Metric implements HistogramMBean {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 47;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name, String label, String labelValue, String help) {
+        super(name, label, labelValue, help);
+    }
+
+    /**
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value))
+            ;
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + (int)(value >>> exponent - SUB_BITS) - SUB_COUNT;
+    }
+
+    /**
+     * @return the middle of the range of values held by a bucket
+     */
+    static long value(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long low = (long)(index % SUB_COUNT + SUB_COUNT) << exponent - SUB_BITS;
+        return low + (1L << exponent - SUB_BITS >> 1);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0.0 : (double)getSum() / n;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the value at the quantile, 0 if nothing was recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        return percentile(snapshot, total, quantile);
+    }
+
+    private long percentile(long[] snapshot, long total, double quantile) {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(value(i), getMax());
+        }
+        return getMax();
+    }
+
+    public long getMedian() {
+        return getPercentile(0.5);
+    }
+
+    public long get90thPercentile() {
+        return getPercentile(0.9);
+    }
+
+    public long get99thPercentile() {
+        return getPercentile(0.99);
+    }
+
+    public long get999thPercentile() {
+        return getPercentile(0.999);
+    }
+
+    String getType() {
+        return "summary";
+    }
+
+    void writeSamples(Appendable out) throws IOException {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        for (double q : QUANTILES) {
+            writeName(out, null, "quantile", Double.toString(q));
+            out.append(Long.toString(percentile(snapshot, total, q))).append('\n');
+        }
+        // quantile 1 is the exact maximum
+        writeName(out, null, "quantile", "1");
+        out.append(Long.toString(getMax())).append('\n');
+        writeName(out, "_sum", null, null);
+        out.append(Long.toString(getSum())).append('\n');
+        writeName(out, "_count", null, null);
+        out.append(Long.toString(total)).append('\n');
+    }
+
+    Class<?> getMBeanInterface() {
+        return HistogramMBean.class;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Metric.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.metrics;
+
+import java.io.IOException;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Metric
+ *
+ *   A named measurement held by a MetricsRegistry, with at most one label
+ *   (the relay, channel or endpoint it is for). Names follow the Prometheus
+ *   conventions: lower case with underscores, the unit as a suffix and
+ *   _total for counters.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String label;
+    private final String labelValue;
+    private final String help;
+
+    Metric(String name, String label, String labelValue, String help) {
+        this.name = name;
+        this.label = label;
+        this.labelValue = labelValue;
+        this.help = help;
+    }
+
+    /**
+     * @return the metric name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the label name, null if the metric has no label
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the label value, null if the metric has no label
+     */
+    public String getLabelValue() {
+        return labelValue;
+    }
+
+    /**
+     * @return one line description
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * @return counter, gauge or summary
+     */
+    abstract String getType();
+
+    /**
+     * writes the sample lines, without the HELP and TYPE lines
+     */
+    abstract void writeSamples(Appendable out) throws IOException;
+
+    /**
+     * @return the management interface the metric is exported under
+     */
+    abstract Class<?> getMBeanInterface();
+
+    /**
+     * key the registry sorts and finds the metric by; the space sorts
+     * before any name character so all series of a name are adjacent
+     */
+    static String key(String name, String labelValue) {
+        return labelValue == null ? name : name + " " + labelValue;
+    }
+
+    ObjectName getObjectName(String domain) throws MalformedObjectNameException {
+        String type = getType();
+        StringBuilder sb = new StringBuilder(domain).append(":type=")
+                .append(Character.toUpperCase(type.charAt(0))).append(type.substring(1))
+                .append(",name=").append(name);
+        if (label != null)
+            sb.append(',').append(label).append('=').append(ObjectName.quote(labelValue));
+        return new ObjectName(sb.toString());
+    }
+
+    /**
+     * writes name{label="value"} with an optional extra label
+     */
+    void writeName(Appendable out, String suffix, String extra, String extraValue) throws IOException {
+        out.append(name);
+        if (suffix != null)
+            out.append(suffix);
+        if (label != null || extra != null) {
+            out.append('{');
+            if (label != null) {
+                out.append(label).append("=\"");
+                escape(out, labelValue);
+                out.append('"');
+            }
+            if (extra != null) {
+                if (label != null)
+                    out.append(',');
+                out.append(extra).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    private static void escape(Appendable out, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"')
+                out.append('\\').append(c);
+            else if (c == '\n')
+                out.append("\\n");
+            else
+                out.append(c);
+        }
+    }
+}
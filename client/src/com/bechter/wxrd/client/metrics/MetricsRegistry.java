@@ -0,0 +1,166 @@
+/*
+ * MetricsRegistry.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * MetricsRegistry
+ *
+ *   Named counters, histograms and gauges for the receive to notify path.
+ *   Components look their metrics up once, when they are created, and keep
+ *   the references, so recording never touches the registry.
+ *
+ *   The registry can be read two ways: writeText() produces the Prometheus
+ *   text format (served over HTTP by MetricsServer), and registerMBeans()
+ *   exports every metric, including those created later, as an MBean under
+ *   the com.bechter.wxrd domain.
+ *
+ *   Instances are thread safe.
+ */
+public class MetricsRegistry {
+    public static final String DOMAIN = "com.bechter.wxrd";
+    private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+    private final Logger logger = Logger.getLogger(MetricsRegistry.class);
+    private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+    private MBeanServer server = null;
+
+    /**
+     * @return the registry shared by the client's components
+     */
+    public static MetricsRegistry getDefault() {
+        return defaultRegistry;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, null, null, help);
+    }
+
+    /**
+     * @return the counter with the name and label, created if needed
+     */
+    public Counter counter(String name, String label, String labelValue, String help) {
+        Metric metric = metrics.get(Metric.key(name, labelValue));
+        if (metric == null)
+            metric = add(new Counter(name, label, labelValue, help));
+        return (Counter)checked(metric, Counter.class);
+    }
+
+    public Histogram histogram(String name, String help) {
+        return histogram(name, null, null, help);
+    }
+
+    /**
+     * @return the histogram with the name and label, created if needed
+     */
+    public Histogram histogram(String name, String label, String labelValue, String help) {
+        Metric metric = metrics.get(Metric.key(name, labelValue));
+        if (metric == null)
+            metric = add(new Histogram(name, label, labelValue, help));
+        return (Histogram)checked(metric, Histogram.class);
+    }
+
+    public void gauge(String name, String help, Gauge gauge) {
+        gauge(name, null, null, help, gauge);
+    }
+
+    /**
+     * registers a gauge, replacing one already registered under the name
+     * and label
+     */
+    public synchronized void gauge(String name, String label, String labelValue, String help, Gauge gauge) {
+        Metric old = metrics.remove(Metric.key(name, labelValue));
+        if (old != null)
+            unregister(old);
+        add(new GaugeMetric(name, label, labelValue, help, gauge));
+    }
+
+    private static Metric checked(Metric metric, Class<?> type) {
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException(metric.getName() + " is already registered as a " + metric.getType());
+        return metric;
+    }
+
+    private synchronized Metric add(Metric metric) {
+        Metric existing = metrics.putIfAbsent(Metric.key(metric.getName(), metric.getLabelValue()), metric);
+        if (existing != null)
+            return existing;
+        if (server != null)
+            register(metric);
+        return metric;
+    }
+
+    /**
+     * exports every metric, now and as it is created, as an MBean
+     *
+     * @param server usually ManagementFactory.getPlatformMBeanServer()
+     */
+    public synchronized void registerMBeans(MBeanServer server) {
+        if (this.server != null)
+            return;
+        this.server = server;
+        for (Metric metric : metrics.values())
+            register(metric);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private void register(Metric metric) {
+        try {
+            ObjectName name = metric.getObjectName(DOMAIN);
+            if (!server.isRegistered(name))
+                server.registerMBean(new StandardMBean(metric, (Class)metric.getMBeanInterface()), name);
+        } catch (JMException e) {
+            logger.warn("Failed to register MBean for " + metric.getName() + ": " + e);
+        }
+    }
+
+    private void unregister(Metric metric) {
+        if (server == null)
+            return;
+        try {
+            ObjectName name = metric.getObjectName(DOMAIN);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        } catch (JMException e) {
+            logger.warn("Failed to unregister MBean for " + metric.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * writes every metric in the Prometheus text exposition format
+     */
+    public void writeText(Appendable out) throws IOException {
+        String previous = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.getName().equals(previous)) {
+                previous = metric.getName();
+                out.append("# HELP ").append(previous).append(' ').append(metric.getHelp()).append('\n');
+                out.append("# TYPE ").append(previous).append(' ').append(metric.getType()).append('\n');
+            }
+            metric.writeSamples(out);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * ParkingWaitStrategy.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ParkingWaitStrategy
+ *
+ *   Spins and yields briefly, then parks the thread until a sequence moves.
+ *   Costs nothing while idle, which suits the client: reports come minutes
+ *   or days apart. Signals only take the lock when a stage is parked, so a
+ *   busy pipeline does not pay for it.
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 10;
+    /** parked stages re-check this often, in case a signal raced the park */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition moved = lock.newCondition();
+    private final AtomicInteger parked = new AtomicInteger();
+
+    public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, SequenceBarrier barrier)
+            throws AlertException, InterruptedException {
+        int counter = SPIN_TRIES + YIELD_TRIES;
+        long available;
+        while ((available = Sequence.minimum(dependents, cursor.get())) < sequence) {
+            barrier.checkAlert();
+            if (counter > YIELD_TRIES) {
+                counter--;
+                Thread.onSpinWait();
+            } else if (counter > 0) {
+                counter--;
+                Thread.yield();
+            } else {
+                lock.lock();
+                try {
+                    parked.incrementAndGet();
+                    // check again now that a signaller will see us
+                    if (Sequence.minimum(dependents, cursor.get()) < sequence && !barrier.isAlerted())
+                        moved.awaitNanos(PARK_NANOS);
+                } finally {
+                    parked.decrementAndGet();
+                    lock.unlock();
+                }
+            }
+        }
+        return available;
+    }
+
+    public void signalAllWhenBlocking() {
+        // the sequence that moved was an ordered write; make it visible
+        // before deciding nobody is parked, or a parking stage could miss it
+        VarHandle.fullFence();
+        if (parked.get() == 0)
+            return;
+        lock.lock();
+        try {
+            moved.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
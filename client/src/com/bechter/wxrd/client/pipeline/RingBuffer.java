@@ -0,0 +1,161 @@
+/*
+ * RingBuffer.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RingBuffer
+ *
+ *   A preallocated ring of reusable slots between one producer and any
+ *   number of stages, each consuming every slot in order at its own pace.
+ *
+ *   The producer claims a slot with next(), fills it in place and makes it
+ *   visible with publish(). Each stage is a StageProcessor with its own
+ *   Sequence and a SequenceBarrier on the cursor and on the stages it
+ *   follows, so stages can run one after another or side by side. No locks
+ *   are taken and no slot is ever allocated after construction.
+ *
+ *   The producer is gated by the sequences of the last stages: next() will
+ *   not hand out a slot a stage has not finished with. When the ring is
+ *   full the producer waits, so a slow stage holds the producer back rather
+ *   than losing events. Those waits are counted in getStallCount().
+ *
+ *   next() and publish() must only be called from the one producer thread.
+ */
+public class RingBuffer<T> {
+    private final Object[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence();
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+    // producer thread only
+    private long nextValue = Sequence.INITIAL;
+    private long cachedGate = Sequence.INITIAL;
+    private volatile long stalls = 0L;
+
+    /**
+     * @param factory creates every slot up front
+     * @param size number of slots, a power of two
+     * @param waitStrategy how stages wait for slots
+     */
+    public RingBuffer(SlotFactory<T> factory, int size, WaitStrategy waitStrategy) {
+        if (size < 1 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("size must be a power of two: " + size);
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < size; i++)
+            slots[i] = factory.newSlot();
+    }
+
+    /**
+     * @return the slot for a sequence
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long sequence) {
+        return (T)slots[(int)sequence & mask];
+    }
+
+    /**
+     * claims the next slot, waiting while it is still in use by a gating
+     * stage
+     *
+     * @return the sequence of the claimed slot
+     */
+    public long next() {
+        long next = nextValue + 1;
+        long wrapPoint = next - slots.length;
+        if (wrapPoint > cachedGate) {
+            long gate;
+            boolean stalled = false;
+            while (wrapPoint > (gate = Sequence.minimum(gatingSequences, nextValue))) {
+                if (!stalled) {
+                    stalled = true;
+                    stalls++;
+                }
+                waitStrategy.signalAllWhenBlocking();
+                LockSupport.parkNanos(1L);
+            }
+            cachedGate = gate;
+        }
+        nextValue = next;
+        return next;
+    }
+
+    /**
+     * makes a claimed slot, and every one before it, visible to the stages
+     */
+    public void publish(long sequence) {
+        cursor.set(sequence);
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    /**
+     * @return the sequence of the last published slot
+     */
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int getBufferSize() {
+        return slots.length;
+    }
+
+    /**
+     * @return slots the producer can claim without waiting
+     */
+    public long remainingCapacity() {
+        return slots.length - (cursor.get() - Sequence.minimum(gatingSequences, cursor.get()));
+    }
+
+    /**
+     * @return number of times next() had to wait for a stage
+     */
+    public long getStallCount() {
+        return stalls;
+    }
+
+    /**
+     * adds the sequences of stages the producer must not overtake,
+     * before publishing starts
+     */
+    public synchronized void addGatingSequences(Sequence... sequences) {
+        Sequence[] gating = new Sequence[gatingSequences.length + sequences.length];
+        System.arraycopy(gatingSequences, 0, gating, 0, gatingSequences.length);
+        System.arraycopy(sequences, 0, gating, gatingSequences.length, sequences.length);
+        for (Sequence s : sequences)
+            s.set(cursor.get());
+        gatingSequences = gating;
+    }
+
+    /**
+     * @param dependents the stages a new stage must follow, none to follow
+     *        the producer directly
+     * @return a barrier for the new stage
+     */
+    public SequenceBarrier newBarrier(Sequence... dependents) {
+        return new SequenceBarrier(waitStrategy, cursor, dependents);
+    }
+
+    WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+}
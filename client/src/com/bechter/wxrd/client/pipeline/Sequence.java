@@ -0,0 +1,84 @@
+/*
+ * Sequence.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * padding ahead of the value of a Sequence
+ */
+abstract class SequenceLeftPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+/**
+ * the value of a Sequence, laid out after the left padding
+ */
+abstract class SequenceValue extends SequenceLeftPadding {
+    protected volatile long value;
+}
+
+/**
+ * Sequence
+ *
+ *   A position in a RingBuffer: the producer's cursor or how far a stage
+ *   has got. Each is written by one thread and read by others. The value
+ *   is padded on both sides, through the superclasses so the JVM keeps the
+ *   order, so two sequences never share a cache line and one stage's
+ *   progress does not slow the next stage's reads.
+ */
+public class Sequence extends SequenceValue {
+    public static final long INITIAL = -1L;
+    private static final AtomicLongFieldUpdater<SequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    public Sequence() {
+        this(INITIAL);
+    }
+
+    public Sequence(long initial) {
+        value = initial;
+    }
+
+    public long get() {
+        return value;
+    }
+
+    /**
+     * an ordered write; the slots written before it are visible to a
+     * thread that reads the new value
+     */
+    public void set(long value) {
+        UPDATER.lazySet(this, value);
+    }
+
+    /**
+     * @return the lowest of sequences, or fallback if there are none
+     */
+    public static long minimum(Sequence[] sequences, long fallback) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < sequences.length; i++)
+            min = Math.min(min, sequences[i].get());
+        return sequences.length > 0 ? min : fallback;
+    }
+
+    public String toString() {
+        return Long.toString(get());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * SequenceBarrier.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+/**
+ * SequenceBarrier
+ *
+ *   What a stage waits on: the producer's cursor and the sequences of the
+ *   stages ahead of it. Alerting the barrier wakes the stage out of its
+ *   wait with an AlertException so it can stop.
+ */
+public class SequenceBarrier {
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor;
+    private final Sequence[] dependents;
+    private volatile boolean alerted = false;
+
+    SequenceBarrier(WaitStrategy waitStrategy, Sequence cursor, Sequence[] dependents) {
+        this.waitStrategy = waitStrategy;
+        this.cursor = cursor;
+        this.dependents = dependents.clone();
+    }
+
+    /**
+     * @param sequence the slot wanted
+     * @return the highest sequence available to this stage, at least sequence
+     */
+    public long waitFor(long sequence) throws AlertException, InterruptedException {
+        checkAlert();
+        return waitStrategy.waitFor(sequence, cursor, dependents, this);
+    }
+
+    public boolean isAlerted() {
+        return alerted;
+    }
+
+    /**
+     * makes the waiting stage, and any later wait, throw AlertException
+     */
+    public void alert() {
+        alerted = true;
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    public void clearAlert() {
+        alerted = false;
+    }
+
+    public void checkAlert() throws AlertException {
+        if (alerted)
+            throw AlertException.INSTANCE;
+    }
+}
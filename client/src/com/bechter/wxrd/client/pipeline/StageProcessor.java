@@ -0,0 +1,111 @@
+/*
+ * StageProcessor.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+import org.apache.log4j.Logger;
+
+/**
+ * StageProcessor
+ *
+ *   Runs one stage of a pipeline: waits on its barrier, hands every new
+ *   slot to the stage's EventHandler in order, in batches of whatever has
+ *   become available, and then moves its Sequence past them, which frees
+ *   the slots for the stages behind it and, in the end, the producer.
+ *
+ *   A handler that throws is logged and the slot counted as done, so one
+ *   bad event cannot stall the pipeline.
+ */
+public class StageProcessor<T> implements Runnable {
+    private final Logger logger = Logger.getLogger(StageProcessor.class);
+    private final RingBuffer<T> ring;
+    private final SequenceBarrier barrier;
+    private final EventHandler<T> handler;
+    private final String name;
+    private final Sequence sequence = new Sequence();
+    private volatile boolean halted = false;
+
+    /**
+     * @param name the stage's name, for logging and its thread
+     * @param ring the ring to consume
+     * @param barrier from ring.newBarrier(), naming the stages to follow
+     * @param handler the stage's work
+     */
+    public StageProcessor(String name, RingBuffer<T> ring, SequenceBarrier barrier, EventHandler<T> handler) {
+        this.name = name;
+        this.ring = ring;
+        this.barrier = barrier;
+        this.handler = handler;
+    }
+
+    /**
+     * @return how far the stage has got, to gate the producer or later stages on
+     */
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return a daemon thread, not yet started, running this stage
+     */
+    public Thread newThread() {
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public void run() {
+        WaitStrategy waitStrategy = ring.getWaitStrategy();
+        long next = sequence.get() + 1;
+        while (true) {
+            long available;
+            try {
+                available = barrier.waitFor(next);
+            } catch (AlertException e) {
+                if (halted)
+                    break;
+                // an alert that was not a halt, clear it or every wait throws again
+                barrier.clearAlert();
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            while (next <= available) {
+                try {
+                    handler.onEvent(ring.get(next), next, next == available);
+                } catch (Exception e) {
+                    logger.error("Stage " + name + " failed on slot " + next, e);
+                }
+                next++;
+            }
+            sequence.set(available);
+            waitStrategy.signalAllWhenBlocking();
+        }
+    }
+
+    /**
+     * stops the stage once its current batch is done
+     */
+    public void halt() {
+        halted = true;
+        barrier.alert();
+    }
+}
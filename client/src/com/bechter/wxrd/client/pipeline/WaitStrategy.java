@@ -0,0 +1,44 @@
+/*
+ * WaitStrategy.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+/**
+ * WaitStrategy
+ *
+ *   how a stage waits for the slots it depends on. Trades latency against
+ *   CPU: see BusySpinWaitStrategy, YieldingWaitStrategy and
+ *   ParkingWaitStrategy.
+ */
+public interface WaitStrategy {
+
+    /**
+     * @param sequence the slot wanted
+     * @param cursor the producer's cursor
+     * @param dependents the stages that must have finished with a slot
+     *        first, empty to follow the cursor
+     * @param barrier checked for an alert while waiting
+     * @return the highest available sequence, at least sequence
+     */
+    long waitFor(long sequence, Sequence cursor, Sequence[] dependents, SequenceBarrier barrier)
+            throws AlertException, InterruptedException;
+
+    /**
+     * wakes stages blocked in waitFor(); called when the cursor or a
+     * stage's sequence moves
+     */
+    void signalAllWhenBlocking();
+}
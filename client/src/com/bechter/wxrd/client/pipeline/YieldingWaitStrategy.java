@@ -0,0 +1,45 @@
+/*
+ * YieldingWaitStrategy.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.pipeline;
+
+/**
+ * YieldingWaitStrategy
+ *
+ *   Spins briefly, then yields the CPU between checks. Close to busy spin
+ *   latency while letting other threads run; still keeps a core busy when
+ *   nothing arrives.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+    private static final int SPIN_TRIES = 100;
+
+    public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, SequenceBarrier barrier)
+            throws AlertException {
+        int counter = SPIN_TRIES;
+        long available;
+        while ((available = Sequence.minimum(dependents, cursor.get())) < sequence) {
+            barrier.checkAlert();
+            if (counter > 0)
+                counter--;
+            else
+                Thread.yield();
+        }
+        return available;
+    }
+
+    public void signalAllWhenBlocking() {
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * MessageRenderer.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.render;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+
+/**
+ * MessageRenderer
+ *
+ *   Renders the message of each channel for an event once, from a subject
+ *   and body MessageTemplate per channel, and caches the result so that the
+ *   SMS and email workers, and every chunk and relay they send on, share it.
+ *   The field text common to all channels (descriptions, county names,
+ *   times) is built once per event in a RenderFields.
+ *
+ *   The cache holds the last CACHE_SIZE events, found by identity: each
+ *   event object is dispatched once per channel, shortly after it arrives.
+ *
+ *   renderDigest() merges several events into one message that fits a
+ *   length limit, such as a single SMS segment. Digests are not cached.
+ *
+ *   Thread safe.
+ */
+public class MessageRenderer {
+    public static final String EMAIL_SUBJECT = "${event}";
+    public static final String EMAIL_BODY = "${origin} has issued a ${event} for ${locations} until ${expires}.";
+    public static final String SMS_SUBJECT = "${event}";
+    public static final String SMS_BODY = "${event} until ${expires.short}";
+    /** characters in one SMS segment */
+    public static final int SMS_SEGMENT = 160;
+    /** characters gateways add joining the subject to the body */
+    private static final int SUBJECT_SEPARATOR = 3;
+    private static final int CACHE_SIZE = 16;
+
+    private final String from;
+    private final String to;
+    private final MessageTemplate[] subjects = new MessageTemplate[DeliveryChannel.values().length];
+    private final MessageTemplate[] bodies = new MessageTemplate[DeliveryChannel.values().length];
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+    private int next = 0;
+
+    /**
+     * one cached event
+     */
+    private static class Entry {
+        final WxrEvent event;
+        RenderFields fields = null;
+        final RenderedMessage[] messages = new RenderedMessage[DeliveryChannel.values().length];
+
+        Entry(WxrEvent event) {
+            this.event = event;
+        }
+    }
+
+    /**
+     * a renderer with the default templates
+     *
+     * @param from the From address of every message
+     * @param to the To address of every message
+     */
+    public MessageRenderer(String from, String to) {
+        this.from = from;
+        this.to = to;
+        setTemplates(DeliveryChannel.EMAIL, MessageTemplate.compile(EMAIL_SUBJECT), MessageTemplate.compile(EMAIL_BODY));
+        setTemplates(DeliveryChannel.SMS, MessageTemplate.compile(SMS_SUBJECT), MessageTemplate.compile(SMS_BODY));
+    }
+
+    /**
+     * replaces the templates of a channel; events already rendered keep
+     * their messages
+     */
+    public synchronized void setTemplates(DeliveryChannel channel, MessageTemplate subject, MessageTemplate body) {
+        subjects[channel.ordinal()] = subject;
+        bodies[channel.ordinal()] = body;
+    }
+
+    /**
+     * @param event a parsed event
+     * @param channel the channel to render for
+     * @return the message, rendered on the first call for this event and channel
+     */
+    public RenderedMessage render(WxrEvent event, DeliveryChannel channel) throws MessagingException {
+        Entry entry;
+        MessageTemplate subject;
+        MessageTemplate body;
+        synchronized (this) {
+            entry = lookup(event);
+            subject = subjects[channel.ordinal()];
+            body = bodies[channel.ordinal()];
+        }
+        // render outside the renderer's lock, so other events are not held up
+        synchronized (entry) {
+            RenderedMessage message = entry.messages[channel.ordinal()];
+            if (message == null) {
+                if (entry.fields == null)
+                    entry.fields = new RenderFields(event);
+                message = new RenderedMessage(from, to, subject.render(entry.fields), body.render(entry.fields));
+                entry.messages[channel.ordinal()] = message;
+            }
+            return message;
+        }
+    }
+
+    /**
+     * renders several events as one message: the channel's body of each, in
+     * the order given, for as many as fit, then a count of the rest. The
+     * subject and body together are at most maxLength characters.
+     *
+     * @param events the events, most important first
+     * @param channel the channel whose body template renders each event
+     * @param maxLength the limit, SMS_SEGMENT for a single SMS
+     * @return the merged message
+     */
+    public RenderedMessage renderDigest(List<WxrEvent> events, DeliveryChannel channel, int maxLength) throws MessagingException {
+        String subject = events.size() + " alerts";
+        int room = maxLength - subject.length() - SUBJECT_SEPARATOR;
+        StringBuilder body = new StringBuilder(room);
+        for (int i = 0; i < events.size(); i++) {
+            String text = render(events.get(i), channel).getBody();
+            int rest = events.size() - i - 1;
+            String more = rest > 0 ? " +" + rest + " more" : "";
+            int separator = body.length() > 0 ? 2 : 0;
+            if (body.length() + separator + text.length() + more.length() <= room) {
+                if (separator > 0)
+                    body.append("; ");
+                body.append(text);
+                continue;
+            }
+            // the count of the rest from here is no longer than the one already allowed for
+            more = " +" + (rest + 1) + " more";
+            if (body.length() == 0)
+                body.append(text, 0, Math.max(0, room - more.length()));
+            body.append(more);
+            break;
+        }
+        return new RenderedMessage(from, to, subject, body.toString());
+    }
+
+    /**
+     * @return the entry for event, replacing the oldest if it is not cached
+     */
+    private Entry lookup(WxrEvent event) {
+        for (Entry entry : cache)
+            if (entry != null && entry.event == event)
+                return entry;
+        Entry entry = new Entry(event);
+        cache[next] = entry;
+        next = (next + 1) % CACHE_SIZE;
+        return entry;
+    }
+}
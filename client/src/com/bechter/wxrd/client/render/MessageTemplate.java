@@ -0,0 +1,95 @@
+/*
+ * MessageTemplate.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.render;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MessageTemplate
+ *
+ *   Text with ${name} placeholders for the TemplateFields, e.g.
+ *
+ *      ${origin} has issued a ${event} for ${locations} until ${expires}.
+ *
+ *   compiled once into literal and field segments, so rendering is a
+ *   single pass of appends with no parsing. Immutable.
+ */
+public final class MessageTemplate {
+    private final String pattern;
+    /** each a String literal or a TemplateField */
+    private final Object[] segments;
+
+    private MessageTemplate(String pattern, Object[] segments) {
+        this.pattern = pattern;
+        this.segments = segments;
+    }
+
+    /**
+     * @param pattern text with ${name} placeholders
+     * @return the compiled template
+     * @throws IllegalArgumentException on an unknown or unterminated placeholder
+     */
+    public static MessageTemplate compile(String pattern) {
+        List<Object> segments = new ArrayList<Object>();
+        int i = 0;
+        while (i < pattern.length()) {
+            int start = pattern.indexOf("${", i);
+            if (start < 0) {
+                segments.add(pattern.substring(i));
+                break;
+            }
+            if (start > i)
+                segments.add(pattern.substring(i, start));
+            int end = pattern.indexOf('}', start);
+            if (end < 0)
+                throw new IllegalArgumentException("Unterminated placeholder at " + start + " in '" + pattern + "'");
+            String name = pattern.substring(start + 2, end).trim();
+            TemplateField field = TemplateField.forName(name);
+            if (field == null)
+                throw new IllegalArgumentException("Unknown field ${" + name + "} in '" + pattern + "'");
+            segments.add(field);
+            i = end + 1;
+        }
+        return new MessageTemplate(pattern, segments.toArray());
+    }
+
+    /**
+     * appends the template filled in from fields
+     */
+    public void render(RenderFields fields, StringBuilder sb) {
+        for (Object segment : segments) {
+            if (segment instanceof TemplateField)
+                sb.append(fields.get((TemplateField)segment));
+            else
+                sb.append((String)segment);
+        }
+    }
+
+    /**
+     * @return the template filled in from fields
+     */
+    public String render(RenderFields fields) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 64);
+        render(fields, sb);
+        return sb.toString();
+    }
+
+    public String toString() {
+        return pattern;
+    }
+}
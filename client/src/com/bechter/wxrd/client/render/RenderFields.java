@@ -0,0 +1,71 @@
+/*
+ * RenderFields.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.render;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+import com.bechter.wxrd.client.InvalidEventException;
+import com.bechter.wxrd.client.WxrEvent;
+
+/**
+ * RenderFields
+ *
+ *   The text of every TemplateField for one event, looked up and formatted
+ *   once and then shared by the templates of every channel. Immutable.
+ */
+public final class RenderFields {
+    private static final DateTimeFormatter LONG_TIME = DateTimeFormatter.ofPattern("HH:mm MMM dd yyyy");
+    private static final DateTimeFormatter SHORT_TIME = DateTimeFormatter.ofPattern("HH:mm dd/MM/yyyy");
+
+    private final String[] values = new String[TemplateField.values().length];
+
+    /**
+     * @param event a parsed event
+     */
+    public RenderFields(WxrEvent event) {
+        ZoneId zone = ZoneId.systemDefault();
+        set(TemplateField.ORIGIN, event.getOriginDescription());
+        set(TemplateField.EVENT, event.getEventCode().getDescription());
+        set(TemplateField.CODE, event.getEventType());
+        String locations;
+        try {
+            locations = event.getLocationDescription();
+        } catch (InvalidEventException e) {
+            locations = String.valueOf(event.getLocations());
+        }
+        set(TemplateField.LOCATIONS, locations);
+        set(TemplateField.ISSUED, format(LONG_TIME, event.getEventTime(), zone));
+        set(TemplateField.EXPIRES, format(LONG_TIME, event.getExpiresTime(), zone));
+        set(TemplateField.EXPIRES_SHORT, format(SHORT_TIME, event.getExpiresTime(), zone));
+        set(TemplateField.SEVERITY, event.getEventCode().getSeverity().name());
+        set(TemplateField.SOURCE, event.getSource());
+    }
+
+    private void set(TemplateField field, String value) {
+        values[field.ordinal()] = value != null ? value : "";
+    }
+
+    private static String format(DateTimeFormatter formatter, Date time, ZoneId zone) {
+        return time != null ? formatter.format(time.toInstant().atZone(zone)) : null;
+    }
+
+    String get(TemplateField field) {
+        return values[field.ordinal()];
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * RenderedMessage.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.render;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+
+import javax.mail.Address;
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.SharedByteArrayInputStream;
+
+/**
+ * RenderedMessage
+ *
+ *   The subject and body of one event on one channel, rendered once and
+ *   held as the complete encoded bytes of a message without recipients.
+ *   createMessage() parses those headers into a MimeMessage that shares the
+ *   body bytes rather than copying them, and javax.mail writes unmodified
+ *   content out as it is, so every chunk and relay sends the same bytes
+ *   without encoding the body again.
+ *
+ *   Plain ASCII bodies go out as 7bit, anything else as quoted-printable
+ *   UTF-8. Immutable.
+ */
+public final class RenderedMessage {
+    private static final String CRLF = "\r\n";
+
+    private final String subject;
+    private final String body;
+    private final String transferEncoding;
+    private final byte[] raw;
+
+    /**
+     * @param from the From address
+     * @param to the To address, recipients go in BCC
+     * @param subject the rendered subject
+     * @param body the rendered body
+     */
+    public RenderedMessage(String from, String to, String subject, String body) throws MessagingException {
+        this.subject = subject;
+        this.body = body;
+        boolean ascii = isAscii(subject) && isAscii(body);
+        this.transferEncoding = ascii ? "7bit" : "quoted-printable";
+        StringBuilder sb = new StringBuilder(256 + body.length());
+        sb.append("From: ").append(new InternetAddress(from).toString()).append(CRLF);
+        sb.append("To: ").append(new InternetAddress(to).toString()).append(CRLF);
+        try {
+            sb.append(MimeUtility.fold(9, "Subject: " + (ascii ? subject : MimeUtility.encodeText(subject, "UTF-8", null)))).append(CRLF);
+        } catch (UnsupportedEncodingException e) {
+            throw new MessagingException("Failed to encode subject", e);
+        }
+        // mark the message "Urgent"
+        sb.append("X-Priority: 1").append(CRLF);
+        sb.append("Priority: urgent").append(CRLF);
+        sb.append("MIME-Version: 1.0").append(CRLF);
+        sb.append("Content-Type: text/plain; charset=").append(ascii ? "us-ascii" : "UTF-8").append(CRLF);
+        sb.append("Content-Transfer-Encoding: ").append(transferEncoding).append(CRLF);
+        sb.append(CRLF);
+        byte[] headers = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] content = encode(normalize(body), transferEncoding);
+        raw = new byte[headers.length + content.length];
+        System.arraycopy(headers, 0, raw, 0, headers.length);
+        System.arraycopy(content, 0, raw, headers.length, content.length);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) > 0x7e || s.charAt(i) < 0x20 && s.charAt(i) != '\r' && s.charAt(i) != '\n' && s.charAt(i) != '\t')
+                return false;
+        return true;
+    }
+
+    /**
+     * @return text with CRLF line ends, ending in one, as SMTP sends it
+     */
+    private static String normalize(String text) {
+        String s = text.replace("\r\n", "\n").replace("\n", CRLF);
+        return s.endsWith(CRLF) ? s : s + CRLF;
+    }
+
+    private static byte[] encode(String text, String encoding) throws MessagingException {
+        if ("7bit".equals(encoding))
+            return text.getBytes(StandardCharsets.US_ASCII);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(text.length() * 3 / 2);
+            OutputStream os = MimeUtility.encode(bos, encoding);
+            os.write(text.getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            throw new MessagingException("Failed to encode body", e);
+        }
+    }
+
+    /**
+     * @return the rendered subject
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @return the rendered body
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return size of the encoded message, before recipients are added
+     */
+    public int getSize() {
+        return raw.length;
+    }
+
+    /**
+     * @param session the session of the relay the message will be sent on
+     * @param recipients the BCC recipients
+     * @return a message sharing the rendered bytes
+     */
+    public MimeMessage createMessage(Session session, Address[] recipients) throws MessagingException {
+        MimeMessage message = new MimeMessage(session, new SharedByteArrayInputStream(raw));
+        message.setRecipients(RecipientType.BCC, recipients);
+        return message;
+    }
+
+    /**
+     * a message whose body is the shared body followed by suffix, for text
+     * that differs per recipient; the shared part is neither rendered nor
+     * copied again
+     *
+     * @param session the session of the relay the message will be sent on
+     * @param recipients the recipients the suffix is for
+     * @param suffix text to append, on its own line
+     * @return the personalized message
+     */
+    public MimeMessage createMessage(Session session, Address[] recipients, String suffix) throws MessagingException {
+        if (suffix == null || suffix.length() == 0)
+            return createMessage(session, recipients);
+        if ("7bit".equals(transferEncoding) && !isAscii(suffix)) {
+            // the shared part cannot carry it as is, so this one is built in full
+            MimeMessage message = createMessage(session, recipients);
+            message.setText(body + CRLF + suffix, "UTF-8");
+            return message;
+        }
+        final byte[] tail = encode(normalize(suffix), transferEncoding);
+        MimeMessage message = new MimeMessage(session, new SharedByteArrayInputStream(raw)) {
+            protected InputStream getContentStream() throws MessagingException {
+                return new SequenceInputStream(super.getContentStream(), new ByteArrayInputStream(tail));
+            }
+
+            public int getSize() throws MessagingException {
+                int size = super.getSize();
+                return size < 0 ? size : size + tail.length;
+            }
+        };
+        message.setRecipients(RecipientType.BCC, recipients);
+        return message;
+    }
+}
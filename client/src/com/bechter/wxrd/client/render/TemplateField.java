@@ -0,0 +1,63 @@
+/*
+ * TemplateField.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.render;
+
+/**
+ * TemplateField
+ *
+ *   the values a MessageTemplate can refer to, as ${name}
+ */
+enum TemplateField {
+    /** who issued the alert, e.g. "The National Weather Service" */
+    ORIGIN("origin"),
+    /** description of the event code, e.g. "Tornado Warning" */
+    EVENT("event"),
+    /** the three letter event code */
+    CODE("code"),
+    /** the county names, e.g. "Hamilton and Butler counties" */
+    LOCATIONS("locations"),
+    /** issue time as HH:mm MMM dd yyyy */
+    ISSUED("issued"),
+    /** purge time as HH:mm MMM dd yyyy */
+    EXPIRES("expires"),
+    /** purge time as HH:mm dd/MM/yyyy, for SMS */
+    EXPIRES_SHORT("expires.short"),
+    /** the priority class, e.g. WARNING */
+    SEVERITY("severity"),
+    /** the wxrd server the event came from */
+    SOURCE("source");
+
+    private final String name;
+
+    private TemplateField(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the field called name, or null
+     */
+    static TemplateField forName(String name) {
+        for (TemplateField field : values())
+            if (field.name.equals(name))
+                return field;
+        return null;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * CompactBitSet.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.routing;
+
+import java.util.Arrays;
+
+/**
+ * CompactBitSet
+ *
+ *   Compressed set of non-negative ints in the style of a Roaring bitmap.
+ *   Values are grouped by their high 16 bits. Each group is stored either
+ *   as a sorted char[] of its low 16 bits, while it holds at most 4096
+ *   values, or as a 1024 word bitmap once it is denser than that. Sparse
+ *   posting lists cost two bytes per value and dense ones one bit per
+ *   value. Unions and intersections work a group at a time with merges or
+ *   word-wise AND/OR.
+ *
+ *   Sets are built with add() and then treated as read-only. Instances are
+ *   not thread safe while being modified; an unmodified set may be read
+ *   from any number of threads.
+ */
+public final class CompactBitSet {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    /** high 16 bits of each group, ascending */
+    private char[] keys = new char[4];
+    /** char[] (sorted low bits) or long[] (bitmap) per group */
+    private Object[] groups = new Object[4];
+    /** number of values in each group */
+    private int[] counts = new int[4];
+    private int size = 0;
+
+    /**
+     * receives the values of a set in ascending order
+     */
+    public interface Visitor {
+        void visit(int value);
+    }
+
+    /**
+     * adds a value
+     *
+     * @param value a non-negative int
+     */
+    public void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value " + value);
+        char high = (char)(value >>> 16);
+        char low = (char)value;
+        int i = find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertGroup(i, high, new char[4], 0);
+        }
+        Object group = groups[i];
+        if (group instanceof long[]) {
+            long[] bits = (long[])group;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) == 0) {
+                bits[low >>> 6] |= mask;
+                counts[i]++;
+            }
+            return;
+        }
+        char[] values = (char[])group;
+        int n = counts[i];
+        int at = Arrays.binarySearch(values, 0, n, low);
+        if (at >= 0)
+            return;
+        at = -at - 1;
+        if (n == ARRAY_MAX) {
+            long[] bits = toBitmap(values, n);
+            bits[low >>> 6] |= 1L << low;
+            groups[i] = bits;
+            counts[i] = n + 1;
+            return;
+        }
+        if (n == values.length)
+            groups[i] = values = Arrays.copyOf(values, Math.min(ARRAY_MAX, n * 2));
+        System.arraycopy(values, at, values, at + 1, n - at);
+        values[at] = low;
+        counts[i] = n + 1;
+    }
+
+    /**
+     * @param value the value to look for
+     * @return true if the value is in the set
+     */
+    public boolean contains(int value) {
+        if (value < 0)
+            return false;
+        int i = find((char)(value >>> 16));
+        if (i < 0)
+            return false;
+        char low = (char)value;
+        Object group = groups[i];
+        if (group instanceof long[])
+            return (((long[])group)[low >>> 6] & 1L << low) != 0;
+        return Arrays.binarySearch((char[])group, 0, counts[i], low) >= 0;
+    }
+
+    /**
+     * @return number of values in the set
+     */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += counts[i];
+        return n;
+    }
+
+    /**
+     * @return true if the set has no values
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * passes every value to the visitor in ascending order
+     */
+    public void forEach(Visitor visitor) {
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 16;
+            Object group = groups[i];
+            if (group instanceof long[]) {
+                long[] bits = (long[])group;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        visitor.visit(base | w << 6 | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[])group;
+                for (int j = 0; j < counts[i]; j++)
+                    visitor.visit(base | values[j]);
+            }
+        }
+    }
+
+    /**
+     * adds every value of another set to this one
+     *
+     * @param other the set to add
+     */
+    public void or(CompactBitSet other) {
+        for (int j = 0; j < other.size; j++) {
+            char high = other.keys[j];
+            int i = find(high);
+            if (i < 0) {
+                insertGroup(-i - 1, high, copy(other.groups[j], other.counts[j]), other.counts[j]);
+                continue;
+            }
+            Object mine = groups[i];
+            Object theirs = other.groups[j];
+            long[] bits = mine instanceof long[] ? (long[])mine : null;
+            if (bits == null && theirs instanceof long[])
+                bits = toBitmap((char[])mine, counts[i]);
+            if (bits != null) {
+                if (theirs instanceof long[]) {
+                    long[] add = (long[])theirs;
+                    for (int w = 0; w < BITMAP_WORDS; w++)
+                        bits[w] |= add[w];
+                } else {
+                    char[] add = (char[])theirs;
+                    for (int k = 0; k < other.counts[j]; k++)
+                        bits[add[k] >>> 6] |= 1L << add[k];
+                }
+                groups[i] = bits;
+                counts[i] = bitCount(bits);
+            } else {
+                char[] merged = merge((char[])mine, counts[i], (char[])theirs, other.counts[j]);
+                int n = merged.length;
+                groups[i] = n > ARRAY_MAX ? toBitmap(merged, n) : merged;
+                counts[i] = n;
+            }
+        }
+    }
+
+    /**
+     * @param other the set to intersect with
+     * @return a new set holding the values in both sets
+     */
+    public CompactBitSet and(CompactBitSet other) {
+        CompactBitSet result = new CompactBitSet();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = groups[i];
+                Object b = other.groups[j];
+                Object group;
+                int n;
+                if (a instanceof long[] && b instanceof long[]) {
+                    long[] bits = new long[BITMAP_WORDS];
+                    long[] x = (long[])a;
+                    long[] y = (long[])b;
+                    for (int w = 0; w < BITMAP_WORDS; w++)
+                        bits[w] = x[w] & y[w];
+                    n = bitCount(bits);
+                    group = n > ARRAY_MAX ? bits : toArray(bits, n);
+                } else if (a instanceof long[] || b instanceof long[]) {
+                    long[] bits = (long[])(a instanceof long[] ? a : b);
+                    char[] values = (char[])(a instanceof long[] ? b : a);
+                    int count = a instanceof long[] ? other.counts[j] : counts[i];
+                    char[] out = new char[count];
+                    n = 0;
+                    for (int k = 0; k < count; k++)
+                        if ((bits[values[k] >>> 6] & 1L << values[k]) != 0)
+                            out[n++] = values[k];
+                    group = Arrays.copyOf(out, n);
+                } else {
+                    char[] out = intersect((char[])a, counts[i], (char[])b, other.counts[j]);
+                    group = out;
+                    n = out.length;
+                }
+                if (n > 0)
+                    result.insertGroup(result.size, keys[i], group, n);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the sorted union of two sorted arrays, exactly sized
+     */
+    private static char[] merge(char[] a, int na, char[] b, int nb) {
+        char[] out = new char[na + nb];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < na && j < nb) {
+            char x = a[i];
+            char y = b[j];
+            if (x < y) {
+                out[n++] = x;
+                i++;
+            } else if (x > y) {
+                out[n++] = y;
+                j++;
+            } else {
+                out[n++] = x;
+                i++;
+                j++;
+            }
+        }
+        while (i < na)
+            out[n++] = a[i++];
+        while (j < nb)
+            out[n++] = b[j++];
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return the sorted intersection of two sorted arrays, exactly sized
+     */
+    private static char[] intersect(char[] a, int na, char[] b, int nb) {
+        char[] out = new char[Math.min(na, nb)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < na && j < nb) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertGroup(int at, char high, Object group, int count) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            groups = Arrays.copyOf(groups, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(groups, at, groups, at + 1, size - at);
+        System.arraycopy(counts, at, counts, at + 1, size - at);
+        keys[at] = high;
+        groups[at] = group;
+        counts[at] = count;
+        size++;
+    }
+
+    private static Object copy(Object group, int count) {
+        if (group instanceof long[])
+            return ((long[])group).clone();
+        return Arrays.copyOf((char[])group, Math.max(count, 1));
+    }
+
+    private static long[] toBitmap(char[] values, int count) {
+        long[] bits = new long[BITMAP_WORDS];
+        for (int k = 0; k < count; k++)
+            bits[values[k] >>> 6] |= 1L << values[k];
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int count) {
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                values[n++] = (char)(w << 6 | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static int bitCount(long[] bits) {
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++)
+            n += Long.bitCount(bits[w]);
+        return n;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Subscription.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.routing;
+
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+
+/**
+ * Subscription
+ *
+ *   one subscriber address and the locations and event codes it wants
+ *   to hear about
+ */
+public class Subscription {
+    private final String id;
+    private final DeliveryChannel channel;
+    private final String address;
+    private final int[] locations;
+    private final int[] eventCodes;
+
+    /**
+     * @param id subscriber id, used in log messages
+     * @param channel how the subscriber is reached
+     * @param address email or SMS gateway address
+     * @param locations PSSCCC codes, null or empty for every location
+     * @param eventCodes event codes packed by WxrReport.packCode(), null or empty for every event
+     */
+    public Subscription(String id, DeliveryChannel channel, String address, int[] locations, int[] eventCodes) {
+        this.id = id;
+        this.channel = channel;
+        this.address = address;
+        this.locations = locations == null ? new int[0] : locations.clone();
+        this.eventCodes = eventCodes == null ? new int[0] : eventCodes.clone();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DeliveryChannel getChannel() {
+        return channel;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return true if the subscription covers every location
+     */
+    public boolean isAllLocations() {
+        return locations.length == 0;
+    }
+
+    int[] locations() {
+        return locations;
+    }
+
+    /**
+     * @return true if the subscription covers every event code
+     */
+    public boolean isAllEvents() {
+        return eventCodes.length == 0;
+    }
+
+    int[] eventCodes() {
+        return eventCodes;
+    }
+
+    public String toString() {
+        return id + " " + channel + " " + address;
+    }
+}
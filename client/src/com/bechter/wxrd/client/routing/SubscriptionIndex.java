@@ -0,0 +1,264 @@
+/*
+ * SubscriptionIndex.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.routing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import com.bechter.wxrd.client.CountyTable;
+import com.bechter.wxrd.client.WxrEvent;
+import com.bechter.wxrd.client.WxrReport;
+import com.bechter.wxrd.client.dispatch.DeliveryChannel;
+import com.bechter.wxrd.client.geo.CountyBoundaries;
+import com.bechter.wxrd.client.geo.CountyLocator;
+
+/**
+ * SubscriptionIndex
+ *
+ *   Inverted index from location and event code to the subscriptions that
+ *   want them. Each subscription gets a number and every posting list is a
+ *   CompactBitSet of those numbers, so resolving the recipients of an event
+ *   is one pass of unions over the event's locations followed by one
+ *   intersection. The subscriptions are never scanned.
+ *
+ *   Location codes follow the SAME PSSCCC rules:
+ *     - P is the county subdivision, 0 for the whole county
+ *     - SS is the state and CCC the county, 000 for the whole state
+ *   An alert for a whole county reaches subscribers to any part of it. An
+ *   alert for a subdivision reaches subscribers to that subdivision and to
+ *   the whole county. An alert for a whole state reaches everybody in the
+ *   state. Subscribers to a whole state hear every alert in it.
+ *
+ *   An index is immutable once built and safe to share between threads.
+ */
+public class SubscriptionIndex {
+    private final Subscription[] subscriptions;
+    /** subscribers by exact PSSCCC */
+    private final Map<Integer, CompactBitSet> exact = new HashMap<Integer, CompactBitSet>();
+    /** subscribers to any part of a county, by SSCCC */
+    private final Map<Integer, CompactBitSet> county = new HashMap<Integer, CompactBitSet>();
+    /** subscribers to any part of a state, by SS */
+    private final Map<Integer, CompactBitSet> state = new HashMap<Integer, CompactBitSet>();
+    /** subscribers to a whole state, by SS */
+    private final Map<Integer, CompactBitSet> statewide = new HashMap<Integer, CompactBitSet>();
+    private final CompactBitSet everywhere = new CompactBitSet();
+    /** subscribers by packed event code */
+    private final Map<Integer, CompactBitSet> events = new HashMap<Integer, CompactBitSet>();
+    private final CompactBitSet allEvents = new CompactBitSet();
+    private final CompactBitSet[] channels = new CompactBitSet[DeliveryChannel.values().length];
+
+    /**
+     * @param subscriptions the subscriptions to index
+     */
+    public SubscriptionIndex(Collection<Subscription> subscriptions) {
+        this.subscriptions = subscriptions.toArray(new Subscription[subscriptions.size()]);
+        for (int i = 0; i < channels.length; i++)
+            channels[i] = new CompactBitSet();
+        for (int id = 0; id < this.subscriptions.length; id++) {
+            Subscription s = this.subscriptions[id];
+            channels[s.getChannel().ordinal()].add(id);
+            if (s.isAllLocations())
+                everywhere.add(id);
+            for (int location : s.locations()) {
+                int ss = location / 1000 % 100;
+                posting(exact, location).add(id);
+                posting(state, ss).add(id);
+                if (location % 1000 == 0)
+                    posting(statewide, ss).add(id);
+                else
+                    posting(county, location % 100000).add(id);
+            }
+            if (s.isAllEvents())
+                allEvents.add(id);
+            for (int code : s.eventCodes())
+                posting(events, code).add(id);
+        }
+    }
+
+    private static CompactBitSet posting(Map<Integer, CompactBitSet> map, int key) {
+        CompactBitSet set = map.get(key);
+        if (set == null)
+            map.put(key, set = new CompactBitSet());
+        return set;
+    }
+
+    private static void or(CompactBitSet target, Map<Integer, CompactBitSet> map, int key) {
+        CompactBitSet set = map.get(key);
+        if (set != null)
+            target.or(set);
+    }
+
+    /**
+     * @return number of subscriptions in the index
+     */
+    public int size() {
+        return subscriptions.length;
+    }
+
+    /**
+     * @param event a parsed event
+     * @param channel the channel being delivered on
+     * @return addresses on the channel subscribed to the event's code and any of its locations
+     */
+    public List<String> resolve(WxrEvent event, DeliveryChannel channel) {
+        List<String> locations = event.getLocations();
+        int[] codes = new int[locations.size()];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = CountyTable.parseCode(locations.get(i));
+        return resolve(codes, codes.length, WxrReport.packCode(event.getEventType()), channel);
+    }
+
+    /**
+     * @param locations PSSCCC codes of the alert, invalid codes (-1) are skipped
+     * @param count number of codes to use from locations
+     * @param eventCode event code packed by WxrReport.packCode()
+     * @param channel the channel being delivered on
+     * @return addresses on the channel subscribed to the event's code and any of its locations
+     */
+    public List<String> resolve(int[] locations, int count, int eventCode, DeliveryChannel channel) {
+        CompactBitSet matched = new CompactBitSet();
+        matched.or(everywhere);
+        for (int i = 0; i < count; i++) {
+            int location = locations[i];
+            if (location < 0)
+                continue;
+            int ss = location / 1000 % 100;
+            if (location % 1000 == 0) {
+                or(matched, state, ss);
+            } else if (location / 100000 == 0) {
+                or(matched, county, location % 100000);
+            } else {
+                or(matched, exact, location);
+                or(matched, exact, location % 100000);
+            }
+            or(matched, statewide, ss);
+        }
+        CompactBitSet wanted = new CompactBitSet();
+        wanted.or(allEvents);
+        or(wanted, events, eventCode);
+        final List<String> addresses = new ArrayList<String>();
+        matched.and(wanted).and(channels[channel.ordinal()]).forEach(new CompactBitSet.Visitor() {
+            public void visit(int id) {
+                addresses.add(subscriptions[id].getAddress());
+            }
+        });
+        return addresses;
+    }
+
+    /**
+     * reads subscriptions, one per line:
+     *
+     *     id  channel  address  locations  events
+     *     alice sms 5551234567@vtext.com 039153,139035 TOR,SVR
+     *     bob email bob@example.com 039000 *
+     *     carol sms 5557654321@vtext.com @41.0814/-81.5190 TOR,SVR,FFW
+     *
+     * channel is sms or email, locations a comma-separated list of PSSCCC
+     * codes and events a comma-separated list of event codes; "*" means all.
+     * A location may also be a point, @latitude/longitude in decimal
+     * degrees, which is resolved to the county holding it.
+     * Blank lines and lines starting with # are ignored.
+     *
+     * @param reader the subscription file
+     * @return the subscriptions read
+     * @throws IOException if a line is malformed or cannot be read
+     */
+    public static List<Subscription> read(Reader reader) throws IOException {
+        return read(reader, null);
+    }
+
+    /**
+     * reads subscriptions as read(Reader) does, resolving points to counties
+     *
+     * @param reader the subscription file
+     * @param locator resolves points, null for the bundled boundaries, if any
+     * @return the subscriptions read
+     * @throws IOException if a line is malformed, a point is in no county,
+     *         or the file cannot be read
+     */
+    public static List<Subscription> read(Reader reader, CountyLocator locator) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+            StringTokenizer st = new StringTokenizer(line);
+            if (st.countTokens() != 5)
+                throw new IOException("line " + number + ": expected id channel address locations events");
+            String id = st.nextToken();
+            DeliveryChannel channel;
+            try {
+                channel = DeliveryChannel.valueOf(st.nextToken().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("line " + number + ": channel must be sms or email");
+            }
+            String address = st.nextToken();
+            String locations = st.nextToken();
+            String events = st.nextToken();
+            int[] locationCodes = null;
+            if (!"*".equals(locations)) {
+                String[] list = locations.split(",");
+                locationCodes = new int[list.length];
+                for (int i = 0; i < list.length; i++) {
+                    if (list[i].startsWith("@"))
+                        locationCodes[i] = resolve(list[i], locator, number);
+                    else
+                        locationCodes[i] = CountyTable.parseCode(list[i]);
+                    if (locationCodes[i] < 0)
+                        throw new IOException("line " + number + ": invalid location " + list[i]);
+                }
+            }
+            int[] eventCodes = null;
+            if (!"*".equals(events)) {
+                String[] list = events.split(",");
+                eventCodes = new int[list.length];
+                for (int i = 0; i < list.length; i++) {
+                    if (list[i].length() != 3)
+                        throw new IOException("line " + number + ": invalid event code " + list[i]);
+                    eventCodes[i] = WxrReport.packCode(list[i]);
+                }
+            }
+            subscriptions.add(new Subscription(id, channel, address, locationCodes, eventCodes));
+        }
+        return subscriptions;
+    }
+
+    private static int resolve(String location, CountyLocator locator, int number) throws IOException {
+        if (locator == null)
+            locator = CountyLocator.getDefault();
+        if (locator == null)
+            throw new IOException("line " + number + ": " + location + " needs county boundaries to be configured or bundled");
+        long point = CountyBoundaries.parsePoint(location.substring(1));
+        if (point == CountyBoundaries.NO_POINT)
+            throw new IOException("line " + number + ": invalid point " + location);
+        int code = locator.resolve(point);
+        if (code < 0)
+            throw new IOException("line " + number + ": " + location + " is not in any county");
+        return code;
+    }
+}
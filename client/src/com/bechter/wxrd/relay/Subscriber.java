@@ -0,0 +1,97 @@
+/*
+ * Subscriber.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.relay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Subscriber
+ *
+ *   One downstream connection of a WxrRelay, either a line protocol client
+ *   or an HTTP Server-Sent Events client. Frames waiting to be written are
+ *   held in a fixed size ring; each entry is a duplicate of a frame shared
+ *   with every other subscriber, so queueing a frame copies no bytes.
+ *
+ *   Only used from the relay's selector thread.
+ */
+class Subscriber {
+    final SocketChannel channel;
+    final boolean sse;
+    final String name;
+    SelectionKey key = null;
+    /** request bytes of an SSE client until its header is complete */
+    ByteBuffer request = null;
+    private final ByteBuffer[] ring;
+    private int head = 0;
+    private int count = 0;
+
+    Subscriber(SocketChannel channel, boolean sse, int capacity) {
+        this.channel = channel;
+        this.sse = sse;
+        this.name = String.valueOf(channel.socket().getRemoteSocketAddress());
+        this.ring = new ByteBuffer[capacity];
+    }
+
+    /**
+     * @return true once the client may be sent frames
+     */
+    boolean isReady() {
+        return request == null;
+    }
+
+    /**
+     * queues a shared frame
+     *
+     * @return false if the ring is full
+     */
+    boolean offer(ByteBuffer frame) {
+        if (count == ring.length)
+            return false;
+        ring[(head + count) % ring.length] = frame.duplicate();
+        count++;
+        return true;
+    }
+
+    /**
+     * writes queued frames until the ring is empty or the socket is full,
+     * and asks for OP_WRITE only while something is left
+     */
+    void flush() throws IOException {
+        while (count > 0) {
+            ByteBuffer frame = ring[head];
+            channel.write(frame);
+            if (frame.hasRemaining())
+                break;
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+        }
+        int ops = count > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != ops)
+            key.interestOps(ops);
+    }
+
+    /**
+     * @return number of frames waiting
+     */
+    int getQueued() {
+        return count;
+    }
+}
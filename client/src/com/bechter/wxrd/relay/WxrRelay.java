@@ -0,0 +1,557 @@
+/*
+ * WxrRelay.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.relay;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * WxrRelay
+ *
+ *   Keeps one connection to a wxrd server and serves its report lines to
+ *   any number of downstream clients, so wxrd's limit of five connections
+ *   and its blocking writes no longer bound the number of listeners.
+ *
+ *   Line protocol clients get the same stream wxrd writes: a two line
+ *   banner, one line per report and a "*" keepalive every PING_INTERVAL,
+ *   so WxrClient and SimpleClient can point at a relay unchanged. HTTP
+ *   clients that GET /events receive a text/event-stream with one "data:"
+ *   event per report and a comment line as the keepalive.
+ *
+ *   Everything runs on one selector thread with non-blocking sockets. Each
+ *   report is encoded once per protocol into a read-only buffer that every
+ *   subscriber's ring shares, and each subscriber writes from its ring as
+ *   its socket accepts data. A subscriber whose ring is full is too slow to
+ *   keep up and is disconnected rather than allowed to hold up the others
+ *   or grow without bound.
+ *
+ *   The upstream connection is retried with an exponential back off;
+ *   subscribers stay connected (and pinged) while it is down.
+ *
+ *   command line options:
+ *   -h | --help     : print this message
+ *   -t | --host     : hostname of host running wxrd (default is localhost)
+ *   -p | --port     : port on host running wxrd to connect to (default is 9317)
+ *   -l | --listen   : port to serve the line protocol on (default is 9318)
+ *   -w | --sse      : port to serve Server-Sent Events on (default is none)
+ *   -q | --queue    : frames held for a slow client before it is dropped (default is 64)
+ *   -n | --maxclients : maximum downstream clients (default is 10000)
+ */
+public class WxrRelay implements Runnable {
+    public static final int DEFAULT_QUEUE = 64;
+    public static final int DEFAULT_MAX_CLIENTS = 10000;
+    private static final String[] BANNER = {
+        "WXRD v0.2 relay - (C) 2011, bechter.com\n",
+        "  All rights reserved.\n"
+    };
+    private static final String SSE_PATH = "/events";
+    private static final int BANNER_LINES = 2;
+    private static final int MAX_LINE = 1024;
+    private static final int MAX_REQUEST = 2048;
+    private static final long PING_INTERVAL = 10000L;
+    private static final long READ_TIMEOUT = 30000L;
+    private static final long SELECT_TIMEOUT = 1000L;
+    private static final long MIN_RECONNECT_DELAY = 1000L;
+    private static final long MAX_RECONNECT_DELAY = 60000L;
+
+    private static final byte[] SSE_DATA = "data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final ByteBuffer BANNER_FRAME = frame(BANNER[0] + BANNER[1]);
+    private static final ByteBuffer PING_FRAME = frame("*\n");
+    private static final ByteBuffer SSE_PING_FRAME = frame(":\n\n");
+    private static final ByteBuffer SSE_HEADER_FRAME = frame("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: keep-alive\r\n\r\n");
+    private static final ByteBuffer NOT_FOUND_FRAME = frame("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: close\r\n\r\n");
+
+    private final Logger logger = Logger.getLogger(WxrRelay.class);
+    private final String host;
+    private final int port;
+    private final int listenPort;
+    private final int ssePort;
+    private final int queue;
+    private final int maxClients;
+    private final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+    private final ByteBuffer upstreamBuffer = ByteBuffer.allocate(MAX_LINE);
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+    private Selector selector = null;
+    private SocketChannel upstream = null;
+    private SelectionKey upstreamKey = null;
+    private int upstreamLines = 0;
+    private boolean discarding = false;
+    private long lastRead = 0L;
+    private long reconnectAt = 0L;
+    private long reconnectDelay = MIN_RECONNECT_DELAY;
+    private long lastPing = 0L;
+    private long dropped = 0L;
+    private volatile boolean running = false;
+
+    /**
+     * @param host wxrd host
+     * @param port wxrd port
+     * @param listenPort port for line protocol clients, 0 for none
+     * @param ssePort port for Server-Sent Events clients, 0 for none
+     * @param queue frames held per client
+     * @param maxClients maximum downstream clients
+     */
+    public WxrRelay(String host, int port, int listenPort, int ssePort, int queue, int maxClients) {
+        if (queue < 2)
+            throw new IllegalArgumentException("queue must be at least 2");
+        this.host = host;
+        this.port = port;
+        this.listenPort = listenPort;
+        this.ssePort = ssePort;
+        this.queue = queue;
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * @return a read-only buffer holding the ASCII bytes of text
+     */
+    private static ByteBuffer frame(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    /**
+     * serves clients until stop() is called
+     */
+    public void run() {
+        List<ServerSocketChannel> servers = new ArrayList<ServerSocketChannel>();
+        try {
+            selector = Selector.open();
+            if (listenPort > 0)
+                servers.add(listen(listenPort, Boolean.FALSE));
+            if (ssePort > 0)
+                servers.add(listen(ssePort, Boolean.TRUE));
+        } catch (IOException e) {
+            logger.error("Failed to open relay ports", e);
+            close(servers);
+            return;
+        }
+        running = true;
+        while (running) {
+            long now = System.currentTimeMillis();
+            if (upstream == null) {
+                if (now >= reconnectAt)
+                    connect(now);
+            } else if (now - lastRead > READ_TIMEOUT) {
+                logger.warn("No data from wxrd for " + (now - lastRead) + "ms, reconnecting");
+                closeUpstream(now);
+            }
+            if (now - lastPing >= PING_INTERVAL) {
+                lastPing = now;
+                broadcast(PING_FRAME, SSE_PING_FRAME);
+            }
+            try {
+                selector.select(SELECT_TIMEOUT);
+            } catch (IOException e) {
+                logger.error("select failed", e);
+                break;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid())
+                    continue;
+                if (key == upstreamKey)
+                    serviceUpstream(key);
+                else if (key.channel() instanceof ServerSocketChannel)
+                    accept(key);
+                else
+                    serviceSubscriber(key);
+            }
+        }
+        closeUpstream(0L);
+        for (Subscriber s : new ArrayList<Subscriber>(subscribers))
+            drop(s, null);
+        close(servers);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+    }
+
+    /**
+     * asks the relay thread to close every connection and return
+     */
+    public void stop() {
+        running = false;
+        Selector s = selector;
+        if (s != null)
+            s.wakeup();
+    }
+
+    /**
+     * @return number of connected downstream clients, read on the relay thread
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private ServerSocketChannel listen(int port, Boolean sse) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(port), 128);
+        server.register(selector, SelectionKey.OP_ACCEPT, sse);
+        logger.info("Relay serving " + (sse.booleanValue() ? "Server-Sent Events" : "wxrd lines") + " on port " + port);
+        return server;
+    }
+
+    private void close(List<ServerSocketChannel> servers) {
+        for (ServerSocketChannel server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    private void accept(SelectionKey key) {
+        boolean sse = ((Boolean)key.attachment()).booleanValue();
+        SocketChannel channel;
+        while (true) {
+            try {
+                channel = ((ServerSocketChannel)key.channel()).accept();
+            } catch (IOException e) {
+                logger.warn("accept failed: " + e);
+                return;
+            }
+            if (channel == null)
+                return;
+            if (subscribers.size() >= maxClients) {
+                logger.warn("Refusing client, " + maxClients + " already connected");
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.warn(e);
+                }
+                continue;
+            }
+            Subscriber s = new Subscriber(channel, sse, queue);
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                s.key = channel.register(selector, SelectionKey.OP_READ, s);
+            } catch (IOException e) {
+                drop(s, e.toString());
+                continue;
+            }
+            subscribers.add(s);
+            if (logger.isDebugEnabled())
+                logger.debug("Client " + s.name + " connected, " + subscribers.size() + " total");
+            if (sse)
+                s.request = ByteBuffer.allocate(MAX_REQUEST);
+            else
+                send(s, BANNER_FRAME);
+        }
+    }
+
+    private void serviceSubscriber(SelectionKey key) {
+        Subscriber s = (Subscriber)key.attachment();
+        try {
+            if (key.isReadable())
+                read(s);
+            if (key.isValid() && key.isWritable())
+                s.flush();
+        } catch (IOException e) {
+            drop(s, e.toString());
+        }
+    }
+
+    /**
+     * reads the request of an SSE client; anything else a client sends is
+     * ignored, but reading it notices when the client goes away
+     */
+    private void read(Subscriber s) throws IOException {
+        ByteBuffer buffer = s.request != null ? s.request : discard;
+        int n = s.channel.read(buffer);
+        if (n < 0) {
+            drop(s, null);
+            return;
+        }
+        if (s.request == null) {
+            discard.clear();
+            return;
+        }
+        String request = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+        if (request.indexOf("\r\n\r\n") < 0 && request.indexOf("\n\n") < 0) {
+            if (!buffer.hasRemaining())
+                drop(s, "request header too long");
+            return;
+        }
+        s.request = null;
+        String line = request.substring(0, request.indexOf('\n')).trim();
+        String[] parts = line.split(" ");
+        if (parts.length < 2 || !"GET".equals(parts[0]) || !parts[1].startsWith(SSE_PATH)) {
+            s.offer(NOT_FOUND_FRAME);
+            s.flush();
+            drop(s, null);
+            return;
+        }
+        send(s, SSE_HEADER_FRAME);
+    }
+
+    /**
+     * queues a frame for one subscriber and writes what the socket takes
+     */
+    private void send(Subscriber s, ByteBuffer frame) {
+        if (!s.offer(frame)) {
+            dropped++;
+            drop(s, "too slow, " + s.getQueued() + " frames behind (" + dropped + " dropped so far)");
+            return;
+        }
+        try {
+            s.flush();
+        } catch (IOException e) {
+            drop(s, e.toString());
+        }
+    }
+
+    /**
+     * sends a shared frame to every subscriber that is ready for it
+     */
+    private void broadcast(ByteBuffer lineFrame, ByteBuffer sseFrame) {
+        // iterate backwards, send() may drop the subscriber
+        for (int i = subscribers.size() - 1; i >= 0; i--) {
+            if (i >= subscribers.size())
+                continue;
+            Subscriber s = subscribers.get(i);
+            if (s.isReady())
+                send(s, s.sse ? sseFrame : lineFrame);
+        }
+    }
+
+    private void drop(Subscriber s, String reason) {
+        if (reason != null)
+            logger.warn("Dropping client " + s.name + ": " + reason);
+        else if (logger.isDebugEnabled())
+            logger.debug("Client " + s.name + " disconnected");
+        if (s.key != null)
+            s.key.cancel();
+        try {
+            s.channel.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        int i = subscribers.indexOf(s);
+        if (i >= 0) {
+            // order does not matter, so fill the gap with the last entry
+            Subscriber last = subscribers.remove(subscribers.size() - 1);
+            if (last != s)
+                subscribers.set(i, last);
+        }
+    }
+
+    private void connect(long now) {
+        if (logger.isDebugEnabled())
+            logger.debug("connecting to wxrd at " + host + ":" + port);
+        lastRead = now;
+        try {
+            upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            if (upstream.connect(new InetSocketAddress(host, port))) {
+                upstreamKey = upstream.register(selector, SelectionKey.OP_READ);
+                connected();
+            } else {
+                upstreamKey = upstream.register(selector, SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to connect to wxrd at " + host + ":" + port + ": " + e);
+            closeUpstream(now);
+        } catch (UnresolvedAddressException e) {
+            logger.warn("Failed to connect to wxrd at " + host + ":" + port + ": unknown host");
+            closeUpstream(now);
+        }
+    }
+
+    private void connected() {
+        logger.info("Relaying wxrd at " + host + ":" + port);
+        upstreamBuffer.clear();
+        upstreamLines = 0;
+        discarding = false;
+        lastRead = System.currentTimeMillis();
+        reconnectDelay = MIN_RECONNECT_DELAY;
+    }
+
+    private void closeUpstream(long now) {
+        if (upstreamKey != null)
+            upstreamKey.cancel();
+        try {
+            if (upstream != null)
+                upstream.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        upstreamKey = null;
+        upstream = null;
+        reconnectAt = now + reconnectDelay;
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void serviceUpstream(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (upstream.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    connected();
+                }
+            } else if (key.isReadable())
+                readUpstream();
+        } catch (IOException e) {
+            logger.warn("Connection to wxrd failed: " + e);
+            closeUpstream(System.currentTimeMillis());
+        }
+    }
+
+    private void readUpstream() throws IOException {
+        ByteBuffer buffer = upstreamBuffer;
+        int n = upstream.read(buffer);
+        if (n < 0) {
+            logger.warn("wxrd closed the connection");
+            closeUpstream(System.currentTimeMillis());
+            return;
+        }
+        lastRead = System.currentTimeMillis();
+        buffer.flip();
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                line(start, i);
+                start = i + 1;
+            }
+        }
+        buffer.position(start);
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            logger.error("Line from wxrd exceeds " + MAX_LINE + " bytes, discarding");
+            buffer.clear();
+            discarding = true;
+        }
+    }
+
+    /**
+     * encodes a report line once for each protocol and hands the shared
+     * frames to every subscriber
+     */
+    private void line(int start, int end) {
+        if (discarding) {
+            discarding = false;
+            return;
+        }
+        byte[] data = upstreamBuffer.array();
+        int len = end - start;
+        if (len > 0 && data[start + len - 1] == '\r')
+            len--;
+        if (upstreamLines < BANNER_LINES) {
+            upstreamLines++;
+            return;
+        }
+        // wxrd's own pings stop here, the relay pings its clients itself
+        if (len == 0 || len == 1 && data[start] == '*')
+            return;
+        byte[] line = new byte[len + 1];
+        System.arraycopy(data, start, line, 0, len);
+        line[len] = '\n';
+        byte[] event = new byte[SSE_DATA.length + len + 2];
+        System.arraycopy(SSE_DATA, 0, event, 0, SSE_DATA.length);
+        System.arraycopy(data, start, event, SSE_DATA.length, len);
+        event[event.length - 2] = '\n';
+        event[event.length - 1] = '\n';
+        if (logger.isDebugEnabled())
+            logger.debug("Relaying to " + subscribers.size() + " client(s): " + new String(line, 0, len, StandardCharsets.US_ASCII));
+        broadcast(ByteBuffer.wrap(line).asReadOnlyBuffer(), ByteBuffer.wrap(event).asReadOnlyBuffer());
+    }
+
+    /**
+     * usage()
+     *
+     *   displays the usage information
+     */
+    private static void usage() {
+        System.err.println("WxrRelay - serve the report stream of one wxrd server to many clients.");
+        System.err.println("usage:");
+        System.err.println("    -h | --help     : print this message");
+        System.err.println("    -t | --host     : hostname of host running wxrd (default is localhost)");
+        System.err.println("    -p | --port     : port on host running wxrd to connect to (default is 9317)");
+        System.err.println("    -l | --listen   : port to serve the line protocol on (default is 9318)");
+        System.err.println("    -w | --sse      : port to serve Server-Sent Events on (default is none)");
+        System.err.println("    -q | --queue    : frames held for a slow client before it is dropped (default is " + DEFAULT_QUEUE + ")");
+        System.err.println("    -n | --maxclients : maximum downstream clients (default is " + DEFAULT_MAX_CLIENTS + ")");
+    }
+
+    /**
+     * main()
+     *   - application entry point
+     *
+     * @param args the array of command line arguments
+     */
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = 9317;
+        int listenPort = 9318;
+        int ssePort = 0;
+        int queue = DEFAULT_QUEUE;
+        int maxClients = DEFAULT_MAX_CLIENTS;
+        int i = 0;
+        try {
+            while (i < args.length) {
+                String arg = args[i];
+                if ("-t".equals(arg) || "--host".equals(arg))
+                    host = args[++i];
+                else if ("-p".equals(arg) || "--port".equals(arg))
+                    port = Integer.parseInt(args[++i]);
+                else if ("-l".equals(arg) || "--listen".equals(arg))
+                    listenPort = Integer.parseInt(args[++i]);
+                else if ("-w".equals(arg) || "--sse".equals(arg))
+                    ssePort = Integer.parseInt(args[++i]);
+                else if ("-q".equals(arg) || "--queue".equals(arg))
+                    queue = Integer.parseInt(args[++i]);
+                else if ("-n".equals(arg) || "--maxclients".equals(arg))
+                    maxClients = Integer.parseInt(args[++i]);
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    usage();
+                    System.exit(1);
+                } else
+                    throw new Exception("Invalid argument " + arg);
+                i++;
+            }
+        } catch (Exception e) {
+            System.err.println(e.toString());
+            usage();
+            System.exit(2);
+        }
+        new WxrRelay(host, port, listenPort, ssePort, queue, maxClients).run();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * AlertMix.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.bechter.wxrd.client.EventCode;
+
+/**
+ * AlertMix
+ *
+ *   Weighted choice of event codes for simulated reports, written as
+ *   CODE:weight pairs separated by commas, e.g. "TOR:1,SVR:5,RWT:1". A code
+ *   given without a weight has weight 1. Codes are not checked against the
+ *   catalog, so a mix can include codes a client does not know.
+ *
+ *   Immutable.
+ */
+public class AlertMix {
+    /** roughly the spread of a spring day in the plains */
+    public static final String DEFAULT_MIX = "SVR:30,SPS:20,FFW:15,SVA:10,TOR:8,TOA:5,FFA:5,SVS:5,RWT:2";
+
+    private final String[] codes;
+    private final int[] cumulative;
+
+    private AlertMix(String[] codes, int[] cumulative) {
+        this.codes = codes;
+        this.cumulative = cumulative;
+    }
+
+    /**
+     * @param spec CODE:weight pairs separated by commas
+     * @return the mix
+     * @throws IllegalArgumentException if the spec is empty or malformed
+     */
+    public static AlertMix parse(String spec) {
+        List<String> codes = new ArrayList<String>();
+        List<Integer> totals = new ArrayList<Integer>();
+        int total = 0;
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.length() == 0)
+                continue;
+            int colon = entry.indexOf(':');
+            String code = colon < 0 ? entry : entry.substring(0, colon).trim();
+            int weight = colon < 0 ? 1 : Integer.parseInt(entry.substring(colon + 1).trim());
+            if (code.length() != 3 || weight < 0)
+                throw new IllegalArgumentException("Invalid alert mix entry '" + entry + "'");
+            if (weight == 0)
+                continue;
+            total += weight;
+            codes.add(code);
+            totals.add(Integer.valueOf(total));
+        }
+        if (codes.isEmpty())
+            throw new IllegalArgumentException("Alert mix '" + spec + "' has no codes");
+        int[] cumulative = new int[totals.size()];
+        for (int i = 0; i < cumulative.length; i++)
+            cumulative[i] = totals.get(i).intValue();
+        return new AlertMix(codes.toArray(new String[codes.size()]), cumulative);
+    }
+
+    /**
+     * @return every code in the catalog with equal weight
+     */
+    public static AlertMix uniform() {
+        StringBuilder sb = new StringBuilder();
+        for (EventCode code : EventCode.values()) {
+            if (code == EventCode.UNKNOWN)
+                continue;
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(code.name());
+        }
+        return parse(sb.toString());
+    }
+
+    /**
+     * @return a code picked by weight
+     */
+    public String next(Random random) {
+        int n = random.nextInt(cumulative[cumulative.length - 1]);
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] <= n)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return codes[low];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(codes[i]).append(':').append(cumulative[i] - previous);
+            previous = cumulative[i];
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ReportGenerator.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * ReportGenerator
+ *
+ *   Builds report lines the way parse_message() in wxrd.c prints them:
+ *
+ *      ORG EEE PSSCCC-PSSCCC... yyyyMMddTHHmmss+HHMM\n
+ *
+ *   with the time of receipt in local time and the purge time printed from
+ *   its BCD bytes. Locations are drawn from counties.properties.
+ *
+ *   A fraction of lines can be made malformed, in the ways a radio on a
+ *   weak signal, or wxrd itself, gets them wrong: a header with no event or
+ *   no location frames (wxrd prints empty fields), a line cut short, line
+ *   noise, a bad purge time, and an over long line.
+ *
+ *   Not thread safe; each radio has its own.
+ */
+public class ReportGenerator {
+    /** purge times a forecast office commonly uses */
+    private static final String[] PURGE = { "0015", "0030", "0045", "0100", "0130", "0200", "0300", "0600", "1200" };
+    /** what wxrd prints when no duration frame was heard */
+    private static final String DEFAULT_PURGE = "0020";
+    private static final String[] ORIGINS = { "WXR", "WXR", "WXR", "WXR", "WXR", "WXR", "EAS", "CIV", "PEP" };
+    private static final int MALFORMED_KINDS = 6;
+    private static volatile String[] counties = null;
+
+    private final Random random;
+    private final AlertMix mix;
+    private final int maxCounties;
+    private final double malformed;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final StringBuilder sb = new StringBuilder(128);
+    private long malformedCount = 0L;
+
+    /**
+     * @param random source of every choice, seed it for a repeatable run
+     * @param mix the event codes to draw from
+     * @param maxCounties most locations in one report, at most 31
+     * @param malformed fraction of lines to get wrong, 0 to 1
+     */
+    public ReportGenerator(Random random, AlertMix mix, int maxCounties, double malformed) throws IOException {
+        if (maxCounties < 1 || maxCounties > 31)
+            throw new IllegalArgumentException("maxCounties must be 1 to 31");
+        this.random = random;
+        this.mix = mix;
+        this.maxCounties = maxCounties;
+        this.malformed = malformed;
+        if (counties == null)
+            counties = loadCounties();
+    }
+
+    private static String[] loadCounties() throws IOException {
+        Properties properties = new Properties();
+        InputStream is = ReportGenerator.class.getClassLoader().getResourceAsStream("counties.properties");
+        if (is == null)
+            throw new IOException("counties.properties not found on the classpath");
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        List<String> codes = new ArrayList<String>(properties.stringPropertyNames());
+        Collections.sort(codes);
+        return codes.toArray(new String[codes.size()]);
+    }
+
+    /**
+     * @param now time of receipt
+     * @return one report line, ending in a newline
+     */
+    public String nextLine(long now) {
+        String origin = ORIGINS[random.nextInt(ORIGINS.length)];
+        String event = mix.next(random);
+        String purge = random.nextInt(10) == 0 ? DEFAULT_PURGE : PURGE[random.nextInt(PURGE.length)];
+        int kind = malformed > 0 && random.nextDouble() < malformed ? random.nextInt(MALFORMED_KINDS) : -1;
+        if (kind >= 0)
+            malformedCount++;
+        sb.setLength(0);
+        sb.append(origin).append(' ');
+        if (kind != 0)
+            sb.append(event);
+        sb.append(' ');
+        if (kind != 1)
+            appendLocations(kind == 5 ? 200 : 1 + random.nextInt(maxCounties));
+        sb.append(' ');
+        appendTime(now);
+        sb.append('+').append(kind == 4 ? "0A7" + (char)('0' + random.nextInt(10)) : purge);
+        if (kind == 2)
+            sb.setLength(random.nextInt(sb.length()));
+        else if (kind == 3)
+            addNoise();
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * @return number of malformed lines generated
+     */
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+
+    /**
+     * a line with the same fields as a previous one, for a repeated header
+     * heard after wxrd gave up on the first (it stamps the receipt time again)
+     */
+    public String repeat(String line, long now) {
+        int plus = line.lastIndexOf('+');
+        int space = line.lastIndexOf(' ', plus);
+        if (plus < 0 || space < 0 || plus - space != 16)
+            return line;
+        sb.setLength(0);
+        sb.append(line, 0, space + 1);
+        appendTime(now);
+        sb.append(line, plus, line.length());
+        return sb.toString();
+    }
+
+    private void appendLocations(int count) {
+        String[] counties = ReportGenerator.counties;
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append('-');
+            // the leading P digit (part of county) is almost always 0
+            if (random.nextInt(20) == 0)
+                sb.append((char)('1' + random.nextInt(9))).append(counties[random.nextInt(counties.length)], 1, 6);
+            else
+                sb.append(counties[random.nextInt(counties.length)]);
+        }
+    }
+
+    private void appendTime(long now) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), zone);
+        pad(sb, t.getYear(), 4);
+        pad(sb, t.getMonthValue(), 2);
+        pad(sb, t.getDayOfMonth(), 2);
+        sb.append('T');
+        pad(sb, t.getHour(), 2);
+        pad(sb, t.getMinute(), 2);
+        pad(sb, t.getSecond(), 2);
+    }
+
+    private static void pad(StringBuilder sb, int value, int width) {
+        String s = Integer.toString(value);
+        for (int i = s.length(); i < width; i++)
+            sb.append('0');
+        sb.append(s);
+    }
+
+    private void addNoise() {
+        int hits = 1 + random.nextInt(3);
+        for (int i = 0; i < hits; i++) {
+            int at = random.nextInt(sb.length());
+            char c = random.nextBoolean() ? (char)random.nextInt(0x20) : (char)(0x80 + random.nextInt(0x80));
+            // a stray newline would just split the line in two
+            sb.setCharAt(at, c == '\n' ? '\0' : c);
+        }
+    }
+}
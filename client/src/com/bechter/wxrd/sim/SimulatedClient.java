@@ -0,0 +1,97 @@
+/*
+ * SimulatedClient.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.sim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * SimulatedClient
+ *
+ *   One connection to a simulated radio. Frames are shared read-only
+ *   buffers, queued as duplicates. With a fragment size set, each write
+ *   sends at most that many bytes and the next waits for the fragment
+ *   delay, so the client sees lines arrive in pieces over a slow link.
+ *
+ *   Only used from the simulator's selector thread.
+ */
+class SimulatedClient {
+    final SocketChannel channel;
+    final String name;
+    SelectionKey key = null;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+    private long queued = 0L;
+    /** earliest time of the next fragment, 0 when not trickling */
+    long nextWrite = 0L;
+
+    SimulatedClient(SocketChannel channel) {
+        this.channel = channel;
+        this.name = String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    void offer(ByteBuffer frame) {
+        queue.addLast(frame.duplicate());
+        queued += frame.remaining();
+    }
+
+    /**
+     * @return bytes waiting to be written
+     */
+    long getQueued() {
+        return queued;
+    }
+
+    /**
+     * writes queued frames until the queue is empty or the socket is full,
+     * or one fragment when fragment is positive
+     *
+     * @param fragment most bytes to write, 0 for no limit
+     * @return bytes written
+     */
+    int flush(int fragment) throws IOException {
+        int written = 0;
+        while (!queue.isEmpty()) {
+            ByteBuffer frame = queue.peekFirst();
+            int n;
+            if (fragment > 0 && frame.remaining() > fragment - written) {
+                int limit = frame.limit();
+                frame.limit(frame.position() + fragment - written);
+                n = channel.write(frame);
+                frame.limit(limit);
+            } else
+                n = channel.write(frame);
+            written += n;
+            queued -= n;
+            if (frame.hasRemaining())
+                break;
+            queue.removeFirst();
+            if (fragment > 0 && written >= fragment)
+                break;
+        }
+        return written;
+    }
+
+    /**
+     * @return true if nothing is waiting
+     */
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
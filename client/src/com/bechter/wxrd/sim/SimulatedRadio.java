@@ -0,0 +1,51 @@
+/*
+ * SimulatedRadio.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.sim;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SimulatedRadio
+ *
+ *   One port of a WxrSimulator: the clients connected to it, its report
+ *   generator and when it next reports, repeats or pings.
+ *
+ *   Only used from the simulator's selector thread.
+ */
+class SimulatedRadio {
+    final int port;
+    final ReportGenerator generator;
+    final List<SimulatedClient> clients = new ArrayList<SimulatedClient>();
+    ServerSocketChannel server = null;
+    SelectionKey key = null;
+    /** nanoTime of the next burst */
+    long nextReport;
+    long nextPing;
+    /** the header being repeated and how many times it is still to be sent */
+    String repeatLine = null;
+    int repeatsLeft = 0;
+    long nextRepeat = 0L;
+    long reports = 0L;
+
+    SimulatedRadio(int port, ReportGenerator generator) {
+        this.port = port;
+        this.generator = generator;
+    }
+}
@@ -0,0 +1,589 @@
+/*
+ * WxrSimulator.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.sim;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * WxrSimulator
+ *
+ *   Stands in for any number of wxrd daemons, without a radio, for load and
+ *   soak testing clients. Each simulated radio listens on its own port,
+ *   counting up from the first, and speaks what wxrd.c speaks: the two
+ *   notice[] banner lines on connect, "*" every PING_INTERVAL seconds and
+ *   one line per report in parse_message() format (see ReportGenerator).
+ *
+ *   Reports are generated from an AlertMix at a fixed rate per radio, in
+ *   bursts of one or more lines. Each header can be sent more than once,
+ *   the way a radio that hears all three SAME headers can report them, and
+ *   a fraction of lines can be malformed. A fragment size makes every write
+ *   short and spaced out, so clients get lines in pieces as on a slow link.
+ *
+ *   Unlike wxrd, which blocks on a slow client, the simulator never waits:
+ *   everything runs on one selector thread and a client that lets too much
+ *   build up is dropped. There is no five client limit either.
+ *
+ *   command line options:
+ *   -h | --help     : print this message
+ *   -p | --port     : port of the first radio (default is 9317)
+ *   -r | --radios   : number of radios, on consecutive ports (default is 1)
+ *   -a | --rate     : reports per second from each radio, 0 for pings only (default is 1)
+ *   -b | --burst    : reports sent back to back each time (default is 1)
+ *   -m | --mix      : event codes as CODE:weight,... or "all" (default is a severe weather day)
+ *   -k | --counties : most counties in one report, up to 31 (default is 8)
+ *   -e | --malformed : fraction of lines to get wrong, 0 to 1 (default is 0)
+ *   -3 | --repeats  : times each header is sent, 3 for the SAME triple (default is 1)
+ *   -g | --repeatgap : milliseconds between repeats (default is 1000)
+ *   -f | --fragment : most bytes per write, 0 for whole lines (default is 0)
+ *   -d | --fragmentdelay : milliseconds between fragments (default is 50)
+ *   -i | --ping     : seconds between keepalive pings, 0 for none (default is 10)
+ *   -c | --count    : reports per radio before it falls silent, 0 for no limit (default is 0)
+ *   -q | --queue    : bytes held for a slow client before it is dropped (default is 1048576)
+ *   -s | --seed     : seed for a repeatable run (default is random)
+ */
+public class WxrSimulator implements Runnable {
+    public static final String[] NOTICE = {
+        "WXRD v0.2 - (C) 2006, bechter.com\n",
+        "  All rights reserved.\n"
+    };
+    public static final int DEFAULT_PORT = 9317;
+    public static final int PING_INTERVAL = 10;
+    private static final long STATS_INTERVAL = 10000000000L;
+    /** how far the schedule may fall behind before it is reset rather than caught up */
+    private static final long MAX_LAG = 1000000000L;
+    private static final ByteBuffer BANNER_FRAME = frame(NOTICE[0] + NOTICE[1]);
+    private static final ByteBuffer PING_FRAME = frame("*\n");
+
+    private final Logger logger = Logger.getLogger(WxrSimulator.class);
+    private final List<SimulatedRadio> radios = new ArrayList<SimulatedRadio>();
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+    private int port = DEFAULT_PORT;
+    private int radioCount = 1;
+    private double rate = 1.0;
+    private int burst = 1;
+    private AlertMix mix = AlertMix.parse(AlertMix.DEFAULT_MIX);
+    private int maxCounties = 8;
+    private double malformed = 0.0;
+    private int repeats = 1;
+    private long repeatGap = 1000L;
+    private int fragment = 0;
+    private long fragmentDelay = 50L;
+    private int pingInterval = PING_INTERVAL;
+    private long count = 0L;
+    private long maxQueued = 1024L * 1024L;
+    private Long seed = null;
+    private Selector selector = null;
+    private long dropped = 0L;
+    private volatile boolean running = false;
+
+    /**
+     * @return a read-only buffer holding the ASCII bytes of text
+     */
+    private static ByteBuffer frame(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1)).asReadOnlyBuffer();
+    }
+
+    /**
+     * serves the simulated radios until stop() is called
+     */
+    public void run() {
+        long interval = rate > 0 ? (long)(burst * 1e9 / rate) : 0L;
+        try {
+            selector = Selector.open();
+            Random seeds = seed != null ? new Random(seed.longValue()) : new Random();
+            long now = System.nanoTime();
+            for (int i = 0; i < radioCount; i++) {
+                SimulatedRadio radio = new SimulatedRadio(port + i,
+                        new ReportGenerator(new Random(seeds.nextLong()), mix, maxCounties, malformed));
+                radios.add(radio);
+                radio.server = ServerSocketChannel.open();
+                radio.server.configureBlocking(false);
+                radio.server.socket().setReuseAddress(true);
+                radio.server.socket().bind(new InetSocketAddress(radio.port), 128);
+                radio.key = radio.server.register(selector, SelectionKey.OP_ACCEPT, radio);
+                // spread the radios over one interval so they do not all fire together
+                radio.nextReport = now + (interval > 0 ? (long)(seeds.nextDouble() * interval) : 0L);
+                radio.nextPing = now + pingInterval * 1000000000L;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to open simulator ports", e);
+            closeAll();
+            return;
+        }
+        logger.info("Simulating " + radioCount + " radio(s) on ports " + port + "-" + (port + radioCount - 1)
+                + " at " + rate + " report(s)/s each, mix " + mix);
+        running = true;
+        long nextStats = System.nanoTime() + STATS_INTERVAL;
+        long lastReports = 0L;
+        while (running) {
+            long now = System.nanoTime();
+            long wake = now + STATS_INTERVAL;
+            for (SimulatedRadio radio : radios) {
+                if (interval > 0) {
+                    if (now - radio.nextReport > MAX_LAG) {
+                        logger.warn("Radio " + radio.port + " fell " + (now - radio.nextReport) / 1000000L
+                                + "ms behind schedule, skipping ahead");
+                        radio.nextReport = now;
+                    }
+                    while (radio.nextReport <= now && (count == 0 || radio.reports < count)) {
+                        for (int b = 0; b < burst && (count == 0 || radio.reports < count); b++)
+                            report(radio);
+                        radio.nextReport += interval;
+                    }
+                    if (count == 0 || radio.reports < count)
+                        wake = Math.min(wake, radio.nextReport);
+                }
+                if (radio.repeatsLeft > 0) {
+                    if (radio.nextRepeat <= now) {
+                        String line = radio.generator.repeat(radio.repeatLine, System.currentTimeMillis());
+                        broadcast(radio, frame(line));
+                        radio.repeatsLeft--;
+                        radio.nextRepeat = now + repeatGap * 1000000L;
+                    }
+                    if (radio.repeatsLeft > 0)
+                        wake = Math.min(wake, radio.nextRepeat);
+                }
+                if (pingInterval > 0) {
+                    if (radio.nextPing <= now) {
+                        broadcast(radio, PING_FRAME);
+                        radio.nextPing = now + pingInterval * 1000000000L;
+                    }
+                    wake = Math.min(wake, radio.nextPing);
+                }
+                if (fragment > 0)
+                    wake = Math.min(wake, trickle(radio, now));
+            }
+            if (now >= nextStats) {
+                long reports = 0L;
+                long bad = 0L;
+                int clients = 0;
+                for (SimulatedRadio radio : radios) {
+                    reports += radio.reports;
+                    bad += radio.generator.getMalformedCount();
+                    clients += radio.clients.size();
+                }
+                logger.info(reports + " reports (" + (reports - lastReports) * 1000000000L / STATS_INTERVAL
+                        + "/s), " + bad + " malformed, " + clients + " client(s), " + dropped + " dropped");
+                lastReports = reports;
+                nextStats = now + STATS_INTERVAL;
+            }
+            wake = Math.min(wake, nextStats);
+            try {
+                long timeout = (wake - System.nanoTime()) / 1000000L;
+                if (timeout > 0)
+                    selector.select(timeout);
+                else
+                    selector.selectNow();
+            } catch (IOException e) {
+                logger.error("select failed", e);
+                break;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid())
+                    continue;
+                if (key.channel() instanceof ServerSocketChannel)
+                    accept((SimulatedRadio)key.attachment());
+                else
+                    service(key);
+            }
+        }
+        closeAll();
+    }
+
+    /**
+     * asks the simulator thread to close every connection and return
+     */
+    public void stop() {
+        running = false;
+        Selector s = selector;
+        if (s != null)
+            s.wakeup();
+    }
+
+    private void report(SimulatedRadio radio) {
+        String line = radio.generator.nextLine(System.currentTimeMillis());
+        radio.reports++;
+        if (logger.isDebugEnabled())
+            logger.debug(radio.port + ": " + line.trim());
+        broadcast(radio, frame(line));
+        if (repeats > 1) {
+            radio.repeatLine = line;
+            radio.repeatsLeft = repeats - 1;
+            radio.nextRepeat = System.nanoTime() + repeatGap * 1000000L;
+        }
+    }
+
+    private void accept(SimulatedRadio radio) {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = radio.server.accept();
+            } catch (IOException e) {
+                logger.warn("accept failed: " + e);
+                return;
+            }
+            if (channel == null)
+                return;
+            SimulatedClient c = new SimulatedClient(channel);
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                c.key = channel.register(selector, SelectionKey.OP_READ, new Object[] { radio, c });
+            } catch (IOException e) {
+                drop(radio, c, e.toString());
+                continue;
+            }
+            radio.clients.add(c);
+            if (logger.isDebugEnabled())
+                logger.debug("Client " + c.name + " connected to radio " + radio.port);
+            send(radio, c, BANNER_FRAME);
+        }
+    }
+
+    private void service(SelectionKey key) {
+        Object[] attachment = (Object[])key.attachment();
+        SimulatedRadio radio = (SimulatedRadio)attachment[0];
+        SimulatedClient c = (SimulatedClient)attachment[1];
+        try {
+            if (key.isReadable()) {
+                // clients send nothing, reading notices when they go away
+                discard.clear();
+                if (c.channel.read(discard) < 0) {
+                    drop(radio, c, null);
+                    return;
+                }
+            }
+            if (key.isValid() && key.isWritable() && fragment == 0)
+                flush(c);
+        } catch (IOException e) {
+            drop(radio, c, e.toString());
+        }
+    }
+
+    private void broadcast(SimulatedRadio radio, ByteBuffer frame) {
+        // iterate backwards, send() may drop the client
+        for (int i = radio.clients.size() - 1; i >= 0; i--)
+            if (i < radio.clients.size())
+                send(radio, radio.clients.get(i), frame);
+    }
+
+    private void send(SimulatedRadio radio, SimulatedClient c, ByteBuffer frame) {
+        c.offer(frame);
+        if (c.getQueued() > maxQueued) {
+            dropped++;
+            drop(radio, c, "too slow, " + c.getQueued() + " bytes behind");
+            return;
+        }
+        try {
+            if (fragment == 0)
+                flush(c);
+            else if (c.nextWrite == 0L) {
+                c.flush(fragment);
+                c.nextWrite = System.nanoTime() + fragmentDelay * 1000000L;
+            }
+        } catch (IOException e) {
+            drop(radio, c, e.toString());
+        }
+    }
+
+    /**
+     * writes what the socket takes and asks for OP_WRITE only while
+     * something is left
+     */
+    private void flush(SimulatedClient c) throws IOException {
+        c.flush(0);
+        int ops = c.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (c.key.interestOps() != ops)
+            c.key.interestOps(ops);
+    }
+
+    /**
+     * writes the next fragment to each client that is due one
+     *
+     * @return when the next fragment is due
+     */
+    private long trickle(SimulatedRadio radio, long now) {
+        long wake = Long.MAX_VALUE;
+        for (int i = radio.clients.size() - 1; i >= 0; i--) {
+            if (i >= radio.clients.size())
+                continue;
+            SimulatedClient c = radio.clients.get(i);
+            if (c.nextWrite == 0L)
+                continue;
+            if (c.nextWrite <= now) {
+                if (c.isEmpty()) {
+                    c.nextWrite = 0L;
+                    continue;
+                }
+                try {
+                    c.flush(fragment);
+                } catch (IOException e) {
+                    drop(radio, c, e.toString());
+                    continue;
+                }
+                c.nextWrite = now + fragmentDelay * 1000000L;
+            }
+            wake = Math.min(wake, c.nextWrite);
+        }
+        return wake;
+    }
+
+    private void drop(SimulatedRadio radio, SimulatedClient c, String reason) {
+        if (reason != null)
+            logger.warn("Dropping client " + c.name + " of radio " + radio.port + ": " + reason);
+        else if (logger.isDebugEnabled())
+            logger.debug("Client " + c.name + " of radio " + radio.port + " disconnected");
+        if (c.key != null)
+            c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        int i = radio.clients.indexOf(c);
+        if (i >= 0) {
+            SimulatedClient last = radio.clients.remove(radio.clients.size() - 1);
+            if (last != c)
+                radio.clients.set(i, last);
+        }
+    }
+
+    private void closeAll() {
+        for (SimulatedRadio radio : radios) {
+            for (SimulatedClient c : new ArrayList<SimulatedClient>(radio.clients))
+                drop(radio, c, null);
+            try {
+                if (radio.server != null)
+                    radio.server.close();
+            } catch (IOException e) {
+                logger.warn(e);
+            }
+        }
+        radios.clear();
+        try {
+            if (selector != null)
+                selector.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+    }
+
+    /**
+     * @param port port of the first radio
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param radios number of radios, on consecutive ports
+     */
+    public void setRadioCount(int radios) {
+        if (radios < 1)
+            throw new IllegalArgumentException("at least one radio is required");
+        this.radioCount = radios;
+    }
+
+    /**
+     * @param rate reports per second from each radio, 0 for pings only
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @param burst reports sent back to back each time
+     */
+    public void setBurst(int burst) {
+        if (burst < 1)
+            throw new IllegalArgumentException("burst must be positive");
+        this.burst = burst;
+    }
+
+    /**
+     * @param mix the event codes to report
+     */
+    public void setMix(AlertMix mix) {
+        this.mix = mix;
+    }
+
+    /**
+     * @param maxCounties most counties in one report, up to 31
+     */
+    public void setMaxCounties(int maxCounties) {
+        this.maxCounties = maxCounties;
+    }
+
+    /**
+     * @param malformed fraction of lines to get wrong, 0 to 1
+     */
+    public void setMalformed(double malformed) {
+        this.malformed = malformed;
+    }
+
+    /**
+     * @param repeats times each header is sent
+     * @param gap milliseconds between repeats
+     */
+    public void setRepeats(int repeats, long gap) {
+        this.repeats = repeats;
+        this.repeatGap = gap;
+    }
+
+    /**
+     * @param fragment most bytes per write, 0 for whole lines
+     * @param delay milliseconds between fragments
+     */
+    public void setFragment(int fragment, long delay) {
+        this.fragment = fragment;
+        this.fragmentDelay = delay;
+    }
+
+    /**
+     * @param seconds between keepalive pings, 0 for none
+     */
+    public void setPingInterval(int seconds) {
+        this.pingInterval = seconds;
+    }
+
+    /**
+     * @param count reports per radio before it falls silent, 0 for no limit
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * @param maxQueued bytes held for a slow client before it is dropped
+     */
+    public void setMaxQueued(long maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * @param seed seed for a repeatable run, null for a random one
+     */
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * usage()
+     *
+     *   displays the usage information
+     */
+    private static void usage() {
+        System.err.println("WxrSimulator - serve simulated wxrd report streams for load and soak tests.");
+        System.err.println("usage:");
+        System.err.println("    -h | --help     : print this message");
+        System.err.println("    -p | --port     : port of the first radio (default is " + DEFAULT_PORT + ")");
+        System.err.println("    -r | --radios   : number of radios, on consecutive ports (default is 1)");
+        System.err.println("    -a | --rate     : reports per second from each radio, 0 for pings only (default is 1)");
+        System.err.println("    -b | --burst    : reports sent back to back each time (default is 1)");
+        System.err.println("    -m | --mix      : event codes as CODE:weight,... or \"all\" (default is " + AlertMix.DEFAULT_MIX + ")");
+        System.err.println("    -k | --counties : most counties in one report, up to 31 (default is 8)");
+        System.err.println("    -e | --malformed : fraction of lines to get wrong, 0 to 1 (default is 0)");
+        System.err.println("    -3 | --repeats  : times each header is sent, 3 for the SAME triple (default is 1)");
+        System.err.println("    -g | --repeatgap : milliseconds between repeats (default is 1000)");
+        System.err.println("    -f | --fragment : most bytes per write, 0 for whole lines (default is 0)");
+        System.err.println("    -d | --fragmentdelay : milliseconds between fragments (default is 50)");
+        System.err.println("    -i | --ping     : seconds between keepalive pings, 0 for none (default is " + PING_INTERVAL + ")");
+        System.err.println("    -c | --count    : reports per radio before it falls silent, 0 for no limit (default is 0)");
+        System.err.println("    -q | --queue    : bytes held for a slow client before it is dropped (default is 1048576)");
+        System.err.println("    -s | --seed     : seed for a repeatable run (default is random)");
+    }
+
+    /**
+     * main()
+     *   - application entry point
+     *
+     * @param args the array of command line arguments
+     */
+    public static void main(String[] args) {
+        WxrSimulator simulator = new WxrSimulator();
+        int repeats = 1;
+        long repeatGap = 1000L;
+        int fragment = 0;
+        long fragmentDelay = 50L;
+        int i = 0;
+        try {
+            while (i < args.length) {
+                String arg = args[i];
+                if ("-p".equals(arg) || "--port".equals(arg))
+                    simulator.setPort(Integer.parseInt(args[++i]));
+                else if ("-r".equals(arg) || "--radios".equals(arg))
+                    simulator.setRadioCount(Integer.parseInt(args[++i]));
+                else if ("-a".equals(arg) || "--rate".equals(arg))
+                    simulator.setRate(Double.parseDouble(args[++i]));
+                else if ("-b".equals(arg) || "--burst".equals(arg))
+                    simulator.setBurst(Integer.parseInt(args[++i]));
+                else if ("-m".equals(arg) || "--mix".equals(arg)) {
+                    String mix = args[++i];
+                    simulator.setMix("all".equals(mix) ? AlertMix.uniform() : AlertMix.parse(mix));
+                } else if ("-k".equals(arg) || "--counties".equals(arg))
+                    simulator.setMaxCounties(Integer.parseInt(args[++i]));
+                else if ("-e".equals(arg) || "--malformed".equals(arg))
+                    simulator.setMalformed(Double.parseDouble(args[++i]));
+                else if ("-3".equals(arg) || "--repeats".equals(arg))
+                    repeats = Integer.parseInt(args[++i]);
+                else if ("-g".equals(arg) || "--repeatgap".equals(arg))
+                    repeatGap = Long.parseLong(args[++i]);
+                else if ("-f".equals(arg) || "--fragment".equals(arg))
+                    fragment = Integer.parseInt(args[++i]);
+                else if ("-d".equals(arg) || "--fragmentdelay".equals(arg))
+                    fragmentDelay = Long.parseLong(args[++i]);
+                else if ("-i".equals(arg) || "--ping".equals(arg))
+                    simulator.setPingInterval(Integer.parseInt(args[++i]));
+                else if ("-c".equals(arg) || "--count".equals(arg))
+                    simulator.setCount(Long.parseLong(args[++i]));
+                else if ("-q".equals(arg) || "--queue".equals(arg))
+                    simulator.setMaxQueued(Long.parseLong(args[++i]));
+                else if ("-s".equals(arg) || "--seed".equals(arg))
+                    simulator.setSeed(Long.valueOf(args[++i]));
+                else if ("-h".equals(arg) || "--help".equals(arg)) {
+                    usage();
+                    System.exit(1);
+                } else
+                    throw new Exception("Invalid argument " + arg);
+                i++;
+            }
+            simulator.setRepeats(repeats, repeatGap);
+            simulator.setFragment(fragment, fragmentDelay);
+        } catch (Exception e) {
+            System.err.println(e.toString());
+            usage();
+            System.exit(2);
+        }
+        simulator.run();
+    }
+}
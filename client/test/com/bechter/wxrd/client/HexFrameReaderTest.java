@@ -0,0 +1,107 @@
+/*
+ * HexFrameReaderTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * HexFrameReaderTest
+ *
+ *   Replays wxrd-debug-capture.txt, the output of wxrd -d while it heard two
+ *   messages, and checks that they decode to the reports wxrd sent
+ */
+public class HexFrameReaderTest {
+    private static final String CAPTURE = "wxrd-debug-capture.txt";
+    private static final String SENDING = "Sending report '";
+
+    private static BufferedReader capture() {
+        InputStream in = HexFrameReaderTest.class.getResourceAsStream(CAPTURE);
+        assertTrue(CAPTURE, in != null);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return the line without its start time, which wxrd took from its
+     *         clock and the decoder takes from ours
+     */
+    private static String untimed(String line) {
+        return line.replaceFirst(" \\d{8}T\\d{6}\\+", " +");
+    }
+
+    @Test
+    public void decodesDebugCaptureAsWxrdDid() throws IOException {
+        List<String> sent = new ArrayList<String>();
+        BufferedReader in = capture();
+        try {
+            String line;
+            while ((line = in.readLine()) != null)
+                if (line.startsWith(SENDING))
+                    sent.add(untimed(line.substring(SENDING.length())));
+        } finally {
+            in.close();
+        }
+        assertEquals(2, sent.size());
+        assertEquals("WXR TOR 039153-039103 +0600", sent.get(0));
+        assertEquals("EAS RWT 039153 +0015", sent.get(1));
+
+        final List<String> decoded = new ArrayList<String>();
+        SameFrameDecoder decoder = new SameFrameDecoder(new WxrEventListener() {
+            public void eventReceived(WxrEvent event) {
+                decoded.add(untimed(SameFrameDecoder.toLine(event)));
+            }
+        });
+        HexFrameReader reader = new HexFrameReader(capture());
+        decoder.decode(reader);
+        assertTrue(reader.isDebugCapture());
+        assertEquals(sent, decoded);
+        assertEquals(0, decoder.getInvalidCount());
+    }
+
+    @Test
+    public void readsPlainCapture() throws IOException {
+        HexFrameReader reader = new HexFrameReader(new StringReader(
+                "ab 04 00 57 58 52 00 6a \"...WXR.j\"\n"
+                + "not a frame\n"
+                + "@1164916629000 AB 05 00 54 4F 52 00 6A\n"
+                + "ab 05 00\n"));
+        byte[] frame = new byte[SameFrameDecoder.FRAME_SIZE];
+        assertTrue(reader.next(frame));
+        assertArrayEquals(new byte[] { (byte)0xab, 4, 0, 'W', 'X', 'R', 0, 0x6a }, frame);
+        assertEquals(-1L, reader.getTime());
+        assertEquals(1L, reader.getLineNumber());
+        assertTrue(reader.next(frame));
+        assertArrayEquals(new byte[] { (byte)0xab, 5, 0, 'T', 'O', 'R', 0, 0x6a }, frame);
+        assertEquals(1164916629000L, reader.getTime());
+        assertEquals(3L, reader.getLineNumber());
+        assertFalse(reader.next(frame));
+        assertFalse(reader.isDebugCapture());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * WxrEventCodecTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+
+/**
+ * WxrEventCodecTest
+ *
+ *   Round trips through both codec forms, and the bad input decode() must
+ *   reject
+ */
+public class WxrEventCodecTest {
+    private final ByteBuffer buffer = ByteBuffer.allocate(WxrEventCodec.MAX_SIZE);
+
+    private static WxrReport parse(String text) {
+        byte[] line = text.getBytes(StandardCharsets.US_ASCII);
+        WxrReport report = new WxrReport();
+        assertTrue(text, new WxrReportParser().parse(line, 0, line.length, report));
+        return report;
+    }
+
+    /**
+     * encodes the line as a WxrReport and as a WxrEvent and checks that
+     * both decode to what went in, using every byte written
+     */
+    private void assertRoundTrip(String text) throws InvalidEventException {
+        WxrReport report = parse(text);
+        buffer.clear();
+        WxrEventCodec.encode(report, buffer);
+        buffer.flip();
+        WxrReport decoded = new WxrReport();
+        WxrEventCodec.decode(buffer, decoded);
+        assertFalse(text, buffer.hasRemaining());
+        assertEquals(text, report.getOrigin(), decoded.getOrigin());
+        assertEquals(text, report.getEventCode(), decoded.getEventCode());
+        assertEquals(text, report.getEventTime(), decoded.getEventTime());
+        assertEquals(text, report.getPurgeMinutes(), decoded.getPurgeMinutes());
+        assertEquals(text, report.getLocationCount(), decoded.getLocationCount());
+        for (int i = 0; i < report.getLocationCount(); i++)
+            assertEquals(text, report.getLocation(i), decoded.getLocation(i));
+
+        WxrEvent event = new WxrEvent();
+        event.parse(report);
+        assertEventRoundTrip(text, event);
+    }
+
+    private void assertEventRoundTrip(String text, WxrEvent event) throws InvalidEventException {
+        buffer.clear();
+        WxrEventCodec.encode(event, buffer);
+        buffer.flip();
+        WxrEvent copy = WxrEventCodec.decode(buffer);
+        assertFalse(text, buffer.hasRemaining());
+        assertEquals(text, event, copy);
+        assertEquals(text, event.getOrigin(), copy.getOrigin());
+        assertEquals(text, event.getEventType(), copy.getEventType());
+        assertEquals(text, event.getLocations(), copy.getLocations());
+        assertEquals(text, event.getEventTime(), copy.getEventTime());
+        assertEquals(text, event.getExpiresTime(), copy.getExpiresTime());
+    }
+
+    @Test
+    public void roundTripsOneToThirtyOneLocations() throws InvalidEventException {
+        StringBuilder locations = new StringBuilder();
+        for (int count = 1; count <= WxrReport.MAX_LOCATIONS; count++) {
+            // codes that go up and down, so differences are both signs
+            int code = count % 10 * 100000 + (count * 37 % 56 + 1) * 1000 + count * 71 % 1000;
+            if (count > 1)
+                locations.append('-');
+            locations.append(String.format("%06d", code));
+            assertRoundTrip("WXR TOR " + locations + " 20261017T235435+0100");
+        }
+    }
+
+    @Test
+    public void roundTripsEveryCatalogCode() throws InvalidEventException {
+        for (EventCode code : EventCode.values()) {
+            if (code != EventCode.UNKNOWN)
+                assertRoundTrip("EAS " + code.name() + " 000000 20261017T235435+9959");
+        }
+    }
+
+    @Test
+    public void roundTripsUnknownOriginAndCode() throws InvalidEventException {
+        assertRoundTrip("ZZZ QQQ 139035-039093-001001 19991231T000000+0000");
+        assertRoundTrip("CIV QQQ 039153 20061130T145709+0015");
+    }
+
+    @Test
+    public void roundTripsNegativePurge() throws InvalidEventException {
+        WxrEvent event = new WxrEvent();
+        event.parse(parse("WXR TOR 039103-039153 20061130T145709+0600"));
+        event.setExpiresTime(new Date(event.getEventTime().getTime() - 3600000L));
+        assertEventRoundTrip("negative purge", event);
+    }
+
+    @Test
+    public void rejectsTruncatedEvent() {
+        WxrReport report = parse("WXR TOR 039103-039153-139035 20061130T145709+0600");
+        buffer.clear();
+        WxrEventCodec.encode(report, buffer);
+        int length = buffer.position();
+        for (int n = 0; n < length; n++) {
+            buffer.position(0).limit(n);
+            try {
+                WxrEventCodec.decode(buffer, new WxrReport());
+                fail("decoded " + n + " of " + length + " bytes");
+            } catch (InvalidEventException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnknownVersion() {
+        buffer.clear();
+        WxrEventCodec.encode(parse("WXR TOR 039153 20061130T145709+0600"), buffer);
+        buffer.flip();
+        buffer.put(0, (byte)(WxrEventCodec.VERSION + 1));
+        try {
+            WxrEventCodec.decode(buffer);
+            fail("decoded version " + (WxrEventCodec.VERSION + 1));
+        } catch (InvalidEventException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsUnknownOriginIndex() {
+        buffer.clear();
+        WxrEventCodec.encode(parse("WXR TOR 039153 20061130T145709+0600"), buffer);
+        buffer.flip();
+        buffer.put(1, (byte)100);
+        try {
+            WxrEventCodec.decode(buffer);
+            fail("decoded origin index 100");
+        } catch (InvalidEventException e) {
+            // expected
+        }
+    }
+}
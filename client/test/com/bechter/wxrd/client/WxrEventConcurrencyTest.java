@@ -0,0 +1,126 @@
+/*
+ * WxrEventConcurrencyTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+/**
+ * WxrEventConcurrencyTest
+ *
+ *   parses, renders and checks events from many threads at once, on shared
+ *   and on separate instances, and compares every result with the one a
+ *   single thread gets. The county table is dropped before every round, so
+ *   its lazy loading and publication are raced as well.
+ */
+public class WxrEventConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+    private static final String[] CODES = { "TOR", "SVR", "FFW", "SVA", "RWT", "SPS", "ZZZ" };
+    private static final String[] LOCATIONS = {
+        "039153", "039103-039153", "139035-039093-039055", "048201", "039000", "999999", "018097-018057-018059-018063"
+    };
+
+    private final List<String> lines = new ArrayList<String>();
+    private final List<WxrEvent> shared = new ArrayList<WxrEvent>();
+    private final List<String> expected = new ArrayList<String>();
+
+    private void prepare() throws InvalidEventException {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss").withZone(ZoneId.systemDefault());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 70; i++) {
+            // every other event is long expired, the rest run for a day
+            long issued = i % 2 == 0 ? now - 3600000L : now - 30L * 24 * 3600000L + i * 60000L;
+            lines.add("WXR " + CODES[i % CODES.length] + " " + LOCATIONS[i % LOCATIONS.length] + " "
+                    + format.format(Instant.ofEpochMilli(issued)) + "+2400");
+        }
+        for (String line : lines) {
+            WxrEvent event = new WxrEvent();
+            event.parse(line);
+            shared.add(event);
+            expected.add(describe(event));
+        }
+    }
+
+    private static String describe(WxrEvent event) throws InvalidEventException {
+        return event.toString() + "|" + event.getLocationDescription() + "|" + event.getEventTypeDescription()
+                + "|" + event.isActive() + "|" + event.getEventTime().getTime() + "|" + event.getExpiresTime().getTime();
+    }
+
+    @Test
+    public void sharedAndSeparateInstancesMatchSingleThread() throws Exception {
+        prepare();
+        // every round starts with no county table, so the threads race to
+        // load and publish it on their first lookups
+        final CyclicBarrier start = new CyclicBarrier(THREADS, new Runnable() {
+            public void run() {
+                CountyTable.setDefault(null);
+            }
+        });
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            start.await();
+                            for (int j = 0; j < lines.size(); j++) {
+                                int i = (j + offset) % lines.size();
+                                String got = describe(shared.get(i));
+                                if (!expected.get(i).equals(got))
+                                    failures.add("shared " + lines.get(i) + ": " + got);
+                                WxrEvent own = new WxrEvent();
+                                own.parse(lines.get(i));
+                                got = describe(own);
+                                if (!expected.get(i).equals(got))
+                                    failures.add("parsed " + lines.get(i) + ": " + got);
+                            }
+                        }
+                    } catch (Exception e) {
+                        failures.add(e.toString());
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "event-" + t);
+            thread.start();
+        }
+        done.await();
+        assertTrue(failures.size() + " mismatches, first: " + (failures.isEmpty() ? "" : failures.get(0)),
+                failures.isEmpty());
+    }
+
+    @Test
+    public void activeFollowsPurgeTime() throws Exception {
+        prepare();
+        for (int i = 0; i < shared.size(); i++)
+            assertEquals(lines.get(i), i % 2 == 0, shared.get(i).isActive());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * BoundaryConverterTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * BoundaryConverterTest
+ *
+ *   Converts a small shapefile written here, in the layout of the Census
+ *   cb_*_us_county_* files, and looks points up in the result
+ */
+public class BoundaryConverterTest {
+    /** 39153: one square, its south edge split into 100 steps */
+    private static final double[][] SUMMIT = { square(-82, 41, -81, 42, 100) };
+    /** 39035: a square with a square hole */
+    private static final double[][] CUYAHOGA = { square(-80, 41, -79, 42, 1), square(-79.6, 41.4, -79.4, 41.6, 1) };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * a closed ring of longitude, latitude pairs, clockwise as shapefiles
+     * have outer rings
+     */
+    private static double[] square(double west, double south, double east, double north, int steps) {
+        List<Double> xy = new ArrayList<Double>();
+        xy.addAll(Arrays.asList(west, south, west, north, east, north));
+        for (int i = 0; i < steps; i++)
+            xy.addAll(Arrays.asList(east - (east - west) * i / steps, south));
+        xy.addAll(Arrays.asList(west, south));
+        double[] ring = new double[xy.size()];
+        for (int i = 0; i < ring.length; i++)
+            ring[i] = xy.get(i);
+        return ring;
+    }
+
+    private static int length(String field) {
+        return Integer.parseInt(field.substring(field.indexOf(':') + 1));
+    }
+
+    /**
+     * writes name.shp and name.dbf. Fields are NAME:length; each row is one
+     * record, a first value starting with * marking it deleted. Each shape
+     * is an array of rings, null for a null shape.
+     */
+    private File write(String name, String[] fields, String[][] rows, double[][]... shapes) throws IOException {
+        ByteBuffer shp = ByteBuffer.allocate(1 << 16);
+        shp.putInt(0, 9994);
+        shp.order(ByteOrder.LITTLE_ENDIAN).putInt(28, 1000).putInt(32, 5);
+        int position = 100;
+        for (int r = 0; r < shapes.length; r++) {
+            int start = position + 8;
+            shp.order(ByteOrder.LITTLE_ENDIAN);
+            if (shapes[r] == null) {
+                shp.putInt(start, 0);
+                position = start + 4;
+            } else {
+                int points = 0;
+                for (double[] ring : shapes[r])
+                    points += ring.length / 2;
+                shp.putInt(start, 5);
+                shp.putInt(start + 36, shapes[r].length);
+                shp.putInt(start + 40, points);
+                int xy = start + 44 + shapes[r].length * 4;
+                int first = 0;
+                for (int p = 0; p < shapes[r].length; p++) {
+                    shp.putInt(start + 44 + p * 4, first);
+                    for (int i = 0; i < shapes[r][p].length; i++)
+                        shp.putDouble(xy + first * 16 + i * 8, shapes[r][p][i]);
+                    first += shapes[r][p].length / 2;
+                }
+                position = xy + points * 16;
+            }
+            shp.order(ByteOrder.BIG_ENDIAN).putInt(start - 8, r + 1).putInt(start - 4, (position - start) / 2);
+        }
+        shp.order(ByteOrder.BIG_ENDIAN).putInt(24, position / 2);
+        File file = new File(folder.getRoot(), name + ".shp");
+        Files.write(file.toPath(), Arrays.copyOf(shp.array(), position));
+
+        int recordLength = 1;
+        for (String field : fields)
+            recordLength += length(field);
+        int headerLength = 32 + fields.length * 32 + 1;
+        ByteBuffer dbf = ByteBuffer.allocate(headerLength + rows.length * recordLength).order(ByteOrder.LITTLE_ENDIAN);
+        dbf.put(0, (byte)3).putInt(4, rows.length).putShort(8, (short)headerLength).putShort(10, (short)recordLength);
+        for (int f = 0; f < fields.length; f++) {
+            dbf.position(32 + f * 32);
+            dbf.put(fields[f].substring(0, fields[f].indexOf(':')).getBytes(StandardCharsets.US_ASCII));
+            dbf.put(32 + f * 32 + 11, (byte)'C');
+            dbf.put(32 + f * 32 + 16, (byte)length(fields[f]));
+        }
+        dbf.put(headerLength - 1, (byte)0x0d);
+        dbf.position(headerLength);
+        for (String[] row : rows) {
+            dbf.put((byte)(row[0].startsWith("*") ? '*' : ' '));
+            for (int f = 0; f < fields.length; f++) {
+                StringBuilder value = new StringBuilder(row[f].replace("*", ""));
+                while (value.length() < length(fields[f]))
+                    value.append(' ');
+                dbf.put(value.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        Files.write(new File(folder.getRoot(), name + ".dbf").toPath(), dbf.array());
+        return file;
+    }
+
+    private File counties() throws IOException {
+        return write("cb_test_us_county_500k", new String[] { "STATEFP:2", "COUNTYFP:3", "NAME:10" },
+                new String[][] { { "39", "153", "Summit" }, { "*39", "999", "Deleted" }, { "39", "035", "Cuyahoga" }, { "39", "001", "Adams" } },
+                SUMMIT, new double[][] { square(-90, 30, -89, 31, 1) }, CUYAHOGA, null);
+    }
+
+    private static int locate(CountyBoundaries boundaries, double latitude, double longitude) {
+        return boundaries.locate((int)Math.round(latitude * 1000000), (int)Math.round(longitude * 1000000));
+    }
+
+    private static void checkCounties(CountyBoundaries boundaries) {
+        assertEquals(2, boundaries.size());
+        assertEquals(39153, locate(boundaries, 41.5, -81.5));
+        assertEquals(39153, locate(boundaries, 41.001, -81.999));
+        assertEquals(39035, locate(boundaries, 41.5, -79.8));
+        assertEquals(-1, locate(boundaries, 41.5, -79.5));
+        assertEquals(-1, locate(boundaries, 41.5, -80.5));
+        assertEquals(-1, locate(boundaries, 30.5, -89.5));
+    }
+
+    @Test
+    public void convertsAndSimplifies() throws IOException {
+        BoundaryConverter converter = new BoundaryConverter();
+        StringWriter out = new StringWriter();
+        converter.convert(counties(), out);
+        CountyBoundaries boundaries = CountyBoundaries.read(new StringReader(out.toString()));
+        checkCounties(boundaries);
+        assertEquals(2, converter.getCountyCount());
+        assertEquals(3, converter.getRingCount());
+        assertEquals(104 + 5 + 5, converter.getPointsRead());
+        assertEquals(4 + 4 + 4, converter.getPointsWritten());
+        assertEquals(12, boundaries.getVertexCount());
+        assertTrue(out.toString(), out.toString().startsWith(
+                "039153 41.00000,-82.00000 42.00000,-82.00000 42.00000,-81.00000 41.00000,-81.00000\n"));
+    }
+
+    @Test
+    public void keepsEveryPointWithoutTolerance() throws IOException {
+        BoundaryConverter converter = new BoundaryConverter();
+        converter.setTolerance(0);
+        StringWriter out = new StringWriter();
+        converter.convert(counties(), out);
+        checkCounties(CountyBoundaries.read(new StringReader(out.toString())));
+        assertEquals(103 + 4 + 4, converter.getPointsWritten());
+    }
+
+    @Test
+    public void readsGeoidAndGzip() throws IOException {
+        File shapefile = write("geoid", new String[] { "GEOID:5" }, new String[][] { { "39153" }, { "39035" } }, SUMMIT, CUYAHOGA);
+        File gz = folder.newFile("county-boundaries.txt.gz");
+        Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(gz)), StandardCharsets.UTF_8);
+        try {
+            new BoundaryConverter().convert(shapefile, out);
+        } finally {
+            out.close();
+        }
+        InputStream is = new FileInputStream(gz);
+        try {
+            checkCounties(CountyBoundaries.load(is));
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void readsZip() throws IOException {
+        File shapefile = counties();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        for (String suffix : new String[] { ".shp", ".dbf" }) {
+            zip.putNextEntry(new ZipEntry("cb_test_us_county_500k" + suffix));
+            zip.write(Files.readAllBytes(new File(folder.getRoot(), "cb_test_us_county_500k" + suffix).toPath()));
+            zip.closeEntry();
+        }
+        zip.close();
+        BoundaryConverter converter = new BoundaryConverter();
+        StringWriter out = new StringWriter();
+        converter.convertZip(shapefile.getName(), new ByteArrayInputStream(bytes.toByteArray()), out);
+        checkCounties(CountyBoundaries.read(new StringReader(out.toString())));
+    }
+
+    @Test
+    public void rejectsTruncatedShapefile() throws IOException {
+        File shapefile = counties();
+        byte[] bytes = Files.readAllBytes(shapefile.toPath());
+        Files.write(shapefile.toPath(), Arrays.copyOf(bytes, bytes.length - 20));
+        try {
+            new BoundaryConverter().convert(shapefile, new StringWriter());
+            fail("converted a truncated shapefile");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * BundledBoundariesTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * BundledBoundariesTest
+ *
+ *   checks the county boundaries bundled by mvn package -Pboundaries
+ *   against known places. Skipped when none are bundled, except in that
+ *   profile, where missing boundaries fail.
+ */
+public class BundledBoundariesTest {
+    /** latitude, longitude and the county holding it, -1 for none */
+    private static final Object[][] PLACES = {
+        { "Akron", 41.0814, -81.5190, 39153 },
+        { "Columbus", 39.9612, -82.9988, 39049 },
+        { "Chicago", 41.8781, -87.6298, 17031 },
+        { "Los Angeles", 34.0522, -118.2437, 6037 },
+        { "Honolulu", 21.3069, -157.8583, 15003 },
+        { "Anchorage", 61.2181, -149.9003, 2020 },
+        { "Atlantic", 35.0, -70.0, -1 },
+    };
+
+    @Test
+    public void resolvesKnownPlaces() throws IOException {
+        boolean bundled = CountyBoundaries.class.getResource(CountyBoundaries.RESOURCE) != null;
+        assertTrue("-Pboundaries bundled no " + CountyBoundaries.RESOURCE, bundled || !Boolean.getBoolean("boundaries.bundled"));
+        Assume.assumeTrue(bundled);
+        CountyLocator locator = CountyLocator.getDefault();
+        assertNotNull(locator);
+        assertTrue(locator.getBoundaries().size() + " counties", locator.getBoundaries().size() > 3000);
+        for (Object[] place : PLACES) {
+            long point = CountyBoundaries.parsePoint(place[1] + "," + place[2]);
+            assertEquals((String)place[0], ((Integer)place[3]).intValue(), locator.resolve(point));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * AlertHistoryTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.history;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bechter.wxrd.client.WxrEvent;
+
+/**
+ * AlertHistoryTest
+ *
+ *   countByMonth() against select() for counties, states, and alerts that
+ *   name a county together with its whole state
+ */
+public class AlertHistoryTest {
+    private static final long START = 1577836800000L;
+    private static final long DAY = 24L * 3600 * 1000;
+    private static final String[] LOCATIONS = { "039153", "039103", "039000", "018097", "018000", "139153" };
+    private static final String[] CODES = { "TOR", "SVR", "FFW" };
+
+    private static WxrEvent event(String code, long issued, String... locations) {
+        WxrEvent event = new WxrEvent();
+        event.setOrigin("WXR");
+        event.setEventType(code);
+        event.setLocations(new ArrayList<String>(Arrays.asList(locations)));
+        event.setEventTime(new Date(issued));
+        event.setExpiresTime(new Date(issued + 3600000L));
+        return event;
+    }
+
+    @Test
+    public void countsAgreeWithSelect() {
+        Random random = new Random(7);
+        List<WxrEvent> events = new ArrayList<WxrEvent>();
+        for (int i = 0; i < 5000; i++) {
+            int count = 1 + random.nextInt(3);
+            String[] locations = new String[count];
+            for (int j = 0; j < count; j++)
+                locations[j] = LOCATIONS[random.nextInt(LOCATIONS.length)];
+            events.add(event(CODES[random.nextInt(CODES.length)], START + random.nextInt(400) * DAY / 2, locations));
+        }
+        AlertHistory history = AlertHistory.build(events);
+        long from = START + 30 * DAY;
+        long to = START + 150 * DAY;
+        for (String code : new String[] { null, "TOR" }) {
+            MonthlyCounts counts = history.countByMonth(code, from, to);
+            for (int county : new int[] { 39153, 39103, 39000, 18097, 18000, 18001, 139153 }) {
+                assertEquals(code + " " + county, history.select(county, code, from, to).length,
+                        counts.getTotal(county));
+            }
+        }
+    }
+
+    @Test
+    public void stateAndCountyInOneAlertCountOnce() {
+        List<WxrEvent> events = new ArrayList<WxrEvent>();
+        events.add(event("TOR", START + DAY, "039153", "039000"));
+        events.add(event("TOR", START + 2 * DAY, "039000"));
+        events.add(event("TOR", START + 3 * DAY, "039153"));
+        AlertHistory history = AlertHistory.build(events);
+        MonthlyCounts counts = history.countByMonth(null, START, START + 10 * DAY);
+        assertEquals(3, counts.getTotal(39153));
+        assertEquals(2, counts.getTotal(39000));
+        assertEquals(2, counts.getTotal(39001));
+        assertEquals(3, history.select(39153, null, START, START + 10 * DAY).length);
+    }
+}
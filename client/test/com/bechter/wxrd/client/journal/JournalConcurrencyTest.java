@@ -0,0 +1,113 @@
+/*
+ * JournalConcurrencyTest.java
+ *
+ *   Copyright 2011, bechter.com - All Rights Reserved
+ *
+ *      1. All files, software, schematics and designs are provided as-is with no warranty.
+ *      2. All files, software, schematics and designs are for experimental/hobby use.
+ *         Under no circumstances should any part be used for critical systems where safety,
+ *         life or property depends upon it. You are responsible for all use.
+ *      3. You are free to use, modify, derive or otherwise extend for your own non-commercial purposes provided
+ *         1. No part of this software or design may be used to cause injury or death to humans or animals.
+ *         2. Use is non-commercial.
+ *         3. Credit is given to the author (i.e. portions © bechter.com),
+ *            and provide a link to this site (http://projects.bechter.com).
+ *
+ */
+package com.bechter.wxrd.client.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JournalConcurrencyTest
+ *
+ *   replays the active segment while another thread appends to it. Every
+ *   replay must see every record appended before it started, and after a
+ *   reopen, which discards whatever fails its crc, every record must still
+ *   be there.
+ */
+public class JournalConcurrencyTest {
+    private static final int RECORDS = 20000;
+    private static final int READERS = 2;
+    private static final long START = 1577836800000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @return the lines replayed, in order
+     */
+    private static List<String> replay(Journal journal) throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        journal.replay(0, Long.MAX_VALUE, new JournalVisitor() {
+            public boolean visit(JournalRecord record) {
+                lines.add(record.getLine());
+                return true;
+            }
+        });
+        return lines;
+    }
+
+    private static void assertInOrder(List<String> lines) {
+        for (int i = 0; i < lines.size(); i++)
+            assertEquals("line " + i, lines.get(i));
+    }
+
+    @Test
+    public void appendsWhileReplaying() throws Exception {
+        File directory = folder.newFolder("journal");
+        final Journal journal = new Journal(directory, 16 * 1024 * 1024, Journal.DEFAULT_SEGMENT_MILLIS, 10L);
+        final AtomicInteger appended = new AtomicInteger();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < READERS; r++) {
+            Thread reader = new Thread("reader-" + r) {
+                public void run() {
+                    try {
+                        while (appended.get() < RECORDS) {
+                            int before = appended.get();
+                            List<String> lines = replay(journal);
+                            assertTrue(lines.size() + " replayed, " + before + " appended", lines.size() >= before);
+                            assertInOrder(lines);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] line = ("line " + i).getBytes(StandardCharsets.US_ASCII);
+            journal.appendLine(START + i, "wxrd", line, 0, line.length);
+            appended.incrementAndGet();
+        }
+        for (Thread reader : readers)
+            reader.join();
+        journal.close();
+        if (!failures.isEmpty())
+            throw new AssertionError(failures.get(0));
+
+        Journal reopened = new Journal(directory);
+        try {
+            List<String> lines = replay(reopened);
+            assertEquals(RECORDS, lines.size());
+            assertInOrder(lines);
+        } finally {
+            reopened.close();
+        }
+    }
+}